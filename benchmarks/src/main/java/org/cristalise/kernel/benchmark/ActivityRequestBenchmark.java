@@ -0,0 +1,121 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.AGENT_ROLE;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.graph.model.GraphPoint;
+import org.cristalise.kernel.lifecycle.instance.Activity;
+import org.cristalise.kernel.lifecycle.instance.CompositeActivity;
+import org.cristalise.kernel.lifecycle.instance.Workflow;
+import org.cristalise.kernel.lifecycle.instance.predefined.item.ItemPredefinedStepContainer;
+import org.cristalise.kernel.lifecycle.instance.stateMachine.StateMachine;
+import org.cristalise.kernel.lookup.AgentPath;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.lookup.RolePath;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The whole Activity.request() of Start and Complete: role check against the Lookup, state change, Event creation
+ * in the History and job pushing. The Gateway is connected to {@link MemoryOnlyLookup} and MemoryOnlyClusterStorage,
+ * and the transaction is aborted after each invocation, so the storage does not grow during the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActivityRequestBenchmark {
+
+    StateMachine machine;
+    Activity     activity;
+    AgentPath    agent;
+    ItemPath     item;
+    int          start;
+    int          complete;
+
+    @Setup
+    public void setup() throws Exception {
+        MemoryOnlyLookup lookup = new MemoryOnlyLookup();
+        KernelFixture.connect(lookup, new MemoryOnlyClusterStorage());
+
+        RolePath role = lookup.createRole(new RolePath(new RolePath(), "Benchmark", false));
+        agent = new AgentPath(UUID.randomUUID(), "", "benchmark");
+        lookup.add(agent);
+        lookup.addRole(agent, role);
+
+        item = new ItemPath(UUID.randomUUID(), "");
+        lookup.add(item);
+
+        String smXML = FileStringUtility.url2String(Gateway.getResource().getKernelResourceURL("boot/SM/Default.xml"));
+        machine = (StateMachine) Gateway.getMarshaller().unmarshall(smXML);
+        machine.validate();
+
+        activity = new Activity() {
+            @Override
+            public StateMachine getStateMachine() {
+                return machine;
+            }
+        };
+        activity.setBuiltInProperty(AGENT_ROLE, "Benchmark");
+
+        Workflow wf = new Workflow(new CompositeActivity(), new ItemPredefinedStepContainer());
+        ((CompositeActivity) wf.search("workflow/domain")).newExistingChild(activity, "Benchmark", new GraphPoint(0, 0));
+        wf.setItemPath(item);
+
+        activity.active = true;
+        start    = machine.getTransition("Start").getId();
+        complete = machine.getTransition("Complete").getId();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Gateway.close();
+    }
+
+    /**
+     * Start and Complete in one transaction, then back to the initial state for the next invocation
+     */
+    @Benchmark
+    public String startAndComplete() throws Exception {
+        Object locker = new Object();
+
+        activity.request(agent, null, item, start,    "", "", new byte[0], locker);
+        String result = activity.request(agent, null, item, complete, "", "", new byte[0], locker);
+
+        Gateway.getStorage().abort(locker);
+        activity.setState(machine.getInitialStateCode());
+        activity.active = true;
+        return result;
+    }
+}
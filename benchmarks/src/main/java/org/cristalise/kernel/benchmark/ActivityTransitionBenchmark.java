@@ -0,0 +1,112 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.AGENT_NAME;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.lifecycle.instance.Activity;
+import org.cristalise.kernel.lifecycle.instance.stateMachine.State;
+import org.cristalise.kernel.lifecycle.instance.stateMachine.StateMachine;
+import org.cristalise.kernel.lifecycle.instance.stateMachine.Transition;
+import org.cristalise.kernel.lookup.AgentPath;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The state machine part of Activity.request(): resolving the possible transitions, checking the performing
+ * role and the reservation, then moving to the target state. The Default StateMachine of the kernel is used
+ * with an Activity which has no role, so no Lookup is needed. Persisting the events and outcomes is measured
+ * by {@link StorageBenchmark}.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ActivityTransitionBenchmark {
+
+    StateMachine machine;
+    Activity     activity;
+    AgentPath    agent;
+    Transition   start;
+    Transition   complete;
+
+    @Setup
+    public void setup() throws Exception {
+        KernelFixture.init();
+
+        String smXML = FileStringUtility.url2String(Gateway.getResource().getKernelResourceURL("boot/SM/Default.xml"));
+        machine = (StateMachine) Gateway.getMarshaller().unmarshall(smXML);
+        machine.validate();
+
+        activity = new Activity() {
+            @Override
+            public StateMachine getStateMachine() {
+                return machine;
+            }
+        };
+        activity.setName("Benchmark");
+        activity.active = true;
+
+        agent    = new AgentPath(UUID.randomUUID(), "benchmark");
+        start    = machine.getTransition("Start");
+        complete = machine.getTransition("Complete");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Gateway.close();
+    }
+
+    private State request(Transition transition) throws Exception {
+        State newState = machine.traverse(activity, transition, agent);
+
+        activity.setState(newState.getId());
+        activity.setBuiltInProperty(AGENT_NAME, transition.getReservation(activity, agent));
+        return newState;
+    }
+
+    @Benchmark
+    public Map<Transition, String> possibleTransitions() throws Exception {
+        return machine.getPossibleTransitions(activity, agent);
+    }
+
+    /**
+     * Start and Complete, then back to the initial state for the next invocation
+     */
+    @Benchmark
+    public State startAndComplete() throws Exception {
+        request(start);
+        State finished = request(complete);
+
+        activity.setState(machine.getInitialStateCode());
+        return finished;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.collection.Dependency;
+import org.cristalise.kernel.lifecycle.instance.Workflow;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.CastorXMLUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Castor marshalling and unmarshalling of a Workflow (LifeCycle.workflow fixture) and of a Dependency,
+ * both through Strings and through streams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CastorBenchmark {
+
+    @Param({"10", "1000"})
+    int collectionSize;
+
+    CastorXMLUtility marshaller;
+
+    String     workflowXML;
+    Workflow   workflow;
+    String     dependencyXML;
+    Dependency dependency;
+
+    byte[]       workflowBytes;
+    OutputStream nullOutput;
+
+    @Setup
+    public void setup() throws Exception {
+        KernelFixture.init();
+        marshaller = Gateway.getMarshaller();
+
+        workflowXML = KernelFixture.loadResource("LifeCycle.workflow");
+        workflow    = (Workflow) marshaller.unmarshall(workflowXML);
+
+        dependency = new Dependency("Benchmark");
+        for (int i = 0; i < collectionSize; i++) dependency.addMember(new ItemPath());
+
+        dependencyXML = marshaller.marshall(dependency);
+
+        workflowBytes = workflowXML.getBytes(StandardCharsets.UTF_8);
+        nullOutput = new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        Gateway.close();
+    }
+
+    @Benchmark
+    public Object unmarshallWorkflow() throws Exception {
+        return marshaller.unmarshall(workflowXML);
+    }
+
+    @Benchmark
+    public String marshallWorkflow() throws Exception {
+        return marshaller.marshall(workflow);
+    }
+
+    @Benchmark
+    public Object unmarshallWorkflowFromStream() throws Exception {
+        return marshaller.unmarshall(new ByteArrayInputStream(workflowBytes));
+    }
+
+    @Benchmark
+    public void marshallWorkflowToStream() throws Exception {
+        marshaller.marshall(workflow, nullOutput);
+    }
+
+    @Benchmark
+    public Object unmarshallDependency() throws Exception {
+        return marshaller.unmarshall(dependencyXML);
+    }
+
+    @Benchmark
+    public String marshallDependency() throws Exception {
+        return marshaller.marshall(dependency);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.collection.Dependency;
+import org.cristalise.kernel.common.GTimeStamp;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.events.Event;
+import org.cristalise.kernel.lookup.AgentPath;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.codec.ClusterCodec;
+import org.cristalise.kernel.persistency.codec.ClusterCodecs;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Encoding and decoding of the persisted objects with the XML (Castor) and the binary ClusterCodecs.
+ * The size of the encoded object is measured once in the setup and printed to the output of the fork,
+ * because the stored size matters as much as the speed when comparing the codecs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+    @Param({ClusterCodecs.XML, ClusterCodecs.BINARY})
+    String codecName;
+
+    @Param({"Workflow", "Event", "Collection", "Property"})
+    String objectType;
+
+    ClusterCodec   codec;
+    C2KLocalObject object;
+    byte[]         encoded;
+
+    @Setup
+    public void setup() throws Exception {
+        KernelFixture.init();
+        codec  = ClusterCodecs.getCodec(codecName);
+        object = createObject();
+
+        encoded = encode();
+
+        System.out.println("CodecBenchmark - encoded size of " + objectType + " with " + codecName + " codec: " + encoded.length + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Gateway.close();
+    }
+
+    private C2KLocalObject createObject() throws Exception {
+        switch (objectType) {
+            case "Workflow":
+                return (C2KLocalObject) Gateway.getMarshaller().unmarshall(KernelFixture.loadResource("LifeCycle.workflow"));
+            case "Event":
+                return new Event(1, new ItemPath(), new AgentPath(new ItemPath(), "benchmark"), null, "Admin", "Step", 
+                        "workflow/domain/Step", "Type", "Default", 0, 2, 0, 1, "Schema", 0, "last", new GTimeStamp());
+            case "Collection":
+                Dependency dependency = new Dependency("Benchmark");
+                for (int i = 0; i < 100; i++) dependency.addMember(new ItemPath());
+                return dependency;
+            case "Property":
+                return new Property("Name", "Benchmark", false);
+            default:
+                throw new IllegalArgumentException("Unknown object type:" + objectType);
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(object, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public C2KLocalObject decode() throws Exception {
+        return ClusterCodecs.decode(new ByteArrayInputStream(encoded), codec);
+    }
+
+    @Benchmark
+    public C2KLocalObject roundTrip() throws Exception {
+        return ClusterCodecs.decode(new ByteArrayInputStream(encode()), codec);
+    }
+}
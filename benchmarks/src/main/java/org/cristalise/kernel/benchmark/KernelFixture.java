@@ -0,0 +1,139 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.kernel.utils.Logger;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.cristalise.storage.XMLClusterStorage;
+
+/**
+ * Initialises the kernel in-process for the benchmarks, the same way as the tests of the kernel do
+ */
+public class KernelFixture {
+
+    public static final String MEMORY = "memory";
+    public static final String XML    = "xml";
+
+    /**
+     * System property to log to System.out with the given level. By default nothing is logged, because e.g. each put
+     * warns that there is no ProxyServer, which would be measured as well.
+     */
+    public static final String LOG_LEVEL_PROPERTY = "cristalise.benchmark.logLevel";
+
+    private static PrintStream nullStream = null;
+
+    private KernelFixture() {}
+
+    /**
+     * Initialises the Gateway with the server.conf of the kernel tests and the given ClusterStorages
+     */
+    public static synchronized void init(ClusterStorage... stores) throws Exception {
+        initGateway(null, stores);
+    }
+
+    /**
+     * Initialises the Gateway like {@link #init(ClusterStorage...)} and connects it to the given in-memory Lookup,
+     * so the Lookup and the TransactionManager of the Gateway are available without any external service
+     */
+    public static synchronized void connect(MemoryOnlyLookup lookup, ClusterStorage... stores) throws Exception {
+        initGateway(lookup, stores);
+        Gateway.connect();
+    }
+
+    private static void initGateway(MemoryOnlyLookup lookup, ClusterStorage... stores) throws Exception {
+        // Gateway.close() removes all log streams
+        String logLevel = System.getProperty(LOG_LEVEL_PROPERTY);
+
+        if (logLevel != null) {
+            Logger.addLogStream(System.out, Integer.parseInt(logLevel));
+        }
+        else {
+            if (nullStream == null) {
+                nullStream = new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {}
+                });
+            }
+            Logger.addLogStream(nullStream, 0);
+        }
+
+        // the URL, because the file is inside the jar of the benchmarks
+        Properties props = FileStringUtility.loadConfigFile(KernelFixture.class.getResource("/server.conf").toString());
+
+        if (stores.length > 0) {
+            ArrayList<ClusterStorage> storeList = new ArrayList<>();
+            for (ClusterStorage store : stores) storeList.add(store);
+            props.put("ClusterStorage", storeList);
+        }
+        if (lookup != null) props.put("Lookup", lookup);
+
+        Gateway.init(props);
+    }
+
+    /**
+     * Creates the ClusterStorage named by the benchmark parameter, XMLClusterStorage uses a new temporary directory
+     *
+     * @param type either {@value #MEMORY} or {@value #XML}
+     */
+    public static ClusterStorage createStorage(String type, Path tempDir) throws Exception {
+        if (MEMORY.equals(type)) return new MemoryOnlyClusterStorage();
+        if (XML.equals(type))    return new XMLClusterStorage(tempDir.toString());
+
+        throw new IllegalArgumentException("Unknown storage type:"+type);
+    }
+
+    public static String loadResource(String name) throws Exception {
+        return FileStringUtility.url2String(KernelFixture.class.getResource("/" + name));
+    }
+
+    public static void deleteDirectory(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.Schema;
+import org.cristalise.kernel.process.Gateway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Parsing, validation and XPath queries of Outcomes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OutcomeBenchmark {
+
+    String  xml;
+    Schema  schema;
+    Outcome outcome;
+
+    @Setup
+    public void setup() throws Exception {
+        KernelFixture.init();
+
+        xml     = KernelFixture.loadResource("patient2.xml");
+        schema  = new Schema("PatientDetails", 0, null, KernelFixture.loadResource("PatientDetails.xsd"));
+        outcome = new Outcome(xml, schema);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Gateway.close();
+    }
+
+    @Benchmark
+    public Outcome parse() throws Exception {
+        return new Outcome(xml, schema);
+    }
+
+    @Benchmark
+    public String validate() throws Exception {
+        return outcome.validate();
+    }
+
+    @Benchmark
+    public String parseAndValidate() throws Exception {
+        return new Outcome(xml, schema).validate();
+    }
+
+    @Benchmark
+    public String xpathField() throws Exception {
+        return outcome.getFieldByXPath("/PatientDetails/Weight");
+    }
+
+    @Benchmark
+    public Object xpathAttribute() throws Exception {
+        return outcome.getNodeByXPath("/PatientDetails/@InsuranceNumber");
+    }
+
+    @Benchmark
+    public String serialize() throws Exception {
+        return outcome.getData();
+    }
+}
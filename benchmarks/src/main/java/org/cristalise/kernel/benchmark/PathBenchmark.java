@@ -0,0 +1,91 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.lookup.DomainPath;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Hashing and equality of Paths, which are the keys of most kernel caches (e.g. ClusterStorageManager, ProxyManager)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathBenchmark {
+
+    static final int SIZE = 10000;
+
+    UUID[]   uuids   = new UUID[SIZE];
+    String[] domains = new String[SIZE];
+
+    Map<ItemPath, Integer>   itemMap   = new HashMap<>();
+    Map<DomainPath, Integer> domainMap = new HashMap<>();
+
+    int next = 0;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < SIZE; i++) {
+            uuids[i]   = UUID.randomUUID();
+            domains[i] = "/benchmark/folder" + (i % 100) + "/item" + i;
+
+            itemMap.put(new ItemPath(uuids[i]), i);
+            domainMap.put(new DomainPath(domains[i]), i);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % SIZE;
+        return next;
+    }
+
+    @Benchmark
+    public int itemPathHashCode() {
+        return new ItemPath(uuids[nextIndex()]).hashCode();
+    }
+
+    @Benchmark
+    public Integer itemPathLookup() {
+        return itemMap.get(new ItemPath(uuids[nextIndex()]));
+    }
+
+    @Benchmark
+    public int domainPathHashCode() {
+        return new DomainPath(domains[nextIndex()]).hashCode();
+    }
+
+    @Benchmark
+    public Integer domainPathLookup() {
+        return domainMap.get(new DomainPath(domains[nextIndex()]));
+    }
+}
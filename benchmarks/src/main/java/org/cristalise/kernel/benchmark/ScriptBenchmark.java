@@ -0,0 +1,74 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.scripting.Script;
+import org.cristalise.kernel.utils.CastorHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Parsing and evaluation of the TestScript fixture (javascript)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScriptBenchmark {
+
+    String        scriptXML;
+    Script        script;
+    CastorHashMap inputs;
+
+    @Setup
+    public void setup() throws Exception {
+        KernelFixture.init();
+
+        scriptXML = KernelFixture.loadResource("TestScript.xml");
+        script    = new Script("TestScript", 0, null, scriptXML);
+
+        inputs = new CastorHashMap();
+        inputs.put("test", "Benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Gateway.close();
+    }
+
+    @Benchmark
+    public Script parse() throws Exception {
+        return new Script("TestScript", 0, null, scriptXML);
+    }
+
+    @Benchmark
+    public Object evaluate() throws Exception {
+        return script.evaluate(inputs);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reads and transactional writes through TransactionManager and ClusterStorageManager
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageBenchmark {
+
+    static final int ITEMS = 100;
+
+    @Param({KernelFixture.MEMORY, KernelFixture.XML})
+    String storageType;
+
+    Path               tempDir;
+    TransactionManager storage;
+    ItemPath[]         items = new ItemPath[ITEMS];
+    int                next  = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("cristalise-benchmark");
+
+        KernelFixture.init(KernelFixture.createStorage(storageType, tempDir));
+        storage = new TransactionManager(null);
+
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new ItemPath();
+
+            Object locker = new Object();
+            storage.put(items[i], new Property("Name", "Item" + i, false), locker);
+            storage.put(items[i], new Property("Type", "Benchmark", false), locker);
+            storage.commit(locker);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        storage.close();
+        Gateway.close();
+        KernelFixture.deleteDirectory(tempDir);
+    }
+
+    private ItemPath nextItem() {
+        next = (next + 1) % ITEMS;
+        return items[next];
+    }
+
+    /**
+     * Served by the memory cache of ClusterStorageManager
+     */
+    @Benchmark
+    public C2KLocalObject getCached() throws Exception {
+        return storage.get(nextItem(), "Property/Name", null);
+    }
+
+    /**
+     * Read from the ClusterStorage each time
+     */
+    @Benchmark
+    public C2KLocalObject getFromStorage() throws Exception {
+        ItemPath item = nextItem();
+        storage.clearCache(item, "Property/Name");
+        return storage.get(item, "Property/Name", null);
+    }
+
+    @Benchmark
+    public String[] getClusterContents() throws Exception {
+        return storage.getClusterContents(nextItem(), "Property");
+    }
+
+    @Benchmark
+    public void putAndCommit() throws Exception {
+        Object locker = new Object();
+        storage.put(nextItem(), new Property("Counter", Integer.toString(next), false), locker);
+        storage.commit(locker);
+    }
+}
@@ -71,21 +71,11 @@ abstract public class Aggregation extends Collection<AggregationMember> {
     }
 
     public boolean exists(ItemPath itemPath) {
-        for (int i = 0; i < size(); i++) {
-            AggregationMember element = mMembers.list.get(i);
-            if (element.getItemPath().equals(itemPath))
-                return true;
-        }
-        return false;
+        return contains(itemPath);
     }
 
     public AggregationMember getMemberPair(int vertexID) {
-        for (int i = 0; i < size(); i++) {
-            AggregationMember element = mMembers.list.get(i);
-            if (element.getID() == vertexID)
-                return element;
-        }
-        return null;
+        return mMembers.getMember(vertexID);
     }
 
     public AggregationMember addSlot(CastorHashMap props, String classProps, GraphPoint location, int w, int h) {
@@ -146,14 +136,12 @@ abstract public class Aggregation extends Collection<AggregationMember> {
 
     @Override
     public void removeMember(int memberId) throws ObjectNotFoundException {
-        for (AggregationMember element : mMembers.list) {
-            if (element.getID() == memberId) {
-                element.clearItem();
-                mLayout.removeVertex(getLayout().getVertexById(memberId));
-                return;
-            }
-        }
-        throw new ObjectNotFoundException("Member " + memberId + " not found");
+        AggregationMember element = mMembers.getMember(memberId);
+
+        if (element == null) throw new ObjectNotFoundException("Member " + memberId + " not found");
+
+        element.clearItem();
+        mLayout.removeVertex(getLayout().getVertexById(memberId));
     }
 
     static public boolean getIsComposite(ItemPath itemPath, String name) {
@@ -51,6 +51,9 @@ public class AggregationMember extends GraphableVertex implements CollectionMemb
 	private String 			     mClassProps = null;
 	private String 				 mItemName   = null;
 
+    /** The list which indexed this member, notified when the ID or the assigned Item changes */
+    private CollectionMemberList<?> mMemberList = null;
+
 
    /**************************************************************************
     *
@@ -60,6 +63,24 @@ public class AggregationMember extends GraphableVertex implements CollectionMemb
         super();
     }
 
+    void setMemberList(CollectionMemberList<?> list)
+    {
+        mMemberList = list;
+    }
+
+    private void indexChanged(int oldId, ItemPath oldItemPath)
+    {
+        if (mMemberList != null) mMemberList.memberChanged(this, oldId, oldItemPath);
+    }
+
+    @Override
+    public void setID(int id)
+    {
+        int oldId = getID();
+        super.setID(id);
+        indexChanged(oldId, mItemPath);
+    }
+
     public void setCollection(Aggregation aggregation)
     {
         mCollection = aggregation;
@@ -118,16 +139,20 @@ public class AggregationMember extends GraphableVertex implements CollectionMemb
             }
         }
 
+        ItemPath oldItemPath = mItemPath;
         mItemPath = itemPath;
         mItem       = null;
         mItemName   = null;
+        indexChanged(getID(), oldItemPath);
     }
 
     @Override
 	public void clearItem() {
+        ItemPath oldItemPath = mItemPath;
         mItemPath   = null;
         mItem       = null;
         mItemName   = null;
+        indexChanged(getID(), oldItemPath);
     }
 
     @Override
@@ -157,8 +182,10 @@ public class AggregationMember extends GraphableVertex implements CollectionMemb
     }
 
 	public void setChildUUID(String uuid) throws InvalidCollectionModification, InvalidItemPathException {
+		ItemPath oldItemPath = mItemPath;
 		mItemPath = new ItemPath(uuid);
 		mItemName = null;
+		indexChanged(getID(), oldItemPath);
 	}
 
 
@@ -66,17 +66,14 @@ abstract public class Collection<E extends CollectionMember> implements C2KLocal
     protected Integer                 mVersion = null;
 
     /**
-     * Fetch the current highest member ID of the collection. This is found by scanning all the current members
+     * Fetch the current highest member ID of the collection. This is found from the index of the members
      * and kept in the mCounter field, but is not persistent.
      * 
      * @return the current highest member ID
      */
     public int getCounter() {
-        if (mCounter == -1) {
-            for (E element : mMembers.list) {
-                if (mCounter < element.getID()) mCounter = element.getID();
-            }
-        }
+        if (mCounter == -1) mCounter = mMembers.getHighestId();
+
         return ++mCounter;
     }
 
@@ -146,11 +143,7 @@ abstract public class Collection<E extends CollectionMember> implements C2KLocal
     }
 
     public boolean contains(ItemPath itemPath) {
-        for (E element : mMembers.list) {
-            if (element.getItemPath().equals(itemPath))
-                return true;
-        }
-        return false;
+        return itemPath != null && mMembers.contains(itemPath);
     }
 
     /**
@@ -173,11 +166,7 @@ abstract public class Collection<E extends CollectionMember> implements C2KLocal
      * @return boolean
      */
     public boolean isFull() {
-        for (E element : mMembers.list) {
-            if (element.getItemPath() == null)
-                return false;
-        }
-        return true;
+        return !mMembers.contains(null);
     }
 
     /**
@@ -190,11 +179,11 @@ abstract public class Collection<E extends CollectionMember> implements C2KLocal
      *             when the ID wasn't found
      */
     public E getMember(int memberId) throws ObjectNotFoundException {
-        for (E element : mMembers.list) {
-            if (element.getID() == memberId)
-                return element;
-        }
-        throw new ObjectNotFoundException("Member " + memberId + " not found in " + mName);
+        E element = mMembers.getMember(memberId);
+
+        if (element == null) throw new ObjectNotFoundException("Member " + memberId + " not found in " + mName);
+
+        return element;
     }
 
     public CollectionMemberList<E> getMembers() {
@@ -281,11 +270,9 @@ abstract public class Collection<E extends CollectionMember> implements C2KLocal
             members.add(slot);
         }
         else { // find the slots from entity key
-            for (CollectionMember member: getMembers().list) {
-                if (member.getItemPath().equals(childPath)) members.add(member);
-            }
+            if (childPath != null) members.addAll(mMembers.getMembers(childPath));
 
-            throw new ObjectNotFoundException("Could not find " + childPath + " in collection " + getName());
+            if (members.isEmpty()) throw new ObjectNotFoundException("Could not find " + childPath + " in collection " + getName());
         }
 
         return members;
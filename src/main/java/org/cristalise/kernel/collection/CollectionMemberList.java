@@ -20,20 +20,248 @@
  */
 package org.cristalise.kernel.collection;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.utils.CastorArrayList;
 
 /**
  * A list of CollectionMembers, used internally in the Collection for XML 
  * marshalling convenience.
- *  *
+ * <p>
+ * The members are also indexed by their ID and by the ItemPath assigned to them, so Collections with many
+ * members can be searched without scanning the list. The indexes are built on the first lookup (i.e. after
+ * unmarshalling), and kept up to date by the add, remove, set and clear methods of the list and by the members
+ * when their assigned Item or ID changes. Any other modification of the list causes the indexes to be rebuilt.
+ *
  * @param <E> The CollectionMember implementation stored.
  */
 public class CollectionMemberList<E extends CollectionMember> extends CastorArrayList<E>
 {
+    private final HashMap<Integer, E>        byId       = new HashMap<>();
+    private final HashMap<ItemPath, List<E>> byItemPath = new HashMap<>();
+
+    /** The list the indexes were built for, null if the indexes are not valid */
+    private MemberArrayList indexedList = null;
+    private int             highestId   = -1;
+    private boolean         duplicateIds = false;
 
     public CollectionMemberList()
     {
         super();
+        list = new MemberArrayList();
+    }
+
+    /**
+     * Find the member by its ID
+     *
+     * @param id the ID of the member
+     * @return the member or null if there is no member with that ID
+     */
+    public synchronized E getMember(int id) {
+        checkIndexes();
+        return byId.get(id);
+    }
+
+    /**
+     * Find the members the given Item is assigned to
+     *
+     * @param itemPath the Item, null returns the empty slots
+     * @return the list of members, empty if the Item is not member
+     */
+    public synchronized List<E> getMembers(ItemPath itemPath) {
+        checkIndexes();
+        List<E> members = byItemPath.get(itemPath);
+        return members == null ? Collections.<E>emptyList() : new ArrayList<>(members);
+    }
+
+    /**
+     * Checks if the Item is assigned to any of the members
+     *
+     * @param itemPath the Item, null checks for empty slots
+     * @return true if the Item is member
+     */
+    public synchronized boolean contains(ItemPath itemPath) {
+        checkIndexes();
+        return byItemPath.containsKey(itemPath);
+    }
+
+    /**
+     * @return the highest member ID or -1 if the list is empty
+     */
+    public synchronized int getHighestId() {
+        checkIndexes();
+        return highestId;
+    }
+
+    /**
+     * Called by the members when their assigned Item or their ID was changed
+     *
+     * @param member the member which was changed
+     * @param oldId the ID of the member before the change
+     * @param oldItemPath the Item assigned to the member before the change
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void memberChanged(CollectionMember member, int oldId, ItemPath oldItemPath) {
+        if (indexedList == null || indexedList != list || !indexedList.isInStep()) return;
+
+        // the member could have been removed from this list since it was indexed
+        List<E> members = byItemPath.get(oldItemPath);
+        if (members == null || !members.contains(member)) return;
+
+        unindex((E) member, oldId, oldItemPath);
+        index((E) member);
+    }
+
+    private void checkIndexes() {
+        if (indexedList != null && indexedList == list && indexedList.isInStep()) return;
+
+        if (list == null) {
+            list = new MemberArrayList();
+        }
+        else if (!(list instanceof CollectionMemberList.MemberArrayList) || ((MemberArrayList) list).getOwner() != this) {
+            list = new MemberArrayList(list);
+        }
+
+        byId.clear();
+        byItemPath.clear();
+        highestId    = -1;
+        duplicateIds = false;
+
+        indexedList = (MemberArrayList) list;
+        for (E member : indexedList) index(member);
+        indexedList.inStep();
     }
 
+    private void index(E member) {
+        if (member == null) return;
+
+        // the first member wins if IDs are duplicated, like the linear search did
+        if (byId.putIfAbsent(member.getID(), member) != null) duplicateIds = true;
+
+        byItemPath.computeIfAbsent(member.getItemPath(), k -> new ArrayList<>(1)).add(member);
+
+        if (member.getID() > highestId) highestId = member.getID();
+
+        if      (member instanceof DependencyMember)  ((DependencyMember) member).setMemberList(this);
+        else if (member instanceof AggregationMember) ((AggregationMember)member).setMemberList(this);
+    }
+
+    private void unindex(E member) {
+        if (member != null) unindex(member, member.getID(), member.getItemPath());
+    }
+
+    private void unindex(E member, int id, ItemPath itemPath) {
+        if (byId.get(id) == member) {
+            byId.remove(id);
+
+            // another member with the same ID could be in the list
+            if (duplicateIds) indexedList = null;
+        }
+
+        List<E> members = byItemPath.get(itemPath);
+        if (members != null) {
+            members.remove(member);
+            if (members.isEmpty()) byItemPath.remove(itemPath);
+        }
+        // highestId is not decreased, IDs of removed members are not reused
+    }
+
+    /**
+     * ArrayList updating the indexes of the enclosing CollectionMemberList. Only add, remove, set and clear
+     * maintain the indexes, any other modification is detected by the modCount of the list.
+     */
+    private class MemberArrayList extends ArrayList<E> {
+        private static final long serialVersionUID = 1L;
+
+        private int indexedModCount = -1;
+
+        MemberArrayList() {
+            super();
+        }
+
+        MemberArrayList(java.util.Collection<? extends E> members) {
+            super(members);
+        }
+
+        CollectionMemberList<E> getOwner() {
+            return CollectionMemberList.this;
+        }
+
+        boolean isInStep() {
+            return indexedModCount == modCount;
+        }
+
+        void inStep() {
+            indexedModCount = modCount;
+        }
+
+        private boolean isIndexed() {
+            return indexedList == this && isInStep();
+        }
+
+        @Override
+        public boolean add(E member) {
+            synchronized (CollectionMemberList.this) {
+                boolean indexed = isIndexed();
+                super.add(member);
+                if (indexed) { index(member); inStep(); }
+                return true;
+            }
+        }
+
+        @Override
+        public void add(int i, E member) {
+            synchronized (CollectionMemberList.this) {
+                boolean indexed = isIndexed();
+                super.add(i, member);
+                if (indexed) { index(member); inStep(); }
+            }
+        }
+
+        @Override
+        public E remove(int i) {
+            synchronized (CollectionMemberList.this) {
+                boolean indexed = isIndexed();
+                E member = super.remove(i);
+                if (indexed) { unindex(member); inStep(); }
+                return member;
+            }
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            int i = indexOf(o);
+            if (i == -1) return false;
+
+            remove(i);
+            return true;
+        }
+
+        @Override
+        public E set(int i, E member) {
+            synchronized (CollectionMemberList.this) {
+                boolean indexed = isIndexed();
+                E old = super.set(i, member);
+                if (indexed) { unindex(old); index(member); }
+                return old;
+            }
+        }
+
+        @Override
+        public void clear() {
+            synchronized (CollectionMemberList.this) {
+                boolean indexed = isIndexed();
+                super.clear();
+                if (indexed) {
+                    byId.clear();
+                    byItemPath.clear();
+                    inStep();
+                }
+            }
+        }
+    }
 }
@@ -287,13 +287,12 @@ public class Dependency extends Collection<DependencyMember> {
      */
     @Override
     public void removeMember(int memberId) throws ObjectNotFoundException {
-        for (DependencyMember element : mMembers.list) {
-            if (element.getID() == memberId) {
-                mMembers.list.remove(element);
-                return;
-            }
-        }
-        throw new ObjectNotFoundException("Collection name:"+getName()+" does not contains Member id:"+memberId);
+        DependencyMember element = mMembers.getMember(memberId);
+
+        if (element == null)
+            throw new ObjectNotFoundException("Collection name:"+getName()+" does not contains Member id:"+memberId);
+
+        mMembers.list.remove(element);
     }
 
     /**
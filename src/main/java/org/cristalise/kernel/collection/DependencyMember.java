@@ -47,6 +47,9 @@ public class DependencyMember implements CollectionMember {
     private CastorHashMap mProperties = null;
     private String        mClassProps;
 
+    /** The list which indexed this member, notified when the ID or the assigned Item changes */
+    private CollectionMemberList<?> mMemberList = null;
+
     public DependencyMember() {
         mProperties = new CastorHashMap();
     }
@@ -79,7 +82,17 @@ public class DependencyMember implements CollectionMember {
     }
 
     public void setID(int id) {
+        int oldId = mId;
         mId = id;
+        indexChanged(oldId, mItemPath);
+    }
+
+    void setMemberList(CollectionMemberList<?> list) {
+        mMemberList = list;
+    }
+
+    private void indexChanged(int oldId, ItemPath oldItemPath) {
+        if (mMemberList != null) mMemberList.memberChanged(this, oldId, oldItemPath);
     }
 
     public void setClassProps(String props) {
@@ -120,14 +133,18 @@ public class DependencyMember implements CollectionMember {
             }
         }
 
+        ItemPath oldItemPath = mItemPath;
         mItemPath = itemPath;
         mItem = null;
+        indexChanged(mId, oldItemPath);
     }
 
     @Override
     public void clearItem() {
+        ItemPath oldItemPath = mItemPath;
         mItemPath = null;
         mItem = null;
+        indexChanged(mId, oldItemPath);
     }
 
     @Override
@@ -138,7 +155,9 @@ public class DependencyMember implements CollectionMember {
     }
 
     public void setChildUUID(String uuid) throws InvalidCollectionModification, InvalidItemPathException {
+        ItemPath oldItemPath = mItemPath;
         mItemPath = new ItemPath(uuid);
+        indexChanged(mId, oldItemPath);
     }
 
     @Override
@@ -21,7 +21,10 @@
 package org.cristalise.kernel.entity;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.lang3.StringUtils;
@@ -73,6 +76,25 @@ public class ItemImplementation implements ItemOperations {
     protected final TransactionManager mStorage;
     protected final ItemPath           mItemPath;
 
+    // the activities providing the jobs of the Item, calculated by queryLifeCycle() with and without filtering
+    private volatile JobActivities mActiveJobActivities = null;
+    private volatile JobActivities mAllJobActivities    = null;
+
+    /**
+     * The activities of a Workflow providing jobs, which only depend on the state of the Workflow and not on the Agent
+     */
+    private static class JobActivities {
+        final WeakReference<Workflow> workflow;
+        final long                    version;
+        final List<Activity>          activities;
+
+        JobActivities(Workflow wf, long version, List<Activity> activities) {
+            this.workflow   = new WeakReference<Workflow>(wf);
+            this.version    = version;
+            this.activities = activities;
+        }
+    }
+
     protected ItemImplementation(ItemPath key) {
         this.mStorage = Gateway.getStorage();
         this.mItemPath = key;
@@ -225,10 +247,31 @@ public class ItemImplementation implements ItemOperations {
         return delegatedAction(agentId, null, stepPath, transitionID, requestData, attachmentType,attachment);
     }
 
+    /**
+     * Executes the request unless the server is shutting down. The request is tracked by the 
+     * {@link Gateway#getRequestTracker()} so the shutdown can wait for it to finish before closing the storages.
+     */
     @Override
     public String delegatedAction(SystemKey agentId, SystemKey delegateId, String stepPath, int transitionID, String requestData, String attachmentType, byte[] attachment)
             throws AccessRightsException, InvalidTransitionException, ObjectNotFoundException, InvalidDataException,
             PersistencyException, ObjectAlreadyExistsException, InvalidCollectionModification
+    {
+        if (!Gateway.getRequestTracker().enter()) {
+            Logger.warning("ItemImplementation::request(" + mItemPath + ") - Server is shutting down, rejected " + stepPath);
+            throw new org.omg.CORBA.TRANSIENT("Server is shutting down");
+        }
+
+        try {
+            return executeAction(agentId, delegateId, stepPath, transitionID, requestData, attachmentType, attachment);
+        }
+        finally {
+            Gateway.getRequestTracker().exit();
+        }
+    }
+
+    private String executeAction(SystemKey agentId, SystemKey delegateId, String stepPath, int transitionID, String requestData, String attachmentType, byte[] attachment)
+            throws AccessRightsException, InvalidTransitionException, ObjectNotFoundException, InvalidDataException,
+            PersistencyException, ObjectAlreadyExistsException, InvalidCollectionModification
     {
         Workflow lifeCycle = null;
 
@@ -308,6 +351,10 @@ public class ItemImplementation implements ItemOperations {
                 return errorOutcome;
             }
         }
+        finally {
+            // the workflow object is changed in place even if the request fails, so the activities are collected again
+            clearJobActivities();
+        }
     }
 
     /**
@@ -356,7 +403,42 @@ public class ItemImplementation implements ItemOperations {
     }
 
     /**
+     * Returns the activities providing the jobs of the Item. They are only collected by walking the domain workflow
+     * if the Workflow object or the version of the LifeCycle has changed since the last call, otherwise the
+     * activities are reused. The version is read before the walk, so a concurrent change is detected on the next call.
      *
+     * @param wf the Workflow of the Item
+     * @param filter if true only the active activities are returned
+     * @return the activities in the order used by calculateJobs() and calculateAllJobs()
+     */
+    private List<Activity> getJobActivities(Workflow wf, boolean filter) throws ObjectNotFoundException {
+        long version = mStorage.getLifeCycleVersion(mItemPath);
+        JobActivities cached = filter ? mActiveJobActivities : mAllJobActivities;
+
+        if (cached != null && cached.version == version && cached.workflow.get() == wf) {
+            Logger.msg(5, "ItemImplementation::getJobActivities(" + mItemPath + ") - reusing " + cached.activities.size() + " activities");
+            return cached.activities;
+        }
+
+        List<Activity> activities = new ArrayList<Activity>();
+        ((CompositeActivity) wf.search("workflow/domain")).collectJobActivities(activities, !filter);
+
+        cached = new JobActivities(wf, version, activities);
+
+        if (filter) mActiveJobActivities = cached;
+        else        mAllJobActivities    = cached;
+
+        return activities;
+    }
+
+    private void clearJobActivities() {
+        mActiveJobActivities = null;
+        mAllJobActivities    = null;
+    }
+
+    /**
+     * Calculates the jobs of the Agent. The activities providing the jobs are cached for each Workflow version
+     * (see getJobActivities()), only the checks depending on the Agent are executed for each call.
      */
     @Override
     public String queryLifeCycle(SystemKey agentId, boolean filter)
@@ -374,18 +456,17 @@ public class ItemImplementation implements ItemOperations {
             Workflow wf = (Workflow) mStorage.get(mItemPath, ClusterType.LIFECYCLE + "/workflow", null);
 
             JobArrayList jobBag = new JobArrayList();
-            CompositeActivity domainWf = (CompositeActivity) wf.search("workflow/domain");
-            ArrayList<Job> jobs = filter ? domainWf.calculateJobs(agent, mItemPath, true) : domainWf.calculateAllJobs(agent, mItemPath, true);
-
             SecurityManager secMan = Gateway.getSecurityManager();
 
-            if (secMan.isShiroEnabled()) {
-                for (Job j: jobs) {
-                    if (secMan.checkPermissions(agent, (Activity) wf.search(j.getStepPath()), mItemPath)) jobBag.list.add(j);
-                }
+            for (Activity act : getJobActivities(wf, filter)) {
+                ArrayList<Job> jobs = act.calculateOwnJobs(agent, mItemPath);
+
+                if (jobs.isEmpty()) continue;
+
+                if (secMan.isShiroEnabled() && !secMan.checkPermissions(agent, act, mItemPath)) continue;
+
+                jobBag.list.addAll(jobs);
             }
-            else
-                jobBag.list = jobs;
 
             Logger.msg(1, "ItemImplementation::queryLifeCycle(" + mItemPath + ") - Returning " + jobBag.list.size() + " jobs.");
 
@@ -448,6 +529,28 @@ public class ItemImplementation implements ItemOperations {
         return result;
     }
 
+    @Override
+    public String[] queryDataList(String[] paths) throws AccessRightsException, PersistencyException {
+        Logger.msg(1, "ItemImplementation::queryDataList(" + mItemPath + ") - " + paths.length + " paths");
+
+        String[] result = new String[paths.length];
+
+        try {
+            List<C2KLocalObject> objects = mStorage.getAll(mItemPath, Arrays.asList(paths), null);
+
+            for (int i = 0; i < paths.length; i++) {
+                C2KLocalObject obj = objects.get(i);
+                result[i] = obj == null ? "" : Gateway.getMarshaller().marshall(obj);
+            }
+        }
+        catch (Exception ex) {
+            Logger.warning("ItemImplementation::queryDataList(" + mItemPath + ") - Failed: " + ex.getClass().getName());
+            throw new PersistencyException("Server exception: " + ex.getClass().getName());
+        }
+
+        return result;
+    }
+
     /**
      *
      */
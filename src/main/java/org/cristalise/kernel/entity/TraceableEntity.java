@@ -175,4 +175,11 @@ public class TraceableEntity extends ItemPOA
             return mItemImpl.queryData(path);
         }
     }
+
+    @Override
+    public String[] queryDataList(String[] paths) throws AccessRightsException, PersistencyException {
+        synchronized (this) {
+            return mItemImpl.queryDataList(paths);
+        }
+    }
 }
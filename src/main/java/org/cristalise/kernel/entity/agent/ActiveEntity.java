@@ -69,6 +69,13 @@ public class ActiveEntity extends AgentPOA {
         }
     }
 
+    @Override
+    public String[] queryDataList(String[] paths) throws AccessRightsException, PersistencyException {
+        synchronized (this) {
+            return mAgentImpl.queryDataList(paths);
+        }
+    }
+
     /**
      * Called by an activity when it reckons we need to update our joblist for it
      */
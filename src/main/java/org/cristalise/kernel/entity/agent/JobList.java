@@ -28,12 +28,12 @@ import java.util.Vector;
 import org.cristalise.kernel.lookup.AgentPath;
 import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.persistency.ClusterType;
-import org.cristalise.kernel.persistency.RemoteMap;
+import org.cristalise.kernel.persistency.IntKeyRemoteMap;
 import org.cristalise.kernel.utils.Logger;
 
 import static org.cristalise.kernel.persistency.ClusterType.JOB;
 
-public class JobList extends RemoteMap<Job> {
+public class JobList extends IntKeyRemoteMap<Job> {
 
     /**
      * 
@@ -115,6 +115,27 @@ public class ImportAgent extends ModuleImport {
         return itemPath;
     }
 
+    @Override
+    public ArrayList<String> getImportKeys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        keys.add("Agent/" + name);
+        return keys;
+    }
+
+    /**
+     * The Roles of the Agent (and their parents) imported by the same Module must exist before the Agent is created
+     */
+    @Override
+    public ArrayList<String> getImportDependencies() {
+        ArrayList<String> deps = new ArrayList<String>();
+
+        for (ImportRole role : roles) {
+            deps.addAll(role.getImportKeys());
+            deps.addAll(role.getImportDependencies());
+        }
+        return deps;
+    }
+
     public void addRoles(List<RolePath> newRoles) {
         for (RolePath rp: newRoles) roles.add(ImportRole.getImportRole(rp));
     }
@@ -138,6 +138,37 @@ public class ImportItem extends ModuleImport {
         super.setName(name);
     }
 
+    /**
+     * The Item is referred to by its domain path or UUID in the collections of other Items
+     */
+    @Override
+    public ArrayList<String> getImportKeys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        keys.add(initialPath + "/" + name);
+        if (itemPath != null) keys.add(getID());
+        return keys;
+    }
+
+    /**
+     * The members and the descriptions referenced by the collections must exist before the Item is created
+     */
+    @Override
+    public ArrayList<String> getImportDependencies() {
+        ArrayList<String> deps = new ArrayList<String>();
+
+        for (ImportDependency dep : dependencyList) {
+            if (dep.itemDescriptionPath != null) deps.add(dep.itemDescriptionPath);
+            for (ImportDependencyMember member : dep.dependencyMemberList) deps.add(member.itemPath);
+        }
+        for (ImportAggregation agg : aggregationList) {
+            for (ImportAggregationMember member : agg.aggregationMemberList) {
+                if (member.itemDescriptionPath != null) deps.add(member.itemDescriptionPath);
+                if (member.itemPath            != null) deps.add(member.itemPath);
+            }
+        }
+        return deps;
+    }
+
     /**
      *
      * @return
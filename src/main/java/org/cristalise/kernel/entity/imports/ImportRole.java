@@ -56,12 +56,46 @@ public class ImportRole extends ModuleImport {
             //Checks if parent exists and throw ObjectNotFoundException
             newRolePath.getParent();
 
-            Gateway.getLookupManager().createRole(newRolePath);
+            try {
+                Gateway.getLookupManager().createRole(newRolePath);
+            }
+            catch (ObjectAlreadyExistsException e) {
+                // the Role was created meanwhile by the parallel import of an Agent
+                Logger.msg(5, "ImportRole.create() - Role:"+name+" was created concurrently");
+                if (jobList != null) update(agentPath);
+                return newRolePath;
+            }
             Gateway.getLookupManager().setPermissions(newRolePath, newRolePath.getPermissions());
         }
         return newRolePath;
     }
 
+    /**
+     * Returns the key of the Role with the given name used to declare dependencies during the import of a Module
+     */
+    public static String getImportKey(String roleName) {
+        return "Role/" + roleName;
+    }
+
+    @Override
+    public ArrayList<String> getImportKeys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        keys.add(getImportKey(name));
+        return keys;
+    }
+
+    /**
+     * The parent Roles must exist before this one is created
+     */
+    @Override
+    public ArrayList<String> getImportDependencies() {
+        ArrayList<String> deps = new ArrayList<String>();
+
+        for (int i = name.lastIndexOf('/'); i > 0; i = name.lastIndexOf('/', i - 1)) deps.add(getImportKey(name.substring(0, i)));
+
+        return deps;
+    }
+
     /**
      * 
      * @param agentPath
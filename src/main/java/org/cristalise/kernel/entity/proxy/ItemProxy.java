@@ -25,9 +25,14 @@ import static org.cristalise.kernel.property.BuiltInItemProperties.NAME;
 import static org.cristalise.kernel.property.BuiltInItemProperties.TYPE;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cristalise.kernel.collection.BuiltInCollections;
 import org.cristalise.kernel.collection.Collection;
@@ -55,6 +60,7 @@ import org.cristalise.kernel.persistency.outcome.Outcome;
 import org.cristalise.kernel.persistency.outcome.OutcomeAttachment;
 import org.cristalise.kernel.persistency.outcome.Schema;
 import org.cristalise.kernel.persistency.outcome.Viewpoint;
+import org.cristalise.kernel.process.AbstractMain;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.property.BuiltInItemProperties;
 import org.cristalise.kernel.property.Property;
@@ -81,7 +87,25 @@ public class ItemProxy
     protected ItemPath              mItemPath;
     protected org.omg.CORBA.Object  mIOR;
 
-    private final HashMap<MemberSubscription<?>, ProxyObserver<?>> mSubscriptions;
+    private final ConcurrentHashMap<MemberSubscription<?>, ProxyObserver<?>> mSubscriptions;
+
+    /** The maximum number of Events fetched in one call by {@link #getEvents(int, int, Object)} */
+    public static final int EVENT_PAGE_SIZE = 100;
+
+    /**
+     * Property to enable/disable the Property snapshot of the proxies. Default is true in client processes 
+     * connected to the proxy servers, because the snapshot is kept current by the proxy notifications.
+     */
+    public static final String PROPERTY_SNAPSHOT = "ItemProxy.propertySnapshot";
+
+    /**
+     * All committed Properties of the Item by name, loaded in one operation and dropped when a change
+     * of a Property is notified. Null if not loaded.
+     */
+    private volatile Map<String, Property> mPropertySnapshot = null;
+    /** Incremented by each change notification, so a snapshot loaded concurrently is not kept */
+    private int mPropertyGeneration = 0;
+    private final Object mPropertyLock = new Object();
 
     /**
      * Set Transaction key (aka locker) when ItemProxy is used in server side scripting
@@ -99,7 +123,7 @@ public class ItemProxy
 
         mIOR            = ior;
         mItemPath       = itemPath;
-        mSubscriptions  = new HashMap<MemberSubscription<?>, ProxyObserver<?>>();
+        mSubscriptions  = new ConcurrentHashMap<MemberSubscription<?>, ProxyObserver<?>>();
     }
 
     /**
@@ -246,6 +270,7 @@ public class ItemProxy
         try {
             String[] params = {name, value};
             agent.execute(this, WriteProperty.class.getSimpleName(), params);
+            clearPropertySnapshot();
         }
         catch (AccessRightsException | PersistencyException | InvalidDataException e) {
             throw (e);
@@ -850,6 +875,43 @@ public class ItemProxy
         return (OutcomeAttachment)getObject(ClusterType.ATTACHMENT+"/"+schema.getName()+"/"+schema.getVersion()+"/"+eventId, locker == null ? transactionKey : locker);
     }
 
+    /**
+     * Opens the binary data of the selected OutcomeAttachment for reading without loading it into the memory.
+     * The caller must close the stream.
+     *
+     * @param schema the Schema used to create the Outcome and its OutcomeAttachment
+     * @param eventId the id of the Event created when the Outcome and the OutcomeAttachment was stored
+     * @return the stream of the binary data
+     * @throws ObjectNotFoundException object was not found
+     */
+    public InputStream getOutcomeAttachmentStream(Schema schema, int eventId) throws ObjectNotFoundException {
+        return getOutcomeAttachmentStream(schema, eventId, transactionKey);
+    }
+
+    /**
+     * Opens the binary data of the selected OutcomeAttachment for reading without loading it into the memory.
+     * This method can be used in server side Script to find uncommitted changes during the active transaction.
+     * The caller must close the stream.
+     *
+     * @param schema the Schema used to create the Outcome and its OutcomeAttachment
+     * @param eventId the id of the Event created when the Outcome and the OutcomeAttachment was stored
+     * @param locker the transaction key
+     * @return the stream of the binary data
+     * @throws ObjectNotFoundException object was not found
+     */
+    public InputStream getOutcomeAttachmentStream(Schema schema, int eventId, Object locker) throws ObjectNotFoundException {
+        String path = ClusterType.ATTACHMENT+"/"+schema.getName()+"/"+schema.getVersion()+"/"+eventId;
+
+        try {
+            return Gateway.getStorage().getAttachmentStream(mItemPath, path, locker == null ? transactionKey : locker);
+        }
+        catch (PersistencyException ex) {
+            Logger.error("ItemProxy.getOutcomeAttachmentStream() - Exception loading object:"+mItemPath+"/"+path);
+            Logger.error(ex);
+            throw new ObjectNotFoundException(ex.toString());
+        }
+    }
+
     /**
      * Finds the first finishing job with the given name for the given Agent in the workflow.
      *
@@ -1108,6 +1170,38 @@ public class ItemProxy
         }
     }
 
+    /**
+     * Retrieves several C2KLocalObjects of the Item. Objects not in the cache are fetched together, which for
+     * client processes means a single remote call instead of one for each object.
+     *
+     * @param paths the paths to the cluster objects
+     * @return the C2KLocalObjects in the same order as the paths, containing null for each object not found
+     * @throws ObjectNotFoundException the objects could not be retrieved
+     */
+    public List<C2KLocalObject> getObjects(List<String> paths) throws ObjectNotFoundException {
+        return getObjects(paths, transactionKey);
+    }
+
+    /**
+     * Retrieves several C2KLocalObjects of the Item. This method can be used in server side Script to find
+     * uncommitted changes during the active transaction.
+     *
+     * @param paths the paths to the cluster objects
+     * @param locker the transaction key
+     * @return the C2KLocalObjects in the same order as the paths, containing null for each object not found
+     * @throws ObjectNotFoundException the objects could not be retrieved
+     */
+    public List<C2KLocalObject> getObjects(List<String> paths, Object locker) throws ObjectNotFoundException {
+        try {
+            return Gateway.getStorage().getAll(mItemPath, paths, locker == null ? transactionKey : locker);
+        }
+        catch( PersistencyException ex ) {
+            Logger.error("ItemProxy.getObjects() - Exception loading objects of:"+mItemPath);
+            Logger.error(ex);
+            throw new ObjectNotFoundException( ex.toString() );
+        }
+    }
+
     /**
      * Retrieves the values of a BuiltInItemProperty
      *
@@ -1151,6 +1245,13 @@ public class ItemProxy
      * @return the value of the property
      */
     public String getProperty(String name, String defaultValue, Object locker) {
+        Map<String, Property> snapshot = getPropertySnapshot(locker);
+
+        if (snapshot != null) {
+            Property prop = snapshot.get(name);
+            return prop != null ? prop.getValue() : defaultValue;
+        }
+
         try {
             if (checkContent(ClusterType.PROPERTY.getName(), name, locker == null ? transactionKey : locker)) {
                 return getProperty(name, locker == null ? transactionKey : locker);
@@ -1184,12 +1285,127 @@ public class ItemProxy
     public String getProperty(String name, Object locker) throws ObjectNotFoundException {
         Logger.msg(5, "ItemProxy.getProperty() - "+name+" from item "+mItemPath);
 
-        Property prop = (Property)getObject(ClusterType.PROPERTY+"/"+name, locker == null ? transactionKey : locker);
+        Map<String, Property> snapshot = getPropertySnapshot(locker);
+
+        Property prop = snapshot != null ? snapshot.get(name) 
+                                         : (Property)getObject(ClusterType.PROPERTY+"/"+name, locker == null ? transactionKey : locker);
 
         if(prop != null) return prop.getValue();
         else             throw new ObjectNotFoundException("ItemProxy.getProperty() - COULD not find property "+name+" from item "+mItemPath);
     }
 
+    /**
+     * Checks if the Item has the named Property
+     *
+     * @param name of the Item Property
+     * @return true if the Property exists
+     */
+    public boolean propertyExists(String name) {
+        return propertyExists(name, transactionKey);
+    }
+
+    /**
+     * Checks if the Item has the named Property. This method can be used in server side Script to find 
+     * uncommitted changes during the active transaction.
+     *
+     * @param name of the Item Property
+     * @param locker the transaction key
+     * @return true if the Property exists
+     */
+    public boolean propertyExists(String name, Object locker) {
+        Map<String, Property> snapshot = getPropertySnapshot(locker);
+
+        if (snapshot != null) return snapshot.containsKey(name);
+
+        try {
+            return checkContent(ClusterType.PROPERTY.getName(), name, locker == null ? transactionKey : locker);
+        }
+        catch (ObjectNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Loads all committed Properties of the Item in one operation into the snapshot used by getProperty() and 
+     * propertyExists() without a transaction key. The snapshot is dropped when a change of a Property is notified
+     * and loaded again on the next use if {@value #PROPERTY_SNAPSHOT} is enabled.
+     *
+     * @return the Properties of the Item
+     * @throws ObjectNotFoundException the Properties could not be loaded
+     */
+    public PropertyArrayList loadProperties() throws ObjectNotFoundException {
+        int generation;
+        synchronized (mPropertyLock) {
+            generation = mPropertyGeneration;
+        }
+
+        Map<String, Property> snapshot = new HashMap<String, Property>();
+
+        try {
+            List<String> paths = new ArrayList<String>();
+            for (String name : Gateway.getStorage().getClusterContents(mItemPath, ClusterType.PROPERTY)) {
+                paths.add(ClusterType.PROPERTY+"/"+name);
+            }
+
+            for (C2KLocalObject obj : Gateway.getStorage().getAll(mItemPath, paths, null)) {
+                if (obj != null) snapshot.put(((Property)obj).getName(), (Property)obj);
+            }
+        }
+        catch (PersistencyException e) {
+            Logger.error("ItemProxy.loadProperties() - Exception loading properties of:"+mItemPath);
+            Logger.error(e);
+            throw new ObjectNotFoundException(e.toString());
+        }
+
+        Logger.msg(7, "ItemProxy.loadProperties() - loaded "+snapshot.size()+" properties of item:"+mItemPath);
+
+        synchronized (mPropertyLock) {
+            // a change was notified during the loading, the next use shall load it again
+            if (generation == mPropertyGeneration) mPropertySnapshot = Collections.unmodifiableMap(snapshot);
+        }
+
+        return new PropertyArrayList(new ArrayList<Property>(snapshot.values()));
+    }
+
+    /**
+     * Drops the Property snapshot, the next read of the Properties will go to the storage
+     */
+    public void clearPropertySnapshot() {
+        synchronized (mPropertyLock) {
+            mPropertyGeneration++;
+            mPropertySnapshot = null;
+        }
+    }
+
+    /**
+     * The snapshot contains the committed Properties only, so it is not used within a transaction.
+     *
+     * @param locker the transaction key
+     * @return the snapshot or null if it cannot be used
+     */
+    private Map<String, Property> getPropertySnapshot(Object locker) {
+        if (locker != null || transactionKey != null) return null;
+
+        Map<String, Property> snapshot = mPropertySnapshot;
+
+        if (snapshot == null && isPropertySnapshotEnabled()) {
+            try {
+                loadProperties();
+                snapshot = mPropertySnapshot;
+            }
+            catch (ObjectNotFoundException e) {
+                // fall back to reading the Properties one by one
+            }
+        }
+        return snapshot;
+    }
+
+    private static boolean isPropertySnapshotEnabled() {
+        if (Gateway.getProperties().containsKey(PROPERTY_SNAPSHOT)) return Gateway.getProperties().getBoolean(PROPERTY_SNAPSHOT);
+
+        return !AbstractMain.isServer && Gateway.getProxyManager() != null && Gateway.getProxyManager().hasServerConnections();
+    }
+
     /**
      * Get the name of the Item from its Property called Name
      *
@@ -1232,28 +1448,72 @@ public class ItemProxy
         return (Event) getObject(HISTORY + "/" + eventId, locker == null ? transactionKey : locker);
     }
 
+    /**
+     * Retrieves the Events with ids between from (inclusive) and to (exclusive), fetching {@value #EVENT_PAGE_SIZE} Events per call.
+     * Ids without Event are skipped.
+     *
+     * @param from the id of the first Event
+     * @param to the id after the last Event
+     * @return the list of Events ordered by id
+     * @throws ObjectNotFoundException the Events could not be retrieved
+     */
+    public List<Event> getEvents(int from, int to) throws ObjectNotFoundException {
+        return getEvents(from, to, transactionKey);
+    }
+
+    /**
+     * Retrieves the Events with ids between from (inclusive) and to (exclusive), fetching {@value #EVENT_PAGE_SIZE} Events per call.
+     * This method can be used in server side Script to find uncommitted changes during the active transaction.
+     *
+     * @param from the id of the first Event
+     * @param to the id after the last Event
+     * @param locker the transaction key
+     * @return the list of Events ordered by id
+     * @throws ObjectNotFoundException the Events could not be retrieved
+     */
+    public List<Event> getEvents(int from, int to, Object locker) throws ObjectNotFoundException {
+        List<Event> events = new ArrayList<>();
+
+        // fetch in pages, so a large range does not create one huge request and response
+        for (int pageStart = Math.max(0, from); pageStart < to; pageStart += EVENT_PAGE_SIZE) {
+            int pageEnd = (int) Math.min((long) pageStart + EVENT_PAGE_SIZE, to);
+
+            List<String> paths = new ArrayList<>(pageEnd - pageStart);
+            for (int id = pageStart; id < pageEnd; id++) paths.add(HISTORY + "/" + id);
+
+            for (C2KLocalObject obj : getObjects(paths, locker)) {
+                if (obj != null) events.add((Event) obj);
+            }
+        }
+        return events;
+    }
+
     //**************************************************************************
     // Subscription methods
     //**************************************************************************/
 
 
+    /**
+     * Registers the subscription and queues its preloading on the executor shared by all subscriptions.
+     *
+     * @param newSub the subscription
+     */
     public void subscribe(MemberSubscription<?> newSub) {
+        ProxyObserver<?> observer = newSub.getObserver();
+        if (observer == null) return; //reaped
+
         newSub.setSubject(this);
-        synchronized (this){
-            mSubscriptions.put( newSub, newSub.getObserver() );
-        }
-        new Thread(newSub).start();
-        Logger.msg(7, "ItemProxy.subscribe() - "+newSub.getObserver().getClass().getName()+" for "+newSub.interest);
+        mSubscriptions.put( newSub, observer );
+        newSub.start();
+        Logger.msg(7, "ItemProxy.subscribe() - "+observer.getClass().getName()+" for "+newSub.interest);
     }
 
     public void unsubscribe(ProxyObserver<?> observer) {
-        synchronized (this){
-            for (Iterator<MemberSubscription<?>> e = mSubscriptions.keySet().iterator(); e.hasNext();) {
-                MemberSubscription<?> thisSub = e.next();
-                if (mSubscriptions.get( thisSub ) == observer) {
-                    e.remove();
-                    Logger.msg(7, "ItemProxy.unsubscribed() - "+observer.getClass().getName());
-                }
+        for (Iterator<MemberSubscription<?>> e = mSubscriptions.keySet().iterator(); e.hasNext();) {
+            MemberSubscription<?> thisSub = e.next();
+            if (mSubscriptions.get( thisSub ) == observer) {
+                e.remove();
+                Logger.msg(7, "ItemProxy.unsubscribed() - "+observer.getClass().getName());
             }
         }
     }
@@ -1262,32 +1522,38 @@ public class ItemProxy
         if(!Logger.doLog(logLevel) || mSubscriptions.size() == 0) return;
 
         Logger.msg(logLevel, "Subscriptions to proxy "+mItemPath+":");
-        synchronized(this) {
-            for (MemberSubscription<?> element : mSubscriptions.keySet()) {
-                ProxyObserver<?> obs = element.getObserver();
-                if (obs != null)
-                    Logger.msg(logLevel, "    "+element.getObserver().getClass().getName()+" subscribed to "+element.interest);
-                else
-                    Logger.msg(logLevel, "    Phantom subscription to "+element.interest);
-            }
+        for (MemberSubscription<?> element : mSubscriptions.keySet()) {
+            ProxyObserver<?> obs = element.getObserver();
+            if (obs != null)
+                Logger.msg(logLevel, "    "+obs.getClass().getName()+" subscribed to "+element.interest);
+            else
+                Logger.msg(logLevel, "    Phantom subscription to "+element.interest);
         }
     }
 
+    /**
+     * Clears the cache of the changed path if the change was made by another server, and queues the update
+     * for each subscription. The updates are delivered asynchronously, so this method does not wait for the observers.
+     *
+     * @param message the change notification
+     */
     public void notify(ProxyMessage message) {
         Logger.msg(4, "ItemProxy.notify() - Received change notification for "+message.getPath()+" on "+mItemPath);
-        synchronized (this){
-            if (Gateway.getProxyServer()== null || !message.getServer().equals(Gateway.getProxyServer().getServerName())) {
-                Gateway.getStorage().clearCache(mItemPath, message.getPath());
-            }
-            for (Iterator<MemberSubscription<?>> e = mSubscriptions.keySet().iterator(); e.hasNext();) {
-                MemberSubscription<?> newSub = e.next();
-                if (newSub.getObserver() == null) { // phantom
-                    Logger.msg(4, "ItemProxy.notify() - Removing phantom subscription to "+newSub.interest);
-                    e.remove();
-                }
-                else
-                    newSub.update(message.getPath(), message.isState());
+
+        if (Gateway.getProxyServer()== null || !message.getServer().equals(Gateway.getProxyServer().getServerName())) {
+            Gateway.getStorage().clearCache(mItemPath, message.getPath());
+        }
+
+        if (message.getPath().startsWith(ClusterType.PROPERTY.getName())) clearPropertySnapshot();
+
+        for (Iterator<MemberSubscription<?>> e = mSubscriptions.keySet().iterator(); e.hasNext();) {
+            MemberSubscription<?> newSub = e.next();
+            if (newSub.getObserver() == null) { // phantom
+                Logger.msg(4, "ItemProxy.notify() - Removing phantom subscription to "+newSub.interest);
+                e.remove();
             }
+            else
+                newSub.queueUpdate(message.getPath(), message.isState());
         }
     }
 }
@@ -21,17 +21,38 @@
 package org.cristalise.kernel.entity.proxy;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
 
-
+/**
+ * Delivers the changes of a path of an Item to a {@link ProxyObserver}. The preloading and the updates are executed
+ * by a bounded executor shared by all subscriptions of the process, but each subscription has its own serial queue,
+ * so the observer receives its notifications in order and a slow observer does not block the others.
+ * <p>
+ * Notifications arriving while the queue is waiting to be processed are coalesced: only the last state of each path
+ * is kept, and all of them are dropped when the whole contents is to be reloaded anyway.
+ * <p>
+ * The size of the executor is set by the property 'MemberSubscription.threads' (default: 4). It is shut down by
+ * {@link Gateway#close()}, and created again by the next subscription.
+ */
 public class MemberSubscription<C extends C2KLocalObject> implements Runnable {
     public static final String ERROR = "Error";
     public static final String END = "theEND";
 
+    private static ThreadPoolExecutor executor = null;
+
     ItemProxy subject;
     String interest;
     // keep the subscriber by weak reference, so it is not kept from the garbage collector if no longer used
@@ -39,6 +60,11 @@ public class MemberSubscription<C extends C2KLocalObject> implements Runnable {
     ArrayList<String> contents = new ArrayList<String>();
     boolean preLoad;
 
+    // serial queue of the subscription, guarded by 'this'
+    private boolean reloadPending = false;
+    private boolean scheduled = false;
+    private final Map<String, Boolean> pendingUpdates = new LinkedHashMap<String, Boolean>();
+
     public MemberSubscription(ProxyObserver<C> observer, String interest, boolean preLoad) {
         setObserver(observer);
         this.interest = interest;
@@ -51,6 +77,174 @@ public class MemberSubscription<C extends C2KLocalObject> implements Runnable {
         if (preLoad) loadChildren();
     }
 
+    /**
+     * Queues the preloading of the contents if it was requested, to be executed by the shared executor.
+     */
+    public void start() {
+        if (preLoad) queueReload();
+    }
+
+    /**
+     * Queues the update of the given path, to be delivered to the observer by the shared executor. Updates of the
+     * same path are coalesced while they are waiting in the queue.
+     *
+     * @param path the path of the changed object
+     * @param deleted whether the object was deleted
+     */
+    public void queueUpdate(String path, boolean deleted) {
+        if (!path.startsWith(interest)) return; // doesn't concern us
+
+        if (path.equals(interest)) {
+            queueReload();
+            return;
+        }
+
+        synchronized (this) {
+            if (reloadPending) {
+                Logger.msg(8, "MemberSubscription.queueUpdate() - reload is pending, skipping path:"+path);
+                return;
+            }
+            pendingUpdates.remove(path);
+            pendingUpdates.put(path, deleted);
+            schedule();
+        }
+    }
+
+    private synchronized void queueReload() {
+        reloadPending = true;
+        pendingUpdates.clear();
+        schedule();
+    }
+
+    /**
+     * Submits the processing of the queue unless it is already submitted. Must be called holding the monitor.
+     */
+    private void schedule() {
+        if (scheduled) return;
+
+        scheduled = true;
+        try {
+            getExecutor().execute(new QueueTask(this));
+        }
+        catch (RuntimeException ex) {
+            scheduled = false;
+            Logger.error("MemberSubscription.schedule() - could not submit interest:"+interest);
+            Logger.error(ex);
+        }
+    }
+
+    private void processQueue() {
+        while (true) {
+            boolean reload;
+            Map<String, Boolean> updates;
+
+            synchronized (this) {
+                if (!reloadPending && pendingUpdates.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+                reload = reloadPending;
+                updates = new LinkedHashMap<String, Boolean>(pendingUpdates);
+                reloadPending = false;
+                pendingUpdates.clear();
+            }
+
+            try {
+                if (reload) loadChildren();
+
+                for (Map.Entry<String, Boolean> entry : updates.entrySet()) {
+                    update(entry.getKey(), entry.getValue());
+                }
+            }
+            catch (Exception ex) {
+                Logger.error("MemberSubscription.processQueue() - interest:"+interest);
+                Logger.error(ex);
+            }
+        }
+    }
+
+    /**
+     * Drops the queue after its task was discarded by {@link #shutdown(long)}, so the next notification schedules
+     * the subscription again.
+     */
+    private synchronized void discardQueue() {
+        reloadPending = false;
+        pendingUpdates.clear();
+        scheduled = false;
+    }
+
+    /**
+     * The task processing the queue of a subscription, which can be found among the tasks discarded by the executor
+     */
+    private static class QueueTask implements Runnable {
+        final MemberSubscription<?> subscription;
+
+        QueueTask(MemberSubscription<?> subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void run() {
+            subscription.processQueue();
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = Gateway.getProperties() == null ? 4 : Gateway.getProperties().getInt("MemberSubscription.threads", 4);
+            threads = Math.max(1, threads);
+
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = (r) -> {
+                Thread t = new Thread(r, "MemberSubscription-"+count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+
+            // each subscription has at most one task in the queue, so it is bounded by the number of subscriptions
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the executor shared by the subscriptions. The queued notifications are still delivered until the
+     * deadline, then the running ones are interrupted and the remaining ones are discarded. The subscriptions of the
+     * discarded notifications are scheduled again by their next notification.
+     *
+     * @param deadline the time in milliseconds when the waiting for the queued notifications stops
+     * @return true if all queued notifications were delivered
+     */
+    public static boolean shutdown(long deadline) {
+        ThreadPoolExecutor pool;
+
+        synchronized (MemberSubscription.class) {
+            pool = executor;
+            executor = null;
+        }
+
+        if (pool == null) return true;
+
+        pool.shutdown();
+
+        try {
+            if (pool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Runnable> discarded = pool.shutdownNow();
+
+        for (Runnable task : discarded) {
+            if (task instanceof QueueTask) ((QueueTask) task).subscription.discardQueue();
+        }
+
+        Logger.warning("MemberSubscription.shutdown() - discarded the queued notifications of " + discarded.size() + " subscription(s)");
+        return false;
+    }
+
     @SuppressWarnings("unchecked")
     private void loadChildren() {
         C newMember;
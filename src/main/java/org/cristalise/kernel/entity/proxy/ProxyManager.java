@@ -96,6 +96,25 @@ public class ProxyManager {
         connections.put(name, new ProxyServerConnection(name, port, this));
     }
 
+    /**
+     * @return true if this process is connected to proxy servers, i.e. the proxies are notified of the changes
+     */
+    public boolean hasServerConnections() {
+        return !connections.isEmpty();
+    }
+
+    /**
+     * Returns the proxy of the Item if it is already in the pool, does not create a new one
+     * 
+     * @param itemPath the Item
+     * @return the pooled proxy or null
+     */
+    public ItemProxy getPooledProxy(ItemPath itemPath) {
+        synchronized(proxyPool) {
+            return proxyPool.get(itemPath);
+        }
+    }
+
     protected void resubscribe(ProxyServerConnection conn) {
         synchronized (proxyPool) {
             for (ItemPath key : proxyPool.keySet()) {
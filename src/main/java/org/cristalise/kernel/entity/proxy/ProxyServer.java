@@ -25,16 +25,25 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.metrics.Metrics;
 import org.cristalise.kernel.utils.server.SimpleTCPIPServer;
 
 
 public class ProxyServer implements Runnable {
+    public static final String METRICS = "ProxyServer";
+
+    static {
+        Metrics.registerGauge(METRICS, "Clients",   () -> Gateway.getProxyServer() == null ? 0 : Gateway.getProxyServer().getClientCount());
+        Metrics.registerGauge(METRICS, "QueueSize", () -> Gateway.getProxyServer() == null ? 0 : Gateway.getProxyServer().getQueueSize());
+    }
 
     ArrayList<ProxyClientConnection> proxyClients;
     SimpleTCPIPServer proxyListener = null;
 
     String serverName = null;
     boolean keepRunning = true;
+    /** true while the delivery thread is sending a message taken from the queue */
+    boolean sending = false;
     LinkedBlockingQueue<ProxyMessage> messageQueue;
     
     int port = 0;
@@ -72,7 +81,21 @@ public class ProxyServer implements Runnable {
         }
 
         while(keepRunning) {
-            ProxyMessage message = messageQueue.poll();
+            ProxyMessage message = null;
+
+            try {
+                synchronized(this) {
+                    message = messageQueue.poll();
+                    sending = message != null;
+
+                    if (!sending) {
+                        notifyAll(); // wakes up flush()
+                        wait();
+                    }
+                }
+            }
+            catch (InterruptedException e) { }
+
             if (message != null) {
                 synchronized(proxyClients) {
                     for (ProxyClientConnection client : proxyClients) {
@@ -80,14 +103,6 @@ public class ProxyServer implements Runnable {
                     }
                 }
             }
-            else {
-                try {
-                    synchronized(this) {
-                        if (messageQueue.isEmpty()) wait(); 
-                    }
-                }
-                catch (InterruptedException e) { }
-            }
         }
     }
 
@@ -99,12 +114,46 @@ public class ProxyServer implements Runnable {
         try {
             synchronized(this) { 
                 messageQueue.put(message);
-                notify(); 
+                notifyAll(); 
             }
         }
         catch (InterruptedException e) { }
     }
 
+    public int getClientCount() {
+        if (proxyClients == null) return 0;
+
+        synchronized(proxyClients) {
+            return proxyClients.size();
+        }
+    }
+
+    public int getQueueSize() {
+        return messageQueue == null ? 0 : messageQueue.size();
+    }
+
+    /**
+     * Waits until all queued messages are sent to the connected proxy clients. Used during the shutdown
+     * before the server is closed.
+     * 
+     * @param deadline the System.currentTimeMillis() to wait until
+     * @return true if all messages were sent
+     */
+    public synchronized boolean flush(long deadline) {
+        if (messageQueue == null) return true;
+
+        try {
+            for (long wait = deadline - System.currentTimeMillis(); keepRunning && (sending || !messageQueue.isEmpty()) && wait > 0; wait = deadline - System.currentTimeMillis()) {
+                wait(wait);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return !sending && messageQueue.isEmpty();
+    }
+
     public void reportConnections(int logLevel) {
         synchronized(proxyClients) {
             Logger.msg(logLevel, "Currently connected proxy clients:");
@@ -126,7 +175,7 @@ public class ProxyServer implements Runnable {
 
         synchronized(this) { 
             keepRunning = false; 
-            notify();
+            notifyAll();
         }
     }
 
@@ -25,16 +25,16 @@ import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.lifecycle.instance.stateMachine.StateMachine;
 import org.cristalise.kernel.lookup.AgentPath;
 import org.cristalise.kernel.lookup.ItemPath;
-import org.cristalise.kernel.persistency.RemoteMap;
+import org.cristalise.kernel.persistency.IntKeyRemoteMap;
 import org.cristalise.kernel.persistency.outcome.Schema;
 
 import static org.cristalise.kernel.persistency.ClusterType.HISTORY;
 
 /**
- * The History is an instance of {@link org.cristalise.kernel.persistency.RemoteMap} 
+ * The History is an instance of {@link org.cristalise.kernel.persistency.IntKeyRemoteMap} 
  * which provides a live view onto the Events of an Item.
  */
-public class History extends RemoteMap<Event> {
+public class History extends IntKeyRemoteMap<Event> {
 
     private static final long serialVersionUID = 3273324106002587993L;
 
@@ -20,6 +20,7 @@
  */
 package org.cristalise.kernel.graph.layout;
 
+import java.util.Map;
 import java.util.Vector;
 
 import org.cristalise.kernel.graph.model.DirectedEdge;
@@ -27,14 +28,24 @@ import org.cristalise.kernel.graph.model.GraphModel;
 import org.cristalise.kernel.graph.model.GraphPoint;
 import org.cristalise.kernel.graph.model.Vertex;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.SoftCache;
 
-
+/**
+ * Lays out the vertices of a graph in rows following the out edges from the start vertex. The computed locations are
+ * cached by the structure of the graph (see {@link #getStructureKey(GraphModel)}), so laying out another instance of
+ * the same graph, e.g. the reloaded Workflow of a running Item, only moves the vertices to their known locations.
+ */
 public class DefaultGraphLayoutGenerator {
     private static int mTopMargin = 100;
     private static int mLeftMargin = 100;
     private static int mHorzGap = 180;
     private static int mVertGap = 100;
 
+    /** Vertex id, x and y triplets of the computed layouts keyed by the structure of the graph */
+    private static final Map<String, int[]> mLayoutCache = new SoftCache<String, int[]>(16);
+    /** Number of layouts taken from the cache, guarded by mLayoutCache */
+    private static long mCacheHits = 0;
+
     private DefaultGraphLayoutGenerator() {
     }
 
@@ -47,15 +58,98 @@ public class DefaultGraphLayoutGenerator {
             Logger.msg(1,"Error graph must have a starting vertex to be layed out");
             return;
         }
-        graphModel.clearTags(start);
-        visitVertex(graphModel, start, 0, rowVector, start);
-        midPoints = new int[rowVector.size()];
-        valueOfLargestMidPoint = calculateRowMidPoints(rowVector, midPoints, valueOfLargestMidPoint);
-        fillInVertexLocations(graphModel, rowVector, valueOfLargestMidPoint, midPoints);
+
+        String structureKey = getStructureKey(graphModel);
+        int[] layout;
+
+        synchronized (mLayoutCache) {
+            layout = mLayoutCache.get(structureKey);
+            if (layout != null) mCacheHits++;
+        }
+
+        if (layout != null) {
+            Logger.msg(8, "DefaultGraphLayoutGenerator.layoutGraph() - reusing cached layout of "+(layout.length/3)+" vertices");
+            applyLayout(graphModel, layout);
+        }
+        else {
+            graphModel.clearTags(start);
+            visitVertex(graphModel, start, 0, rowVector, start);
+            midPoints = new int[rowVector.size()];
+            valueOfLargestMidPoint = calculateRowMidPoints(rowVector, midPoints, valueOfLargestMidPoint);
+            fillInVertexLocations(graphModel, rowVector, valueOfLargestMidPoint, midPoints);
+
+            synchronized (mLayoutCache) {
+                mLayoutCache.put(structureKey, recordLayout(rowVector));
+            }
+        }
         fillInEdgeLocations(graphModel);
         graphModel.forceNotify();
     }
 
+    /**
+     * @return the number of layouts taken from the cache since the class was loaded
+     */
+    public static long getCacheHits() {
+        synchronized (mLayoutCache) {
+            return mCacheHits;
+        }
+    }
+
+    /**
+     * Drops all cached layouts
+     */
+    public static void clearCache() {
+        synchronized (mLayoutCache) {
+            mLayoutCache.clear();
+        }
+    }
+
+    /**
+     * The layout only depends on the start vertex and the ordered out vertices of each vertex, so these identify
+     * the structure of the graph
+     */
+    private static String getStructureKey(GraphModel graphModel) {
+        StringBuilder key = new StringBuilder().append(graphModel.getStartVertexId());
+
+        for (Vertex vertex : graphModel.getVertices()) {
+            key.append(';').append(vertex.getID()).append(':');
+            for (Vertex child : graphModel.getOutVertices(vertex)) key.append(child.getID()).append(',');
+        }
+        return key.toString();
+    }
+
+    private static int[] recordLayout(Vector<Vector<Vertex>> rowVector) {
+        int size = 0;
+        for (Vector<Vertex> rowsVertices : rowVector) size += rowsVertices.size();
+
+        int[] layout = new int[size * 3];
+        int i = 0;
+
+        for (Vector<Vertex> rowsVertices : rowVector) {
+            for (Vertex vertex : rowsVertices) {
+                layout[i++] = vertex.getID();
+                layout[i++] = vertex.getCentrePoint().x;
+                layout[i++] = vertex.getCentrePoint().y;
+            }
+        }
+        return layout;
+    }
+
+    private static void applyLayout(GraphModel graphModel, int[] layout) {
+        GraphPoint point = new GraphPoint(0, 0);
+
+        for (int i = 0; i < layout.length; i += 3) {
+            Vertex vertex = graphModel.resolveVertex(layout[i]);
+
+            if (vertex == null) continue;
+
+            point.x = layout[i + 1];
+            point.y = layout[i + 2];
+            vertex.moveAbsolute(point);
+            graphModel.checkSize(vertex);
+        }
+    }
+
     private static void visitVertex(GraphModel graphModel, Vertex vertex, int rowIndex, Vector<Vector<Vertex>> rowVector, Object tag) {
         int i = 0;
         Vertex[] children = graphModel.getOutVertices(vertex);
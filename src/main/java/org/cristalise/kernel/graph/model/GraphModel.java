@@ -20,7 +20,9 @@
  */
 package org.cristalise.kernel.graph.model;
 
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.cristalise.kernel.graph.event.ClearedEvent;
 import org.cristalise.kernel.graph.event.EdgeRemovedEvent;
@@ -45,8 +47,8 @@ public class GraphModel {
     private int mHeight = 0;
     private int mNextId = 0;
     protected int mStartVertexId = -1;
-    protected Hashtable<String, Vertex> mVertexHashtable = new Hashtable<String, Vertex>();
-    protected Hashtable<String, DirectedEdge> mEdgeHashtable = new Hashtable<String, DirectedEdge>();
+    protected IntKeyMap<Vertex> mVertices = new IntKeyMap<Vertex>();
+    protected IntKeyMap<DirectedEdge> mEdges = new IntKeyMap<DirectedEdge>();
     private GraphableVertex mContainingVertex;
 
     /* Transient data */
@@ -56,6 +58,18 @@ public class GraphModel {
 
     private transient GraphModelManager mManager = null;
 
+    /** Incremented whenever a vertex is added or removed, used by the containing vertex to keep its lookup index */
+    private transient int mVerticesModCount = 0;
+
+    /** Incremented whenever a vertex or an edge is added or removed, used to invalidate the cached traversals */
+    private transient int mStructureModCount = 0;
+
+    /** Memoised results of GraphTraversal, which checks the structure mod count itself */
+    private transient Object mTraversalCache = null;
+
+    /** In and out edges and vertices of each vertex, see {@link #getAdjacency(Vertex)} */
+    private final transient IntKeyMap<Adjacency> mAdjacency = new IntKeyMap<Adjacency>();
+
     /* External factories */
 
     private VertexFactory mExternalVertexFactory = null;
@@ -181,45 +195,83 @@ public class GraphModel {
     }
 
     public void setVertices(Vertex[] vertices) {
-        mVertexHashtable = new Hashtable<String, Vertex>();
+        mVertices = new IntKeyMap<Vertex>(vertices.length);
         for (Vertex vertice : vertices) {
-            mVertexHashtable.put(String.valueOf(vertice.getID()), vertice);
+            mVertices.put(vertice.getID(), vertice);
             checkSize(vertice);
 
         }
+        structureChanged();
         publishEvent(mVerticesChangedEvent);
     }
 
+    /**
+     * @return a counter which changes every time a vertex is added to or removed from this model
+     */
+    public int getVerticesModCount() {
+        return mVerticesModCount;
+    }
+
+    /**
+     * @return a counter which changes every time a vertex or an edge is added to or removed from this model
+     */
+    public int getStructureModCount() {
+        return mStructureModCount;
+    }
+
+    public synchronized Object getTraversalCache() {
+        return mTraversalCache;
+    }
+
+    public synchronized void setTraversalCache(Object cache) {
+        mTraversalCache = cache;
+    }
+
+    /**
+     * @return a copy of the vertices ordered by their IDs
+     */
     public Vertex[] getVertices() {
-        Object[] vertexObjs = mVertexHashtable.values().toArray();
-        Vertex[] vertices = new Vertex[vertexObjs.length];
-        int i = 0;
-        for (i = 0; i < vertices.length; i++) {
-            vertices[i] = (Vertex)vertexObjs[i];
-        }
-        return vertices;
+        return mVertices.values(Vertex[]::new).clone();
+    }
+
+    /**
+     * Iterating the returned list does not copy the vertices, use it instead of {@link #getVertices()}
+     * when the vertices are only read.
+     *
+     * @return unmodifiable list of the vertices ordered by their IDs, it is not updated when the model is modified
+     */
+    public List<Vertex> getVertexList() {
+        return Collections.unmodifiableList(Arrays.asList(mVertices.values(Vertex[]::new)));
     }
 
     public void setEdges(DirectedEdge[] edges) {
-        mEdgeHashtable = new Hashtable<String, DirectedEdge>();
+        mEdges = new IntKeyMap<DirectedEdge>(edges.length);
         for (DirectedEdge edge : edges) {
-            mEdgeHashtable.put(String.valueOf(edge.getID()), edge);
+            mEdges.put(edge.getID(), edge);
         }
+        edgesChanged();
         publishEvent(mEdgesChangedEvent);
     }
 
+    /**
+     * @return a copy of the edges ordered by their IDs
+     */
     public DirectedEdge[] getEdges() {
-        Object[] edgeObjs = mEdgeHashtable.values().toArray();
-        DirectedEdge[] edges = new DirectedEdge[edgeObjs.length];
-        int i = 0;
-        for (i = 0; i < edges.length; i++) {
-            edges[i] = (DirectedEdge)edgeObjs[i];
-        }
-        return edges;
+        return mEdges.values(DirectedEdge[]::new).clone();
+    }
+
+    /**
+     * Iterating the returned list does not copy the edges, use it instead of {@link #getEdges()}
+     * when the edges are only read.
+     *
+     * @return unmodifiable list of the edges ordered by their IDs, it is not updated when the model is modified
+     */
+    public List<DirectedEdge> getEdgeList() {
+        return Collections.unmodifiableList(Arrays.asList(mEdges.values(DirectedEdge[]::new)));
     }
 
 	public Vertex getVertexById(int id) {
-		return mVertexHashtable.get(String.valueOf(id));
+		return mVertices.get(id);
 	}
 
 
@@ -235,7 +287,8 @@ public class GraphModel {
         e.setTerminusPoint(terminus.getCentrePoint());
         origin.addOutEdgeId(mNextId);
         terminus.addInEdgeId(mNextId);
-        mEdgeHashtable.put(String.valueOf(mNextId), e);
+        mEdges.put(mNextId, e);
+        edgesChanged();
         mNextId++;
         return mNextId - 1;
     }
@@ -249,7 +302,8 @@ public class GraphModel {
         origin.removeOutEdgeId(edgeId);
         terminus.removeInEdgeId(edgeId);
         // Remove the edge
-        mEdgeHashtable.remove(String.valueOf(e.getID()));
+        mEdges.remove(e.getID());
+        edgesChanged();
         publishEvent(mEdgeRemovedEvent);
     }
 
@@ -261,8 +315,9 @@ public class GraphModel {
 	        }
 	        placeVertex(v, location);
 	    }
-        mVertexHashtable.put(String.valueOf(mNextId), v);
+        mVertices.put(mNextId, v);
 		v.setID(mNextId);
+        structureChanged();
         return mNextId++;
     }
 
@@ -290,7 +345,7 @@ public class GraphModel {
             // Remove the id of the edge from the origin vertex
             origin.removeOutEdgeId(edgeId);
             // Remove the edge
-            mEdgeHashtable.remove(String.valueOf(edgeId));
+            mEdges.remove(edgeId);
         }
         // Remove all the out edges
         for (i = 0; i < outEdges.length; i++) {
@@ -299,10 +354,11 @@ public class GraphModel {
             // Remove the id of the edge from the terminus vertex
             terminus.removeInEdgeId(edgeId);
             // Remove the edge
-            mEdgeHashtable.remove(String.valueOf(edgeId));
+            mEdges.remove(edgeId);
         }
         // Remove the vertex
-        mVertexHashtable.remove(String.valueOf(v.getID()));
+        mVertices.remove(v.getID());
+        structureChanged();
         publishEvent(mVertexRemovedEvent);
     }
 
@@ -336,30 +392,25 @@ public class GraphModel {
 
 
     public Vertex resolveVertex(int id) {
-        return mVertexHashtable.get(String.valueOf(id));
+        return mVertices.get(id);
     }
 
     public DirectedEdge resolveEdge(int id) {
-        return mEdgeHashtable.get(String.valueOf(id));
+        return mEdges.get(id);
     }
 
+    /**
+     * @return the incoming edges of the vertex. The array is shared until the model is modified, do not change it.
+     */
     public DirectedEdge[] getInEdges(Vertex v) {
-        int[] ids = v.getInEdgeIds();
-        return resolveEdges(ids);
+        return getAdjacency(v).inEdges;
     }
 
+    /**
+     * @return the outgoing edges of the vertex. The array is shared until the model is modified, do not change it.
+     */
     public DirectedEdge[] getOutEdges(Vertex v) {
-        int[] ids = v.getOutEdgeIds();
-        return resolveEdges(ids);
-    }
-
-    private DirectedEdge[] resolveEdges(int[] ids) {
-        DirectedEdge[] edges = new DirectedEdge[ids.length];
-        int i = 0;
-        for (i = 0; i < ids.length; i++) {
-            edges[i] = resolveEdge(ids[i]);
-        }
-        return edges;
+        return getAdjacency(v).outEdges;
     }
 
     public Vertex getOrigin(DirectedEdge e) {
@@ -370,24 +421,76 @@ public class GraphModel {
         return resolveVertex(e.getTerminusVertexId());
     }
 
+    /**
+     * @return the origins of the incoming edges. The array is shared until the model is modified, do not change it.
+     */
     public Vertex[] getInVertices(Vertex v) {
-        DirectedEdge[] inEdges = getInEdges(v);
-        Vertex[] inVertices = new Vertex[inEdges.length];
-        int i = 0;
-        for (i = 0; i < inEdges.length; i++) {
-            inVertices[i] = getOrigin(inEdges[i]);
-        }
-        return inVertices;
+        return getAdjacency(v).inVertices;
     }
 
+    /**
+     * @return the termini of the outgoing edges. The array is shared until the model is modified, do not change it.
+     */
     public Vertex[] getOutVertices(Vertex v) {
-        DirectedEdge[] outEdges = getOutEdges(v);
-        Vertex[] outVertices = new Vertex[outEdges.length];
-        int i = 0;
-        for (i = 0; i < outEdges.length; i++) {
-            outVertices[i] = getTerminus(outEdges[i]);
+        return getAdjacency(v).outVertices;
+    }
+
+    /**
+     * Returns the cached adjacency lists of the vertex, or computes them if the model or the
+     * edge ids of the vertex were changed since they were computed.
+     */
+    private Adjacency getAdjacency(Vertex v) {
+        synchronized (mAdjacency) {
+            Adjacency adj = mAdjacency.get(v.getID());
+
+            if (adj == null || adj.vertex != v || adj.edgeIdsModCount != v.getEdgeIdsModCount()) {
+                adj = new Adjacency(v);
+                mAdjacency.put(v.getID(), adj);
+            }
+            return adj;
+        }
+    }
+
+    private void structureChanged() {
+        mVerticesModCount++;
+        edgesChanged();
+    }
+
+    private void edgesChanged() {
+        mStructureModCount++;
+        synchronized (mAdjacency) {
+            mAdjacency.clear();
+        }
+    }
+
+    /**
+     * Precomputed in/out edges and vertices of a vertex in the order of its edge ids
+     */
+    private class Adjacency {
+        final Vertex         vertex;
+        final int            edgeIdsModCount;
+        final DirectedEdge[] inEdges;
+        final DirectedEdge[] outEdges;
+        final Vertex[]       inVertices;
+        final Vertex[]       outVertices;
+
+        Adjacency(Vertex v) {
+            vertex          = v;
+            edgeIdsModCount = v.getEdgeIdsModCount();
+            inEdges         = new DirectedEdge[v.getInEdgeCount()];
+            inVertices      = new Vertex[inEdges.length];
+            outEdges        = new DirectedEdge[v.getOutEdgeCount()];
+            outVertices     = new Vertex[outEdges.length];
+
+            for (int i = 0; i < inEdges.length; i++) {
+                inEdges[i] = resolveEdge(v.getInEdgeId(i));
+                if (inEdges[i] != null) inVertices[i] = getOrigin(inEdges[i]);
+            }
+            for (int i = 0; i < outEdges.length; i++) {
+                outEdges[i] = resolveEdge(v.getOutEdgeId(i));
+                if (outEdges[i] != null) outVertices[i] = getTerminus(outEdges[i]);
+            }
         }
-        return outVertices;
     }
 
     public DirectedEdge[] getConnectingEdges(int originVertexId, int terminusVertexId) {
@@ -415,11 +518,7 @@ public class GraphModel {
     }
 
     public void clearTags(Object tag) {
-        Vertex vertex = null;
-        Object[] vertexObjs = mVertexHashtable.values().toArray();
-        int i = 0;
-        for (i = 0; i < vertexObjs.length; i++) {
-            vertex = (Vertex)vertexObjs[i];
+        for (Vertex vertex : mVertices.values(Vertex[]::new)) {
             vertex.clearTag(tag);
         }
     }
@@ -429,9 +528,10 @@ public class GraphModel {
     }
 
     public void clear() {
-        mVertexHashtable = new Hashtable<String, Vertex>();
-        mEdgeHashtable = new Hashtable<String, DirectedEdge>();
+        mVertices = new IntKeyMap<Vertex>();
+        mEdges = new IntKeyMap<DirectedEdge>();
         mStartVertexId = -1;
+        structureChanged();
         publishEvent(mClearedEvent);
     }
 
@@ -488,7 +588,7 @@ public class GraphModel {
 
 
     public void resetVertexOutlines() {
-        Vertex[] vertices = getVertices();
+        Vertex[] vertices = mVertices.values(Vertex[]::new);
         int i = 0;
         for (i = 0; i < vertices.length; i++) {
             mVertexOutlineCreator.setOutline(vertices[i]);
@@ -498,37 +598,27 @@ public class GraphModel {
     public void setGraphModelCastorData(GraphModelCastorData data) {
         int i = 0;
 
-        // Create and populate the vertex hashtable
-        mVertexHashtable = new Hashtable<String, Vertex>();
+        // Create and populate the vertex map
+        mVertices = new IntKeyMap<Vertex>(data.mVertexImpls.length);
         for (i = 0; i < data.mVertexImpls.length; i++) {
-            mVertexHashtable.put(String.valueOf(data.mVertexImpls[i].getID()), data.mVertexImpls[i]);
+            mVertices.put(data.mVertexImpls[i].getID(), data.mVertexImpls[i]);
             checkSize(data.mVertexImpls[i]);
         }
-        // Create and populate the edge hastable
-        mEdgeHashtable = new Hashtable<String, DirectedEdge>();
+        // Create and populate the edge map
+        mEdges = new IntKeyMap<DirectedEdge>(data.mEdgeImpls.length);
         for (i = 0; i < data.mEdgeImpls.length; i++) {
-            mEdgeHashtable.put(String.valueOf(data.mEdgeImpls[i].getID()), data.mEdgeImpls[i]);
+            mEdges.put(data.mEdgeImpls[i].getID(), data.mEdgeImpls[i]);
         }
         // Set the start vertex id and the id generation counter
         mStartVertexId = data.mStartVertexId;
         mNextId = data.mNextId;
+        structureChanged();
     }
 
     public GraphModelCastorData getGraphModelCastorData() {
-        Object[] vertexObjs = mVertexHashtable.values().toArray();
-        Vertex[] vertexImpls = new Vertex[vertexObjs.length];
-        Object[] edgeObjs = mEdgeHashtable.values().toArray();
-        DirectedEdge[] directedEdgeImpls = new DirectedEdge[edgeObjs.length];
+        Vertex[] vertexImpls = getVertices();
+        DirectedEdge[] directedEdgeImpls = getEdges();
         String className = null;
-        int i = 0;
-        // Put in the vertices
-        for (i = 0; i < vertexImpls.length; i++) {
-            vertexImpls[i] = (Vertex)vertexObjs[i];
-        }
-        // Put in the edges
-        for (i = 0; i < directedEdgeImpls.length; i++) {
-            directedEdgeImpls[i] = (DirectedEdge)edgeObjs[i];
-        }
         // Disable persistency of the vertex outline creator: determined by container
         // Determine the class name of the vertex outline creator
 //        if (mVertexOutlineCreator == null) {
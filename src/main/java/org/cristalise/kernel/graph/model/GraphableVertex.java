@@ -23,6 +23,10 @@ package org.cristalise.kernel.graph.model;
 import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.ACTIVITY_DEF_URN;
 import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.NAME;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.lifecycle.instance.Activity;
@@ -37,12 +41,38 @@ public abstract class GraphableVertex extends Vertex {
     protected boolean     mIsComposite;
     private GraphModel    mChildrenGraphModel;
 
+    /** ID of the children mapped to the child vertex, see {@link #findChild(String)} */
+    private HashMap<String, GraphableVertex> mChildIndex = null;
+    /** Name and Name property of the children mapped to the first child vertex having it, see {@link #findChild(String)} */
+    private HashMap<String, GraphableVertex> mChildNameIndex = null;
+    private GraphModel                       mChildIndexModel = null;
+    private int                              mChildIndexModCount;
+
     public GraphableVertex() {
         mProperties = new CastorHashMap();
     }
 
     public void setProperties(CastorHashMap props) {
         mProperties = props;
+        childKeysChanged();
+    }
+
+    /**
+     * Sets the name and drops the child index of the parent, because the name is one of its keys
+     */
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        childKeysChanged();
+    }
+
+    /**
+     * Sets the ID and drops the child index of the parent, because the ID is one of its keys
+     */
+    @Override
+    public void setID(int id) {
+        super.setID(id);
+        childKeysChanged();
     }
 
     public CastorHashMap getProperties() {
@@ -65,6 +95,7 @@ public abstract class GraphableVertex extends Vertex {
 
     public void setKeyValuePairs(KeyValuePair[] pairs) {
         mProperties.setKeyValuePairs(pairs);
+        childKeysChanged();
     }
 
     /** @associates Graphable that is directly containing it */
@@ -127,6 +158,20 @@ public abstract class GraphableVertex extends Vertex {
         return getLayoutableChildren();
     }
 
+    /**
+     * Returns the children without copying them, use it instead of {@link #getChildren()} when they are only read.
+     *
+     * @return unmodifiable list of the children ordered by their IDs, empty if this vertex is not composite
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<GraphableVertex> getChildrenList() {
+        if (getIsComposite() && mChildrenGraphModel != null) {
+            // all vertices of the children GraphModel are GraphableVertex, see getLayoutableChildren()
+            return (List) mChildrenGraphModel.getVertexList();
+        }
+        return Collections.emptyList();
+    }
+
     public DirectedEdge[] getChildrenEdges() {
         if (getIsComposite()) {
             return getChildrenGraphModel().getEdges();
@@ -148,15 +193,7 @@ public abstract class GraphableVertex extends Vertex {
 
     /** @return the Graphable searched or null if not this or children */
     public GraphableVertex search(String ids) {
-        if (getName().equals(ids))               return this;
-        if (String.valueOf(getID()).equals(ids)) return this;
-
-        if (getProperties() != null
-            && getProperties().getBuiltInProperty(NAME) != null 
-            && getProperties().getBuiltInProperty(NAME).equals(ids))
-        {
-            return this;
-        }
+        if (matches(ids)) return this;
 
         if (getIsComposite()) {
             if (ids.startsWith(String.valueOf(getID()))) ids = ids.substring(ids.indexOf("/") + 1);
@@ -164,14 +201,88 @@ public abstract class GraphableVertex extends Vertex {
             else if (ids.startsWith(getPath()))          ids = ids.substring(getPath().length() + 1);
             else if (getParent() != null)                return null;
 
-            for (GraphableVertex graphable: getChildren()) {
-                GraphableVertex grap = graphable.search(ids);
-                if (grap != null) return grap;
-            }
+            // the remaining path is a child or starts with the name/ID of a child
+            int slash = ids.indexOf('/');
+            GraphableVertex child = findChild(slash == -1 ? ids : ids.substring(0, slash));
+
+            if (child != null) return child.search(ids);
         }
         return null;
     }
 
+    /**
+     * Checks if the given string is the name, the ID or the Name property of this vertex
+     */
+    private boolean matches(String ids) {
+        if (ids.equals(getName()))               return true;
+        if (String.valueOf(getID()).equals(ids)) return true;
+
+        Object nameProp = getProperties() != null ? getProperties().getBuiltInProperty(NAME) : null;
+
+        return nameProp != null && nameProp.equals(ids);
+    }
+
+    /**
+     * Finds the direct child by its name, Name property or ID using an index, which is rebuilt
+     * when vertices were added to or removed from the children GraphModel, or when a child was renamed.
+     * Names are looked up before IDs, and on duplicate names the first child of the GraphModel is returned,
+     * the same as the linear search did. The index is authoritative, so a key missing from the up-to-date
+     * index is not a child. The Name property of a child must be changed with {@link #setBuiltInProperty(BuiltInVertexProperties, Object)},
+     * {@link #setProperty(String, Object, boolean)} or by replacing its properties to be seen by the index.
+     */
+    private GraphableVertex findChild(String key) {
+        if (mChildrenGraphModel == null) return null;
+
+        if (!isChildIndexValid()) buildChildIndex();
+
+        GraphableVertex child = mChildNameIndex.get(key);
+
+        // the name of the child was changed by writing its properties directly
+        if (child != null && !child.matches(key)) {
+            buildChildIndex();
+            child = mChildNameIndex.get(key);
+        }
+
+        return child != null ? child : mChildIndex.get(key);
+    }
+
+    /**
+     * Drops the child index of the parent after the name, ID or Name property of this vertex was changed
+     */
+    private void childKeysChanged() {
+        if (parent != null) {
+            parent.mChildIndex     = null;
+            parent.mChildNameIndex = null;
+        }
+    }
+
+    /**
+     * @return true if the child index was built and is up to date with the children GraphModel
+     */
+    boolean isChildIndexValid() {
+        return mChildIndex != null && mChildNameIndex != null && mChildIndexModel == mChildrenGraphModel
+                && mChildrenGraphModel != null && mChildIndexModCount == mChildrenGraphModel.getVerticesModCount();
+    }
+
+    private void buildChildIndex() {
+        HashMap<String, GraphableVertex> index     = new HashMap<>();
+        HashMap<String, GraphableVertex> nameIndex = new HashMap<>();
+
+        for (GraphableVertex child : getChildrenList()) {
+            index.putIfAbsent(String.valueOf(child.getID()), child);
+
+            if (child.getName() != null) nameIndex.putIfAbsent(child.getName(), child);
+
+            Object nameProp = child.getProperties() != null ? child.getProperties().getBuiltInProperty(NAME) : null;
+            if (nameProp != null) nameIndex.putIfAbsent(nameProp.toString(), child);
+        }
+
+        mChildIndex         = index;
+        mChildNameIndex     = nameIndex;
+        mChildIndexModel    = mChildrenGraphModel;
+        mChildIndexModCount = mChildrenGraphModel.getVerticesModCount();
+    }
+
     /**
      * Returns the isLayoutable.
      *
@@ -289,6 +400,15 @@ public abstract class GraphableVertex extends Vertex {
 
     public void setBuiltInProperty(BuiltInVertexProperties prop, Object val) {
         mProperties.put(prop.getName(), val);
+        if (prop == NAME) childKeysChanged();
+    }
+
+    /**
+     * Sets the property and drops the child index of the parent if the Name property was changed
+     */
+    public void setProperty(String key, Object val, boolean isAbstract) {
+        mProperties.put(key, val, isAbstract);
+        if (NAME.getName().equals(key)) childKeysChanged();
     }
 
     public void updatePropertiesFromCollection(BuiltInVertexProperties vertexProp, CastorHashMap newProps) throws InvalidDataException {
@@ -323,6 +443,7 @@ public abstract class GraphableVertex extends Vertex {
             + " id:" + getID());
             newProps.dump(5);
             mProperties.merge(newProps);
+            childKeysChanged();
         }
         else
             Logger.msg(5, "GraphableVertex.updatePropertiesFromCollection(slotID:" + slotID + ") - SKIPPING name:" + getName() + " id:"
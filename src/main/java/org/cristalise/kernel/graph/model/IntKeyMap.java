@@ -0,0 +1,193 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.graph.model;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Open addressing hash map with primitive int keys used by {@link GraphModel} to store vertices and edges
+ * by their IDs without boxing. The values are also kept in an array ordered by the keys, which is built
+ * on demand and reused until the next modification, so iterating the values does not allocate.
+ * <p>
+ * Not synchronized, GraphModel is only modified by the thread executing the Workflow. Reading the values
+ * from several threads is safe as long as the map is not modified.
+ *
+ * @param <V> type of the values
+ */
+final class IntKeyMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[]     keys;
+    private Object[]  values;
+    private boolean[] used;
+    private int       size = 0;
+
+    /** Values ordered by the keys, null if the map was modified since they were collected */
+    private volatile Object[] sortedValues = null;
+
+    public IntKeyMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntKeyMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+
+        keys   = new int[capacity];
+        values = new Object[capacity];
+        used   = new boolean[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+
+        for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V) values[i];
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if ((size + 1) * 2 > keys.length) resize(keys.length * 2);
+
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                sortedValues = null;
+                return old;
+            }
+        }
+
+        used[i]   = true;
+        keys[i]   = key;
+        values[i] = value;
+        size++;
+        sortedValues = null;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int mask = keys.length - 1;
+
+        for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                deleteSlot(i);
+                size--;
+                sortedValues = null;
+                return old;
+            }
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(values, null);
+        size = 0;
+        sortedValues = null;
+    }
+
+    /**
+     * Returns the values ordered by their keys. The array is shared until the map is modified,
+     * so it must not be changed by the caller.
+     *
+     * @param generator creates the typed array of the given length
+     * @return the values ordered by their keys
+     */
+    @SuppressWarnings("unchecked")
+    public V[] values(IntFunction<V[]> generator) {
+        Object[] result = sortedValues;
+
+        // concurrent readers may collect the values at the same time, they produce equal arrays
+        if (result == null) {
+            int[] sortedKeys = new int[size];
+            int n = 0;
+
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i]) sortedKeys[n++] = keys[i];
+            }
+            Arrays.sort(sortedKeys);
+
+            result = generator.apply(size);
+            for (int i = 0; i < size; i++) result[i] = get(sortedKeys[i]);
+
+            // the array is fully populated before it is published by the volatile write
+            sortedValues = result;
+        }
+        return (V[]) result;
+    }
+
+    /**
+     * Backward shift deletion, keeps the probe sequences intact without tombstones
+     */
+    private void deleteSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+
+        for (int i = (slot + 1) & mask; used[i]; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+
+            // move the entry to the hole if its home slot is not between the hole and its current slot
+            if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i)) {
+                keys[hole]   = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+
+        used[hole]   = false;
+        values[hole] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity) {
+        int[]     oldKeys   = keys;
+        Object[]  oldValues = values;
+        boolean[] oldUsed   = used;
+
+        keys   = new int[capacity];
+        values = new Object[capacity];
+        used   = new boolean[capacity];
+        size   = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) put(oldKeys[i], (V) oldValues[i]);
+        }
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -21,8 +21,10 @@
 package org.cristalise.kernel.graph.model;
 
 import java.awt.Polygon;
+import java.util.Arrays;
 import java.util.Vector;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
@@ -34,10 +36,21 @@ public class Vertex {
     private GraphPoint            mCentrePoint     = new GraphPoint(0, 0);
     private int                   mHeight          = 0;
     private int                   mWidth           = 0;
-    private Vector<Integer>       mInEdgeIdVector  = new Vector<Integer>();
-    private Vector<Integer>       mOutEdgeIdVector = new Vector<Integer>();
     private final Vector<Object>  mTags            = new Vector<Object>();
 
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private int[] mInEdgeIds     = new int[0];
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private int   mInEdgeCount   = 0;
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private int[] mOutEdgeIds    = new int[0];
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private int   mOutEdgeCount  = 0;
+
+    /** Incremented whenever the in or out edge ids change, so GraphModel knows when its adjacency cache is stale */
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private transient int mEdgeIdsModCount = 0;
+
     /**
      * The Java Polygon class is used to determine if a point lies within the outline of a vertex.
      * Unfortunately both the polygon and the set of outline points need to kept in memory because 
@@ -98,70 +111,81 @@ public class Vertex {
     }
 
     public void setInEdgeIds(int[] ids) {
-        mInEdgeIdVector = new Vector<Integer>(10, 10);
-
-        for(int i=0; i < ids.length; i++) mInEdgeIdVector.add(Integer.valueOf(ids[i]));
+        mInEdgeIds   = Arrays.copyOf(ids, ids.length);
+        mInEdgeCount = ids.length;
+        mEdgeIdsModCount++;
     }
 
     public int[] getInEdgeIds() {
-        return integerVectorToIntArray(mInEdgeIdVector);
+        return Arrays.copyOf(mInEdgeIds, mInEdgeCount);
     }
 
     public void setOutEdgeIds(int[] ids) {
-        mOutEdgeIdVector = new Vector<Integer>(10, 10);
-
-        for(int i=0; i < ids.length; i++) mOutEdgeIdVector.add(Integer.valueOf(ids[i]));
+        mOutEdgeIds   = Arrays.copyOf(ids, ids.length);
+        mOutEdgeCount = ids.length;
+        mEdgeIdsModCount++;
     }
 
     public int[] getOutEdgeIds() {
-        return integerVectorToIntArray(mOutEdgeIdVector);
+        return Arrays.copyOf(mOutEdgeIds, mOutEdgeCount);
     }
 
-    private static int[] integerVectorToIntArray(Vector<Integer> vector) {
-        int[]   array   = new int[vector.size()];
-        Integer integer = null;
+    int getInEdgeCount() {
+        return mInEdgeCount;
+    }
 
-        for(int i=0; i<array.length; i++) {
-            integer  = vector.elementAt(i);
-            array[i] = integer.intValue();
-        }
+    int getInEdgeId(int i) {
+        return mInEdgeIds[i];
+    }
 
-        return array;
+    int getOutEdgeCount() {
+        return mOutEdgeCount;
     }
 
-    public void addInEdgeId(int id) {
-        mInEdgeIdVector.add(Integer.valueOf(id));
+    int getOutEdgeId(int i) {
+        return mOutEdgeIds[i];
     }
 
-    public void removeInEdgeId(int id) {
-        Integer integer = null;
+    int getEdgeIdsModCount() {
+        return mEdgeIdsModCount;
+    }
 
-        for(int i=0; i < mInEdgeIdVector.size(); i++) {
-            integer = mInEdgeIdVector.elementAt(i);
+    public void addInEdgeId(int id) {
+        if (mInEdgeCount == mInEdgeIds.length) mInEdgeIds = Arrays.copyOf(mInEdgeIds, mInEdgeCount * 2 + 2);
 
-            if(integer.intValue() == id) {
-                mInEdgeIdVector.removeElementAt(i);
-                return;
-            }
-        }
+        mInEdgeIds[mInEdgeCount++] = id;
+        mEdgeIdsModCount++;
     }
 
-    public void addOutEdgeId(int id) {
-        mOutEdgeIdVector.add(Integer.valueOf(id));
+    public void removeInEdgeId(int id) {
+        mInEdgeCount = removeId(mInEdgeIds, mInEdgeCount, id);
     }
 
+    public void addOutEdgeId(int id) {
+        if (mOutEdgeCount == mOutEdgeIds.length) mOutEdgeIds = Arrays.copyOf(mOutEdgeIds, mOutEdgeCount * 2 + 2);
 
-    public void removeOutEdgeId(int id) {
-        Integer integer = null;
+        mOutEdgeIds[mOutEdgeCount++] = id;
+        mEdgeIdsModCount++;
+    }
 
-        for(int i=0; i<mOutEdgeIdVector.size(); i++) {
-            integer = mOutEdgeIdVector.elementAt(i);
+    public void removeOutEdgeId(int id) {
+        mOutEdgeCount = removeId(mOutEdgeIds, mOutEdgeCount, id);
+    }
 
-            if(integer.intValue() == id) {
-                mOutEdgeIdVector.removeElementAt(i);
-                return;
+    /**
+     * Removes the first occurrence of the id keeping the order of the others
+     * 
+     * @return the new number of ids
+     */
+    private int removeId(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                System.arraycopy(ids, i + 1, ids, i, count - i - 1);
+                mEdgeIdsModCount++;
+                return count - 1;
             }
         }
+        return count;
     }
 
     public void setTag(Object o) {
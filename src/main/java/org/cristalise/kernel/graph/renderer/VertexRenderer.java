@@ -36,4 +36,15 @@ public interface VertexRenderer {
      * @param vertex the vertex to be draw
      */
     public void draw(Graphics2D g2d, Vertex vertex);
+
+    /**
+     * Tells if the drawing of the given vertex depends on its state, i.e. it can change without changing
+     * the structure or the layout of the graph. Renderers may cache the drawing of the other vertices.
+     *
+     * @param vertex the vertex to be drawn
+     * @return true if the vertex has to be drawn each time, which is the default
+     */
+    public default boolean isStateDependent(Vertex vertex) {
+        return true;
+    }
 }
@@ -21,13 +21,24 @@
 package org.cristalise.kernel.graph.traversal;
 
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.cristalise.kernel.graph.model.GraphModel;
 import org.cristalise.kernel.graph.model.Vertex;
 
 
-
+/**
+ * Computes the vertices reachable from a start vertex following the edges downwards or upwards.
+ * <p>
+ * The traversal is iterative and keeps the visited vertices in a local BitSet indexed by the vertex IDs,
+ * so it does not use the tags of the vertices and can run concurrently. The results are memoised for
+ * each GraphModel until a vertex or an edge is added or removed (see {@link GraphModel#getStructureModCount()}),
+ * so the repeated evaluation of Joins, Loops and Splits does not traverse the graph again.
+ */
 public class GraphTraversal
 {
     public static final int kUp   = 1;
@@ -39,53 +50,130 @@ public class GraphTraversal
     }
 
 
+    /**
+     * Returns the start vertex and all the vertices reachable from it in the given direction. When ignoreBackLinks
+     * is set, the edges pointing back to a Join (kUp) or a Loop (kDown) from the inside of its cycle are not followed.
+     * 
+     * @return the vertices in depth first order. The array is shared by the callers until the GraphModel is changed,
+     *         it must not be modified.
+     */
     public static Vertex[] getTraversal(GraphModel graphModel, Vertex startVertex, int direction, boolean ignoreBackLinks)
     {
-        Vector<Vertex> path = new Vector<Vertex>(10, 10);
+        return getCache(graphModel).get(startVertex, direction, ignoreBackLinks).vertices;
+    }
 
-        graphModel.clearTags(startVertex);
-        visitVertex(startVertex, graphModel, path, direction, startVertex, ignoreBackLinks);
 
-        return path.toArray(new Vertex[path.size()]);
+    private static TraversalCache getCache(GraphModel graphModel)
+    {
+        synchronized (graphModel) {
+            TraversalCache cache = (TraversalCache) graphModel.getTraversalCache();
+
+            if (cache == null) {
+                cache = new TraversalCache(graphModel);
+                graphModel.setTraversalCache(cache);
+            }
+            return cache;
+        }
     }
 
 
-    private static void visitVertex(Vertex vertex, GraphModel graphModel, Vector<Vertex> path, int direction, Object tag, boolean ignoreBackLinks)
+    /**
+     * Result of a traversal, the vertices are also indexed by their IDs for fast membership tests
+     */
+    private static class Traversal
     {
-        Vertex[] children = null;
-        int i = 0;
+        final Vertex   start;
+        final Vertex[] vertices;
+        final BitSet   ids;
 
-        if(direction == kDown)
+        Traversal(Vertex start, Vertex[] vertices, BitSet ids)
         {
-            children = graphModel.getOutVertices(vertex);
+            this.start    = start;
+            this.vertices = vertices;
+            this.ids      = ids;
         }
-        else
+    }
+
+
+    /**
+     * Memoised traversals of one GraphModel, dropped when the structure of the model changes
+     */
+    private static class TraversalCache
+    {
+        private final GraphModel graphModel;
+        private final Map<Long, Traversal> traversals = new HashMap<Long, Traversal>();
+        private int structureModCount;
+
+        TraversalCache(GraphModel graphModel)
         {
-            children = graphModel.getInVertices(vertex);
+            this.graphModel = graphModel;
+            this.structureModCount = graphModel.getStructureModCount();
         }
 
-        vertex.setTag(tag);
-        path.add(vertex);
+        synchronized Traversal get(Vertex start, int direction, boolean ignoreBackLinks)
+        {
+            if (structureModCount != graphModel.getStructureModCount()) {
+                traversals.clear();
+                structureModCount = graphModel.getStructureModCount();
+            }
 
-        for(i=0; i<children.length; i++)
+            Long key = ((long) start.getID() << 3) | (direction << 1) | (ignoreBackLinks ? 1 : 0);
+            Traversal result = traversals.get(key);
+
+            if (result == null || result.start != start) {
+                result = traverse(start, direction, ignoreBackLinks);
+                traversals.put(key, result);
+            }
+            return result;
+        }
+
+        private Traversal traverse(Vertex start, int direction, boolean ignoreBackLinks)
         {
-            if(!(children[i].hasTag(tag)))
-            {
-                boolean skipBackLink = false;
-                if ( ignoreBackLinks &&
-                    ((vertex.isJoin() && direction == kUp) ||
-                    (vertex.isLoop() && direction == kDown))) {
-                    Vertex[] following = getTraversal(graphModel, children[i], direction, false);
-                    for (Vertex element : following) {
-                        if (element == vertex) {
-                            skipBackLink = true;
-                            break;
-                        }
-                    }
+            ArrayList<Vertex> path    = new ArrayList<Vertex>();
+            BitSet            visited = new BitSet();
+
+            // explicit stack of the vertices being visited and the index of their next child
+            Vertex[] stack      = new Vertex[16];
+            int[]    childIndex = new int[16];
+            int      top        = 0;
+
+            visited.set(start.getID());
+            path.add(start);
+            stack[0] = start;
+
+            while (top >= 0) {
+                Vertex   vertex   = stack[top];
+                Vertex[] children = direction == kDown ? graphModel.getOutVertices(vertex) : graphModel.getInVertices(vertex);
+
+                if (childIndex[top] >= children.length) {
+                    top--;
+                    continue;
+                }
+
+                Vertex child = children[childIndex[top]++];
+
+                if (child == null || visited.get(child.getID())) continue;
+
+                if (ignoreBackLinks && isBackLinkTarget(vertex, direction) && get(child, direction, false).ids.get(vertex.getID()))
+                    continue;
+
+                visited.set(child.getID());
+                path.add(child);
+
+                if (++top == stack.length) {
+                    stack      = Arrays.copyOf(stack, top * 2);
+                    childIndex = Arrays.copyOf(childIndex, top * 2);
                 }
-                if (!skipBackLink)
-                    visitVertex(children[i], graphModel, path, direction, tag, ignoreBackLinks);
+                stack[top]      = child;
+                childIndex[top] = 0;
             }
+
+            return new Traversal(start, path.toArray(new Vertex[path.size()]), visited);
+        }
+
+        private static boolean isBackLinkTarget(Vertex vertex, int direction)
+        {
+            return (vertex.isJoin() && direction == kUp) || (vertex.isLoop() && direction == kDown);
         }
     }
 }
@@ -216,7 +216,7 @@ public class ActivitySlotDef extends WfVertexDef {
     private void configureInstance(Activity act) {
         KeyValuePair[] k = getProperties().getKeyValuePairs();
         for (KeyValuePair element : k)
-            act.getProperties().put(element.getKey(), element.getValue(), element.isAbstract());
+            act.setProperty(element.getKey(), element.getValue(), element.isAbstract());
         act.setCentrePoint(getCentrePoint());
         act.setOutlinePoints(getOutlinePoints());
         act.setInEdgeIds(getInEdgeIds());
@@ -55,7 +55,7 @@ public abstract class WfVertexDef extends GraphableVertex {
      */
     public void configureInstance(WfVertex newVertex) throws InvalidDataException, ObjectNotFoundException {
         for (KeyValuePair element : getProperties().getKeyValuePairs()) {
-            newVertex.getProperties().put(element.getKey(), element.getValue(), element.isAbstract());
+            newVertex.setProperty(element.getKey(), element.getValue(), element.isAbstract());
         }
 
         newVertex.setID(getID());
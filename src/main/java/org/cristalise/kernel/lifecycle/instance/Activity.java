@@ -30,6 +30,7 @@ import static org.cristalise.kernel.property.BuiltInItemProperties.NAME;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -537,15 +538,37 @@ public class Activity extends WfVertex {
             throws ObjectNotFoundException, InvalidDataException, InvalidAgentPathException
     {
         Logger.msg(7, "Activity.calculateJobsBase() - act:" + getPath());
+
+        if ((includeInactive || getActive()) && !getName().equals("domain")) return calculateOwnJobs(agent, itemPath);
+        else                                                                 return new ArrayList<Job>();
+    }
+
+    /**
+     * Collects the activities visited by calculateJobs() (or by calculateAllJobs() if includeInactive is true) to
+     * create jobs, in the same order. The result only depends on the state of the Workflow and not on the Agent,
+     * so it can be reused until the Workflow changes. The jobs of each collected activity are created by
+     * {@link #calculateOwnJobs(AgentPath, ItemPath)}.
+     *
+     * @param activities the list to add the activities to
+     * @param includeInactive whether inactive activities are included or not
+     */
+    public void collectJobActivities(List<Activity> activities, boolean includeInactive) {
+        if ((includeInactive || getActive()) && !getName().equals("domain")) activities.add(this);
+    }
+
+    /**
+     * Creates the jobs of the transitions the given Agent can perform on this activity in its current state,
+     * without checking if the activity is active and without recursion.
+     */
+    public ArrayList<Job> calculateOwnJobs(AgentPath agent, ItemPath itemPath)
+            throws ObjectNotFoundException, InvalidDataException, InvalidAgentPathException
+    {
         ArrayList<Job> jobs = new ArrayList<Job>();
-        Map<Transition, String> transitions;
-        if ((includeInactive || getActive()) && !getName().equals("domain")) {
-            transitions = getStateMachine().getPossibleTransitions(this, agent);
-            Logger.msg(7, "Activity.calculateJobsBase() - Got " + transitions.size() + " transitions.");
-            for (Transition transition : transitions.keySet()) {
-                Logger.msg(7, "Activity.calculateJobsBase() - Creating Job object for transition " + transition.getName());
-                jobs.add(new Job(this, itemPath, transition, agent, null, transitions.get(transition)));
-            }
+        Map<Transition, String> transitions = getStateMachine().getPossibleTransitions(this, agent);
+        Logger.msg(7, "Activity.calculateOwnJobs() - Got " + transitions.size() + " transitions.");
+        for (Transition transition : transitions.keySet()) {
+            Logger.msg(7, "Activity.calculateOwnJobs() - Creating Job object for transition " + transition.getName());
+            jobs.add(new Job(this, itemPath, transition, agent, null, transitions.get(transition)));
         }
         return jobs;
     }
@@ -25,6 +25,7 @@ import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.REPEAT_W
 import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.STATE_MACHINE_NAME;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.cristalise.kernel.common.AccessRightsException;
 import org.cristalise.kernel.common.CannotManageException;
@@ -74,10 +75,8 @@ public class CompositeActivity extends Activity {
     @Override
     public boolean verify() {
         boolean err = super.verify();
-        GraphableVertex[] vChildren = getChildren();
-
-        for (int i = 0; i < vChildren.length; i++) {
-            if (!((WfVertex) vChildren[i]).verify()) {
+        for (GraphableVertex child : getChildrenList()) {
+            if (!((WfVertex) child).verify()) {
                 mErrors.add("error in children");
                 return false;
             }
@@ -328,9 +327,9 @@ public class CompositeActivity extends Activity {
         ArrayList<Job> jobs = new ArrayList<Job>();
         boolean childActive = false;
         if (recurse) {
-            for (int i = 0; i < getChildren().length; i++) {
-                if (getChildren()[i] instanceof Activity) {
-                    Activity child = (Activity) getChildren()[i];
+            for (GraphableVertex vertex : getChildrenList()) {
+                if (vertex instanceof Activity) {
+                    Activity child = (Activity) vertex;
                     jobs.addAll(child.calculateJobs(agent, itemPath, recurse));
                     childActive |= child.active;
                 }
@@ -342,6 +341,22 @@ public class CompositeActivity extends Activity {
         return jobs;
     }
 
+    @Override
+    public void collectJobActivities(List<Activity> activities, boolean includeInactive) {
+        boolean childActive = false;
+
+        for (GraphableVertex vertex : getChildrenList()) {
+            if (vertex instanceof Activity) {
+                Activity child = (Activity) vertex;
+                child.collectJobActivities(activities, includeInactive);
+                childActive |= child.active;
+            }
+        }
+
+        // calculateAllJobs() always includes the composite itself
+        if (includeInactive || !childActive) super.collectJobActivities(activities, includeInactive);
+    }
+
     @Override
     public ArrayList<Job> calculateAllJobs(AgentPath agent, ItemPath itemPath, boolean recurse)
             throws InvalidAgentPathException, ObjectNotFoundException, InvalidDataException
@@ -349,9 +364,9 @@ public class CompositeActivity extends Activity {
         ArrayList<Job> jobs = new ArrayList<Job>();
 
         if (recurse)
-            for (int i = 0; i < getChildren().length; i++)
-                if (getChildren()[i] instanceof Activity) {
-                    Activity child = (Activity) getChildren()[i];
+            for (GraphableVertex vertex : getChildrenList())
+                if (vertex instanceof Activity) {
+                    Activity child = (Activity) vertex;
                     jobs.addAll(child.calculateAllJobs(agent, itemPath, recurse));
                 }
 
@@ -370,9 +385,7 @@ public class CompositeActivity extends Activity {
 
     public boolean hasGoodNumberOfActivity() {
         int endingAct = 0;
-        for (int i = 0; i < getChildren().length; i++) {
-            WfVertex vertex = (WfVertex) getChildren()[i];
-
+        for (GraphableVertex vertex : getChildrenList()) {
             if (getChildrenGraphModel().getOutEdges(vertex).length == 0) endingAct++;
         }
         if (endingAct > 1) return false;
@@ -394,21 +407,19 @@ public class CompositeActivity extends Activity {
 
     @Override
     public void abort() {
-        for (GraphableVertex child : getChildren()) ((WfVertex) child).abort();
+        for (GraphableVertex child : getChildrenList()) ((WfVertex) child).abort();
     }
 
     public boolean hasActive() {
-        GraphableVertex[] vChildren = getChildren();
-
-        for (int i = 0; i < vChildren.length; i++) {
-            if (!(vChildren[i] instanceof Activity)) continue;
+        for (GraphableVertex child : getChildrenList()) {
+            if (!(child instanceof Activity)) continue;
 
-            Activity childAct = (Activity)vChildren[i];
+            Activity childAct = (Activity)child;
 
             if (childAct.getActive())
                 return true; // if a child activity is active
 
-            if (childAct instanceof CompositeActivity &&  ((CompositeActivity)vChildren[i]).hasActive())
+            if (childAct instanceof CompositeActivity &&  ((CompositeActivity)childAct).hasActive())
                 return true; // if a child composite has active children
         }
         return false; // don't include own active status
@@ -445,8 +456,7 @@ public class CompositeActivity extends Activity {
     }
 
     public void refreshJobs(ItemPath itemPath) {
-        GraphableVertex[] children = getChildren();
-        for (GraphableVertex element : children) {
+        for (GraphableVertex element : getChildrenList()) {
             if (element instanceof CompositeActivity) ((CompositeActivity) element).refreshJobs(itemPath);
             else if (element instanceof Activity)     ((Activity)          element).pushJobsToAgents(itemPath);
         }
@@ -20,6 +20,8 @@
  */
 package org.cristalise.kernel.lifecycle.instance;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.entity.Agent;
 import org.cristalise.kernel.entity.AgentHelper;
@@ -29,8 +31,20 @@ import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.lookup.RolePath;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.metrics.Counter;
+import org.cristalise.kernel.utils.metrics.Metrics;
 
 final class JobPusher extends Thread {
+    static final String METRICS = "JobPusher";
+
+    /** The number of JobPushers started but not yet finished */
+    private static final AtomicInteger backlog = new AtomicInteger();
+    private static final Counter       started = Metrics.getCounter(METRICS, "Started");
+
+    static {
+        Metrics.registerGauge(METRICS, "Backlog", backlog::get);
+    }
+
     private final Activity activity;
     private final RolePath myRole;
     private final ItemPath itemPath;
@@ -41,6 +55,30 @@ final class JobPusher extends Thread {
         this.myRole = role;
     }
 
+    /**
+     * Starts the thread unless the server is shutting down, in which case the Jobs are not pushed. 
+     * The Agents will recalculate their Jobs when they reconnect.
+     */
+    @Override
+    public synchronized void start() {
+        if (!Gateway.getBackgroundTaskTracker().enter()) {
+            Logger.warning("JobPusher.start() - Server is shutting down, jobs are not pushed for "+itemPath+":"+activity.getPath());
+            return;
+        }
+
+        backlog.incrementAndGet();
+        started.inc();
+
+        try {
+            super.start();
+        }
+        catch (RuntimeException | Error e) {
+            backlog.decrementAndGet();
+            Gateway.getBackgroundTaskTracker().exit();
+            throw e;
+        }
+    }
+
     @Override
     public void run() {
         String tName = "Agent job pusher for "+itemPath+":"+activity.getPath()+" to role "+myRole;
@@ -48,6 +86,17 @@ final class JobPusher extends Thread {
 
         Logger.msg(7, "JobPusher.run() - Started:"+tName);
 
+        try {
+            pushJobs();
+        }
+        finally {
+            backlog.decrementAndGet();
+            Gateway.getBackgroundTaskTracker().exit();
+        }
+        Logger.msg(7, "JobPusher.run() - FINISHED:"+tName);
+    }
+
+    private void pushJobs() {
         try {
             for (AgentPath nextAgent: Gateway.getLookup().getAgents(myRole)) {
                 Logger.msg(7, "JobPusher.run() - Calculating jobs for agent:" + nextAgent);
@@ -72,6 +121,5 @@ final class JobPusher extends Thread {
         catch (ObjectNotFoundException e) {
             Logger.warning("JobPusher cannot push jobs, it did not find any agents for role:"+myRole);
         }
-        Logger.msg(7, "JobPusher.run() - FINISHED:"+tName);
     }
 }
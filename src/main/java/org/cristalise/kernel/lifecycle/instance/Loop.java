@@ -73,8 +73,7 @@ public class Loop extends XOrSplit {
         Vertex[] anteVertices = GraphTraversal.getTraversal(getParent().getChildrenGraphModel(), this, GraphTraversal.kUp, false);
         int k = 0;
         int l = 0;
-        Vertex[] brothers = getParent().getChildren();
-        for (Vertex brother : brothers)
+        for (Vertex brother : getParent().getChildrenList())
             if (brother instanceof Loop)
                 l++;
         for (Vertex next : nexts) {
@@ -26,7 +26,7 @@ import static org.cristalise.kernel.graph.model.BuiltInEdgeProperties.TYPE;
 import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.graph.model.GraphPoint;
 import org.cristalise.kernel.graph.model.GraphableEdge;
-import org.cristalise.kernel.graph.model.GraphableVertex;
+import org.cristalise.kernel.graph.model.Vertex;
 
 /**
  * This class represents the link between 2 successive activities
@@ -62,9 +62,9 @@ public class Next extends GraphableEdge {
     }
 
     public WfVertex getTerminusVertex() throws InvalidDataException {
-        for (GraphableVertex v: getParent().getChildren()) {
-            if (v.getID() == getTerminusVertexId()) return (WfVertex)v;
-        }
+        Vertex v = getParent().getChildrenGraphModel().getVertexById(getTerminusVertexId());
+
+        if (v != null) return (WfVertex)v;
 
         throw new InvalidDataException("Terminus Vertex Id:"+getTerminusVertexId()+" was not found in parent:"+getParent().getName());
     }
@@ -44,12 +44,16 @@ import org.cristalise.kernel.lookup.InvalidItemPathException;
 import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.persistency.ClusterType;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.metrics.Metrics;
 
 /**
  * @version $Revision: 1.64 $ $Date: 2005/09/30 07:09:48 $
  * @author $Author: abranson $
  */
 public class Workflow extends CompositeActivity implements C2KLocalObject {
+    /** The group of the {@link Metrics} timing the requests of each Activity by its name */
+    public static final String METRICS = "ActivityRequest";
+
     public History   history;
     private ItemPath itemPath = null;
 
@@ -132,8 +136,15 @@ public class Workflow extends CompositeActivity implements C2KLocalObject {
     {
         Logger.msg(3, "Workflow::requestAction() - transition:" + transitionID + " step:" + stepPath + " agent:" + agent);
         GraphableVertex vert = search(stepPath);
-        if (vert != null && vert instanceof Activity)
-            return ((Activity) vert).request(agent, delegator, itemPath, transitionID, requestData, attachmentType, attachment, this);
+        if (vert != null && vert instanceof Activity) {
+            long start = Metrics.start();
+            try {
+                return ((Activity) vert).request(agent, delegator, itemPath, transitionID, requestData, attachmentType, attachment, this);
+            }
+            finally {
+                if (start != 0) Metrics.getTimer(METRICS, vert.getName()).stop(start);
+            }
+        }
         else
             throw new ObjectNotFoundException(stepPath + " not found");
     }
@@ -174,8 +185,8 @@ public class Workflow extends CompositeActivity implements C2KLocalObject {
      */
     @Override
     public boolean verify() {
-        for (int i = 0; i < getChildren().length; i++) {
-            if (!((WfVertex) getChildren()[i]).verify()) {
+        for (GraphableVertex child : getChildrenList()) {
+            if (!((WfVertex) child).verify()) {
                 mErrors.add("error in children");
                 return false;
             }
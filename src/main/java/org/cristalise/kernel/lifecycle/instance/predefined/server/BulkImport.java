@@ -30,14 +30,30 @@ import static org.cristalise.kernel.persistency.ClusterType.PROPERTY;
 import static org.cristalise.kernel.persistency.ClusterType.VIEWPOINT;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.CannotManageException;
@@ -55,13 +71,29 @@ import org.cristalise.kernel.lookup.InvalidItemPathException;
 import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.lookup.RolePath;
 import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.TransactionManager;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
 import org.cristalise.storage.XMLClusterStorage;
 
 /**
- * This 
- *
+ * Imports the Items exported by {@link XMLClusterStorage} into the storage of the server. The Item directories
+ * under the root directory are streamed and sharded by their UUID across a number of worker threads. Each worker
+ * stores the clusters of its Items in chunks, and each chunk is committed in one storage transaction.
+ * <p>
+ * The UUIDs of the committed Items are appended to a progress file, so an import which failed can be resumed by
+ * running it again: the Items already committed are skipped. The progress file is removed when the import was
+ * completed without errors.
+ * <p>
+ * Configuration properties:
+ * <ul>
+ * <li>BulkImport.rootDirectory: the directory of the exported Items (mandatory)
+ * <li>BulkImport.fileExtension: the extension of the exported files, default is ''
+ * <li>BulkImport.useDirectories: whether the clusters were exported in directories, default is false
+ * <li>BulkImport.threads: the number of worker threads, default is the number of processors
+ * <li>BulkImport.chunkSize: the number of Items committed in one transaction, default is 100
+ * <li>BulkImport.progressFile: the file recording the imported Items, default is 'bulkimport.progress' in the root directory
+ * </ul>
  */
 public class BulkImport extends PredefinedStep {
 
@@ -77,13 +109,34 @@ public class BulkImport extends PredefinedStep {
      * 
      */
     public static final String BULK_IMPORT_FILE_EXTENSION = "BulkImport.fileExtension";
+    /**
+     * 
+     */
+    public static final String BULK_IMPORT_THREADS = "BulkImport.threads";
+    /**
+     * 
+     */
+    public static final String BULK_IMPORT_CHUNK_SIZE = "BulkImport.chunkSize";
+    /**
+     * 
+     */
+    public static final String BULK_IMPORT_PROGRESS_FILE = "BulkImport.progressFile";
+
+    /** Marks the end of the Items sent to a worker */
+    private static final ItemPath END_OF_ITEMS = new ItemPath();
 
     private String  root;
     private String  ext;
-    private Boolean  useDir;
+    private Boolean useDir;
 
     XMLClusterStorage importCluster;
 
+    /** The storage receiving the imported data, if null Gateway.getStorage() is used */
+    private TransactionManager targetStorage;
+
+    private final AtomicReference<Exception> failure  = new AtomicReference<>();
+    private final AtomicLong                 imported = new AtomicLong();
+
     public BulkImport() {
         super();
 
@@ -92,6 +145,24 @@ public class BulkImport extends PredefinedStep {
         useDir = Gateway.getProperties().getBoolean(BULK_IMPORT_USE_DIRECTORIES, false);
     }
 
+    /**
+     * Creates a BulkImport reading the given directory and writing the given storage, e.g. to migrate data
+     * outside of a running server.
+     *
+     * @param root the directory of the exported Items
+     * @param ext the extension of the exported files
+     * @param useDir whether the clusters were exported in directories
+     * @param target the storage receiving the imported data
+     */
+    public BulkImport(String root, String ext, Boolean useDir, TransactionManager target) {
+        this();
+
+        this.root          = root;
+        this.ext           = ext;
+        this.useDir        = useDir;
+        this.targetStorage = target;
+    }
+
     public void initialise() throws InvalidDataException {
         if (importCluster == null) {
             if (root == null)
@@ -101,6 +172,10 @@ public class BulkImport extends PredefinedStep {
         }
     }
 
+    private TransactionManager getStorage() {
+        return targetStorage != null ? targetStorage : Gateway.getStorage();
+    }
+
     @Override
     protected String runActivityLogic(AgentPath agent, ItemPath itemPath, int transitionID, String requestData, Object locker)
             throws InvalidDataException, InvalidCollectionModification, ObjectAlreadyExistsException, ObjectCannotBeUpdated,
@@ -113,52 +188,248 @@ public class BulkImport extends PredefinedStep {
         return requestData;
     }
 
-    public void importAllClusters() throws InvalidDataException, PersistencyException {
-        for (ItemPath item: getItemsToImport(root)) {
-            Object sublocker = new Object();
-
-            for (ClusterType type : importCluster.getClusters(item)) {
-                switch (type) {
-                    case PATH:       importPath(item, sublocker);       break;
-                    case PROPERTY:   importProperty(item, sublocker);   break;
-                    case LIFECYCLE:  importLifeCycle(item, sublocker);  break;
-                    case HISTORY:    importHistory(item, sublocker);    break;
-                    case VIEWPOINT:  importViewPoint(item, sublocker);  break;
-                    case OUTCOME:    importOutcome(item, sublocker);    break;
-                    case COLLECTION: importCollection(item, sublocker); break;
-                    case JOB:        importJob(item, sublocker);        break;
-
-                    default:
-                        break;
-                }
+    /**
+     * Imports all the Items found in the root directory, skipping the ones recorded in the progress file.
+     *
+     * @return the number of Items imported
+     * @throws InvalidDataException the root directory or the progress file could not be read
+     * @throws PersistencyException the import of an Item failed, the import can be resumed by calling this method again
+     */
+    public long importAllClusters() throws InvalidDataException, PersistencyException {
+        initialise();
+
+        int threads   = Math.max(1, Gateway.getProperties().getInt(BULK_IMPORT_THREADS, Runtime.getRuntime().availableProcessors()));
+        int chunkSize = Math.max(1, Gateway.getProperties().getInt(BULK_IMPORT_CHUNK_SIZE, 100));
+
+        Path      progressFile = getProgressFile();
+        Set<UUID> done         = readProgress(progressFile);
+
+        failure.set(null);
+        imported.set(0);
+
+        long    start       = System.currentTimeMillis();
+        long    skipped     = 0;
+        boolean interrupted = false;
+
+        List<BlockingQueue<ItemPath>> shards = new ArrayList<>(threads);
+        List<Future<?>> workers = new ArrayList<>(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try (FileChannel progress = FileChannel.open(progressFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             DirectoryStream<Path> itemDirs = Files.newDirectoryStream(Paths.get(root), Files::isDirectory))
+        {
+            for (int i = 0; i < threads; i++) {
+                BlockingQueue<ItemPath> shard = new ArrayBlockingQueue<>(chunkSize * 2);
+                shards.add(shard);
+                workers.add(pool.submit(() -> importShard(shard, chunkSize, progress, start)));
             }
 
-            //importCluster.delete(item, "");
+            for (Path dir : itemDirs) {
+                if (failure.get() != null) break;
+
+                ItemPath item = getItemPath(dir);
+
+                if (item == null) continue;
+                if (done.contains(item.getUUID())) { skipped++; continue; }
+
+                shards.get(Math.floorMod(item.getUUID().hashCode(), threads)).put(item);
+            }
+
+            for (BlockingQueue<ItemPath> shard : shards) shard.put(END_OF_ITEMS);
+            for (Future<?> worker : workers) worker.get();
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            throw new InvalidDataException("BulkImport.importAllClusters() - " + e.getMessage());
+        }
+        catch (InterruptedException | ExecutionException e) {
+            Logger.error(e);
+            failure.compareAndSet(null, e);
+            interrupted = e instanceof InterruptedException;
+        }
+        finally {
+            // interrupts the workers, they abort the transactions of their uncommitted chunks before terminating
+            pool.shutdownNow();
+            interrupted |= !awaitWorkers(pool);
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
 
-            Gateway.getStorage().commit(sublocker);
+        if (failure.get() != null) {
+            throw new PersistencyException("BulkImport.importAllClusters() - Import failed after " + imported.get() 
+                    + " items, it can be resumed using progress file " + progressFile + ": " + failure.get().getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(progressFile);
+        }
+        catch (IOException e) {
+            Logger.warning("BulkImport.importAllClusters() - Could not delete progress file " + progressFile + ": " + e.getMessage());
+        }
+
+        Logger.msg("BulkImport.importAllClusters() - Imported " + imported.get() + " items, skipped " + skipped 
+                + " items imported previously, in " + (System.currentTimeMillis() - start) + "ms");
+
+        return imported.get();
+    }
+
+    /**
+     * Waits for the workers to terminate after they were interrupted
+     *
+     * @return false if the current thread was interrupted while waiting
+     */
+    private static boolean awaitWorkers(ExecutorService pool) {
+        try {
+            if (!pool.awaitTermination(1, TimeUnit.MINUTES)) Logger.warning("BulkImport.importAllClusters() - workers did not terminate");
+            return true;
+        }
+        catch (InterruptedException e) {
+            return false;
         }
     }
 
-    private List<ItemPath> getItemsToImport(String root) throws InvalidDataException {
-        List<ItemPath> items = new ArrayList<>();
+    /**
+     * Imports the Items sent to one worker in chunks. After a failure of any worker the remaining Items are
+     * only consumed, so the directory stream is not blocked. The transaction of the uncommitted chunk is aborted
+     * when the worker is interrupted.
+     */
+    private Void importShard(BlockingQueue<ItemPath> shard, int chunkSize, FileChannel progress, long start) throws InterruptedException {
+        List<ItemPath> chunk = new ArrayList<>(chunkSize);
+        Object locker = new Object();
+        ItemPath item;
+
         try {
-            try (Stream<Path> files = Files.walk(Paths.get(root))) {
-                files.filter(Files::isDirectory)
-                    .forEach(path -> {
-                        try {
-                            items.add(new ItemPath(path.getFileName().toString()));
-                        }
-                        catch (InvalidItemPathException e) {
-                            Logger.warning("BulkImport.getItemsToImport() - Unvalid UUID for import directory:"+path.getFileName().toString());
-                        }
-                    } );
+            while ((item = shard.take()) != END_OF_ITEMS) {
+                if (failure.get() != null) continue;
+
+                try {
+                    importItem(item, locker);
+                    chunk.add(item);
+
+                    if (chunk.size() == chunkSize) {
+                        commitChunk(chunk, locker, progress, start);
+                        locker = new Object();
+                    }
+                }
+                catch (Exception e) {
+                    Logger.error("BulkImport.importShard() - Failed to import item " + item);
+                    Logger.error(e);
+                    failure.compareAndSet(null, e);
+                    getStorage().abort(locker);
+                    chunk.clear();
+                }
             }
+        }
+        catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            getStorage().abort(locker);
+            throw e;
+        }
 
-            return items;
+        if (failure.get() == null) {
+            try {
+                commitChunk(chunk, locker, progress, start);
+            }
+            catch (IOException | PersistencyException e) {
+                Logger.error(e);
+                failure.compareAndSet(null, e);
+            }
+        }
+        else {
+            // another worker failed, release the locks of the items which were not committed
+            getStorage().abort(locker);
+        }
+        return null;
+    }
+
+    /**
+     * Commits the transaction of the chunk, then records the Items in the progress file
+     */
+    private void commitChunk(List<ItemPath> chunk, Object locker, FileChannel progress, long start) throws IOException, PersistencyException {
+        if (chunk.isEmpty()) return;
+
+        getStorage().commit(locker);
+
+        StringBuilder lines = new StringBuilder(chunk.size() * 37);
+        for (ItemPath item : chunk) lines.append(item.getUUID()).append('\n');
+
+        synchronized (progress) {
+            progress.write(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)));
+            progress.force(false);
+        }
+
+        long count = imported.addAndGet(chunk.size());
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+
+        Logger.msg(1, "BulkImport - committed " + count + " items (" + (count * 1000 / millis) + " items/s)");
+        chunk.clear();
+    }
+
+    /**
+     * Stores all the clusters of the Item using the given transaction locker
+     */
+    public void importItem(ItemPath item, Object locker) throws PersistencyException {
+        for (ClusterType type : importCluster.getClusters(item)) {
+            switch (type) {
+                case PATH:       importPath(item, locker);       break;
+                case PROPERTY:   importProperty(item, locker);   break;
+                case LIFECYCLE:  importLifeCycle(item, locker);  break;
+                case HISTORY:    importHistory(item, locker);    break;
+                case VIEWPOINT:  importViewPoint(item, locker);  break;
+                case OUTCOME:    importOutcome(item, locker);    break;
+                case COLLECTION: importCollection(item, locker); break;
+                case JOB:        importJob(item, locker);        break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    private Path getProgressFile() {
+        String file = Gateway.getProperties().getString(BULK_IMPORT_PROGRESS_FILE);
+
+        if (StringUtils.isBlank(file)) return Paths.get(root, "bulkimport.progress");
+        else                           return Paths.get(file);
+    }
+
+    private static Set<UUID> readProgress(Path progressFile) throws InvalidDataException {
+        Set<UUID> done = new HashSet<>();
+
+        if (!Files.exists(progressFile)) return done;
+
+        try {
+            for (String line : Files.readAllLines(progressFile, StandardCharsets.UTF_8)) {
+                // the last line could be incomplete if the process was killed while writing it
+                try {
+                    if (StringUtils.isNotBlank(line)) done.add(UUID.fromString(line.trim()));
+                }
+                catch (IllegalArgumentException e) {
+                    Logger.warning("BulkImport.readProgress() - Invalid line in progress file:" + line);
+                }
+            }
         }
         catch (IOException e) {
             Logger.error(e);
-            throw new InvalidDataException(e.getMessage());
+            throw new InvalidDataException("BulkImport.readProgress() - Could not read progress file " + progressFile + ": " + e.getMessage());
+        }
+
+        Logger.msg("BulkImport.readProgress() - Resuming import, " + done.size() + " items were imported already");
+        return done;
+    }
+
+    private static ItemPath getItemPath(Path dir) {
+        String name = dir.getFileName().toString();
+
+        // e.g. the journal of XMLClusterStorage
+        if (name.startsWith(".")) return null;
+
+        try {
+            return new ItemPath(name);
+        }
+        catch (InvalidItemPathException e) {
+            Logger.warning("BulkImport.getItemPath() - Invalid UUID for import directory:" + name);
+            return null;
         }
     }
 
@@ -168,7 +439,7 @@ public class BulkImport extends PredefinedStep {
         for (String c : contents) {
             String path = PROPERTY+"/"+c;
             C2KLocalObject prop = importCluster.get(item, path);
-            Gateway.getStorage().put(item, prop, locker);
+            getStorage().put(item, prop, locker);
 
             //importCluster.delete(item, path);
         }
@@ -183,7 +454,7 @@ public class BulkImport extends PredefinedStep {
             for (String sc : subContents) {
                 String path = VIEWPOINT+"/"+c+"/"+sc;
                 C2KLocalObject view = importCluster.get(item, path);
-                Gateway.getStorage().put(item, view, locker);
+                getStorage().put(item, view, locker);
 
                 //importCluster.delete(item, path);
             }
@@ -196,7 +467,7 @@ public class BulkImport extends PredefinedStep {
         for (String c : contents) {
             String path = LIFECYCLE+"/"+c;
             C2KLocalObject wf = importCluster.get(item, path);
-            Gateway.getStorage().put(item, wf, locker);
+            getStorage().put(item, wf, locker);
 
             //importCluster.delete(item, path);
         }
@@ -208,7 +479,7 @@ public class BulkImport extends PredefinedStep {
         for (String c : contents) {
             String path = HISTORY+"/"+c;
             C2KLocalObject obj = importCluster.get(item, path);
-            Gateway.getStorage().put(item, obj, locker);
+            getStorage().put(item, obj, locker);
 
             //importCluster.delete(item, path);
         }
@@ -225,7 +496,7 @@ public class BulkImport extends PredefinedStep {
 
                 for (String event : events) {
                     C2KLocalObject obj = importCluster.get(item, OUTCOME+"/"+schema+"/"+version+"/"+event);
-                    Gateway.getStorage().put(item, obj, locker);
+                    getStorage().put(item, obj, locker);
 
                     //importCluster.delete(item, path.toString());
                 }
@@ -239,7 +510,7 @@ public class BulkImport extends PredefinedStep {
         for (String c : contents) {
             String path = JOB+"/"+c;
             C2KLocalObject job = importCluster.get(item, path);
-            Gateway.getStorage().put(item, job, locker);
+            getStorage().put(item, job, locker);
 
             //importCluster.delete(item, path);
         }
@@ -253,7 +524,7 @@ public class BulkImport extends PredefinedStep {
 
             for (String version : versions) {
                 C2KLocalObject coll = importCluster.get(item, COLLECTION+"/"+name+"/"+version);
-                Gateway.getStorage().put(item, coll, locker);
+                getStorage().put(item, coll, locker);
 
                 //importCluster.delete(item, path.toString());
             }
@@ -264,8 +535,13 @@ public class BulkImport extends PredefinedStep {
         String[] domains = importCluster.getClusterContents(item, PATH+"/Domain");
 
         for (String name : domains) {
+            DomainPath domainPath = (DomainPath)importCluster.get(item, PATH+"/Domain/"+name);
+
+            // Lookup is not part of the chunk transaction, it could have been added before an import was resumed
+            if (Gateway.getLookup().exists(domainPath)) continue;
+
             try {
-                Gateway.getLookupManager().add( (DomainPath)importCluster.get(item, PATH+"/Domain/"+name) );
+                Gateway.getLookupManager().add(domainPath);
             }
             catch (ObjectCannotBeUpdated | ObjectAlreadyExistsException | CannotManageException e) {
                 Logger.error(e);
@@ -301,7 +577,8 @@ public class BulkImport extends PredefinedStep {
     public ItemPath importItemPath(ItemPath item, Object locker) throws PersistencyException {
         try {
             ItemPath itemPath = (ItemPath)importCluster.get(item, PATH+"/Item");
-            Gateway.getLookupManager().add(itemPath);
+
+            if (!Gateway.getLookup().exists(itemPath)) Gateway.getLookupManager().add(itemPath);
 
             //importCluster.delete(item, PATH+"/Item");
 
@@ -316,9 +593,11 @@ public class BulkImport extends PredefinedStep {
     public AgentPath importAgentPath(ItemPath item, Object locker) throws PersistencyException {
         try {
             AgentPath agentPath = (AgentPath)importCluster.get(item, PATH+"/Item");
-            Gateway.getLookupManager().add(agentPath);
 
-            Gateway.getLookupManager().setAgentPassword(agentPath, "aaa");
+            if (!Gateway.getLookup().exists(agentPath)) {
+                Gateway.getLookupManager().add(agentPath);
+                Gateway.getLookupManager().setAgentPassword(agentPath, "aaa");
+            }
 
             //importCluster.delete(item, PATH+"/Item");
 
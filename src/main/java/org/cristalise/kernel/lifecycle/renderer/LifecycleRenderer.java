@@ -24,21 +24,35 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Map;
 
+import org.cristalise.kernel.graph.model.BuiltInEdgeProperties;
+import org.cristalise.kernel.graph.model.BuiltInVertexProperties;
 import org.cristalise.kernel.graph.model.DirectedEdge;
 import org.cristalise.kernel.graph.model.GraphModel;
 import org.cristalise.kernel.graph.model.GraphPoint;
+import org.cristalise.kernel.graph.model.GraphableEdge;
+import org.cristalise.kernel.graph.model.GraphableVertex;
 import org.cristalise.kernel.graph.model.Vertex;
 import org.cristalise.kernel.graph.renderer.DirectedEdgeRenderer;
 import org.cristalise.kernel.graph.renderer.VertexRenderer;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.SoftCache;
 
 /**
- *
- *
+ * Draws the graph of a Workflow or a CompositeActivityDef in two passes: the structure (edges, splits, joins and
+ * definitions), which only changes with the structure and the layout of the graph, and the vertices showing their
+ * state (see {@link VertexRenderer#isStateDependent(Vertex)}). The image of the structure is cached by
+ * {@link #getWorkFlowModelImage(int, int)}, so rendering a running Item again only draws its Activities.
+ * {@link #draw(Graphics2D)}, used for the vector (SVG) output, draws both passes every time.
  */
 public class LifecycleRenderer {
 
+    /** Images of the structure layer keyed by {@link #getStructureKey(int)} */
+    private static final Map<String, BufferedImage> mStructureImageCache = new SoftCache<String, BufferedImage>(8);
+    /** Number of structure images taken from the cache, guarded by mStructureImageCache */
+    private static long mCacheHits = 0;
+
     GraphModel           mGraphModel;
     DirectedEdgeRenderer mDirectedEdgeRenderer;
     VertexRenderer       mVertexRenderer;
@@ -56,6 +70,24 @@ public class LifecycleRenderer {
         }
     }
 
+    /**
+     * @return the number of structure images taken from the cache since the class was loaded
+     */
+    public static long getCacheHits() {
+        synchronized (mStructureImageCache) {
+            return mCacheHits;
+        }
+    }
+
+    /**
+     * Drops all cached images of the structure layer
+     */
+    public static void clearCache() {
+        synchronized (mStructureImageCache) {
+            mStructureImageCache.clear();
+        }
+    }
+
     public int getZoomFactor(int maxHeight, int maxWidth) {
         int width = mGraphModel.getWidth();
         int height = mGraphModel.getHeight();
@@ -70,8 +102,41 @@ public class LifecycleRenderer {
 
         int zoomFactor = getZoomFactor(maxHeight, maxWidth);
 
+        BufferedImage structureImg = getStructureImage(zoomFactor);
         BufferedImage img = new BufferedImage(width * zoomFactor / 100, height * zoomFactor / 100, BufferedImage.TYPE_INT_ARGB);
 
+        Graphics2D g2d = img.createGraphics();
+        g2d.drawImage(structureImg, 0, 0, null);
+        g2d.scale((double) zoomFactor / 100, (double) zoomFactor / 100);
+
+        drawStates(g2d);
+
+        g2d.dispose();
+        return img;
+    }
+
+    /**
+     * Returns the cached image of the structure layer or draws it on a white 'canvas'
+     */
+    private BufferedImage getStructureImage(int zoomFactor) {
+        String key = getStructureKey(zoomFactor);
+        BufferedImage img;
+
+        synchronized (mStructureImageCache) {
+            img = mStructureImageCache.get(key);
+            if (img != null) mCacheHits++;
+        }
+
+        if (img != null) {
+            Logger.msg(8, "LifecycleRenderer.getStructureImage() - reusing cached image of the structure");
+            return img;
+        }
+
+        int width = mGraphModel.getWidth();
+        int height = mGraphModel.getHeight();
+
+        img = new BufferedImage(width * zoomFactor / 100, height * zoomFactor / 100, BufferedImage.TYPE_INT_ARGB);
+
         Graphics2D g2d = img.createGraphics();
         g2d.scale((double) zoomFactor / 100, (double) zoomFactor / 100);
 
@@ -82,17 +147,80 @@ public class LifecycleRenderer {
         g2d.setColor(Color.white);
         g2d.fillRect(0, 0, width, height);
 
-        draw(g2d);
+        drawStructure(g2d);
+
+        g2d.dispose();
 
+        synchronized (mStructureImageCache) {
+            mStructureImageCache.put(key, img);
+        }
         return img;
     }
 
+    /**
+     * Identifies everything the structure layer is drawn from: the renderers, the zoom, the size of the graph, and the
+     * location and labels of the edges and of the vertices which are not state dependent.
+     */
+    private String getStructureKey(int zoomFactor) {
+        StringBuilder key = new StringBuilder()
+                .append(mVertexRenderer.getClass().getName()).append('/')
+                .append(mDirectedEdgeRenderer.getClass().getName()).append('/')
+                .append(zoomFactor).append('/')
+                .append(mGraphModel.getWidth()).append('x').append(mGraphModel.getHeight());
+
+        for (DirectedEdge edge : mGraphModel.getEdges()) {
+            key.append(";e").append(edge.getID()).append(':');
+            appendPoint(key, edge.getOriginPoint());
+            appendPoint(key, edge.getTerminusPoint());
+
+            for (Map.Entry<Integer, GraphPoint> point : edge.getMultiPoints().entrySet()) {
+                key.append(point.getKey());
+                appendPoint(key, point.getValue());
+            }
+
+            if (edge instanceof GraphableEdge) {
+                GraphableEdge graphableEdge = (GraphableEdge) edge;
+                key.append(':').append(graphableEdge.getBuiltInProperty(BuiltInEdgeProperties.ALIAS))
+                   .append(':').append(graphableEdge.getBuiltInProperty(BuiltInEdgeProperties.TYPE));
+            }
+        }
+
+        for (Vertex vertex : mGraphModel.getVertices()) {
+            if (mVertexRenderer.isStateDependent(vertex)) continue;
+
+            key.append(";v").append(vertex.getID())
+               .append(':').append(vertex.getClass().getName())
+               .append(':').append(vertex.getName()).append(':');
+            appendPoint(key, vertex.getCentrePoint());
+
+            if (vertex instanceof GraphableVertex)
+                key.append(':').append(((GraphableVertex) vertex).getBuiltInProperty(BuiltInVertexProperties.TYPE));
+        }
+        return key.toString();
+    }
+
+    private static void appendPoint(StringBuilder key, GraphPoint point) {
+        if (point == null) key.append("()");
+        else               key.append('(').append(point.x).append(',').append(point.y).append(')');
+    }
+
+    /**
+     * Draws the structure and the states without using the cache of the structure images
+     */
     public void draw(Graphics2D g2d) {
         if (mGraphModel == null) {
             Logger.warning("LifecycleGenerator.draw() - GraphModel is NULL!");
             return;
         }
 
+        drawStructure(g2d);
+        drawStates(g2d);
+    }
+
+    /**
+     * Draws the edges and the vertices which are not state dependent
+     */
+    public void drawStructure(Graphics2D g2d) {
         DirectedEdge[] edges = mGraphModel.getEdges();
         Vertex[] vertices = mGraphModel.getVertices();
 
@@ -100,7 +228,20 @@ public class LifecycleRenderer {
         for (int i = 0; i < edges.length; i++) mDirectedEdgeRenderer.draw(g2d, edges[i]);
 
         // Draw the vertices
-        for (int i = 0; i < vertices.length; i++) mVertexRenderer.draw(g2d, vertices[i]);
+        for (int i = 0; i < vertices.length; i++) {
+            if (!mVertexRenderer.isStateDependent(vertices[i])) mVertexRenderer.draw(g2d, vertices[i]);
+        }
+    }
+
+    /**
+     * Draws the state dependent vertices and the highlight of the start vertex over the structure
+     */
+    public void drawStates(Graphics2D g2d) {
+        Vertex[] vertices = mGraphModel.getVertices();
+
+        for (int i = 0; i < vertices.length; i++) {
+            if (mVertexRenderer.isStateDependent(vertices[i])) mVertexRenderer.draw(g2d, vertices[i]);
+        }
 
         g2d.setPaint(Color.green);
 
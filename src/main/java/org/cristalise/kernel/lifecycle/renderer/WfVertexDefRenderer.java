@@ -42,4 +42,12 @@ public class WfVertexDefRenderer implements VertexRenderer {
             mSplitJoinDefRenderer.draw(g2d, vertex);
         }
     }
+
+    /**
+     * Definitions have no state
+     */
+    @Override
+    public boolean isStateDependent(Vertex vertex) {
+        return false;
+    }
 }
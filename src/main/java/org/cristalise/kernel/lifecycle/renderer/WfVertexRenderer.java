@@ -41,4 +41,12 @@ public class WfVertexRenderer implements VertexRenderer {
             mSplitJoinRenderer.draw(g2d, vertex);
         }
     }
+
+    /**
+     * Only Activities show their state
+     */
+    @Override
+    public boolean isStateDependent(Vertex vertex) {
+        return vertex instanceof Activity;
+    }
 }
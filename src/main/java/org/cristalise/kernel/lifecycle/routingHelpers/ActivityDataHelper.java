@@ -36,7 +36,6 @@ import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.persistency.ClusterType;
 import org.cristalise.kernel.persistency.outcome.Outcome;
 import org.cristalise.kernel.persistency.outcome.Schema;
-import org.cristalise.kernel.persistency.outcome.Viewpoint;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.LocalObjectLoader;
 import org.cristalise.kernel.utils.Logger;
@@ -58,9 +57,7 @@ public class ActivityDataHelper implements DataHelper {
     {
         Logger.msg(5,"ActivityDataHelper.get() - item:"+itemPath+", actContext:"+actContext+", dataPath:"+dataPath);
 
-        String[] paths = dataPath.split(":");
-
-        if (paths.length != 2) throw new InvalidDataException("Invalid path '"+dataPath+"' it must have one and only one colon (:)");
+        String[] paths = DataHelperUtility.splitDataPath(dataPath);
 
         String actPath = paths[0];
         String xpath   = paths[1];
@@ -69,12 +66,39 @@ public class ActivityDataHelper implements DataHelper {
             actPath = actContext+(actContext.endsWith("/") ? "" : "/")+actPath.substring(2);
         }
 
+        // the Viewpoint of the Activity is memoised, so the Workflow is searched only once in the transaction
+        String viewKey = "ActivityDataHelper:" + actPath;
+        String viewpoint = (String) Gateway.getStorage().getTransactionValue(itemPath, locker, viewKey);
+
+        if (viewpoint == null) {
+            viewpoint = getViewpoint(itemPath, actPath, locker);
+            Gateway.getStorage().putTransactionValue(itemPath, locker, viewKey, viewpoint);
+        }
+
+        // get the viewpoint and outcome
+        Outcome outcome = DataHelperUtility.getViewpointOutcome(itemPath, viewpoint, locker);
+
+        // apply the XPath to its outcome
+        try {
+            return outcome.getFieldByXPath(xpath);
+        }
+        catch (XPathExpressionException e) {
+            throw new InvalidDataException("Invalid xpath:"+xpath+" - item:"+itemPath+", actContext:"+actContext+", dataPath:"+dataPath);
+        }
+    }
+
+    /**
+     * Searches the Activity in the Workflow and returns the schema and the name of its Viewpoint
+     */
+    private String getViewpoint(ItemPath itemPath, String actPath, Object locker)
+            throws InvalidDataException, PersistencyException, ObjectNotFoundException
+    {
         // Find the referenced activity, so get the workflow and search
         Workflow workflow = (Workflow) Gateway.getStorage().get(itemPath, ClusterType.LIFECYCLE+"/workflow", locker);
         GraphableVertex act = workflow.search(actPath);
 
         if (act == null) {
-            throw new InvalidDataException("Workflow search failed for actPath:"+actPath+" - item:"+itemPath+", actContext:"+actContext+", dataPath:"+dataPath);
+            throw new InvalidDataException("Workflow search failed for actPath:"+actPath+" - item:"+itemPath);
         }
 
         // Get the schema and viewpoint names
@@ -86,16 +110,6 @@ public class ActivityDataHelper implements DataHelper {
 
         Schema schema = LocalObjectLoader.getSchema(schemaName, schemaVersion); //checks if schema/version was correct
 
-        // get the viewpoint and outcome
-        Viewpoint view  = (Viewpoint) Gateway.getStorage().get(itemPath, ClusterType.VIEWPOINT+"/"+schema.getName()+"/"+viewName, locker);
-        Outcome outcome = (Outcome)   view.getOutcome(locker);
-
-        // apply the XPath to its outcome
-        try {
-            return outcome.getFieldByXPath(xpath);
-        }
-        catch (XPathExpressionException e) {
-            throw new InvalidDataException("Invalid xpath:"+xpath+" - item:"+itemPath+", actContext:"+actContext+", dataPath:"+dataPath);
-        }
+        return schema.getName()+"/"+viewName;
     }
 }
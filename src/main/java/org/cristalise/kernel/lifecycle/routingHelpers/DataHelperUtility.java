@@ -20,18 +20,35 @@
  */
 package org.cristalise.kernel.lifecycle.routingHelpers;
 
+import static org.cristalise.kernel.persistency.ClusterType.VIEWPOINT;
+
+import java.util.Map;
+
 import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.common.PersistencyException;
 import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.Viewpoint;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.SoftCache;
 
 /**
- * Utility class to retrieve and resolve DataHelpers
+ * Utility class to retrieve and resolve DataHelpers. The expressions are parsed once and kept in a cache, the values
+ * resolved by the built-in DataHelpers and the Outcomes they read are memoised for the transaction of the locker 
+ * (see {@link TransactionManager#getTransactionValue(ItemPath, Object, String)}), so several routing expressions 
+ * and script inputs evaluated by the same transition read and parse the data only once.
  */
 public class DataHelperUtility {
 
+    /** pathType and dataPath pairs keyed by the evaluated value */
+    private static final Map<String, String[]> parsedValues = new SoftCache<String, String[]>(100);
+
+    /** The two parts of the colon separated dataPath of the built-in DataHelpers keyed by the dataPath */
+    private static final Map<String, String[]> parsedDataPaths = new SoftCache<String, String[]>(100);
+
     /**
      * First checks the configuration properties to instantiate the requested Datahelper.
      * If there is such no property, it uses the given id to instantiate one of these classes:
@@ -82,19 +99,112 @@ public class DataHelperUtility {
 
         if(itemPath == null) throw new InvalidDataException("DataHelper must have ItemPath initialised");
 
-        //Finding the first occurrence of '//' because DataHelper uses XPath which can start with '//'
-        int i = ((String)value).indexOf("//");
-
-        if (i == -1) throw new InvalidDataException("DataHelperUtility.evaluateValue() - Cannot locate '//' in value:"+value);
-
-        String pathType = ((String)value).substring(0, i);
-        String dataPath = ((String)value).substring(i+2);
+        String[] parsed = parseValue((String)value);
+        String pathType = parsed[0];
+        String dataPath = parsed[1];
 
         Logger.msg(5, "DataHelperUtility.evaluateValue() - pathType:"+pathType+" dataPath:"+dataPath);
 
         DataHelper dataHelper = getDataHelper(pathType);
 
-        if (dataHelper != null) return dataHelper.get(itemPath, actContext, dataPath, locker);
-        else                    return value;
+        if (dataHelper == null) return value;
+
+        // only the values of the built-in DataHelpers are known to depend solely on the data of the Item
+        if (!isBuiltIn(dataHelper) || Gateway.getStorage() == null)
+            return dataHelper.get(itemPath, actContext, dataPath, locker);
+
+        String key = "DataHelper:" + actContext + ":" + value;
+        Object result = Gateway.getStorage().getTransactionValue(itemPath, locker, key);
+
+        if (result == null) {
+            result = dataHelper.get(itemPath, actContext, dataPath, locker);
+            Gateway.getStorage().putTransactionValue(itemPath, locker, key, result);
+        }
+        else
+            Logger.msg(8, "DataHelperUtility.evaluateValue() - reusing value of '"+value+"' in transaction of locker:"+locker);
+
+        return result;
+    }
+
+    private static boolean isBuiltIn(DataHelper dataHelper) {
+        Class<?> clazz = dataHelper.getClass();
+        return clazz == ViewpointDataHelper.class || clazz == PropertyDataHelper.class || clazz == ActivityDataHelper.class;
+    }
+
+    /**
+     * Splits the value at the first occurrence of '//' to the pathType and dataPath, because DataHelper uses XPath
+     * which can start with '//'. The result is cached and shared, it must not be modified.
+     */
+    private static String[] parseValue(String value) throws InvalidDataException {
+        String[] parsed;
+
+        synchronized (parsedValues) {
+            parsed = parsedValues.get(value);
+        }
+
+        if (parsed == null) {
+            int i = value.indexOf("//");
+
+            if (i == -1) throw new InvalidDataException("DataHelperUtility.evaluateValue() - Cannot locate '//' in value:"+value);
+
+            parsed = new String[] { value.substring(0, i), value.substring(i+2) };
+
+            synchronized (parsedValues) {
+                parsedValues.put(value, parsed);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Splits the dataPath of the built-in DataHelpers at its only colon, e.g. viewpoint:/xpath/to/field. 
+     * The result is cached and shared, it must not be modified.
+     *
+     * @param dataPath the dataPath to split
+     * @return the two parts of the dataPath
+     * @throws InvalidDataException the dataPath does not have one and only one colon
+     */
+    static String[] splitDataPath(String dataPath) throws InvalidDataException {
+        String[] paths;
+
+        synchronized (parsedDataPaths) {
+            paths = parsedDataPaths.get(dataPath);
+        }
+
+        if (paths == null) {
+            paths = dataPath.split(":");
+
+            if (paths.length != 2) throw new InvalidDataException("Invalid path '"+dataPath+"' it must have one and only one colon (:)");
+
+            synchronized (parsedDataPaths) {
+                parsedDataPaths.put(dataPath, paths);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Loads the Outcome of the Viewpoint, which is memoised for the transaction of the locker.
+     *
+     * @param itemPath the actual Item context
+     * @param viewpoint the schema and the name of the Viewpoint, e.g. Schema/last
+     * @param locker database transaction locker
+     * @return the Outcome of the Viewpoint
+     * @throws PersistencyException persistency issue
+     * @throws ObjectNotFoundException  Viewpoint or Outcome was not found
+     */
+    static Outcome getViewpointOutcome(ItemPath itemPath, String viewpoint, Object locker)
+            throws PersistencyException, ObjectNotFoundException
+    {
+        TransactionManager storage = Gateway.getStorage();
+        String key = VIEWPOINT + "/" + viewpoint;
+        Outcome outcome = (Outcome) storage.getTransactionValue(itemPath, locker, key);
+
+        if (outcome == null) {
+            Viewpoint view = (Viewpoint) storage.get(itemPath, key, locker);
+            outcome = view.getOutcome(locker);
+            storage.putTransactionValue(itemPath, locker, key, outcome);
+        }
+        return outcome;
     }
 }
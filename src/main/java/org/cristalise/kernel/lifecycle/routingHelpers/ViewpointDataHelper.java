@@ -26,10 +26,7 @@ import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.common.PersistencyException;
 import org.cristalise.kernel.lookup.ItemPath;
-import org.cristalise.kernel.persistency.ClusterType;
 import org.cristalise.kernel.persistency.outcome.Outcome;
-import org.cristalise.kernel.persistency.outcome.Viewpoint;
-import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
 
 
@@ -45,9 +42,7 @@ public class ViewpointDataHelper implements DataHelper {
     public String get(ItemPath itemPath, String actContext, String dataPath, Object locker)
             throws InvalidDataException, PersistencyException, ObjectNotFoundException
     {
-        String[] paths = dataPath.split(":");
-
-        if (paths.length != 2) throw new InvalidDataException("Invalid path: '"+dataPath+"' should have only one colon (:)");
+        String[] paths = DataHelperUtility.splitDataPath(dataPath);
 
         String viewpoint = paths[0];
         String xpath = paths[1];
@@ -60,8 +55,7 @@ public class ViewpointDataHelper implements DataHelper {
         }
 
         // load Viewpoint and Outcome
-        Viewpoint view  = (Viewpoint) Gateway.getStorage().get(itemPath, ClusterType.VIEWPOINT+"/"+viewpoint, locker);
-        Outcome outcome = (Outcome)   view.getOutcome(locker);
+        Outcome outcome = DataHelperUtility.getViewpointOutcome(itemPath, viewpoint, locker);
 
         // apply the XPath to its outcome
        	try {
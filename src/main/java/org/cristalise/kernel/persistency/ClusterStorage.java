@@ -20,12 +20,15 @@
  */
 package org.cristalise.kernel.persistency;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.cristalise.kernel.common.PersistencyException;
 import org.cristalise.kernel.common.SystemKey;
 import org.cristalise.kernel.entity.C2KLocalObject;
 import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.outcome.OutcomeAttachment;
 import org.cristalise.kernel.process.auth.Authenticator;
 import org.cristalise.kernel.querying.Query;
 import org.cristalise.kernel.utils.Logger;
@@ -270,6 +273,49 @@ public abstract class ClusterStorage {
      */
     public abstract C2KLocalObject get(ItemPath itemPath, String path) throws PersistencyException;
 
+    /**
+     * Fetches several CRISTAL local objects of the same Item. The default implementation calls
+     * {@link #get(ItemPath, String)} for each path, storages should override it if they can retrieve
+     * many objects in one operation (e.g. a single query or remote call).
+     * 
+     * @param itemPath
+     *            The ItemPath of the containing Item
+     * @param paths
+     *            The paths of the local objects
+     * @return The list of C2KLocalObjects in the same order as the paths, containing null for each object not found
+     * @throws PersistencyException
+     *             when retrieval failed
+     */
+    public List<C2KLocalObject> getAll(ItemPath itemPath, List<String> paths) throws PersistencyException {
+        List<C2KLocalObject> result = new ArrayList<C2KLocalObject>(paths.size());
+
+        for (String path : paths) result.add(get(itemPath, path));
+
+        return result;
+    }
+
+    /**
+     * Opens the binary data of an OutcomeAttachment for reading. The default implementation reads the
+     * OutcomeAttachment with {@link #get(ItemPath, String)}, storages keeping the data separately from the metadata
+     * should override it to stream the data without loading the whole OutcomeAttachment.
+     * 
+     * @param itemPath
+     *            The ItemPath of the containing Item
+     * @param path
+     *            The path of the OutcomeAttachment
+     * @return The stream of the binary data, or null if the OutcomeAttachment was not found
+     * @throws PersistencyException
+     *             when retrieval failed
+     */
+    public InputStream getAttachmentStream(ItemPath itemPath, String path) throws PersistencyException {
+        C2KLocalObject obj = get(itemPath, path);
+
+        if (obj == null) return null;
+
+        if (obj instanceof OutcomeAttachment) return ((OutcomeAttachment) obj).openStream();
+        else throw new PersistencyException("ClusterStorage.getAttachmentStream() - " + path + " is not an OutcomeAttachment in " + itemPath);
+    }
+
     /**
      * Stores a CRISTAL local object. The path is automatically generated.
      * 
@@ -322,6 +368,47 @@ public abstract class ClusterStorage {
         return getClusterContents(itemPath, type.getName());
     }
 
+    /**
+     * Returns the highest integer id stored directly below the given path, e.g. the id of the last Event of the
+     * History. The default implementation scans the result of {@link #getClusterContents(ItemPath, String)} without
+     * loading any object. Storages which can do better (e.g. using an index or a sequence) should override it.
+     * 
+     * @param itemPath the Item to query
+     * @param path the path within the Item, e.g. "AuditTrail" or "Job"
+     * @return the highest integer id or -1 if there is none
+     * @throws PersistencyException
+     *             When an error occurred during the query
+     */
+    public int getLastIntegerId(ItemPath itemPath, String path) throws PersistencyException {
+        int last = -1;
+
+        for (String content : getClusterContents(itemPath, path)) {
+            try {
+                int id = Integer.parseInt(content);
+                if (id > last) last = id;
+            }
+            catch (NumberFormatException e) {}
+        }
+        return last;
+    }
+
+    /**
+     * Parses the non negative integer id between the given indexes without creating a String
+     *
+     * @return the id or -1 if the characters are not all digits
+     */
+    protected static int parseIntegerId(CharSequence chars, int from, int to) {
+        if (from >= to || to - from > 9) return -1;
+
+        int id = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
     /**
      * Queries the Item for the Clusters (root path elements) that are available.
      * 
@@ -20,15 +20,22 @@
  */
 package org.cristalise.kernel.persistency;
 
+import static org.cristalise.kernel.persistency.ClusterType.ATTACHMENT;
 import static org.cristalise.kernel.persistency.ClusterType.HISTORY;
 import static org.cristalise.kernel.persistency.ClusterType.JOB;
 import static org.cristalise.kernel.persistency.ClusterType.VIEWPOINT;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.cristalise.kernel.common.ObjectNotFoundException;
@@ -39,6 +46,7 @@ import org.cristalise.kernel.entity.proxy.ProxyMessage;
 import org.cristalise.kernel.events.History;
 import org.cristalise.kernel.lookup.AgentPath;
 import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.outcome.OutcomeAttachment;
 import org.cristalise.kernel.persistency.outcome.Viewpoint;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.process.auth.Authenticator;
@@ -46,14 +54,31 @@ import org.cristalise.kernel.querying.Query;
 import org.cristalise.kernel.utils.Logger;
 import org.cristalise.kernel.utils.SoftCache;
 import org.cristalise.kernel.utils.WeakCache;
+import org.cristalise.kernel.utils.metrics.Counter;
+import org.cristalise.kernel.utils.metrics.Metrics;
 
 
 /**
  * Instantiates ClusterStorages listed in properties file All read/write requests to storage pass through this object,
  * which can query the capabilities of each declared storage, and channel requests accordingly. Transaction based.
  * It also has a memoryCache to increase performance, use 'Storage.disableCache=true' to disable it.
+ * The hits and misses of the memoryCache are reported in the '{@value #METRICS}' group of the {@link Metrics}.
  */
 public class ClusterStorageManager {
+    public static final String METRICS = "Storage";
+
+    private static final Counter CACHE_HITS   = Metrics.getCounter(METRICS, "CacheHits");
+    private static final Counter CACHE_MISSES = Metrics.getCounter(METRICS, "CacheMisses");
+
+    static {
+        Metrics.registerGauge(METRICS, "CacheHitRatio", () -> {
+            long hits = CACHE_HITS.getCount(), all = hits + CACHE_MISSES.getCount();
+            return all == 0 ? 0.0 : (double) hits / all;
+        });
+        Metrics.registerGauge(METRICS, "CachedItems",   () -> Gateway.getStorage() == null ? 0 : Gateway.getStorage().getDb().getCachedItemCount());
+        Metrics.registerGauge(METRICS, "CachedObjects", () -> Gateway.getStorage() == null ? 0 : Gateway.getStorage().getDb().getCachedObjectCount());
+    }
+
     HashMap<String, ClusterStorage>                 allStores           = new HashMap<String, ClusterStorage>();
     String[]                                        clusterPriority     = new String[0];
     HashMap<ClusterType, ArrayList<ClusterStorage>> clusterWriters      = new HashMap<ClusterType, ArrayList<ClusterStorage>>();
@@ -63,6 +88,43 @@ public class ClusterStorageManager {
     // we don't need a soft cache for the top level cache - the proxies and entities clear that when reaped
     HashMap<ItemPath, Map<String, C2KLocalObject>> memoryCache = new HashMap<ItemPath, Map<String, C2KLocalObject>>();
 
+    /**
+     * Property to set the number of Items whose cluster listings are cached, the least recently used Items are evicted. 
+     * Default is 1000.
+     */
+    public static final String CONTENTS_CACHE_SIZE_PROPERTY = "Storage.contentsCacheSize";
+
+    final int contentsCacheSize = Gateway.getProperties().getInt(CONTENTS_CACHE_SIZE_PROPERTY, 1000);
+
+    /**
+     * Property to set the number of Items whose last integer ids are cached, the least recently used Items are evicted.
+     * Default is 1000.
+     */
+    public static final String LAST_ID_CACHE_SIZE_PROPERTY = "Storage.lastIdCacheSize";
+
+    // the last integer id of the numbered clusters (e.g. History, Job) of the Items, kept up-to-date by put() and remove()
+    final LastIdCache lastIdCache = new LastIdCache(Gateway.getProperties().getInt(LAST_ID_CACHE_SIZE_PROPERTY, 1000));
+
+    // the merged listings of the clusters of the recently used Items, invalidated by put(), remove() and the proxy notifications
+    LinkedHashMap<ItemPath, Map<String, String[]>> contentsCache = new LinkedHashMap<ItemPath, Map<String, String[]>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ItemPath, Map<String, String[]>> eldest) {
+            return size() > contentsCacheSize;
+        }
+    };
+    // incremented on each invalidation, so a listing read concurrently with a change is not cached
+    long contentsCacheVersion = 0;
+    // the Items changed by each open transaction, their listings are invalidated again on commit and abort
+    HashMap<Object, Set<ItemPath>> contentsChangedByLocker = new HashMap<Object, Set<ItemPath>>();
+
+    // the version of the LifeCycle cluster of the Items, all values are taken from the counter so they are never reused
+    HashMap<ItemPath, Long> lifeCycleVersions = new HashMap<ItemPath, Long>();
+    long lifeCycleVersionCounter = 0;
+    // the version of the Items without an entry, changed when the entire cache is cleared
+    long lifeCycleBaseVersion = 0;
+
     /**
      * Initialises all ClusterStorage handlers listed by class name in the property "ClusterStorages"
      * This property is usually process specific, and so should be in the server/client.conf and not the connect file.
@@ -152,7 +214,7 @@ public class ClusterStorageManager {
      * @param language the language of the query
      * @return the found store or null
      */
-    private ClusterStorage findStorageForQuery(String language) {
+    public ClusterStorage findStorageForQuery(String language) {
         for (String element : clusterPriority) {
             ClusterStorage store = allStores.get(element);
             if (store.checkQuerySupport(language) ) return store;
@@ -210,30 +272,51 @@ public class ClusterStorageManager {
 
     /**
      * Retrieves the ids of the next level of a cluster
-     * Does not look in any currently open transactions.
+     * Does not look in any currently open transactions. The merged listing is kept in memory until the cluster is
+     * changed through this manager or a proxy notification clears it. Use 'Storage.disableCache=true' to disable it.
      *
      * @param itemPath the current Item
      * @param path the cluster path
      * @return list of keys found in the cluster
      */
     public String[] getClusterContents(ItemPath itemPath, String path) throws PersistencyException {
-        ArrayList<String> contents = new ArrayList<String>();
-        // get all readers
         Logger.msg(8, "ClusterStorageManager.getClusterContents() - path:"+path);
+
+        boolean useCache = !Gateway.getProperties().getBoolean("Storage.disableCache", false);
+        String cacheKey = getContentsCacheKey(path);
+        long version;
+
+        synchronized (contentsCache) {
+            if (useCache) {
+                Map<String, String[]> itemContents = contentsCache.get(itemPath);
+
+                if (itemContents != null && itemContents.containsKey(cacheKey)) {
+                    String[] cached = itemContents.get(cacheKey);
+                    Logger.msg(8, "ClusterStorageManager.getClusterContents() - Returning "+cached.length+" cached elements of path:"+path);
+                    return cached.clone();
+                }
+            }
+            version = contentsCacheVersion;
+        }
+
+        Set<String> contents = new LinkedHashSet<String>();
+        boolean complete = true;
+
+        // get all readers
         ArrayList<ClusterStorage> readers = findStorages(ClusterStorage.getClusterType(path), false);
         // try each in turn until we get a result
         for (ClusterStorage thisReader : readers) {
             try {
                 String[] thisArr = thisReader.getClusterContents(itemPath, path);
                 if (thisArr != null) {
-                    for (int j = 0; j < thisArr.length; j++)
-                        if (!contents.contains(thisArr[j])) {
-                            Logger.msg(9, "ClusterStorageManager.getClusterContents() - "+thisReader.getName()+" reports "+thisArr[j]);
-                            contents.add(thisArr[j]);
-                        }
+                    for (String thisKey : thisArr) {
+                        if (contents.add(thisKey) && Logger.doLog(9))
+                            Logger.msg(9, "ClusterStorageManager.getClusterContents() - "+thisReader.getName()+" reports "+thisKey);
+                    }
                 }
             }
             catch (PersistencyException e) {
+                complete = false;
                 Logger.msg(5, "ClusterStorageManager.getClusterContents() - reader " + thisReader.getName() +
                         " could not retrieve contents of " + itemPath + "/" + path + ": " + e.getMessage());
             }
@@ -241,11 +324,163 @@ public class ClusterStorageManager {
 
         Logger.msg(8, "ClusterStorageManager.getClusterContents() - Returning "+contents.size()+" elements of path:"+path);
 
-        String[] retArr = new String[0];
-        retArr = contents.toArray(retArr);
+        String[] retArr = contents.toArray(new String[contents.size()]);
+
+        if (useCache && complete) {
+            synchronized (contentsCache) {
+                if (version == contentsCacheVersion) {
+                    Map<String, String[]> itemContents = contentsCache.get(itemPath);
+
+                    if (itemContents == null) {
+                        itemContents = new HashMap<String, String[]>();
+                        contentsCache.put(itemPath, itemContents);
+                    }
+                    itemContents.put(cacheKey, retArr.clone());
+                }
+            }
+        }
+
         return retArr;
     }
 
+    private static String getContentsCacheKey(String path) {
+        if (path == null) return "";
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * Removes the cached listings of the given Item which could have been changed by adding or removing the given path,
+     * i.e. the listings of its parents and of its children.
+     *
+     * @param itemPath the Item
+     * @param path the changed cluster path, null clears all listings of the Item
+     */
+    private void clearContentsCache(ItemPath itemPath, String path) {
+        synchronized (contentsCache) {
+            contentsCacheVersion++;
+
+            Map<String, String[]> itemContents = contentsCache.get(itemPath);
+
+            if (itemContents == null) return;
+
+            if (path == null) {
+                contentsCache.remove(itemPath);
+                return;
+            }
+
+            String changed = getContentsCacheKey(path);
+
+            for (Iterator<String> iter = itemContents.keySet().iterator(); iter.hasNext();) {
+                String cached = iter.next();
+                if (changed.startsWith(cached) || cached.startsWith(changed)) iter.remove();
+            }
+        }
+    }
+
+    /**
+     * A transactional storage may only report the changes of a transaction after its commit, so the listings cached
+     * in the meantime are invalidated again at the end of the transaction
+     */
+    private void recordContentsChange(ItemPath itemPath, Object locker) {
+        if (locker == null || transactionalStores.isEmpty()) return;
+
+        synchronized (contentsChangedByLocker) {
+            Set<ItemPath> changed = contentsChangedByLocker.get(locker);
+
+            if (changed == null) {
+                changed = new LinkedHashSet<ItemPath>();
+                contentsChangedByLocker.put(locker, changed);
+            }
+            changed.add(itemPath);
+        }
+    }
+
+    private void clearContentsChangedBy(Object locker) {
+        Set<ItemPath> changed;
+
+        synchronized (contentsChangedByLocker) {
+            changed = contentsChangedByLocker.remove(locker);
+        }
+
+        if (changed != null) {
+            for (ItemPath itemPath : changed) {
+                clearContentsCache(itemPath, null);
+                changeLifeCycleVersion(itemPath, null);
+            }
+        }
+    }
+
+    /**
+     * Returns the version of the LifeCycle of the given Item, which is changed by each put or remove of a LifeCycle
+     * path of the Item going through this manager, by the end of transactions changing the Item and by clearing the
+     * cache of the Item. Data derived from the Workflow can be cached as long as this value does not change.
+     *
+     * @param itemPath the Item
+     * @return the current version of the LifeCycle of the Item
+     */
+    public long getLifeCycleVersion(ItemPath itemPath) {
+        synchronized (lifeCycleVersions) {
+            Long version = lifeCycleVersions.get(itemPath);
+            return version == null ? lifeCycleBaseVersion : version;
+        }
+    }
+
+    /**
+     * Assigns a new LifeCycle version to the Item if the given path could contain the Workflow
+     *
+     * @param itemPath the Item, null changes the version of all Items
+     * @param path the changed path, null means the whole Item
+     */
+    private void changeLifeCycleVersion(ItemPath itemPath, String path) {
+        if (path != null) {
+            ClusterType type = ClusterStorage.getClusterType(path);
+            if (type != ClusterType.LIFECYCLE && type != ClusterType.ROOT) return;
+        }
+
+        synchronized (lifeCycleVersions) {
+            if (itemPath == null) {
+                lifeCycleVersions.clear();
+                lifeCycleBaseVersion = ++lifeCycleVersionCounter;
+            }
+            else
+                lifeCycleVersions.put(itemPath, ++lifeCycleVersionCounter);
+        }
+    }
+
+    /**
+     * Returns the highest integer id stored directly below the given path (e.g. AuditTrail, Job). The storages are
+     * only asked the first time, afterwards the value is maintained in memory by each put and remove going through
+     * this manager, so new ids can be allocated without loading the keys of the whole cluster. It is the only cache of
+     * the last ids, see {@link LastIdCache} for the reuse of the ids of removed objects. Does not look in any currently
+     * open transactions.
+     *
+     * @param itemPath the current Item
+     * @param path the cluster path
+     * @return the highest id or -1 if the cluster has no integer ids
+     */
+    public int getLastIntegerId(ItemPath itemPath, String path) throws PersistencyException {
+        if (path.startsWith("/")) path = path.substring(1);
+        while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+
+        Integer cached = lastIdCache.get(itemPath, path);
+        if (cached != null) return cached;
+
+        int lastId = -1;
+
+        for (ClusterStorage thisReader : findStorages(ClusterStorage.getClusterType(path), false)) {
+            try {
+                lastId = Math.max(lastId, thisReader.getLastIntegerId(itemPath, path));
+            }
+            catch (PersistencyException e) {
+                Logger.msg(5, "ClusterStorageManager.getLastIntegerId() - reader " + thisReader.getName() +
+                        " could not retrieve last id of " + itemPath + "/" + path + ": " + e.getMessage());
+            }
+        }
+
+        // a put might have happened in the meantime
+        return lastIdCache.set(itemPath, path, lastId);
+    }
+
     /**
      * Internal get method. Retrieves clusters from ClusterStorages & maintains the memory cache.
      * <br>
@@ -264,6 +499,7 @@ public class ClusterStorageManager {
                 C2KLocalObject obj = sysKeyMemCache.get(path);
                 if (obj != null) {
                     Logger.msg(7, "ClusterStorageManager.get() - found "+itemPath+"/"+path+" in memcache");
+                    CACHE_HITS.inc();
                     return obj;
                 }
             }
@@ -294,6 +530,8 @@ public class ClusterStorageManager {
         }
 
         if (result == null) {
+            CACHE_MISSES.inc();
+
             // else try each reader in turn until we find it
             ArrayList<ClusterStorage> readers = findStorages(ClusterStorage.getClusterType(path), false);
             for (ClusterStorage thisReader : readers) {
@@ -318,6 +556,130 @@ public class ClusterStorageManager {
         return result;
     }
 
+    /**
+     * Retrieves several objects of the same Item. Objects found in the memory cache are returned directly, the others
+     * are requested from the readers with one {@link ClusterStorage#getAll(ItemPath, List)} call per cluster type,
+     * and are put in the memory cache.
+     *
+     * @param itemPath current Item
+     * @param paths the cluster paths
+     * @return the C2KObjects in the same order as the paths, containing null for each object not found
+     */
+    public List<C2KLocalObject> getAll(ItemPath itemPath, List<String> paths) throws PersistencyException {
+        C2KLocalObject[] result = new C2KLocalObject[paths.size()];
+        Map<ClusterType, List<Integer>> toRead = new LinkedHashMap<ClusterType, List<Integer>>();
+
+        Map<String, C2KLocalObject> sysKeyMemCache = memoryCache.get(itemPath);
+
+        for (int i = 0; i < result.length; i++) {
+            String path = paths.get(i);
+
+            if (sysKeyMemCache != null) {
+                synchronized(sysKeyMemCache) {
+                    result[i] = sysKeyMemCache.get(path);
+                }
+                if (result[i] != null) {
+                    CACHE_HITS.inc();
+                    continue;
+                }
+            }
+
+            // RemoteMaps and Viewpoint data are handled by get()
+            if (path.indexOf('/') == -1 || (path.startsWith(VIEWPOINT.getName()) && path.endsWith("/data"))) {
+                try {
+                    result[i] = get(itemPath, path);
+                }
+                catch (ObjectNotFoundException e) {
+                    Logger.msg(7, "ClusterStorageManager.getAll() - "+e.getMessage());
+                }
+                continue;
+            }
+
+            CACHE_MISSES.inc();
+
+            ClusterType type = ClusterStorage.getClusterType(path);
+            List<Integer> indexes = toRead.get(type);
+
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                toRead.put(type, indexes);
+            }
+            indexes.add(i);
+        }
+
+        for (Map.Entry<ClusterType, List<Integer>> entry : toRead.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+
+            for (ClusterStorage thisReader : findStorages(entry.getKey(), false)) {
+                if (indexes.isEmpty()) break;
+
+                List<String> readPaths = new ArrayList<String>(indexes.size());
+                for (Integer i : indexes) readPaths.add(paths.get(i));
+
+                Logger.msg(7, "ClusterStorageManager.getAll() - reading "+readPaths.size()+" objects from "+thisReader.getName()+" for item "+itemPath);
+
+                List<C2KLocalObject> found;
+                try {
+                    found = thisReader.getAll(itemPath, readPaths);
+                }
+                catch (PersistencyException e) {
+                    // some storages report a missing object with an exception, so try them one by one
+                    Logger.msg(7, "ClusterStorageManager.getAll() - reader "+thisReader.getName()+" failed, reading objects one by one: "+e.getMessage());
+
+                    found = new ArrayList<C2KLocalObject>(readPaths.size());
+                    for (String path : readPaths) {
+                        try {
+                            found.add(thisReader.get(itemPath, path));
+                        }
+                        catch (PersistencyException e1) {
+                            found.add(null);
+                        }
+                    }
+                }
+
+                List<Integer> notFound = new ArrayList<Integer>();
+
+                for (int j = 0; j < indexes.size(); j++) {
+                    int i = indexes.get(j);
+                    C2KLocalObject obj = found.get(j);
+
+                    if (obj != null) {
+                        result[i] = obj;
+                        putInMemoryCache(itemPath, paths.get(i), obj);
+                    }
+                    else {
+                        notFound.add(i);
+                    }
+                }
+                indexes = notFound;
+            }
+        }
+
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Opens the binary data of an OutcomeAttachment for reading, trying each reader in turn. The memory cache
+     * is not used, it only keeps the metadata of OutcomeAttachments.
+     *
+     * @param itemPath current Item
+     * @param path the cluster path of the OutcomeAttachment
+     * @return the stream of the binary data
+     */
+    public InputStream getAttachmentStream(ItemPath itemPath, String path) throws PersistencyException, ObjectNotFoundException {
+        for (ClusterStorage thisReader : findStorages(ATTACHMENT, false)) {
+            try {
+                InputStream result = thisReader.getAttachmentStream(itemPath, path);
+                Logger.msg(7, "ClusterStorageManager.getAttachmentStream() - reading "+path+" from "+thisReader.getName() + " for item " + itemPath);
+                if (result != null) return result;
+            }
+            catch (PersistencyException e) {
+                Logger.msg(7, "ClusterStorageManager.getAttachmentStream() - reader "+thisReader.getName()+" could not retrieve "+itemPath+"/"+ path+": "+e.getMessage());
+            }
+        }
+        throw new ObjectNotFoundException("ClusterStorageManager.getAttachmentStream() - Path "+path+" not found in "+itemPath);
+    }
+
     public void put(ItemPath itemPath, C2KLocalObject obj) throws PersistencyException {
         put(itemPath, obj, null);
     }
@@ -343,6 +705,10 @@ public class ClusterStorageManager {
         }
 
         putInMemoryCache(itemPath, path, obj);
+        lastIdCache.put(itemPath, path);
+        clearContentsCache(itemPath, path);
+        recordContentsChange(itemPath, locker);
+        changeLifeCycleVersion(itemPath, path);
 
         // transmit proxy event
         if(Gateway.getProxyServer() != null)
@@ -381,6 +747,20 @@ public class ClusterStorageManager {
             }
         }
 
+        // only keep the metadata of attachments, the data is streamed from the storages on demand
+        if (obj instanceof OutcomeAttachment) {
+            OutcomeAttachment metadata = ((OutcomeAttachment) obj).copyMetadata();
+            metadata.setPayload(metadata.getSize(), () -> {
+                try {
+                    return getAttachmentStream(itemPath, path);
+                }
+                catch (ObjectNotFoundException e) {
+                    throw new PersistencyException(e.getMessage());
+                }
+            });
+            obj = metadata;
+        }
+
         synchronized(sysKeyMemCache) {
             sysKeyMemCache.put(path, obj);
         }
@@ -418,6 +798,11 @@ public class ClusterStorageManager {
             }
         }
 
+        lastIdCache.delete(itemPath, path);
+        clearContentsCache(itemPath, path);
+        recordContentsChange(itemPath, locker);
+        changeLifeCycleVersion(itemPath, path);
+
         // transmit proxy event
         if(Gateway.getProxyServer() != null)
             Gateway.getProxyServer().sendProxyEvent(new ProxyMessage(itemPath, path, ProxyMessage.DELETED));
@@ -428,6 +813,11 @@ public class ClusterStorageManager {
     public void clearCache(ItemPath itemPath, String path) {
         Logger.msg(7, "ClusterStorageManager.clearCache() - removing "+itemPath+"/"+path);
 
+        // proxies clear the changed path, which could have been added or removed by another process
+        lastIdCache.delete(itemPath, path);
+        clearContentsCache(itemPath, path);
+        changeLifeCycleVersion(itemPath, path);
+
         if (memoryCache.containsKey(itemPath)) {
             Map<String, C2KLocalObject> sysKeyMemCache = memoryCache.get(itemPath);
             synchronized(sysKeyMemCache) {
@@ -445,6 +835,13 @@ public class ClusterStorageManager {
     public void clearCache(ItemPath itemPath) {
         Logger.msg(5, "ClusterStorageManager.clearCache() - removing entire cache of "+itemPath);
 
+        lastIdCache.clear(itemPath);
+        clearContentsCache(itemPath, null);
+        synchronized (lifeCycleVersions) {
+            // the Workflow is reloaded as a new object, so derived data keyed by its identity cannot be reused
+            lifeCycleVersions.remove(itemPath);
+        }
+
         if (memoryCache.containsKey(itemPath)) {
             synchronized (memoryCache) {
                 if (Logger.doLog(6)) {
@@ -463,9 +860,40 @@ public class ClusterStorageManager {
         synchronized (memoryCache) {
             memoryCache.clear();
         }
+        lastIdCache.clear();
+        synchronized (contentsCache) {
+            contentsCacheVersion++;
+            contentsCache.clear();
+        }
+        changeLifeCycleVersion(null, null);
         Logger.msg(5, "ClusterStorageManager.clearCache() - cleared entire cache, "+memoryCache.size()+" entities.");
     }
 
+    /**
+     * @return the number of Items having objects in the memory cache
+     */
+    public int getCachedItemCount() {
+        synchronized (memoryCache) {
+            return memoryCache.size();
+        }
+    }
+
+    /**
+     * @return the number of objects in the memory cache
+     */
+    public int getCachedObjectCount() {
+        int count = 0;
+
+        synchronized (memoryCache) {
+            for (Map<String, C2KLocalObject> sysKeyMemCache : memoryCache.values()) {
+                synchronized (sysKeyMemCache) {
+                    count += sysKeyMemCache.size();
+                }
+            }
+        }
+        return count;
+    }
+
     public void dumpCacheContents(int logLevel) {
         if (!Logger.doLog(logLevel)) return;
 
@@ -505,11 +933,13 @@ public class ClusterStorageManager {
         for (TransactionalClusterStorage thisStore : transactionalStores) {
             thisStore.commit(locker);
         }
+        clearContentsChangedBy(locker);
     }
 
     public void abort(Object locker) {
         for (TransactionalClusterStorage thisStore : transactionalStores) {
             thisStore.abort(locker);
         }
+        clearContentsChangedBy(locker);
     }
 }
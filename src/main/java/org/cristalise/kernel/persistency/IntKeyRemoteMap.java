@@ -0,0 +1,339 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * RemoteMap of a cluster with integer keys, like the History of an Item or the Jobs of an Agent.
+ * <p>
+ * The keys are compared without parsing them, and they are also kept in a sorted primitive int array used by the
+ * range queries {@link #getRange(int, int)} and {@link #tail(int)}. A value missing from the memory is read
+ * together with the following missing values of its page by a single bulk read of the storage, so iterating the
+ * values reads the storage once per page. Only the most recently used values are kept in memory, the others are
+ * dropped and read again when they are needed.
+ * <p>
+ * The size of the pages is set by the property '{@value #PAGE_SIZE_PROPERTY}' (default: 100), the number of values
+ * kept in memory by '{@value #MAX_RESIDENT_PROPERTY}' (default: 1000).
+ *
+ * @param <V> the C2KLocalObject stored by this Map
+ */
+public class IntKeyRemoteMap<V extends C2KLocalObject> extends RemoteMap<V> {
+
+    private static final long serialVersionUID = 4617094283316651042L;
+
+    public static final String PAGE_SIZE_PROPERTY    = "IntKeyRemoteMap.pageSize";
+    public static final String MAX_RESIDENT_PROPERTY = "IntKeyRemoteMap.maxResident";
+
+    /**
+     * Orders the decimal keys by their value without parsing them, the other keys like {@link RemoteMap} does
+     */
+    static final Comparator<String> KEY_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            if (isPlainNumber(o1) && isPlainNumber(o2)) {
+                if (o1.length() != o2.length()) return o1.length() - o2.length();
+                return o1.compareTo(o2);
+            }
+
+            try {
+                return Integer.valueOf(o1).compareTo(Integer.valueOf(o2));
+            }
+            catch (NumberFormatException ex) { }
+
+            return o1.compareTo(o2);
+        }
+    };
+
+    private final int pageSize;
+    private final int maxResident;
+
+    /** sorted integer keys of the map, only the first keyCount elements are used */
+    private int[] intKeys  = new int[16];
+    private int   keyCount = 0;
+
+    /** keys of the values kept in memory, the least recently used first */
+    private final LinkedHashMap<String, Boolean> residentKeys = new LinkedHashMap<>(16, 0.75f, true);
+
+    public IntKeyRemoteMap(ItemPath itemPath, String path, Object locker) {
+        this(itemPath, path, locker, getProperty(PAGE_SIZE_PROPERTY, 100), getProperty(MAX_RESIDENT_PROPERTY, 1000));
+    }
+
+    /**
+     * @param pageSize the number of values read from the storage together
+     * @param maxResident the number of values kept in memory, it is at least the size of a page
+     */
+    public IntKeyRemoteMap(ItemPath itemPath, String path, Object locker, int pageSize, int maxResident) {
+        super(itemPath, path, locker, KEY_ORDER);
+
+        this.pageSize    = Math.max(1, pageSize);
+        this.maxResident = Math.max(this.pageSize, maxResident);
+    }
+
+    private static int getProperty(String name, int defaultValue) {
+        return Gateway.getProperties() == null ? defaultValue : Gateway.getProperties().getInt(name, defaultValue);
+    }
+
+    /**
+     * Canonical non-negative decimal number, e.g. '0' or '42' but not '042' or '-1'
+     */
+    private static boolean isPlainNumber(String key) {
+        int length = key.length();
+
+        if (length == 0 || length > 9 || (length > 1 && key.charAt(0) == '0')) return false;
+
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static Integer parseKey(Object key) {
+        if (key instanceof Integer) return (Integer) key;
+
+        try {
+            return Integer.valueOf(key.toString());
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected synchronized void loadKeys() {
+        if (keyLock != null) return;
+
+        super.loadKeys();
+
+        for (String key : super.keySet()) {
+            Integer id = parseKey(key);
+            if (id != null) addIntKey(id);
+        }
+    }
+
+    /**
+     * Returns the values whose key is between the given integers, in the order of their keys. The values
+     * missing from the memory are read one page at a time.
+     *
+     * @param from the lowest key, inclusive
+     * @param to the highest key, exclusive
+     * @return the values of the range, empty if there are none
+     */
+    public synchronized List<V> getRange(int from, int to) {
+        loadKeys();
+
+        if (from >= to) return Collections.emptyList();
+
+        return getValues(findIntKey(from), findIntKey(to));
+    }
+
+    /**
+     * Returns the values of the highest keys, in the order of their keys, e.g. the last Events of the History
+     *
+     * @param n the number of values
+     * @return the last n values, or all of them if the map is smaller
+     */
+    public synchronized List<V> tail(int n) {
+        loadKeys();
+
+        if (n <= 0) return Collections.emptyList();
+
+        return getValues(Math.max(0, keyCount - n), keyCount);
+    }
+
+    /**
+     * Reads the missing values of the page starting at the position of the key, if the value is not in memory
+     */
+    @Override
+    public synchronized V get(Object objKey) {
+        if (!(objKey instanceof Integer) && !(objKey instanceof String)) return null;
+
+        loadKeys();
+
+        String  key = objKey.toString();
+        Integer id  = parseKey(key);
+        int     pos = id == null ? -1 : Arrays.binarySearch(intKeys, 0, keyCount, id);
+
+        // not an integer or not listed yet, e.g. written by another process
+        if (pos < 0) {
+            V value = super.get(key);
+            if (value != null) putLocal(key, value);
+            return value;
+        }
+
+        V value = getLocal(key);
+
+        if (value == null) {
+            value = readPage(pos, Math.min(keyCount, pos + pageSize)).get(0);
+        }
+        else {
+            residentKeys.get(key);
+        }
+        return value;
+    }
+
+    @Override
+    protected synchronized V putLocal(String key, V value) {
+        Integer id = parseKey(key);
+        if (id != null && keyLock != null) addIntKey(id);
+
+        V previous = super.putLocal(key, value);
+
+        if (value != null) {
+            residentKeys.put(key, Boolean.TRUE);
+            evict();
+        }
+        return previous;
+    }
+
+    @Override
+    protected synchronized V removeLocal(Object key) {
+        Integer id = parseKey(key);
+
+        if (id != null) {
+            int pos = Arrays.binarySearch(intKeys, 0, keyCount, id);
+
+            if (pos >= 0) {
+                System.arraycopy(intKeys, pos + 1, intKeys, pos, keyCount - pos - 1);
+                keyCount--;
+            }
+        }
+        residentKeys.remove(key.toString());
+
+        return super.removeLocal(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        keyCount = 0;
+        residentKeys.clear();
+    }
+
+    /**
+     * @return the number of values kept in memory
+     */
+    public synchronized int getResidentCount() {
+        return residentKeys.size();
+    }
+
+    private void addIntKey(int id) {
+        int pos = Arrays.binarySearch(intKeys, 0, keyCount, id);
+        if (pos >= 0) return;
+
+        pos = -pos - 1;
+
+        if (keyCount == intKeys.length) intKeys = Arrays.copyOf(intKeys, keyCount * 2);
+
+        System.arraycopy(intKeys, pos, intKeys, pos + 1, keyCount - pos);
+        intKeys[pos] = id;
+        keyCount++;
+    }
+
+    /**
+     * @return the position of the first key which is not lower than the given one
+     */
+    private int findIntKey(int id) {
+        int pos = Arrays.binarySearch(intKeys, 0, keyCount, id);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    /**
+     * Drops the least recently used values until only the allowed number of them is kept in memory
+     */
+    private void evict() {
+        Iterator<String> eldest = residentKeys.keySet().iterator();
+
+        while (residentKeys.size() > maxResident) {
+            String key = eldest.next();
+            eldest.remove();
+            super.putLocal(key, null);
+        }
+    }
+
+    private List<V> getValues(int start, int end) {
+        List<V> values = new ArrayList<>(Math.max(0, end - start));
+
+        for (int pageStart = start; pageStart < end; pageStart += pageSize) {
+            for (V value : readPage(pageStart, Math.min(end, pageStart + pageSize))) {
+                if (value != null) values.add(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the values of the keys between the positions, the ones which are not in memory are read with a
+     * single bulk read. The values are collected before they are kept, which may drop other values of the page.
+     *
+     * @return the values in the order of the positions, containing null for each value not found
+     */
+    @SuppressWarnings("unchecked")
+    private List<V> readPage(int start, int end) {
+        List<V>       page    = new ArrayList<>(end - start);
+        List<Integer> missing = new ArrayList<>();
+        List<String>  paths   = new ArrayList<>();
+
+        for (int pos = start; pos < end; pos++) {
+            String key = String.valueOf(intKeys[pos]);
+            V value = getLocal(key);
+
+            if (value == null) {
+                missing.add(page.size());
+                paths.add(mPath + getName() + "/" + key);
+            }
+            else {
+                residentKeys.get(key);
+            }
+            page.add(value);
+        }
+
+        if (missing.isEmpty()) return page;
+
+        try {
+            List<C2KLocalObject> values = storage.getAll(mItemPath, paths, mLocker);
+
+            for (int i = 0; i < missing.size(); i++) page.set(missing.get(i), (V) values.get(i));
+
+            for (int i = 0; i < missing.size(); i++) {
+                V value = page.get(missing.get(i));
+                if (value != null) putLocal(String.valueOf(intKeys[start + missing.get(i)]), value);
+            }
+        }
+        catch (PersistencyException e) {
+            Logger.error(e);
+        }
+        return page;
+    }
+}
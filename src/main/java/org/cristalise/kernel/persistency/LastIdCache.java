@@ -0,0 +1,125 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cristalise.kernel.lookup.ItemPath;
+
+/**
+ * Keeps the highest integer id below the paths of the recently used Items for {@link ClusterStorageManager#getLastIntegerId}.
+ * The id is read from the storages once, then it is updated on every put and delete, so the cluster is not listed again.
+ * <p>
+ * The cached id is always the highest id stored: deleting the object of the highest id forgets the cached value, so it
+ * is read again from the storages, and the ids of the deleted objects may be reused. This is the same result the
+ * storages return after the Item was evicted from the cache or the server was restarted.
+ * <p>
+ * The paths are given without leading and trailing '/', e.g. 'AuditTrail' or 'Outcome/Schema'. The number of Items
+ * is bounded, the least recently used ones are evicted.
+ */
+final class LastIdCache {
+
+    private final LinkedHashMap<ItemPath, Map<String, Integer>> items;
+
+    LastIdCache(int maxItems) {
+        items = new LinkedHashMap<ItemPath, Map<String, Integer>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ItemPath, Map<String, Integer>> eldest) {
+                return size() > maxItems;
+            }
+        };
+    }
+
+    /**
+     * @return the highest id below the path or null if it is not cached
+     */
+    synchronized Integer get(ItemPath item, String path) {
+        Map<String, Integer> paths = items.get(item);
+        return paths == null ? null : paths.get(path);
+    }
+
+    /**
+     * Caches the id read from the storages, unless a put has stored a higher one meanwhile
+     *
+     * @return the cached id
+     */
+    synchronized int set(ItemPath item, String path, int lastId) {
+        return items.computeIfAbsent(item, k -> new HashMap<>()).merge(path, lastId, Math::max);
+    }
+
+    /**
+     * Updates the ids of all the parent paths of the stored object
+     */
+    synchronized void put(ItemPath item, String path) {
+        Map<String, Integer> paths = items.get(item);
+        if (paths == null || path == null) return;
+        if (path.startsWith("/")) path = path.substring(1);
+
+        for (int slash = path.indexOf('/'); slash != -1; slash = path.indexOf('/', slash + 1)) {
+            int id = ClusterStorage.parseIntegerId(path, slash + 1, segmentEnd(path, slash + 1));
+            if (id != -1) paths.computeIfPresent(path.substring(0, slash), (k, last) -> Math.max(last, id));
+        }
+    }
+
+    /**
+     * Forgets the ids which could have been changed by deleting the path and everything below it. It is also used
+     * when it is not known whether the path was added or deleted, e.g. for the changes of other processes.
+     */
+    synchronized void delete(ItemPath item, String path) {
+        Map<String, Integer> paths = items.get(item);
+        if (paths == null) return;
+
+        if (path == null) {
+            items.remove(item);
+            return;
+        }
+
+        String deleted = path.startsWith("/") ? path.substring(1) : path;
+        String prefix  = deleted + "/";
+        paths.keySet().removeIf(p -> p.equals(deleted) || p.startsWith(prefix));
+
+        for (int slash = deleted.indexOf('/'); slash != -1; slash = deleted.indexOf('/', slash + 1)) {
+            int id = ClusterStorage.parseIntegerId(deleted, slash + 1, segmentEnd(deleted, slash + 1));
+            if (id != -1) paths.computeIfPresent(deleted.substring(0, slash), (k, last) -> id >= last ? null : last);
+        }
+    }
+
+    synchronized void clear(ItemPath item) {
+        items.remove(item);
+    }
+
+    synchronized void clear() {
+        items.clear();
+    }
+
+    synchronized int size() {
+        return items.size();
+    }
+
+    private static int segmentEnd(String path, int from) {
+        int end = path.indexOf('/', from);
+        return end == -1 ? path.length() : end;
+    }
+}
@@ -50,7 +50,7 @@ public class RemoteMap<V extends C2KLocalObject> extends TreeMap<String, V> impl
     private int mID=-1;
     private String mName;
     protected ItemPath mItemPath;
-    private String mPath = "";
+    String mPath = "";
     Object keyLock = null;
     TransactionManager storage;
     Comparator<String> comp;
@@ -68,7 +68,7 @@ public class RemoteMap<V extends C2KLocalObject> extends TreeMap<String, V> impl
     Object mLocker;
 
     public RemoteMap(ItemPath itemPath, String path, Object locker) {
-        super(new Comparator<String>() {
+        this(itemPath, path, locker, new Comparator<String>() {
             @Override
             public int compare(String o1, String o2) {
                 Integer i1 = null, i2 = null;
@@ -82,6 +82,10 @@ public class RemoteMap<V extends C2KLocalObject> extends TreeMap<String, V> impl
                 return o1.compareTo(o2);
             }
         });
+    }
+
+    protected RemoteMap(ItemPath itemPath, String path, Object locker, Comparator<String> comparator) {
+        super(comparator);
 
         mItemPath = itemPath;
         mLocker = locker;
@@ -167,13 +171,27 @@ public class RemoteMap<V extends C2KLocalObject> extends TreeMap<String, V> impl
         }
     }
 
+    /**
+     * Returns the highest integer key of this map, including the uncommitted puts of the locker. It does not load
+     * the keys, the value is computed by the storage once and kept up-to-date by the ClusterStorageManager.
+     * 
+     * @return the highest integer key or -1 if the map has no integer keys
+     */
     public synchronized int getLastId() {
-        loadKeys();
-        if (size() == 0) return -1;
         try {
-            return Integer.parseInt(lastKey());
+            int lastId = storage.getLastIntegerId(mItemPath, mPath+mName, mLocker);
+
+            // keys already known locally, e.g. received through proxy notifications
+            if (keyLock != null && super.size() != 0) {
+                try {
+                    lastId = Math.max(lastId, Integer.parseInt(super.lastKey()));
+                }
+                catch (NumberFormatException ex) {}
+            }
+            return lastId;
         }
-        catch (NumberFormatException ex) {
+        catch (PersistencyException e) {
+            Logger.error(e);
             return -1;
         }
     }
@@ -300,6 +318,13 @@ public class RemoteMap<V extends C2KLocalObject> extends TreeMap<String, V> impl
         return super.put(key, value);
     }
 
+    /**
+     * Returns the value held in memory without loading it from the storage
+     */
+    protected synchronized V getLocal(Object key) {
+        return super.get(key);
+    }
+
     /**
      * @see java.util.Map#remove(Object)
      */
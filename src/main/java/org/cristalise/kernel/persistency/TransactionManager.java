@@ -20,11 +20,17 @@
  */
 package org.cristalise.kernel.persistency;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.common.PersistencyException;
@@ -33,17 +39,37 @@ import org.cristalise.kernel.entity.agent.JobList;
 import org.cristalise.kernel.events.History;
 import org.cristalise.kernel.lookup.AgentPath;
 import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.outcome.OutcomeAttachment;
+import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.process.auth.Authenticator;
 import org.cristalise.kernel.querying.Query;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.metrics.Counter;
+import org.cristalise.kernel.utils.metrics.Metrics;
+import org.cristalise.kernel.utils.metrics.Timer;
 
 
 public class TransactionManager {
+    public static final String METRICS = "Transaction";
+
+    private static final Timer   COMMIT_TIMER      = Metrics.getTimer(METRICS, "Commit");
+    private static final Counter COMMITTED_ENTRIES = Metrics.getCounter(METRICS, "CommittedEntries");
+    private static final Counter ABORTS            = Metrics.getCounter(METRICS, "Aborts");
+
+    static {
+        Metrics.registerGauge(METRICS, "Pending", () -> Gateway.getStorage() == null ? 0 : Gateway.getStorage().getPendingTransactionCount());
+    }
 
     HashMap<ItemPath, Object> locks;
     HashMap<Object, ArrayList<TransactionEntry>> pendingTransactions;
     ClusterStorageManager storage;
 
+    /**
+     * Values memoised for the (locker, item) transaction scope, e.g. resolved DataHelper expressions.
+     * Weak keys, so a locker which is never committed or aborted does not leak its values.
+     */
+    private final Map<Object, HashMap<ItemPath, HashMap<String, Object>>> transactionValues = new WeakHashMap<>();
+
     public TransactionManager(Authenticator auth) throws PersistencyException {
         storage = new ClusterStorageManager(auth);
         locks = new HashMap<ItemPath, Object>();
@@ -54,6 +80,33 @@ public class TransactionManager {
         return pendingTransactions.size() > 0;
     }
 
+    public int getPendingTransactionCount() {
+        synchronized(locks) {
+            return pendingTransactions.size();
+        }
+    }
+
+    /**
+     * Waits until all pending transactions are committed or aborted. Used during the shutdown before the
+     * storages are closed.
+     * 
+     * @param deadline the System.currentTimeMillis() to wait until
+     * @return true if there is no pending transaction
+     */
+    public boolean awaitPendingTransactions(long deadline) {
+        synchronized(locks) {
+            try {
+                for (long wait = deadline - System.currentTimeMillis(); pendingTransactions.size() > 0 && wait > 0; wait = deadline - System.currentTimeMillis()) {
+                    locks.wait(wait);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return pendingTransactions.size() == 0;
+        }
+    }
+
     public ClusterStorageManager getDb() {
         return storage;
     }
@@ -117,24 +170,53 @@ public class TransactionManager {
     public String[] getClusterContents(ItemPath itemPath, String path, Object locker) throws PersistencyException {
         if (path.startsWith("/") && path.length() > 1) path = path.substring(1);
 
-        List<String> uncomittedContents = new ArrayList<>();
+        String[] committedContents = storage.getClusterContents(itemPath, path);
+
+        if (!locks.containsKey(itemPath) || !locks.get(itemPath).equals(locker)) return committedContents;
+
+        // uncommitted changes may overwrite existing clusters, so merge without duplicates
+        Set<String> contents = new LinkedHashSet<>(Arrays.asList(committedContents));
+
+        for (TransactionEntry thisEntry : pendingTransactions.get(locker)) {
+            if (itemPath.equals(thisEntry.itemPath) && thisEntry.path.startsWith(path)) {
+                if (thisEntry.obj == null)
+                    throw new PersistencyException("TransactionManager.get() - Cluster " + path + " has been deleted in " + itemPath +
+                            " but not yet committed");
+                contents.add(StringUtils.substringAfterLast(thisEntry.path, "/"));
+            }
+        }
+
+        return contents.toArray(new String[contents.size()]);
+    }
+
+    /**
+     * Retrieves the highest integer id stored directly below the given path (e.g. AuditTrail, Job).
+     * Checks the transaction table first to see if the caller has uncommitted objects with higher id.
+     * 
+     * @param itemPath the item 
+     * @param path the cluster path
+     * @param locker the transaction key
+     * @return the highest id or -1 if the cluster has no integer ids
+     * @throws PersistencyException
+     */
+    public int getLastIntegerId(ItemPath itemPath, String path, Object locker) throws PersistencyException {
+        if (path.startsWith("/") && path.length() > 1) path = path.substring(1);
+
+        int lastId = storage.getLastIntegerId(itemPath, path);
+
+        if (locker != null && locks.containsKey(itemPath) && locks.get(itemPath).equals(locker)) {
+            String prefix = path + "/";
 
-        if (locks.containsKey(itemPath) && locks.get(itemPath).equals(locker)) {
             for (TransactionEntry thisEntry : pendingTransactions.get(locker)) {
-                if (itemPath.equals(thisEntry.itemPath) && thisEntry.path.startsWith(path)) {
-                    if (thisEntry.obj == null)
-                        throw new PersistencyException("TransactionManager.get() - Cluster " + path + " has been deleted in " + itemPath +
-                                " but not yet committed");
-                    String content = StringUtils.substringAfterLast(thisEntry.path, "/");
-                    uncomittedContents.add(content);
+                if (thisEntry.obj != null && itemPath.equals(thisEntry.itemPath) && thisEntry.path.startsWith(prefix)) {
+                    try {
+                        lastId = Math.max(lastId, Integer.parseInt(thisEntry.path.substring(prefix.length())));
+                    }
+                    catch (NumberFormatException e) {}
                 }
             }
         }
-
-        return ArrayUtils.addAll(
-                storage.getClusterContents(itemPath, path), 
-                uncomittedContents.toArray(new String[uncomittedContents.size()])
-        );
+        return lastId;
     }
 
     /**
@@ -172,12 +254,108 @@ public class TransactionManager {
         return storage.get(itemPath, path);
     }
 
+    /**
+     * Opens the binary data of an OutcomeAttachment for reading, see {@link ClusterStorageManager#getAttachmentStream(ItemPath, String)}.
+     * Checks the transaction table first to see if the caller has uncommitted changes.
+     * 
+     * @param itemPath the item
+     * @param path the cluster path of the OutcomeAttachment
+     * @param locker the transaction key
+     * @return the stream of the binary data
+     */
+    public InputStream getAttachmentStream(ItemPath itemPath, String path, Object locker)
+            throws PersistencyException, ObjectNotFoundException
+    {
+        if (path.startsWith("/") && path.length() > 1) path = path.substring(1);
+
+        C2KLocalObject pending = null;
+
+        if (locker != null && locks.containsKey(itemPath) && locks.get(itemPath).equals(locker)) {
+            for (TransactionEntry thisEntry : pendingTransactions.get(locker)) {
+                if (itemPath.equals(thisEntry.itemPath) && path.equals(thisEntry.path)) {
+                    if (thisEntry.obj == null)
+                        throw new PersistencyException("TransactionManager.getAttachmentStream() - Cluster " + path + " has been deleted in " + itemPath +
+                                " but not yet committed");
+                    pending = thisEntry.obj;
+                    break;
+                }
+            }
+        }
+
+        if (pending == null)                      return storage.getAttachmentStream(itemPath, path);
+        if (pending instanceof OutcomeAttachment) return ((OutcomeAttachment) pending).openStream();
+
+        throw new PersistencyException("TransactionManager.getAttachmentStream() - " + path + " is not an OutcomeAttachment in " + itemPath);
+    }
+
+    /**
+     * Retrieves several objects of the same Item, see {@link ClusterStorageManager#getAll(ItemPath, List)}.
+     * Checks the transaction table first to see if the caller has uncommitted changes.
+     * 
+     * @param itemPath the item
+     * @param paths the cluster paths
+     * @param locker the transaction key
+     * @return the C2KObjects in the same order as the paths, containing null for each object not found
+     */
+    public List<C2KLocalObject> getAll(ItemPath itemPath, List<String> paths, Object locker) throws PersistencyException {
+        C2KLocalObject[] result = new C2KLocalObject[paths.size()];
+        List<String> toRead = new ArrayList<>();
+        List<Integer> toReadIndexes = new ArrayList<>();
+
+        boolean lockedByLocker = locker != null && locks.containsKey(itemPath) && locks.get(itemPath).equals(locker);
+
+        for (int i = 0; i < result.length; i++) {
+            String path = paths.get(i);
+            if (path.startsWith("/") && path.length() > 1) path = path.substring(1);
+
+            // RemoteMaps are handled by get()
+            if (path.indexOf('/') == -1) {
+                try {
+                    result[i] = get(itemPath, path, locker);
+                }
+                catch (ObjectNotFoundException e) {
+                    Logger.msg(7, "TransactionManager.getAll() - "+e.getMessage());
+                }
+                continue;
+            }
+
+            if (lockedByLocker) {
+                for (TransactionEntry thisEntry : pendingTransactions.get(locker)) {
+                    if (itemPath.equals(thisEntry.itemPath) && path.equals(thisEntry.path)) {
+                        if (thisEntry.obj == null)
+                            throw new PersistencyException("TransactionManager.getAll() - Cluster " + path + " has been deleted in " + itemPath +
+                                    " but not yet committed");
+                        result[i] = thisEntry.obj;
+                        break;
+                    }
+                }
+                if (result[i] != null) continue;
+            }
+
+            toRead.add(path);
+            toReadIndexes.add(i);
+        }
+
+        if (toRead.size() != 0) {
+            List<C2KLocalObject> found = storage.getAll(itemPath, toRead);
+
+            for (int j = 0; j < found.size(); j++) result[toReadIndexes.get(j)] = found.get(j);
+        }
+
+        return Arrays.asList(result);
+    }
+
     public void put(ItemPath itemPath, C2KLocalObject obj, Object locker) throws PersistencyException {
         ArrayList<TransactionEntry> lockingTransaction = getLockingTransaction(itemPath, locker);
+        clearItemValues(itemPath);
 
         if (lockingTransaction == null) {
-            storage.put(itemPath, obj);
-            locks.remove(itemPath);
+            try {
+                storage.put(itemPath, obj);
+            }
+            finally {
+                unlock(itemPath);
+            }
         }
         else
             createTransactionEntry(itemPath, obj, null, lockingTransaction);
@@ -188,15 +366,29 @@ public class TransactionManager {
      */
     public void remove(ItemPath itemPath, String path, Object locker) throws PersistencyException {
         ArrayList<TransactionEntry> lockingTransaction = getLockingTransaction(itemPath, locker);
+        clearItemValues(itemPath);
 
         if (lockingTransaction == null) {
-            storage.remove(itemPath, path);
-            locks.remove(itemPath);
+            try {
+                storage.remove(itemPath, path);
+            }
+            finally {
+                unlock(itemPath);
+            }
         }
         else
             createTransactionEntry(itemPath, null, path, lockingTransaction);
     }
 
+    /**
+     * Releases the lock taken by a put or remove without transaction
+     */
+    private void unlock(ItemPath itemPath) {
+        synchronized(locks) {
+            locks.remove(itemPath);
+        }
+    }
+
     /**
      * Manages the transaction table keyed by the object 'locker'.
      * If this object is null, transaction support is bypassed (so long as no lock exists on that object).
@@ -224,10 +416,14 @@ public class TransactionManager {
                     locks.put(itemPath, new Object());
                     lockerTransaction = null;
                 }
-                else { // initialise the transaction
+                else { // initialise the transaction, or join it if the locker is already writing other items
                     locks.put(itemPath, locker);
-                    lockerTransaction = new ArrayList<TransactionEntry>();
-                    pendingTransactions.put(locker, lockerTransaction);
+                    lockerTransaction = pendingTransactions.get(locker);
+
+                    if (lockerTransaction == null) {
+                        lockerTransaction = new ArrayList<TransactionEntry>();
+                        pendingTransactions.put(locker, lockerTransaction);
+                    }
                 }
             }
         }
@@ -275,48 +471,86 @@ public class TransactionManager {
             remove(itemPath, path, locker);
     }
     /**
-     * Writes all pending changes to the backends.
+     * Writes all pending changes to the backends. If the changes could not be written, the transactional backends
+     * roll them back, the cache of the changed Items is cleared and the sysKeys are unlocked.
+     * <p>
+     * The sysKeys of the changed Items stay locked by the locker until the backends are done, so the backends are
+     * called without holding the lock table, and the commits of different lockers are written concurrently.
      * 
      * @param locker transaction locker
+     * @throws PersistencyException the changes could not be written
      */
-    public void commit(Object locker) {
+    public void commit(Object locker) throws PersistencyException {
+        clearLockerValues(locker);
+
+        ArrayList<TransactionEntry> lockerTransactions;
+
         synchronized(locks) {
-            ArrayList<TransactionEntry> lockerTransactions = pendingTransactions.get(locker);
-            HashMap<TransactionEntry, Exception> exceptions = new HashMap<TransactionEntry, Exception>();
-            // quit if no transactions are present;
-            if (lockerTransactions == null) return;
+            lockerTransactions = pendingTransactions.get(locker);
+        }
+
+        // quit if no transactions are present;
+        if (lockerTransactions == null) return;
+
+        HashMap<TransactionEntry, Exception> exceptions = new HashMap<TransactionEntry, Exception>();
+        long start = Metrics.start();
+
+        try {
             storage.begin(locker);
 
             for (TransactionEntry thisEntry : lockerTransactions) {
+                // other transactions may have memoised the previously committed data
+                clearItemValues(thisEntry.itemPath);
+
                 try {
                     if (thisEntry.obj == null) storage.remove(thisEntry.itemPath, thisEntry.path, locker);
                     else                       storage.put(thisEntry.itemPath, thisEntry.obj, locker);
-
-                    locks.remove(thisEntry.itemPath);
                 }
                 catch (Exception e) {
                     exceptions.put(thisEntry, e);
                 }
             }
-            pendingTransactions.remove(locker);
-            
+
             if (exceptions.size() > 0) { // oh dear
-                storage.abort(locker);
-                Logger.error("TransactionManager.commit() - Problems during transaction commit of locker "+locker.toString()+". Database may be in an inconsistent state.");
+                Logger.error("TransactionManager.commit() - Problems during transaction commit of locker "+locker.toString()+".");
                 for (TransactionEntry entry : exceptions.keySet()) {
-                    Exception ex = exceptions.get(entry);
                     Logger.msg(entry.toString());
-                    Logger.error(ex);
+                    Logger.error(exceptions.get(entry));
                 }
-                dumpPendingTransactions(0);
-                Logger.die("Database failure during commit");
+                throw new PersistencyException("TransactionManager.commit() - Could not write "+exceptions.size()+" changes of locker "+locker);
             }
-            try {
-                storage.commit(locker);
+
+            storage.commit(locker);
+        }
+        catch (PersistencyException e) {
+            storage.abort(locker);
+            rollbackCache(lockerTransactions);
+            dumpPendingTransactions(0);
+            ABORTS.inc();
+            throw e;
+        }
+        finally {
+            synchronized(locks) {
+                pendingTransactions.remove(locker);
+                locks.values().removeIf(locker::equals);
+                if (pendingTransactions.size() == 0) locks.notifyAll();
             }
-            catch (PersistencyException e) {
-                storage.abort(locker);
-                Logger.die("Transactional database failure");
+        }
+
+        COMMIT_TIMER.stop(start);
+        COMMITTED_ENTRIES.add(lockerTransactions.size());
+    }
+
+    /**
+     * The cache was updated by the failed commit, so the changed Items are reloaded from the backends
+     */
+    private void rollbackCache(ArrayList<TransactionEntry> lockerTransactions) {
+        HashSet<ItemPath> items = new HashSet<ItemPath>();
+
+        for (TransactionEntry thisEntry : lockerTransactions) {
+            if (items.add(thisEntry.itemPath)) {
+                storage.clearCache(thisEntry.itemPath);
+                clearItemValues(thisEntry.itemPath);
             }
         }
     }
@@ -327,18 +561,90 @@ public class TransactionManager {
      * @param locker transaction locker
      */
     public void abort(Object locker) {
+        clearLockerValues(locker);
+
         synchronized(locks) {
-            if (locks.containsValue(locker)) {
-                for (ItemPath thisPath : locks.keySet()) {
-                    if (locks.get(thisPath).equals(locker))
-                        locks.remove(thisPath);
-                }
+            // a locker can hold the locks of several items
+            locks.values().removeIf(locker::equals);
+            if (pendingTransactions.remove(locker) != null) ABORTS.inc();
+
+            if (pendingTransactions.size() == 0) locks.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the version of the committed LifeCycle of the Item, see {@link ClusterStorageManager#getLifeCycleVersion(ItemPath)}
+     *
+     * @param itemPath the Item
+     * @return the current version of the LifeCycle of the Item
+     */
+    public long getLifeCycleVersion(ItemPath itemPath) {
+        return storage.getLifeCycleVersion(itemPath);
+    }
+
+    /**
+     * Returns a value memoised by {@link #putTransactionValue(ItemPath, Object, String, Object)} in the scope of
+     * the given transaction and Item. The value is dropped when the transaction is committed or aborted, or when
+     * the Item is modified or its cache is cleared.
+     *
+     * @param itemPath the Item the value was computed from
+     * @param locker the transaction key, no value is memoised for null
+     * @param key identifies the value, e.g. the expression it was resolved from
+     * @return the memoised value or null
+     */
+    public Object getTransactionValue(ItemPath itemPath, Object locker, String key) {
+        if (locker == null) return null;
+
+        synchronized (transactionValues) {
+            HashMap<ItemPath, HashMap<String, Object>> lockerValues = transactionValues.get(locker);
+            if (lockerValues == null) return null;
+
+            HashMap<String, Object> itemValues = lockerValues.get(itemPath);
+            return itemValues == null ? null : itemValues.get(key);
+        }
+    }
+
+    /**
+     * Memoises a value computed from the data of the Item in the scope of the given transaction,
+     * see {@link #getTransactionValue(ItemPath, Object, String)}
+     *
+     * @param itemPath the Item the value was computed from
+     * @param locker the transaction key, no value is memoised for null
+     * @param key identifies the value, e.g. the expression it was resolved from
+     * @param value the value to memoise
+     */
+    public void putTransactionValue(ItemPath itemPath, Object locker, String key, Object value) {
+        if (locker == null || value == null) return;
+
+        synchronized (transactionValues) {
+            transactionValues.computeIfAbsent(locker, k -> new HashMap<>())
+                             .computeIfAbsent(itemPath, k -> new HashMap<>())
+                             .put(key, value);
+        }
+    }
+
+    private void clearLockerValues(Object locker) {
+        synchronized (transactionValues) {
+            transactionValues.remove(locker);
+        }
+    }
+
+    private void clearItemValues(ItemPath itemPath) {
+        synchronized (transactionValues) {
+            if (transactionValues.isEmpty()) return;
+
+            if (itemPath == null) {
+                transactionValues.clear();
+            }
+            else {
+                for (HashMap<ItemPath, HashMap<String, Object>> lockerValues : transactionValues.values()) lockerValues.remove(itemPath);
             }
-            pendingTransactions.remove(locker);
         }
     }
 
     public void clearCache(ItemPath itemPath, String path) {
+        clearItemValues(itemPath);
+
         if (itemPath == null)  storage.clearCache();
         else if (path == null) storage.clearCache(itemPath);
         else                   storage.clearCache(itemPath, path);
@@ -348,29 +654,31 @@ public class TransactionManager {
     public void dumpPendingTransactions(int logLevel) {
         if(!Logger.doLog(logLevel)) return;
 
-        Logger.msg(logLevel, "================");
-        Logger.msg(logLevel, "Transaction dump");
-        Logger.msg(logLevel, "Locked Items:");
+        synchronized(locks) {
+            Logger.msg(logLevel, "================");
+            Logger.msg(logLevel, "Transaction dump");
+            Logger.msg(logLevel, "Locked Items:");
         
-        if (locks.size() == 0)
-            Logger.msg(logLevel, "  None");
-        else
-            for (ItemPath thisPath : locks.keySet()) {
-                Object locker = locks.get(thisPath);
-                Logger.msg(logLevel, "  "+thisPath+" locked by "+locker);
-            }
+            if (locks.size() == 0)
+                Logger.msg(logLevel, "  None");
+            else
+                for (ItemPath thisPath : locks.keySet()) {
+                    Object locker = locks.get(thisPath);
+                    Logger.msg(logLevel, "  "+thisPath+" locked by "+locker);
+                }
 
-        Logger.msg(logLevel, "Open transactions:");
-        if (pendingTransactions.size() == 0)
-            Logger.msg(logLevel, "  None");
-        else
-            for (Object thisLocker : pendingTransactions.keySet()) {
-                Logger.msg(logLevel, "  Transaction owner:"+thisLocker);
-                ArrayList<TransactionEntry> entries = pendingTransactions.get(thisLocker);
-                for (TransactionEntry thisEntry : entries) {
-                    Logger.msg(logLevel, "    "+thisEntry.toString());
+            Logger.msg(logLevel, "Open transactions:");
+            if (pendingTransactions.size() == 0)
+                Logger.msg(logLevel, "  None");
+            else
+                for (Object thisLocker : pendingTransactions.keySet()) {
+                    Logger.msg(logLevel, "  Transaction owner:"+thisLocker);
+                    ArrayList<TransactionEntry> entries = pendingTransactions.get(thisLocker);
+                    for (TransactionEntry thisEntry : entries) {
+                        Logger.msg(logLevel, "    "+thisEntry.toString());
+                    }
                 }
-            }
+        }
     }
 
     /**
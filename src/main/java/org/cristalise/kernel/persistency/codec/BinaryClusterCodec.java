@@ -0,0 +1,382 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.codec;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+import org.exolab.castor.xml.UnmarshalHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Compact binary codec. The object is marshalled by Castor as SAX events, which are written as one byte tokens.
+ * Names and short values are written only once and referenced by their index afterwards, and closing tags, quotes
+ * and escaping are not written at all. Decoding replays the events to the Castor UnmarshalHandler, so no XML text is
+ * created or parsed and the mapping files are still the only description of the objects.
+ * <p>
+ * The data starts with the {@link #MAGIC} bytes followed by the version of the format. Outcomes are written as
+ * their XML data, like by the {@link XMLClusterCodec}.
+ */
+public class BinaryClusterCodec implements ClusterCodec {
+
+    /** Starts with a zero byte, which is never the first byte of XML in an ASCII compatible encoding */
+    public static final byte[] MAGIC   = { 0, 'C', '2', 'K' };
+    public static final byte   VERSION = 1;
+    public static final String FILE_EXTENSION = ".c2k";
+
+    /** Strings up to this length are added to the table of the strings and are referenced afterwards */
+    private static final int MAX_SHARED_LENGTH = 64;
+
+    private static final byte END              = 0;
+    private static final byte START_ELEMENT    = 1; // no namespace and no prefix: local name only
+    private static final byte START_ELEMENT_NS = 2; // uri, local name and qualified name
+    private static final byte END_ELEMENT      = 3;
+    private static final byte CHARACTERS       = 4;
+    private static final byte START_PREFIX     = 5;
+    private static final byte END_PREFIX       = 6;
+
+    private static final byte ATTRIBUTE    = 0; // no namespace, no prefix and CDATA type: local name and value only
+    private static final byte ATTRIBUTE_NS = 1; // uri, local name, qualified name, type and value
+
+    private static final String CDATA = "CDATA";
+
+    private final XMLClusterCodec xmlCodec = new XMLClusterCodec();
+
+    @Override
+    public String getName() {
+        return ClusterCodecs.BINARY;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return FILE_EXTENSION;
+    }
+
+    @Override
+    public boolean isEncodedBy(byte[] header, int length) {
+        if (length < MAGIC.length) return false;
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void encode(C2KLocalObject obj, OutputStream out) throws PersistencyException {
+        if (obj instanceof Outcome) {
+            xmlCodec.encode(obj, out);
+            return;
+        }
+
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.write(MAGIC);
+            data.writeByte(VERSION);
+
+            Encoder encoder = new Encoder(data);
+            Gateway.getMarshaller().marshall(obj, encoder);
+            encoder.flushCharacters();
+
+            data.writeByte(END);
+            data.flush();
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            throw new PersistencyException("BinaryClusterCodec.encode() - Could not encode " + obj.getClusterPath() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public C2KLocalObject decode(InputStream in) throws PersistencyException {
+        try {
+            DataInputStream data = new DataInputStream(in);
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+
+            if (!isEncodedBy(magic, magic.length)) throw new IOException("Data was not encoded by BinaryClusterCodec");
+
+            byte version = data.readByte();
+            if (version != VERSION) throw new IOException("Unsupported version:" + version);
+
+            return new Decoder(data).decode();
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            throw new PersistencyException("BinaryClusterCodec.decode() - Could not decode: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the SAX events of the Castor Marshaller as tokens
+     */
+    private static class Encoder implements ContentHandler {
+        private final DataOutputStream     out;
+        private final Map<String, Integer> sharedStrings = new HashMap<>();
+        private final StringBuilder        characters    = new StringBuilder();
+
+        Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            try {
+                flushCharacters();
+
+                if (isPlain(uri, localName, qName)) {
+                    out.writeByte(START_ELEMENT);
+                    writeString(localName);
+                }
+                else {
+                    out.writeByte(START_ELEMENT_NS);
+                    writeString(uri);
+                    writeString(localName);
+                    writeString(qName);
+                }
+
+                int length = atts == null ? 0 : atts.getLength();
+                writeVarInt(length);
+
+                for (int i = 0; i < length; i++) {
+                    if (isPlain(atts.getURI(i), atts.getLocalName(i), atts.getQName(i)) && CDATA.equals(atts.getType(i))) {
+                        out.writeByte(ATTRIBUTE);
+                        writeString(atts.getLocalName(i));
+                    }
+                    else {
+                        out.writeByte(ATTRIBUTE_NS);
+                        writeString(atts.getURI(i));
+                        writeString(atts.getLocalName(i));
+                        writeString(atts.getQName(i));
+                        writeString(atts.getType(i));
+                    }
+                    writeString(atts.getValue(i));
+                }
+            }
+            catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            try {
+                flushCharacters();
+                out.writeByte(END_ELEMENT);
+            }
+            catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            characters.append(ch, start, length);
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            try {
+                flushCharacters();
+                out.writeByte(START_PREFIX);
+                writeString(prefix);
+                writeString(uri);
+            }
+            catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+            try {
+                flushCharacters();
+                out.writeByte(END_PREFIX);
+                writeString(prefix);
+            }
+            catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        // the document events are written by the codec, the rest carries no data of the object
+        @Override public void setDocumentLocator(Locator locator) {}
+        @Override public void startDocument() {}
+        @Override public void endDocument() {}
+        @Override public void ignorableWhitespace(char[] ch, int start, int length) {}
+        @Override public void processingInstruction(String target, String data) {}
+        @Override public void skippedEntity(String name) {}
+
+        private static boolean isPlain(String uri, String localName, String qName) {
+            return (uri == null || uri.isEmpty()) && localName != null && localName.equals(qName);
+        }
+
+        /**
+         * Writes the characters received since the last element event as one token
+         */
+        void flushCharacters() throws IOException {
+            if (characters.length() == 0) return;
+
+            out.writeByte(CHARACTERS);
+            writeString(characters.toString());
+            characters.setLength(0);
+        }
+
+        /**
+         * Writes the index of a shared string shifted left, or the length of a new string shifted left with the lowest 
+         * bit set followed by its UTF-8 bytes
+         */
+        private void writeString(String s) throws IOException {
+            if (s == null) s = "";
+
+            Integer index = sharedStrings.get(s);
+
+            if (index != null) {
+                writeVarInt(index << 1);
+                return;
+            }
+
+            byte[] bytes = s.getBytes(UTF_8);
+            writeVarInt((bytes.length << 1) | 1);
+            out.write(bytes);
+
+            if (s.length() <= MAX_SHARED_LENGTH) sharedStrings.put(s, sharedStrings.size());
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    /**
+     * Reads the tokens and replays them as SAX events to the Castor UnmarshalHandler
+     */
+    private static class Decoder {
+        private final DataInputStream in;
+        private final List<String>    sharedStrings = new ArrayList<>();
+        private final Deque<String[]> elements      = new ArrayDeque<>();
+
+        Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        C2KLocalObject decode() throws IOException, SAXException {
+            UnmarshalHandler handler = Gateway.getMarshaller().createUnmarshalHandler();
+            handler.startDocument();
+
+            for (byte token = in.readByte(); token != END; token = in.readByte()) {
+                switch (token) {
+                    case START_ELEMENT:
+                    case START_ELEMENT_NS: {
+                        String uri       = token == START_ELEMENT ? "" : readString();
+                        String localName = readString();
+                        String qName     = token == START_ELEMENT ? localName : readString();
+                        int    length    = readVarInt();
+
+                        AttributesImpl atts = new AttributesImpl();
+                        for (int i = 0; i < length; i++) {
+                            if (in.readByte() == ATTRIBUTE) {
+                                String name = readString();
+                                atts.addAttribute("", name, name, CDATA, readString());
+                            }
+                            else {
+                                atts.addAttribute(readString(), readString(), readString(), readString(), readString());
+                            }
+                        }
+                        handler.startElement(uri, localName, qName, atts);
+                        elements.push(new String[] { uri, localName, qName });
+                        break;
+                    }
+                    case END_ELEMENT:
+                        String[] element = elements.pop();
+                        handler.endElement(element[0], element[1], element[2]);
+                        break;
+                    case CHARACTERS:
+                        char[] ch = readString().toCharArray();
+                        handler.characters(ch, 0, ch.length);
+                        break;
+                    case START_PREFIX:
+                        handler.startPrefixMapping(readString(), readString());
+                        break;
+                    case END_PREFIX:
+                        handler.endPrefixMapping(readString());
+                        break;
+                    default:
+                        throw new IOException("Invalid token:" + token);
+                }
+            }
+
+            handler.endDocument();
+            return (C2KLocalObject) handler.getObject();
+        }
+
+        private String readString() throws IOException {
+            int value = readVarInt();
+
+            if ((value & 1) == 0) return sharedStrings.get(value >>> 1);
+
+            byte[] bytes = new byte[value >>> 1];
+            in.readFully(bytes);
+            String s = new String(bytes, UTF_8);
+
+            if (s.length() <= MAX_SHARED_LENGTH) sharedStrings.add(s);
+
+            return s;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readByte();
+                value |= (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed variable length integer");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.codec;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+
+/**
+ * Encodes the C2KLocalObjects persisted by a ClusterStorage into bytes and decodes them. Each codec must be able
+ * to recognise its own data from the first few bytes (see {@link #isEncodedBy(byte[], int)}), so a storage can read
+ * data written with a different codec, e.g. after its codec was changed. {@link ClusterCodecs} selects the codec
+ * of the stored data.
+ */
+public interface ClusterCodec {
+
+    /**
+     * @return the name of the codec used in the configuration, e.g. 'xml' or 'binary'
+     */
+    public String getName();
+
+    /**
+     * @return the extension of the files written by the codec with dot, e.g. '.xml'
+     */
+    public String getFileExtension();
+
+    /**
+     * Checks whether the data starting with the given bytes was encoded by this codec
+     *
+     * @param header the first bytes of the data
+     * @param length the number of valid bytes in the header, it can be less than {@link ClusterCodecs#HEADER_LENGTH}
+     * @return true if the data was encoded by this codec
+     */
+    public boolean isEncodedBy(byte[] header, int length);
+
+    /**
+     * Writes the encoded object to the stream, which is flushed but not closed
+     *
+     * @param obj the object to encode
+     * @param out the destination of the encoded data
+     * @throws PersistencyException the object could not be encoded or written
+     */
+    public void encode(C2KLocalObject obj, OutputStream out) throws PersistencyException;
+
+    /**
+     * Reads and decodes an object from the stream, which is not closed
+     *
+     * @param in the source of the encoded data
+     * @return the decoded object
+     * @throws PersistencyException the data could not be read or decoded
+     */
+    public C2KLocalObject decode(InputStream in) throws PersistencyException;
+}
@@ -0,0 +1,114 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.codec;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.process.Gateway;
+
+/**
+ * Instantiates the configured {@link ClusterCodec} of a storage and decodes stored data with the codec which wrote it
+ */
+public class ClusterCodecs {
+
+    public static final String XML    = "xml";
+    public static final String BINARY = "binary";
+
+    /** The number of bytes read to select the codec of the stored data */
+    public static final int HEADER_LENGTH = 8;
+
+    private static final ClusterCodec[] builtInCodecs = { new BinaryClusterCodec(), new XMLClusterCodec() };
+
+    private ClusterCodecs() {}
+
+    /**
+     * Instantiates the codec by its name
+     *
+     * @param name either {@value #XML}, {@value #BINARY} or the name of a class implementing {@link ClusterCodec}.
+     *        If it is blank the XML codec is returned
+     * @return the new codec
+     * @throws PersistencyException the codec could not be instantiated
+     */
+    public static ClusterCodec getCodec(String name) throws PersistencyException {
+        if (StringUtils.isBlank(name) || XML.equals(name)) return new XMLClusterCodec();
+        if (BINARY.equals(name))                            return new BinaryClusterCodec();
+
+        try {
+            return (ClusterCodec) Class.forName(name).newInstance();
+        }
+        catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException ex) {
+            throw new PersistencyException("ClusterCodecs.getCodec() - The codec class " + name + " could not be instantiated: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Instantiates the codec named by the given configuration property, see {@link #getCodec(String)}
+     *
+     * @param propName the name of the property, e.g. XMLStorage.codec
+     * @return the new codec, XML if the property is not set
+     * @throws PersistencyException the codec could not be instantiated
+     */
+    public static ClusterCodec getConfiguredCodec(String propName) throws PersistencyException {
+        return getCodec(Gateway.getProperties() == null ? XML : Gateway.getProperties().getString(propName, XML));
+    }
+
+    /**
+     * Decodes the data using the codec which wrote it. The given codec is checked first, then the built-in ones,
+     * so a storage can read the data written before its codec was changed.
+     *
+     * @param in the stored data, it is not closed
+     * @param codec the codec of the storage
+     * @return the decoded object
+     * @throws PersistencyException the data could not be read or no codec recognised it
+     */
+    public static C2KLocalObject decode(InputStream in, ClusterCodec codec) throws PersistencyException {
+        BufferedInputStream bIn = in instanceof BufferedInputStream ? (BufferedInputStream) in : new BufferedInputStream(in);
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+
+        try {
+            bIn.mark(HEADER_LENGTH);
+
+            for (int n = 0; length < HEADER_LENGTH; length += n) {
+                n = bIn.read(header, length, HEADER_LENGTH - length);
+                if (n == -1) break;
+            }
+
+            bIn.reset();
+        }
+        catch (IOException e) {
+            throw new PersistencyException("ClusterCodecs.decode() - Could not read data: " + e.getMessage());
+        }
+
+        if (codec.isEncodedBy(header, length)) return codec.decode(bIn);
+
+        for (ClusterCodec builtIn : builtInCodecs) {
+            if (builtIn.isEncodedBy(header, length)) return builtIn.decode(bIn);
+        }
+
+        throw new PersistencyException("ClusterCodecs.decode() - Unknown encoding of data, codec:" + codec.getName());
+    }
+}
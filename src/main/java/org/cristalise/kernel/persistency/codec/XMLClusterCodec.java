@@ -0,0 +1,103 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.persistency.codec;
+
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * The default codec persisting the objects as Castor XML, the data has no header besides the XML itself. 
+ * Outcomes are written as their XML data, but they cannot be decoded because their path is not part of the data.
+ */
+public class XMLClusterCodec implements ClusterCodec {
+
+    public static final String FILE_EXTENSION = ".xml";
+
+    private final Charset charset;
+
+    /**
+     * Creates the codec using the default charset, which is used by the kernel to read and write files
+     */
+    public XMLClusterCodec() {
+        this(Charset.defaultCharset());
+    }
+
+    public XMLClusterCodec(Charset charset) {
+        this.charset = charset;
+    }
+
+    @Override
+    public String getName() {
+        return ClusterCodecs.XML;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return FILE_EXTENSION;
+    }
+
+    /**
+     * XML starts with '&lt;', optionally preceded by whitespace or byte order mark
+     */
+    @Override
+    public boolean isEncodedBy(byte[] header, int length) {
+        for (int i = 0; i < length; i++) {
+            int b = header[i] & 0xFF;
+
+            if (b == '<') return true;
+
+            // skip whitespace and the bytes of a byte order mark
+            if (b < 0x80 && !Character.isWhitespace(b)) return false;
+        }
+        return false;
+    }
+
+    @Override
+    public void encode(C2KLocalObject obj, OutputStream out) throws PersistencyException {
+        try {
+            Gateway.getMarshaller().marshall(obj, new BufferedWriter(new OutputStreamWriter(out, charset)));
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            throw new PersistencyException("XMLClusterCodec.encode() - Could not marshall " + obj.getClusterPath() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public C2KLocalObject decode(InputStream in) throws PersistencyException {
+        try {
+            return (C2KLocalObject) Gateway.getMarshaller().unmarshall(new InputStreamReader(in, charset));
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            throw new PersistencyException("XMLClusterCodec.decode() - Could not unmarshall: " + e.getMessage());
+        }
+    }
+}
@@ -57,6 +57,7 @@ import org.cristalise.kernel.persistency.ClusterType;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.LocalObjectLoader;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.metrics.Metrics;
 import org.custommonkey.xmlunit.Diff;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.w3c.dom.Document;
@@ -79,6 +80,8 @@ import lombok.experimental.Accessors;
  */
 @Accessors(prefix = "m") @Getter @Setter
 public class Outcome implements C2KLocalObject {
+    /** The group of the {@link Metrics} timing the validation of the Outcomes by the name of their Schema */
+    public static final String METRICS = "OutcomeValidation";
 
     //These values are set in system properties to select more efficient xpath evaluation behaviour
     private static final String DTM_MANAGER_NAME  = "com.sun.org.apache.xml.internal.dtm.DTMManager";
@@ -268,12 +271,18 @@ public class Outcome implements C2KLocalObject {
             throw new InvalidDataException("Schema was NOT provided");
         }
 
-        OutcomeValidator validator = OutcomeValidator.getValidator(mSchema);
+        long start = Metrics.start();
+        try {
+            OutcomeValidator validator = OutcomeValidator.getValidator(mSchema);
 
-        if (Gateway.getProperties().getBoolean("Outcome.Validation.useDOM", true))
-            return validator.validate(mDOM);
-        else
-            return validator.validate(getData());
+            if (Gateway.getProperties().getBoolean("Outcome.Validation.useDOM", true))
+                return validator.validate(mDOM);
+            else
+                return validator.validate(getData());
+        }
+        finally {
+            if (start != 0) Metrics.getTimer(METRICS, mSchema.getName()).stop(start);
+        }
     }
 
     /**
@@ -24,6 +24,12 @@ import static org.cristalise.kernel.persistency.ClusterType.ATTACHMENT;
 import static org.cristalise.kernel.persistency.ClusterType.HISTORY;
 import static org.cristalise.kernel.persistency.ClusterType.OUTCOME;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import org.cristalise.kernel.common.InvalidDataException;
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.common.PersistencyException;
@@ -35,14 +41,32 @@ import org.cristalise.kernel.persistency.ClusterType;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.utils.Logger;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * Binary data attached to an Outcome. The data is either held in memory (binaryData) or kept outside of this
+ * object by a {@link Payload}, e.g. in the chunks or the file of a ClusterStorage. The ClusterStorages supporting 
+ * it store the data separately from the metadata, so the metadata can be read and cached without loading the 
+ * data, which is then read with {@link #openStream()}.
+ */
 @Getter @Setter
 public class OutcomeAttachment implements C2KLocalObject {
 
     public static final int NONE = -1;
 
+    /** Size of the chunks used to copy and store the binary data */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Opens the binary data kept outside of the OutcomeAttachment. Every call returns a new stream.
+     */
+    @FunctionalInterface
+    public interface Payload {
+        InputStream open() throws PersistencyException;
+    }
+
     // db fields
     ItemPath  itemPath;
     String    schemaName;
@@ -51,6 +75,10 @@ public class OutcomeAttachment implements C2KLocalObject {
 
     String type;
     byte[] binaryData;
+    long   size;
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    Payload payload = null;
 
     public OutcomeAttachment() {
         eventId = NONE;
@@ -82,6 +110,104 @@ public class OutcomeAttachment implements C2KLocalObject {
         this.binaryData = binaryData;
     }
 
+    /**
+     * Creates an OutcomeAttachment which data is read from the payload when it is stored
+     * 
+     * @param itemPath the Item of the Outcome
+     * @param outcome the Outcome of the attachment
+     * @param type the mime type of the data
+     * @param size the size of the data in bytes
+     * @param payload opens the data
+     */
+    public OutcomeAttachment(ItemPath itemPath, Outcome outcome, String type, long size, Payload payload) {
+        this(itemPath, outcome, type, null);
+        setPayload(size, payload);
+    }
+
+    /**
+     * Returns the binary data. If it is kept by a Payload it is read into a new array every time, use
+     * {@link #openStream()} instead to avoid holding large data in the memory.
+     * 
+     * @return the binary data or null if it could not be read
+     */
+    public byte[] getBinaryData() {
+        if (binaryData != null || payload == null) return binaryData;
+
+        try (InputStream in = payload.open()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(size, Integer.MAX_VALUE - 8));
+            copy(in, out);
+            return out.toByteArray();
+        }
+        catch (PersistencyException | IOException e) {
+            Logger.error(e);
+            return null;
+        }
+    }
+
+    public void setBinaryData(byte[] data) {
+        binaryData = data;
+        payload = null;
+    }
+
+    /**
+     * @return the size of the binary data in bytes
+     */
+    public long getSize() {
+        return binaryData != null ? binaryData.length : size;
+    }
+
+    /**
+     * Sets the Payload keeping the binary data, and drops the data held in memory
+     * 
+     * @param size the size of the data in bytes
+     * @param payload opens the data
+     */
+    public void setPayload(long size, Payload payload) {
+        this.binaryData = null;
+        this.size = size;
+        this.payload = payload;
+    }
+
+    /**
+     * Opens the binary data for reading without loading it into the memory
+     * 
+     * @return new stream of the binary data
+     * @throws PersistencyException the data could not be opened
+     */
+    public InputStream openStream() throws PersistencyException {
+        if (payload != null) return payload.open();
+
+        return new ByteArrayInputStream(binaryData == null ? new byte[0] : binaryData);
+    }
+
+    /**
+     * Creates a copy of this OutcomeAttachment without the binary data, used by the ClusterStorages to store 
+     * the metadata separately from the data.
+     * 
+     * @return the new OutcomeAttachment
+     */
+    public OutcomeAttachment copyMetadata() {
+        OutcomeAttachment copy = new OutcomeAttachment(itemPath, schemaName, schemaVersion, eventId, type, null);
+        copy.size = getSize();
+        return copy;
+    }
+
+    /**
+     * Copies the stream in chunks of {@value #CHUNK_SIZE} bytes
+     * 
+     * @return the number of bytes copied
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long count = 0;
+
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+            count += n;
+        }
+        return count;
+    }
+
     public Outcome getOutcome() throws ObjectNotFoundException, PersistencyException {
         return getOutcome(null);
     }
@@ -23,13 +23,25 @@ package org.cristalise.kernel.process;
 import static org.cristalise.kernel.property.BuiltInItemProperties.KERNEL_VERSION;
 import static org.cristalise.kernel.property.BuiltInItemProperties.MODULE;
 import static org.cristalise.kernel.property.BuiltInItemProperties.NAME;
+import static org.cristalise.kernel.property.BuiltInItemProperties.RESOURCE_DIGEST;
 import static org.cristalise.kernel.property.BuiltInItemProperties.TYPE;
 
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.collection.Collection;
@@ -53,11 +65,13 @@ import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.lookup.LookupManager;
 import org.cristalise.kernel.lookup.RolePath;
 import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.TransactionManager;
 import org.cristalise.kernel.persistency.outcome.Outcome;
 import org.cristalise.kernel.persistency.outcome.Schema;
 import org.cristalise.kernel.persistency.outcome.Viewpoint;
 import org.cristalise.kernel.process.resource.BuiltInResources;
 import org.cristalise.kernel.process.resource.ResourceImportHandler;
+import org.cristalise.kernel.property.BuiltInItemProperties;
 import org.cristalise.kernel.property.Property;
 import org.cristalise.kernel.property.PropertyArrayList;
 import org.cristalise.kernel.property.PropertyDescription;
@@ -176,6 +190,11 @@ public class Bootstrap
     }
 
     /**
+     * Verifies the kernel descriptions in two steps. First the descriptions are loaded and compared to the
+     * {@link BuiltInItemProperties#RESOURCE_DIGEST} of their Items in parallel, which only reads data. Then the
+     * changed or new ones are verified and stored level by level, because descriptions may depend on the ones of
+     * the earlier levels. A level is a run of consecutive entries of the same type in the boot list (e.g. the
+     * Schemas after the StateMachines), its entries do not depend on each other and are verified in parallel.
      *
      * @param bootList
      * @param ns
@@ -183,28 +202,96 @@ public class Bootstrap
      * @throws InvalidItemPathException
      */
     private static void verifyBootDataItems(String bootList, String ns, boolean reset) throws InvalidItemPathException {
+        List<BootItem> bootItems = new ArrayList<>();
         StringTokenizer str = new StringTokenizer(bootList, "\n\r");
 
-        while (str.hasMoreTokens() && !shutdown) {
-            String thisItem = str.nextToken();
-            String[] idFilename = thisItem.split(",");
-            String id = idFilename[0], filename = idFilename[1];
-            ItemPath itemPath = new ItemPath(id);
-            String[] fileParts = filename.split("/");
-            String itemType = fileParts[0], itemName = fileParts[1];
+        while (str.hasMoreTokens()) bootItems.add(new BootItem(str.nextToken()));
 
+        int threads = Gateway.getProperties().getInt("Bootstrap.verifyThreads", Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try {
+            for (BootItem item : bootItems) item.unchanged = pool.submit(() -> item.isUnchanged(ns));
+
+            int skipped = 0;
+
+            for (int start = 0, end; start < bootItems.size() && !shutdown; start = end) {
+                String type = bootItems.get(start).type;
+                for (end = start + 1; end < bootItems.size() && bootItems.get(end).type.equals(type); end++);
+
+                List<Future<DomainPath>> verified = new ArrayList<>();
+
+                try {
+                    for (BootItem item : bootItems.subList(start, end)) {
+                        if (item.unchanged.get()) skipped++;
+                        else verified.add(pool.submit(() -> verifyResource(ns, item.name, 0, item.type, item.itemPath, item.outcomes, item.location, reset)));
+                    }
+
+                    // the next level may depend on this one
+                    for (Future<DomainPath> future : verified) future.get();
+                }
+                catch (Exception e) {
+                    Logger.error(e instanceof ExecutionException ? e.getCause() : e);
+                    Logger.die("Error importing bootstrap items. Unsafe to continue.");
+                }
+            }
+            Logger.msg(1, "Bootstrap.verifyBootDataItems() - " + skipped + " of " + bootItems.size() + " items were unchanged");
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * An entry of the boot list, e.g. 'uuid,OD/Schema'
+     */
+    private static class BootItem {
+        final ItemPath itemPath;
+        final String   type;
+        final String   name;
+        final String   location;
+
+        /** Outcomes loaded by {@link #isUnchanged(String)}, reused by verifyResource() */
+        Set<Outcome> outcomes;
+        /** Result of {@link #isUnchanged(String)} executed by the pool */
+        Future<Boolean> unchanged;
+
+        BootItem(String line) throws InvalidItemPathException {
+            String[] idFilename = line.split(",");
+            String[] fileParts = idFilename[1].split("/");
+
+            itemPath = new ItemPath(idFilename[0]);
+            type     = fileParts[0];
+            name     = fileParts[1];
+            location = "boot/"+idFilename[1]+(type.equals("OD")?".xsd":".xml");
+        }
+
+        boolean isUnchanged(String ns) {
             try {
-                String location = "boot/"+filename+(itemType.equals("OD")?".xsd":".xml");
-                verifyResource(ns, itemName, 0, itemType, itemPath, location, reset);
+                ResourceImportHandler typeImpHandler = Gateway.getResourceImportHandler(BuiltInResources.getValue(type));
+
+                outcomes = typeImpHandler.getResourceOutcomes(name, ns, location, 0);
+
+                if (outcomes.size() == 0 || !typeImpHandler.getPath(name, ns).exists()) return false;
+
+                for (Outcome outcome : outcomes) {
+                    if (!isResourceUnchanged(Gateway.getStorage(), itemPath, outcome, 0, null)) return false;
+                }
+
+                // the data is unchanged, but the path and the Module of the Item are checked like in verifyResource()
+                DomainPath path = typeImpHandler.getPath(name, ns);
+                verifyPathAndModuleProperty(ns, type, name, itemPath, path, path);
+
+                return true;
             }
             catch (Exception e) {
-                Logger.error(e);
-                Logger.die("Error importing bootstrap items. Unsafe to continue.");
+                // e.g. the Schema of the description is not imported yet, verifyResource() will do it
+                Logger.msg(5, "Bootstrap.BootItem.isUnchanged() - " + type + "/" + name + " : " + e.getMessage());
+                return false;
             }
         }
     }
 
-
     /**
      * Create a resource item from its module definition. The item should not exist.
      */
@@ -278,12 +365,32 @@ public class Bootstrap
 
         if (outcomes.size() == 0) Logger.warning("Bootstrap.verifyResource() - no Outcome found therefore nothing stored!");
 
+        try {
+            storeResourceOutcomes(typeImpHandler, itemName, ns, version, thisProxy, outcomes, reset);
+        }
+        catch (Exception e) {
+            // release the Item, so the failure does not leave it locked by this transaction
+            Gateway.getStorage().abort(thisProxy);
+            throw e;
+        }
+        Gateway.getStorage().commit(thisProxy);
+        return modDomPath;
+    }
+
+    /**
+     * Stores the changed Outcomes of the resource with their Events, Viewpoints and Collections in the
+     * transaction of the resource Item
+     */
+    private static void storeResourceOutcomes(ResourceImportHandler typeImpHandler, String itemName, String ns, int version,
+            ItemProxy thisProxy, Set<Outcome> outcomes, boolean reset) throws Exception
+    {
         for (Outcome newOutcome : outcomes) {
             if (checkToStoreOutcomeVersion(thisProxy, newOutcome, version, reset)) {
                 // validate it, but not for kernel objects (ns == null) because those are to validate the rest
                 if (ns != null) newOutcome.validateAndCheck();
 
-                storeOutcomeEventAndViews(thisProxy, newOutcome, version);
+                int eventID = storeOutcomeEventAndViews(thisProxy, newOutcome, version);
+                recordResourceDigest(Gateway.getStorage(), thisProxy.getPath(), newOutcome, version, eventID, thisProxy);
 
                 CollectionArrayList cols = typeImpHandler.getCollections(itemName, version, newOutcome);
 
@@ -295,8 +402,6 @@ public class Bootstrap
                 }
             }
         }
-        Gateway.getStorage().commit(thisProxy);
-        return modDomPath;
     }
 
     /**
@@ -353,11 +458,12 @@ public class Bootstrap
      * @param item
      * @param newOutcome
      * @param version
+     * @return the ID of the new Event
      * @throws PersistencyException
      * @throws ObjectNotFoundException
      * @throws InvalidDataException
      */
-    private static void storeOutcomeEventAndViews(ItemProxy item, Outcome newOutcome, int version)
+    private static int storeOutcomeEventAndViews(ItemProxy item, Outcome newOutcome, int version)
             throws PersistencyException, ObjectNotFoundException, InvalidDataException
     {
         Logger.msg("Bootstrap.storeOutcomeEventAndViews() - Writing new " + newOutcome.getSchema().getName() + " v" + version + " to "+item.getName());
@@ -378,9 +484,13 @@ public class Bootstrap
         Gateway.getStorage().put(item.getPath(), newOutcome,    item);
         Gateway.getStorage().put(item.getPath(), newLastView,   item);
         Gateway.getStorage().put(item.getPath(), newNumberView, item);
+
+        return eventID;
     }
 
     /**
+     * Checks the digest recorded by the last Bootstrap run first, so the stored Outcome is only loaded and
+     * compared if the digest does not match.
      *
      * @param item
      * @param newOutcome
@@ -394,12 +504,19 @@ public class Bootstrap
     private static boolean checkToStoreOutcomeVersion(ItemProxy item, Outcome newOutcome, int version, boolean reset)
             throws PersistencyException, InvalidDataException, ObjectNotFoundException
     {
+        if (isResourceUnchanged(Gateway.getStorage(), item.getPath(), newOutcome, version, item)) {
+            Logger.msg(5, "Bootstrap.checkToStoreOutcomeVersion() - Digest unchanged, no update required");
+            return false;
+        }
+
         Schema schema = newOutcome.getSchema();
         try {
             Viewpoint currentData = (Viewpoint) item.getObject(ClusterType.VIEWPOINT+"/"+newOutcome.getSchema().getName()+"/"+version);
 
             if (newOutcome.isIdentical(currentData.getOutcome())) {
                 Logger.msg(5, "Bootstrap.checkToStoreOutcomeVersion() - Data identical, no update required");
+                // so next time the comparison can be skipped
+                recordResourceDigest(Gateway.getStorage(), item.getPath(), newOutcome, version, currentData.getEventId(), item);
                 return false;
             }
             else {
@@ -415,6 +532,100 @@ public class Bootstrap
         return true;
     }
 
+    /**
+     * Checks if the Outcome was already imported into the given version, using the digest recorded in the
+     * {@link BuiltInItemProperties#RESOURCE_DIGEST} Property. The Event ID of the Viewpoint is also recorded,
+     * so data stored by other means than Bootstrap is not mistaken for unchanged.
+     *
+     * @param storage the storage to read the Property and the Viewpoint from
+     * @param item the resource Item
+     * @param outcome the data to be imported
+     * @param version the version of the resource
+     * @param locker transaction locker or null
+     * @return true if the stored data is identical to the Outcome
+     */
+    public static boolean isResourceUnchanged(TransactionManager storage, ItemPath item, Outcome outcome, int version, Object locker) {
+        try {
+            Property  manifest = (Property)  storage.get(item, ClusterType.PROPERTY+"/"+RESOURCE_DIGEST, locker);
+            Viewpoint view     = (Viewpoint) storage.get(item, ClusterType.VIEWPOINT+"/"+outcome.getSchema().getName()+"/"+version, locker);
+
+            String entry = parseResourceDigests(manifest.getValue()).get(outcome.getSchema().getName()+":"+version);
+
+            return (view.getEventId()+":"+getResourceDigest(outcome)).equals(entry);
+        }
+        catch (ObjectNotFoundException | PersistencyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records the digest of the Outcome stored in the given version in the {@link BuiltInItemProperties#RESOURCE_DIGEST}
+     * Property of the Item. Only the digest of the last recorded version is kept for each Schema, so the Property does
+     * not grow with the versions of the resource. The digests of the other versions are simply not used.
+     *
+     * @param storage the storage to write the Property to
+     * @param item the resource Item
+     * @param outcome the stored data
+     * @param version the version of the resource
+     * @param eventId the ID of the Event of the stored data
+     * @param locker transaction locker or null
+     * @throws PersistencyException the Property could not be stored
+     */
+    public static void recordResourceDigest(TransactionManager storage, ItemPath item, Outcome outcome, int version, int eventId, Object locker)
+            throws PersistencyException
+    {
+        Map<String, String> digests;
+        try {
+            digests = parseResourceDigests(((Property) storage.get(item, ClusterType.PROPERTY+"/"+RESOURCE_DIGEST, locker)).getValue());
+        }
+        catch (ObjectNotFoundException e) {
+            digests = new LinkedHashMap<>();
+        }
+
+        String schema = outcome.getSchema().getName();
+        digests.keySet().removeIf(key -> key.startsWith(schema+":"));
+        digests.put(schema+":"+version, eventId+":"+getResourceDigest(outcome));
+
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<String, String> e : digests.entrySet()) {
+            if (value.length() != 0) value.append(",");
+            value.append(e.getKey()).append(":").append(e.getValue());
+        }
+
+        storage.put(item, new Property(RESOURCE_DIGEST, value.toString(), false), locker);
+    }
+
+    /**
+     * @param value list of 'schema:version:eventId:digest' separated by comma
+     * @return map of 'schema:version' to 'eventId:digest'
+     */
+    private static Map<String, String> parseResourceDigests(String value) {
+        Map<String, String> digests = new LinkedHashMap<>();
+
+        if (StringUtils.isBlank(value)) return digests;
+
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length == 4) digests.put(parts[0]+":"+parts[1], parts[2]+":"+parts[3]);
+        }
+        return digests;
+    }
+
+    private static String getResourceDigest(Outcome outcome) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(outcome.getData().getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) hex.append(String.format("%02x", b));
+
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      *
      * @param impHandler
@@ -22,8 +22,8 @@ package org.cristalise.kernel.process;
 
 import java.net.MalformedURLException;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cristalise.kernel.common.CannotManageException;
 import org.cristalise.kernel.common.InvalidDataException;
@@ -31,6 +31,7 @@ import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.common.PersistencyException;
 import org.cristalise.kernel.entity.CorbaServer;
 import org.cristalise.kernel.entity.proxy.AgentProxy;
+import org.cristalise.kernel.entity.proxy.MemberSubscription;
 import org.cristalise.kernel.entity.proxy.ProxyManager;
 import org.cristalise.kernel.entity.proxy.ProxyServer;
 import org.cristalise.kernel.lookup.Lookup;
@@ -48,6 +49,7 @@ import org.cristalise.kernel.security.SecurityManager;
 import org.cristalise.kernel.utils.CastorXMLUtility;
 import org.cristalise.kernel.utils.Logger;
 import org.cristalise.kernel.utils.ObjectProperties;
+import org.cristalise.kernel.utils.metrics.Metrics;
 
 /**
  * The Gateway is the central object of a CRISTAL process. It initializes,
@@ -81,8 +83,17 @@ public class Gateway
     static private ResourceLoader       mResource;
     static private SecurityManager      mSecurityManager = null;
 
+    static private final WorkTracker    mRequests        = new WorkTracker("requests");
+    static private final WorkTracker    mBackgroundTasks = new WorkTracker("background tasks");
+
+    /**
+     * Property to set the maximum time in milliseconds the shutdown waits for the running requests, transactions,
+     * background tasks and proxy notifications to finish before closing the storages. Default is 30000.
+     */
+    public static final String DRAIN_TIMEOUT_PROPERTY = "Shutdown.drainTimeout";
+
     //FIXME: Move this cache to Resource class - requires to extend ResourceLoader with getResourceImportHandler()
-    static private HashMap<BuiltInResources, ResourceImportHandler> resourceImportHandlerCache = new HashMap<BuiltInResources, ResourceImportHandler>();
+    static private ConcurrentHashMap<BuiltInResources, ResourceImportHandler> resourceImportHandlerCache = new ConcurrentHashMap<BuiltInResources, ResourceImportHandler>();
 
     private Gateway() { }
 
@@ -113,6 +124,8 @@ public class Gateway
         mC2KProps.clear();
 
         orbDestroyed = false;
+        mRequests.open();
+        mBackgroundTasks.open();
         mResource = res;
         if (mResource == null) mResource = new Resource();
 
@@ -151,6 +164,9 @@ public class Gateway
 
         mSecurityManager = new SecurityManager();
 
+        // expose the metrics through JMX if enabled
+        Metrics.init(mC2KProps);
+
         // dump properties
         Logger.msg("Gateway.init() - DONE");
         dumpC2KProps(7);
@@ -355,6 +371,9 @@ public class Gateway
      * Shuts down all kernel API objects
      */
     public static void close() {
+        // stop accepting new work and let the running one finish
+        drain();
+
         // run shutdown module scripts
         if (mModules != null) mModules.runScripts("shutdown");
 
@@ -377,6 +396,9 @@ public class Gateway
         mProxyManager = null;
         mProxyServer = null;
 
+        // unregister the MBeans of the metrics
+        Metrics.close();
+
         // close log consoles
         Logger.closeConsole();
 
@@ -397,6 +419,38 @@ public class Gateway
         Logger.removeAll();
     }
 
+    /**
+     * First phase of the shutdown: rejects the new requests, then waits for the running requests, the pending 
+     * transactions, the background tasks, the queued proxy notifications and their delivery to the proxy observers
+     * to finish. All phases share the same deadline set by {@value #DRAIN_TIMEOUT_PROPERTY}, the shutdown continues when it is reached.
+     */
+    private static void drain() {
+        long deadline = System.currentTimeMillis() + mC2KProps.getInt(DRAIN_TIMEOUT_PROPERTY, 30000);
+
+        Logger.msg(1, "Gateway.drain() - stop accepting requests");
+
+        mRequests.close();
+        mRequests.awaitIdle(deadline);
+
+        // requests may still have started background tasks (e.g. JobPusher) before finishing
+        mBackgroundTasks.close();
+        mBackgroundTasks.awaitIdle(deadline);
+
+        if (mStorage != null && !mStorage.awaitPendingTransactions(deadline)) {
+            Logger.warning("Gateway.drain() - closing storages with pending transactions");
+        }
+
+        if (mProxyServer != null && !mProxyServer.flush(deadline)) {
+            Logger.warning("Gateway.drain() - proxy notifications were not all sent");
+        }
+
+        if (!MemberSubscription.shutdown(deadline)) {
+            Logger.warning("Gateway.drain() - proxy observers were not all notified");
+        }
+
+        Logger.msg(1, "Gateway.drain() - DONE");
+    }
+
     /**
      * Returns the initialised CORBA ORB Object 
      * 
@@ -453,6 +507,20 @@ public class Gateway
         return mProxyServer;
     }
 
+    /**
+     * @return the tracker of the requests executed by the Items of this server
+     */
+    public static WorkTracker getRequestTracker() {
+        return mRequests;
+    }
+
+    /**
+     * @return the tracker of the background tasks started by the requests (e.g. pushing Jobs to Agents)
+     */
+    public static WorkTracker getBackgroundTaskTracker() {
+        return mBackgroundTasks;
+    }
+
     static public String getCentreId() {
         return getProperties().getString("LocalCentre");
     }
@@ -493,15 +561,15 @@ public class Gateway
 
     /**
      * Retrieves the ResourceImportHandler available for the resource type. It creates a new if configured 
-     * or falls back to the default one provided in the kernel
+     * or falls back to the default one provided in the kernel. It is called concurrently by Bootstrap.
      * 
      * @param resType the type o the Resource
      * @return the initialised ResourceImportHandler
      */
     public static ResourceImportHandler getResourceImportHandler(BuiltInResources resType) throws Exception {
-        if (resourceImportHandlerCache.containsKey(resType)) return resourceImportHandlerCache.get(resType);
+        ResourceImportHandler handler = resourceImportHandlerCache.get(resType);
 
-        ResourceImportHandler handler = null;
+        if (handler != null) return handler;
 
         if (Gateway.getProperties().containsKey("ResourceImportHandler."+resType)) {
             try {
@@ -515,9 +583,10 @@ public class Gateway
 
         if (handler == null) handler = new DefaultResourceImportHandler(resType);
 
-        resourceImportHandlerCache.put(resType, handler);
+        // another thread may have created the handler in the meantime
+        ResourceImportHandler existing = resourceImportHandlerCache.putIfAbsent(resType, handler);
 
-        return handler;
+        return existing != null ? existing : handler;
     }
 
 }
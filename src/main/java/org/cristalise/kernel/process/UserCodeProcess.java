@@ -82,7 +82,9 @@ public class UserCodeProcess extends StandardClient implements ProxyObserver<Job
      */
     public static final String USERCODE_IGNORE = "USERCODE_IGNORE";
 
-    protected static boolean                        active = true;
+    protected static volatile boolean               active = true;
+    /** The thread executing {@link #run()}, {@link #shutdown()} waits for it to finish the current Job */
+    private static volatile Thread                  runner = null;
     protected final HashMap<String, C2KLocalObject> jobs   = new HashMap<String, C2KLocalObject>();
 
     /**
@@ -132,6 +134,7 @@ public class UserCodeProcess extends StandardClient implements ProxyObserver<Job
     @Override
     public void run() {
         Thread.currentThread().setName("Usercode Process");
+        runner = Thread.currentThread();
 
         // subscribe to job list - this will initialise the jobs using the ProxyObserver interface as callback
         agent.subscribe(new MemberSubscription<Job>(this, ClusterType.JOB.getName(), true));
@@ -338,8 +341,25 @@ public class UserCodeProcess extends StandardClient implements ProxyObserver<Job
         return("Usercode Process for role "+role);
     }
 
+    /**
+     * Stops the processing of new Jobs and waits until the current Job is finished and the Gateway is closed,
+     * or until the time set in {@value Gateway#DRAIN_TIMEOUT_PROPERTY} is elapsed. Called from the shutdown hook,
+     * so the JVM does not exit in the middle of a Job.
+     */
     public static void shutdown() {
         active = false;
+
+        Thread thread = runner;
+        if (thread == null || thread == Thread.currentThread()) return;
+
+        try {
+            thread.join(Gateway.getProperties().getInt(Gateway.DRAIN_TIMEOUT_PROPERTY, 30000));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (thread.isAlive()) Logger.warning("UserCodeProcess.shutdown() - Usercode Process did not finish in time");
     }
 
     static public void main(String[] args) {
@@ -0,0 +1,104 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.process;
+
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * Counts the work in progress of one kind (e.g. the requests of the Items) so the process can stop accepting new 
+ * work and wait for the running one to finish during the shutdown. Each successful {@link #enter()} must be 
+ * followed by an {@link #exit()}.
+ */
+public class WorkTracker {
+    private final String name;
+
+    private int     active = 0;
+    private boolean closed = false;
+
+    public WorkTracker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Registers the start of a new work
+     * 
+     * @return false if the tracker was closed and the work must not be started
+     */
+    public synchronized boolean enter() {
+        if (closed) return false;
+
+        active++;
+        return true;
+    }
+
+    /**
+     * Registers the end of a work started by a successful {@link #enter()}
+     */
+    public synchronized void exit() {
+        if (--active == 0) notifyAll();
+    }
+
+    /**
+     * @return the number of works started but not yet finished
+     */
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Rejects any new work from now on
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Accepts new work again, used when the Gateway is initialised again in the same process
+     */
+    public synchronized void open() {
+        closed = false;
+    }
+
+    /**
+     * Waits until all works are finished or the deadline is reached
+     * 
+     * @param deadline the System.currentTimeMillis() to wait until
+     * @return true if there is no work in progress
+     */
+    public synchronized boolean awaitIdle(long deadline) {
+        try {
+            for (long wait = deadline - System.currentTimeMillis(); active > 0 && wait > 0; wait = deadline - System.currentTimeMillis()) {
+                wait(wait);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (active > 0) Logger.warning("WorkTracker.awaitIdle() - " + active + " " + name + " still running");
+
+        return active == 0;
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.process.module;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.cristalise.kernel.process.Bootstrap;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * Runs the import of Modules or of the resources of a Module following their dependencies. The dependencies form
+ * a DAG: a node is started as soon as all the nodes providing one of its dependencies were imported, so independent
+ * nodes are imported in parallel. Nodes which are ready at the same time are started in the order of the list.
+ * Dependencies which are not provided by any node of the list (e.g. resources of other Modules) are ignored.
+ * <p>
+ * The number of threads is set by the 'Module.importThreads' property, which defaults to the number of available
+ * processors. With 1 thread the nodes are imported one after the other in the calling thread.
+ */
+final class ImportScheduler {
+
+    @FunctionalInterface
+    interface ImportTask<T> {
+        void run(T node) throws Exception;
+    }
+
+    private ImportScheduler() {}
+
+    public static int getThreads() {
+        return Math.max(1, Gateway.getProperties().getInt("Module.importThreads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Imports all nodes, returns when all of them were imported or Bootstrap was shut down.
+     *
+     * @param nodes the list of nodes to import
+     * @param keys the keys a node can be referred with by the dependencies of other nodes
+     * @param dependencies the keys of the nodes the given node depends on
+     * @param task the import of a single node
+     * @throws Exception the first exception thrown by the task. No new node is started afterwards, the nodes
+     *         waiting for a thread are cancelled and the running ones are waited for before it is thrown
+     */
+    public static <T> void execute(List<T> nodes, Function<T, Collection<String>> keys, Function<T, Collection<String>> dependencies, ImportTask<T> task)
+            throws Exception
+    {
+        int size = nodes.size();
+        if (size == 0) return;
+
+        Map<String, List<Integer>> providers = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            for (String key : keys.apply(nodes.get(i))) {
+                providers.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        int[] pending = new int[size];
+        List<List<Integer>> dependants = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) dependants.add(new ArrayList<>());
+
+        for (int i = 0; i < size; i++) {
+            LinkedHashSet<Integer> deps = new LinkedHashSet<>();
+
+            for (String dep : dependencies.apply(nodes.get(i))) {
+                List<Integer> provs = providers.get(dep);
+                if (provs != null) deps.addAll(provs);
+            }
+            deps.remove(i);
+
+            for (Integer dep : deps) dependants.get(dep).add(i);
+            pending[i] = deps.size();
+        }
+
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < size; i++) if (pending[i] == 0) ready.add(i);
+
+        int threads = Math.min(getThreads(), size);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(pool != null ? pool : Runnable::run);
+        List<Future<Integer>> submitted = new ArrayList<>();
+        int running = 0;
+
+        try {
+            int done = 0;
+
+            while (done < size) {
+                while (!ready.isEmpty() && !Bootstrap.shutdown) {
+                    int next = ready.poll();
+                    T node = nodes.get(next);
+
+                    submitted.add(completion.submit(() -> { task.run(node); return next; }));
+                    running++;
+                }
+
+                if (running == 0) {
+                    if (Bootstrap.shutdown) return;
+
+                    StringBuffer cycle = new StringBuffer();
+                    for (int i = 0; i < size; i++) if (pending[i] > 0) cycle.append(keys.apply(nodes.get(i))).append(" ");
+
+                    throw new ModuleException("Circular dependencies involving: " + cycle);
+                }
+
+                Future<Integer> result = completion.take();
+                running--;
+
+                int finished;
+                try {
+                    finished = result.get();
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) throw (Exception) cause;
+                    if (cause instanceof Error)     throw (Error) cause;
+                    throw e;
+                }
+
+                done++;
+
+                for (int dependant : dependants.get(finished)) {
+                    if (--pending[dependant] == 0) ready.add(dependant);
+                }
+            }
+            Logger.msg(5, "ImportScheduler.execute() - imported " + size + " nodes using " + threads + " thread(s)");
+        }
+        finally {
+            if (running > 0) awaitRunning(submitted, completion, running);
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    /**
+     * Cancels the nodes waiting for a thread, and waits for the running ones. These are not interrupted,
+     * they finish or abort their own transactions.
+     */
+    private static void awaitRunning(List<Future<Integer>> submitted, CompletionService<Integer> completion, int running) {
+        for (Future<Integer> future : submitted) future.cancel(false);
+
+        for (int i = 0; i < running; i++) {
+            Future<Integer> future;
+
+            try {
+                future = completion.take();
+            }
+            catch (InterruptedException e) {
+                Logger.warning("ImportScheduler - interrupted while waiting for " + (running - i) + " running imports");
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (future.isCancelled()) continue;
+
+            try {
+                future.get();
+            }
+            catch (ExecutionException e) {
+                Logger.error("ImportScheduler - another import failed as well");
+                Logger.error(e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -30,6 +30,7 @@ import static org.cristalise.kernel.property.BuiltInItemProperties.VERSION;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Properties;
 
 import org.apache.commons.lang3.StringUtils;
@@ -130,7 +131,9 @@ public class Module extends ImportItem {
     }
 
     /**
-     * Imports all resources defined in the Module in this order: Resources, Roles, Agents, Items and Module itself
+     * Imports all resources defined in the Module in this order: Resources, then Roles, Agents and Items, and finally
+     * the Module itself. The Roles, Agents and Items are imported together following their dependencies (see
+     * {@link #importEntities(AgentProxy, boolean)}).
      * 
      * @param serverEntity not used at the moment but required to implement the import as the workflow of the serverItem
      * @param systemAgent system agent used during the import
@@ -139,78 +142,96 @@ public class Module extends ImportItem {
      */
     public void importAll(ItemProxy serverEntity, AgentProxy systemAgent, boolean reset) throws Exception {
         if (!Bootstrap.shutdown) importResources(systemAgent, reset);
-        if (!Bootstrap.shutdown) importRoles(    systemAgent, reset);
-        if (!Bootstrap.shutdown) importAgents(   systemAgent, reset);
-        if (!Bootstrap.shutdown) importItems(    systemAgent, reset);
+        if (!Bootstrap.shutdown) importEntities( systemAgent, reset);
 
         //Finally create this Module Item
         if (!Bootstrap.shutdown) this.create(systemAgent.getPath(), reset);
     }
 
     /**
+     * Imports the Roles, Agents and Items following their dependencies (see {@link ModuleImport#getImportDependencies()}),
+     * so the independent ones are imported in parallel, e.g. the Items while the Agents wait for their Roles. The
+     * Agents and Items are added to the contents of the Module in the order they were declared.
+     *
      * @param systemAgent
      * @param reset
-     * @throws Exception
+     * @throws ModuleException the import of a Role, Agent or Item failed
      */
-    private void importItems(AgentProxy systemAgent, boolean reset) throws Exception {
-        for (ImportItem thisItem : imports.getItems()) {
-            if (Bootstrap.shutdown) return;
+    private void importEntities(AgentProxy systemAgent, boolean reset) throws ModuleException {
+        ArrayList<ModuleImport> entities = new ArrayList<ModuleImport>();
+        entities.addAll(imports.getRoles());
+        entities.addAll(imports.getAgents());
+        entities.addAll(imports.getItems());
 
-            thisItem.setNamespace(ns);
-            addItemToContents( thisItem.create(systemAgent.getPath(), reset) );
+        for (ImportItem thisItem : imports.getItems()) thisItem.setNamespace(ns);
+
+        Path[] created = new Path[entities.size()];
+        IdentityHashMap<ModuleImport, Integer> index = new IdentityHashMap<ModuleImport, Integer>();
+
+        for (int i = 0; i < entities.size(); i++) index.put(entities.get(i), i);
+
+        try {
+            ImportScheduler.execute(entities, ModuleImport::getImportKeys, ModuleImport::getImportDependencies,
+                    (thisEntity) -> created[index.get(thisEntity)] = importEntity(thisEntity, systemAgent, reset));
+        }
+        catch (Exception ex) {
+            Logger.error(ex);
+            throw new ModuleException("Error importing roles, agents or items of module " + getName() + ": " + ex.getMessage());
+        }
+
+        // Roles are not part of the contents
+        for (int i = imports.getRoles().size(); i < created.length; i++) {
+            if (created[i] != null) addItemToContents(created[i]);
         }
     }
 
     /**
-     * @param systemAgent
-     * @param reset
-     * @throws Exception
+     * @return the path of the imported Role, Agent or Item, or null if the Agent exists already
      */
-    private void importAgents(AgentProxy systemAgent, boolean reset) throws Exception {
-        for (ImportAgent thisAgent : imports.getAgents()) {
-            if (Bootstrap.shutdown) return;
-
+    private Path importEntity(ModuleImport entity, AgentProxy systemAgent, boolean reset) throws Exception {
+        if (entity instanceof ImportAgent) {
             try {
-                Gateway.getLookup().getAgentPath(thisAgent.name);
-                Logger.msg(3, "Module.importAgents() - Agent '"+thisAgent.name+"' found.");
-                continue;
+                Gateway.getLookup().getAgentPath(entity.getName());
+                Logger.msg(3, "Module.importEntity() - Agent '"+entity.getName()+"' found.");
+                return null;
             }
             catch (ObjectNotFoundException ex) { }
 
-            Logger.msg("Module.importAgents() - Agent '"+thisAgent.name+"' not found. Creating.");
-            addItemToContents( thisAgent.create(systemAgent.getPath(), reset) );
+            Logger.msg("Module.importEntity() - Agent '"+entity.getName()+"' not found. Creating.");
         }
+        return entity.create(systemAgent.getPath(), reset);
     }
 
     /**
+     * Imports the resources following their dependencies (see {@link ModuleResource#getImportDependencies()}),
+     * so the independent ones are imported in parallel. Each resource is stored in its own transaction. The
+     * resources are added to the contents of the Module in the order they were declared.
+     *
      * @param systemAgent
      * @param reset
-     * @throws Exception
+     * @throws ModuleException the import of a resource failed
      */
-    private void importRoles(AgentProxy systemAgent, boolean reset) throws Exception {
-        for (ImportRole thisRole : imports.getRoles()) {
-            if (Bootstrap.shutdown) return;
-
-            thisRole.create(systemAgent.getPath(), reset);
+    private void importResources(AgentProxy systemAgent, boolean reset) throws ModuleException {
+        ArrayList<ModuleResource> resources = imports.getResources();
+        Path[] created = new Path[resources.size()];
+        IdentityHashMap<ModuleResource, Integer> index = new IdentityHashMap<ModuleResource, Integer>();
+
+        for (int i = 0; i < resources.size(); i++) {
+            resources.get(i).setNamespace(ns);
+            index.put(resources.get(i), i);
         }
-    }
 
-    /**
-     * @param systemAgent
-     * @param reset
-     */
-    private void importResources(AgentProxy systemAgent, boolean reset) {
-        for (ModuleResource thisRes : imports.getResources()) {
-            if (Bootstrap.shutdown) return;
+        try {
+            ImportScheduler.execute(resources, ModuleResource::getImportKeys, ModuleResource::getImportDependencies,
+                    (thisRes) -> created[index.get(thisRes)] = thisRes.create(systemAgent.getPath(), reset));
+        }
+        catch (Exception ex) {
+            Logger.error(ex);
+            throw new ModuleException("Error importing resources of module " + getName() + ": " + ex.getMessage());
+        }
 
-            try {
-                thisRes.setNamespace(ns);
-                addItemToContents( thisRes.create(systemAgent.getPath(), reset) );
-            }
-            catch (Exception ex) {
-                Logger.error(ex);
-                Logger.die("Error importing module resources. Unsafe to continue.");
-            }
+        for (Path path : created) {
+            if (path != null) addItemToContents(path);
         }
     }
 
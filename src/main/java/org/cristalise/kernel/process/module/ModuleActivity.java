@@ -24,6 +24,8 @@ import static org.cristalise.kernel.collection.BuiltInCollections.QUERY;
 import static org.cristalise.kernel.collection.BuiltInCollections.SCHEMA;
 import static org.cristalise.kernel.collection.BuiltInCollections.SCRIPT;
 import static org.cristalise.kernel.collection.BuiltInCollections.STATE_MACHINE;
+import java.util.ArrayList;
+
 import lombok.Getter;
 import lombok.Setter;
 
@@ -77,6 +79,25 @@ public class ModuleActivity extends ModuleResource {
         return new ModuleDescRef(null, collMem.getChildUUID(), Integer.valueOf(collMem.getProperties().get("Version").toString()));
     }
 
+    @Override
+    public ArrayList<String> getImportDependencies() {
+        ArrayList<String> deps = super.getImportDependencies();
+
+        addImportDependency(deps, BuiltInResources.SCRIPT_RESOURCE,        script);
+        addImportDependency(deps, BuiltInResources.SCHEMA_RESOURCE,        schema);
+        addImportDependency(deps, BuiltInResources.QUERY_RESOURCE,         query);
+        addImportDependency(deps, BuiltInResources.STATE_MACHINE_RESOURCE, stateMachine);
+
+        return deps;
+    }
+
+    protected static void addImportDependency(ArrayList<String> deps, BuiltInResources type, ModuleDescRef ref) {
+        if (ref == null) return;
+
+        if (ref.id   != null) deps.add(ref.id);
+        if (ref.name != null) deps.add(getImportKey(type, ref.name));
+    }
+
     @Override
     public Path create(AgentPath agentPath, boolean reset) 
             throws ObjectNotFoundException, ObjectCannotBeUpdated, CannotManageException, ObjectAlreadyExistsException, InvalidDataException
@@ -102,19 +123,31 @@ public class ModuleActivity extends ModuleResource {
             Logger.error(e);
             throw new CannotManageException("Could not create description collections for " + getName() + ".");
         }
+        // the collections of the resource are stored in their own transaction
+        Object locker = new Object();
+
         for (Collection<?> coll : colls.list) {
             try {
-                Gateway.getStorage().put(itemPath, coll, null);
+                Gateway.getStorage().put(itemPath, coll, locker);
                 // create last collection
                 coll.setVersion(null);
-                Gateway.getStorage().put(itemPath, coll, null);
+                Gateway.getStorage().put(itemPath, coll, locker);
             }
             catch (PersistencyException e) {
                 Logger.error(e);
+                Gateway.getStorage().abort(locker);
                 throw new CannotManageException("Persistency exception storing description collections for " + getName() + ".");
             }
         }
 
+        try {
+            Gateway.getStorage().commit(locker);
+        }
+        catch (PersistencyException e) {
+            Logger.error(e);
+            throw new CannotManageException("Persistency exception committing description collections for " + getName() + ".");
+        }
+
         return domainPath;
     }
 
@@ -20,6 +20,8 @@
  */
 package org.cristalise.kernel.process.module;
 
+import java.util.ArrayList;
+
 import org.cristalise.kernel.common.AccessRightsException;
 import org.cristalise.kernel.common.CannotManageException;
 import org.cristalise.kernel.common.InvalidCollectionModification;
@@ -63,6 +65,27 @@ public abstract class ModuleImport {
         this.ns = ns;
     }
 
+    /**
+     * Returns the keys other imports of the Module can use to declare a dependency on this one.
+     *
+     * @return the keys identifying this import, the name by default
+     */
+    public ArrayList<String> getImportKeys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        keys.add(name);
+        return keys;
+    }
+
+    /**
+     * Returns the keys of the imports which must be done before this one. Used by the Module to
+     * import the independent ones in parallel.
+     *
+     * @return the keys of the imports this one depends on, none by default
+     */
+    public ArrayList<String> getImportDependencies() {
+        return new ArrayList<String>();
+    }
+
     public String getNamespace() {
         return ns;
     }
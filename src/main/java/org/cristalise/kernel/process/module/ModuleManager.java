@@ -22,6 +22,7 @@ package org.cristalise.kernel.process.module;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Properties;
@@ -220,6 +221,13 @@ public class ModuleManager {
         }
     }
 
+    /**
+     * Imports the Modules following their dependencies, so the Modules which do not depend on each other
+     * can be imported in parallel (see 'Module.importThreads'). The startup script of a Module is executed
+     * before the Modules depending on it are imported.
+     *
+     * @throws ModuleException the import of a Module or its startup script failed
+     */
     public void registerModules() throws ModuleException {
         ItemProxy serverItem;
         try {
@@ -233,36 +241,50 @@ public class ModuleManager {
 
         boolean reset = Gateway.getProperties().getBoolean("Module.reset", false);
 
-        for (Module thisMod : modules) {
-            if (Bootstrap.shutdown) return; 
+        try {
+            ImportScheduler.execute(modules, 
+                    (thisMod) -> Collections.singletonList(thisMod.getName()),
+                    (thisMod) -> thisMod.getDependencies(),
+                    (thisMod) -> registerModule(thisMod, serverItem, reset));
+        }
+        catch (ModuleException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            throw new ModuleException("Error registering modules: "+e.getMessage());
+        }
+    }
 
-            Logger.msg("ModuleManager.registerModules() - Registering module "+thisMod.getName());
-            
-            try {
-                String thisResetKey = "Module."+thisMod.getNamespace()+".reset";
-                boolean thisReset = reset;
+    private void registerModule(Module thisMod, ItemProxy serverItem, boolean reset) throws ModuleException {
+        if (Bootstrap.shutdown) return; 
 
-                if (Gateway.getProperties().containsKey(thisResetKey)) {
-                    thisReset = Gateway.getProperties().getBoolean(thisResetKey);
-                }
+        Logger.msg("ModuleManager.registerModules() - Registering module "+thisMod.getName());
 
-                thisMod.setModuleXML(modulesXML.get(thisMod.getNamespace()));
-                thisMod.importAll(serverItem, agent, thisReset);
-            }
-            catch (Exception e) {
-                Logger.error(e);
-                throw new ModuleException("Error importing items for module "+thisMod.getName());
+        try {
+            String thisResetKey = "Module."+thisMod.getNamespace()+".reset";
+            boolean thisReset = reset;
+
+            if (Gateway.getProperties().containsKey(thisResetKey)) {
+                thisReset = Gateway.getProperties().getBoolean(thisResetKey);
             }
 
-            Logger.msg("ModuleManager.registerModules() - Module "+thisMod.getName()+" registered");
+            thisMod.setModuleXML(modulesXML.get(thisMod.getNamespace()));
+            thisMod.importAll(serverItem, agent, thisReset);
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            throw new ModuleException("Error importing items for module "+thisMod.getName());
+        }
 
-            try {
-                thisMod.runScript("startup", agent, true);
-            }
-            catch (ScriptingEngineException e) {
-                Logger.error(e);
-                throw new ModuleException("Error in startup script for module "+thisMod.getName());
-            }
+        Logger.msg("ModuleManager.registerModules() - Module "+thisMod.getName()+" registered");
+
+        try {
+            thisMod.runScript("startup", agent, true);
+        }
+        catch (ScriptingEngineException e) {
+            Logger.error(e);
+            throw new ModuleException("Error in startup script for module "+thisMod.getName());
         }
     }
 
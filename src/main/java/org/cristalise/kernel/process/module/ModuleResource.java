@@ -20,6 +20,8 @@
  */
 package org.cristalise.kernel.process.module;
 
+import java.util.ArrayList;
+
 import lombok.Getter;
 import lombok.Setter;
 
@@ -85,6 +87,35 @@ public class ModuleResource extends ModuleImport {
         return resourceLocation;
     }
 
+    /**
+     * Returns the keys other resources of the Module can use to declare a dependency on this one:
+     * the type code and name (e.g. 'OD/Schema') and the UUID if it was defined.
+     *
+     * @return the keys identifying this resource during the import
+     */
+    @Override
+    public ArrayList<String> getImportKeys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        keys.add(getImportKey(type, name));
+        if (itemPath != null) keys.add(getID());
+        return keys;
+    }
+
+    /**
+     * Returns the keys of the resources which must be imported before this one. Used by the Module to
+     * import the independent resources in parallel.
+     *
+     * @return the keys of the resources this one depends on
+     */
+    @Override
+    public ArrayList<String> getImportDependencies() {
+        return new ArrayList<String>();
+    }
+
+    protected static String getImportKey(BuiltInResources type, String name) {
+        return type.getTypeCode() + "/" + name;
+    }
+
     @Override
     public Path create(AgentPath agentPath, boolean reset) 
             throws ObjectNotFoundException, ObjectCannotBeUpdated, CannotManageException, ObjectAlreadyExistsException, InvalidDataException
@@ -61,6 +61,17 @@ public class ModuleWorkflow extends ModuleActivity {
         this.activities = activities;
     }
 
+    @Override
+    public ArrayList<String> getImportDependencies() {
+        ArrayList<String> deps = super.getImportDependencies();
+
+        for (ModuleDescRef activity : activities) {
+            addImportDependency(deps, BuiltInResources.ELEM_ACT_DESC_RESOURCE, activity);
+            addImportDependency(deps, BuiltInResources.COMP_ACT_DESC_RESOURCE, activity);
+        }
+        return deps;
+    }
+
     @Override
     public void populateActivityDef() throws ObjectNotFoundException, CannotManageException {
         super.populateActivityDef();
@@ -48,6 +48,14 @@ public enum BuiltInItemProperties {
 
     NAMESPACE("Namespace"),
 
+    /**
+     * Used in resource Items created by Bootstrap. It lists the digest of the last imported data of each
+     * Schema and version, so unchanged resources can be skipped without loading and comparing the stored Outcome.
+     * The name starts with underscore to mark it as a system Property, which is not part of the PropertyDescriptions
+     * of the resource.
+     */
+    RESOURCE_DIGEST("_ResourceDigest"),
+
     MODULE("Module"),
 
     /**
@@ -29,6 +29,7 @@ import java.util.Iterator;
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.ObjectNotFoundException;
 import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.proxy.ItemProxy;
 import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.persistency.ClusterType;
 import org.cristalise.kernel.persistency.outcome.Outcome;
@@ -45,9 +46,23 @@ public class PropertyUtility {
         return null;
     }
 
+    /**
+     * Checks if the Item has the named Property. Uses the Property snapshot of the proxy if the Item has one in the 
+     * pool, otherwise it lists the Property cluster.
+     * 
+     * @param itemPath the Item
+     * @param propName the name of the Property
+     * @param locker the transaction key
+     * @return true if the Property exists
+     */
     public static boolean propertyExists(ItemPath itemPath, String propName, Object locker) {
+        if (Gateway.getProxyManager() != null) {
+            ItemProxy proxy = Gateway.getProxyManager().getPooledProxy(itemPath);
+            if (proxy != null) return proxy.propertyExists(propName, locker);
+        }
+
         try {
-            String[] contents = Gateway.getStorage().getClusterContents(itemPath, ClusterType.PROPERTY);
+            String[] contents = Gateway.getStorage().getClusterContents(itemPath, ClusterType.PROPERTY.getName(), locker);
 
             for (String name: contents) if(name.equals(propName)) return true;
         }
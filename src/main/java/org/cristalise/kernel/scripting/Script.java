@@ -63,6 +63,7 @@ import org.cristalise.kernel.utils.DescriptionObject;
 import org.cristalise.kernel.utils.FileStringUtility;
 import org.cristalise.kernel.utils.LocalObjectLoader;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.metrics.Metrics;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -79,6 +80,8 @@ import lombok.experimental.Accessors;
  */
 @Accessors(prefix = "m") @Getter @Setter
 public class Script implements DescriptionObject {
+    /** The group of the {@link Metrics} timing the evaluation of each Script by its name */
+    public static final String METRICS = "Script";
 
     String         mScript     = "";
     CompiledScript mCompScript = null;
@@ -577,6 +580,8 @@ public class Script implements DescriptionObject {
     public synchronized Object evaluate(ItemPath itemPath, CastorHashMap inputProps, String actContext, boolean actExecEnv, Object locker) 
             throws ScriptingEngineException
     {
+        long start = Metrics.start();
+
         try {
             //it is possible to execute a script outside of the context of an Item
             ItemProxy item = itemPath == null ? null : Gateway.getProxyManager().getProxy(itemPath);
@@ -619,6 +624,9 @@ public class Script implements DescriptionObject {
             Logger.error(e);
             throw new ScriptingEngineException(e);
         }
+        finally {
+            if (start != 0) Metrics.getTimer(METRICS, getName()).stop(start);
+        }
     }
 
 
@@ -21,9 +21,19 @@
 package org.cristalise.kernel.utils;
 
 //Java
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashSet;
@@ -40,16 +50,25 @@ import org.exolab.castor.mapping.Mapping;
 import org.exolab.castor.mapping.MappingException;
 import org.exolab.castor.xml.MarshalException;
 import org.exolab.castor.xml.Marshaller;
+import org.exolab.castor.xml.UnmarshalHandler;
 import org.exolab.castor.xml.ValidationException;
 import org.exolab.castor.xml.XMLContext;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
 
 /**
- * Loads all castor mapfiles, and wraps marshalling/unmarshalling
+ * Loads all castor mapfiles, and wraps marshalling/unmarshalling. Besides Strings, objects can be marshalled to and
+ * unmarshalled from streams, so large objects like Workflows and Collections can be written and read without
+ * holding several copies of their XML in memory. The class descriptors and resolvers are set up once in the
+ * XMLContext and shared by all (un)marshallers, which are cheap to create.
  */
 public class CastorXMLUtility {
 
     public static final String CASTOR_XML_SERIALIZER_FACTORY = "org.exolab.castor.xml.serializer.factory";
 
+    /** XML marshalled for null objects */
+    private static final String NULL_XML = "<NULL/>";
+
     private XMLContext mappingContext;
 
     /**
@@ -139,20 +158,74 @@ public class CastorXMLUtility {
      * @return the xml string of the marshalled object
      */
     public String marshall(Object obj) throws IOException, MappingException, MarshalException, ValidationException {
-        if (obj == null) return "<NULL/>";
+        if (obj == null) return NULL_XML;
 
         if (obj instanceof Outcome) return ((Outcome) obj).getData();
 
         StringWriter sWriter = new StringWriter();
-        Marshaller marshaller = mappingContext.createMarshaller();
-        marshaller.setWriter(sWriter);
-        marshaller.setMarshalAsDocument(false);
+        marshall(obj, sWriter);
 
-        if (obj instanceof Query) marshaller.addProcessingInstruction(Result.PI_DISABLE_OUTPUT_ESCAPING, "");
+        return sWriter.toString();
+    }
 
+    /**
+     * Marshalls a mapped object as xml to the Writer, which is flushed but not closed.
+     *
+     * @param obj the object to be marshalled
+     * @param writer the destination of the xml
+     */
+    public void marshall(Object obj, Writer writer) throws IOException, MappingException, MarshalException, ValidationException {
+        if (obj == null) {
+            writer.write(NULL_XML);
+        }
+        else if (obj instanceof Outcome) {
+            writer.write(((Outcome) obj).getData());
+        }
+        else {
+            Marshaller marshaller = mappingContext.createMarshaller();
+            marshaller.setWriter(writer);
+            marshaller.setMarshalAsDocument(false);
+
+            if (obj instanceof Query) marshaller.addProcessingInstruction(Result.PI_DISABLE_OUTPUT_ESCAPING, "");
+
+            marshaller.marshal(obj);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Marshalls a mapped object as UTF-8 encoded xml to the OutputStream, which is flushed but not closed.
+     *
+     * @param obj the object to be marshalled
+     * @param out the destination of the xml
+     */
+    public void marshall(Object obj, OutputStream out) throws IOException, MappingException, MarshalException, ValidationException {
+        marshall(obj, new BufferedWriter(new OutputStreamWriter(out, UTF_8)));
+    }
+
+    /**
+     * Marshalls a mapped object as SAX events to the ContentHandler, e.g. to encode it in a format other than XML text.
+     * The object must not be null or an Outcome.
+     *
+     * @param obj the object to be marshalled
+     * @param handler receives the SAX events of the marshalled object
+     */
+    public void marshall(Object obj, ContentHandler handler) throws IOException, MappingException, MarshalException, ValidationException {
+        Marshaller marshaller = mappingContext.createMarshaller();
+        marshaller.setContentHandler(handler);
+        marshaller.setMarshalAsDocument(false);
         marshaller.marshal(obj);
+    }
 
-        return sWriter.toString();
+    /**
+     * Creates a SAX ContentHandler which unmarshalls a mapped object from the received events, see
+     * {@link #marshall(Object, ContentHandler)}. The object is returned by {@link UnmarshalHandler#getObject()}
+     * after the endDocument() event.
+     *
+     * @return the new UnmarshalHandler
+     */
+    public UnmarshalHandler createUnmarshalHandler() {
+        return mappingContext.createUnmarshaller().createHandler();
     }
 
     /**
@@ -162,10 +235,63 @@ public class CastorXMLUtility {
      * @return the unmarshalled object
      */
     public Object unmarshall(String data) throws IOException, MappingException, MarshalException, ValidationException {
-        if (data.equals("<NULL/>")) return null;
+        if (data.equals(NULL_XML)) return null;
 
         StringReader sReader = new StringReader(data);
 
         return mappingContext.createUnmarshaller().unmarshal(sReader);
     }
+
+    /**
+     * Unmarshalls a mapped object from the xml read from the Reader, which is not closed.
+     *
+     * @param reader the source of the xml
+     * @return the unmarshalled object
+     */
+    public Object unmarshall(Reader reader) throws IOException, MappingException, MarshalException, ValidationException {
+        BufferedReader bReader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+
+        // check for the marshalled null object without reading the whole content
+        bReader.mark(NULL_XML.length() + 1);
+        char[] head = new char[NULL_XML.length() + 1];
+        int length = 0;
+
+        for (int n = 0; length < head.length; length += n) {
+            n = bReader.read(head, length, head.length - length);
+            if (n == -1) break;
+        }
+
+        if (NULL_XML.equals(new String(head, 0, length))) return null;
+
+        bReader.reset();
+
+        return mappingContext.createUnmarshaller().unmarshal(bReader);
+    }
+
+    /**
+     * Unmarshalls a mapped object from the xml read from the InputStream, which is not closed.
+     * The encoding is detected by the XML parser, UTF-8 is assumed when there is no XML declaration.
+     *
+     * @param in the source of the xml
+     * @return the unmarshalled object
+     */
+    public Object unmarshall(InputStream in) throws IOException, MappingException, MarshalException, ValidationException {
+        BufferedInputStream bIn = in instanceof BufferedInputStream ? (BufferedInputStream) in : new BufferedInputStream(in);
+
+        // check for the marshalled null object without reading the whole content
+        bIn.mark(NULL_XML.length() + 1);
+        byte[] head = new byte[NULL_XML.length() + 1];
+        int length = 0;
+
+        for (int n = 0; length < head.length; length += n) {
+            n = bIn.read(head, length, head.length - length);
+            if (n == -1) break;
+        }
+
+        if (NULL_XML.equals(new String(head, 0, length, UTF_8))) return null;
+
+        bIn.reset();
+
+        return mappingContext.createUnmarshaller().unmarshal(new InputSource(bIn));
+    }
 }
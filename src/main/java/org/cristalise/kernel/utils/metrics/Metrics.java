@@ -0,0 +1,184 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.utils.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.cristalise.kernel.utils.Logger;
+import org.cristalise.kernel.utils.ObjectProperties;
+
+/**
+ * Registry of the Counters, Timers and gauges of the kernel, organised in named groups. Each group is exposed
+ * as an MBean named '{@value #JMX_DOMAIN}:type=Metrics,name=&lt;group&gt;' in the platform MBeanServer while 
+ * the metrics are enabled by the {@value #ENABLED_PROPERTY} property.
+ * <p>
+ * The metrics are declared by the classes using them, usually in static fields. While disabled, Counters 
+ * and Timers only read a volatile flag and gauges are not evaluated, so the instrumented code can stay in 
+ * the hot paths.
+ */
+public class Metrics {
+    public static final String ENABLED_PROPERTY = "Metrics.enabled";
+    public static final String JMX_DOMAIN       = "org.cristalise.kernel";
+
+    private static volatile boolean enabled = false;
+
+    private static final Map<String, MetricsGroup> groups = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    /**
+     * Enables or disables the metrics using the {@value #ENABLED_PROPERTY} property. Called by Gateway.init()
+     * 
+     * @param props the properties of the process
+     */
+    public static void init(ObjectProperties props) {
+        setEnabled(props.getBoolean(ENABLED_PROPERTY, false));
+    }
+
+    /**
+     * Disables the metrics and unregisters the MBeans, the values are kept. Called by Gateway.close()
+     */
+    public static void close() {
+        setEnabled(false);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables the metrics and registers the MBeans of all groups, or disables them and unregisters the MBeans.
+     * 
+     * @param enable whether to enable or disable the metrics
+     */
+    public static synchronized void setEnabled(boolean enable) {
+        if (enabled == enable) return;
+
+        enabled = enable;
+
+        for (MetricsGroup group : groups.values()) {
+            if (enable) register(group);
+            else        unregister(group);
+        }
+
+        Logger.msg(5, "Metrics.setEnabled() - enabled:" + enable);
+    }
+
+    /**
+     * Returns the start time of a measurement to be given to {@link Timer#stop(long)}
+     * 
+     * @return System.nanoTime() or 0 if the metrics are disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Returns the Counter of the group, creating it if needed
+     */
+    public static Counter getCounter(String group, String name) {
+        return getGroup(group).getCounter(name);
+    }
+
+    /**
+     * Returns the Timer of the group, creating it if needed
+     */
+    public static Timer getTimer(String group, String name) {
+        return getGroup(group).getTimer(name);
+    }
+
+    /**
+     * Adds or replaces a gauge of the group, which is only evaluated when it is read through JMX. The gauge 
+     * must be safe to be called from any thread at any time, e.g. when the process is not connected.
+     */
+    public static void registerGauge(String group, String name, Supplier<? extends Number> gauge) {
+        getGroup(group).putGauge(name, gauge);
+    }
+
+    /**
+     * Clears the counters and the timers of all groups
+     */
+    public static void reset() {
+        for (MetricsGroup group : groups.values()) group.reset();
+    }
+
+    private static MetricsGroup getGroup(String name) {
+        MetricsGroup group = groups.get(name);
+
+        if (group == null) {
+            synchronized (Metrics.class) {
+                group = groups.get(name);
+
+                if (group == null) {
+                    group = new MetricsGroup(name);
+                    groups.put(name, group);
+
+                    if (enabled) register(group);
+                }
+            }
+        }
+        return group;
+    }
+
+    /**
+     * @param group the name of the group
+     * @return the name of the MBean of the group
+     * @throws MalformedObjectNameException the name of the group is not valid in an ObjectName
+     */
+    public static ObjectName getObjectName(String group) throws MalformedObjectNameException {
+        return new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + group);
+    }
+
+    private static void register(MetricsGroup group) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName  name   = getObjectName(group.getName());
+
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+
+            server.registerMBean(group, name);
+        }
+        catch (Exception e) {
+            Logger.error("Metrics.register() - Could not register MBean of group:" + group.getName());
+            Logger.error(e);
+        }
+    }
+
+    private static void unregister(MetricsGroup group) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName  name   = getObjectName(group.getName());
+
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        }
+        catch (Exception e) {
+            Logger.error("Metrics.unregister() - Could not unregister MBean of group:" + group.getName());
+            Logger.error(e);
+        }
+    }
+}
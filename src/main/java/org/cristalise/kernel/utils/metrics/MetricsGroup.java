@@ -0,0 +1,160 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.utils.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * The metrics of one group, exposed as a single MBean. Counters and gauges are attributes with their own name,
+ * each Timer has the attributes 'name.Count', 'name.MeanMillis', 'name.MaxMillis' and 'name.TotalMillis'.
+ * The 'reset' operation clears the counters and the timers.
+ */
+class MetricsGroup implements DynamicMBean {
+    private static final String[] TIMER_ATTRIBUTES = { "Count", "MeanMillis", "MaxMillis", "TotalMillis" };
+
+    private final String name;
+
+    private final Map<String, Counter>                      counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Timer>                        timers   = new ConcurrentSkipListMap<>();
+    private final Map<String, Supplier<? extends Number>>   gauges   = new ConcurrentHashMap<>();
+
+    MetricsGroup(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Counter getCounter(String counterName) {
+        return counters.computeIfAbsent(counterName, k -> new Counter());
+    }
+
+    Timer getTimer(String timerName) {
+        return timers.computeIfAbsent(timerName, k -> new Timer());
+    }
+
+    void putGauge(String gaugeName, Supplier<? extends Number> gauge) {
+        gauges.put(gaugeName, gauge);
+    }
+
+    void reset() {
+        for (Counter counter : counters.values()) counter.reset();
+        for (Timer   timer   : timers.values())   timer.reset();
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter counter = counters.get(attribute);
+        if (counter != null) return counter.getCount();
+
+        Supplier<? extends Number> gauge = gauges.get(attribute);
+        if (gauge != null) return gauge.get();
+
+        int dot = attribute.lastIndexOf('.');
+        Timer timer = dot == -1 ? null : timers.get(attribute.substring(0, dot));
+
+        if (timer != null) {
+            switch (attribute.substring(dot + 1)) {
+                case "Count":       return timer.getCount();
+                case "MeanMillis":  return timer.getMeanMillis();
+                case "MaxMillis":   return timer.getMaxMillis();
+                case "TotalMillis": return timer.getTotalMillis();
+                default: break;
+            }
+        }
+        throw new AttributeNotFoundException("Metrics " + name + " has no attribute " + attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList result = new AttributeList();
+
+        for (String attribute : attributes) {
+            try {
+                result.add(new Attribute(attribute, getAttribute(attribute)));
+            }
+            catch (AttributeNotFoundException e) {
+                // skipped as required by the DynamicMBean contract
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /**
+     * The metrics are created on demand, so the attributes are listed every time
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        for (String counter : counters.keySet()) {
+            attributes.add(new MBeanAttributeInfo(counter, "long", "Counter", true, false, false));
+        }
+        for (String gauge : gauges.keySet()) {
+            attributes.add(new MBeanAttributeInfo(gauge, "java.lang.Number", "Gauge", true, false, false));
+        }
+        for (String timer : timers.keySet()) {
+            for (String attribute : TIMER_ATTRIBUTES) {
+                String type = "Count".equals(attribute) ? "long" : "double";
+                attributes.add(new MBeanAttributeInfo(timer + "." + attribute, type, "Timer", true, false, false));
+            }
+        }
+
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears the counters and the timers", null, "void", MBeanOperationInfo.ACTION);
+
+        return new MBeanInfo(getClass().getName(), "CRISTAL-iSE metrics of " + name, 
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { reset }, null);
+    }
+}
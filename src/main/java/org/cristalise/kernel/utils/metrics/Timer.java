@@ -0,0 +1,91 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.utils.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the number, the total and the maximum duration of an operation. Use it with {@link Metrics#start()}:
+ * 
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * if (start != 0) Metrics.getTimer("Group", name).stop(start);
+ * </pre>
+ * 
+ * so nothing is measured or looked up while the Metrics are disabled.
+ */
+public final class Timer {
+    private final LongAdder       count      = new LongAdder();
+    private final LongAdder       totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos   = new LongAccumulator(Math::max, 0);
+
+    Timer() {}
+
+    /**
+     * Records the time elapsed since the start
+     * 
+     * @param start the value returned by {@link Metrics#start()}, 0 is ignored
+     */
+    public void stop(long start) {
+        if (start != 0) record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records a duration
+     * 
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getTotalMillis() {
+        return toMillis(totalNanos.sum());
+    }
+
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : toMillis(totalNanos.sum()) / n;
+    }
+
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
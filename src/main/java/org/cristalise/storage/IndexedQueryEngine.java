@@ -0,0 +1,459 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.storage;
+
+import static org.cristalise.kernel.persistency.ClusterType.OUTCOME;
+import static org.cristalise.kernel.persistency.ClusterType.PATH;
+import static org.cristalise.kernel.persistency.ClusterType.PROPERTY;
+import static org.cristalise.kernel.persistency.ClusterType.ROOT;
+import static org.cristalise.kernel.persistency.ClusterType.VIEWPOINT;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.Viewpoint;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.querying.Parameter;
+import org.cristalise.kernel.querying.Query;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * Answers cross-item queries for the embedded ClusterStorages which have no query language of their own
+ * (e.g. {@link MemoryOnlyClusterStorage} and {@link XMLClusterStorage}), so they do not have to be scanned
+ * item by item by the client code.
+ * <p>
+ * The query language is {@value #LANGUAGE}. A query is a list of conditions joined by 'and':
+ * <pre>
+ * Property/Type = 'Patient' and ViewPoint/PatientDetails/last:/PatientDetails/Gender = '${gender}'
+ * </pre>
+ * A condition either matches the value of a Property or the value of a field selected by an XPath in the
+ * Outcome referenced by a Viewpoint. The operator is '=' or '!=', and '${name}' is replaced by the value of the
+ * Parameter of the Query. The result is the list of matching Items:
+ * <pre>
+ * &lt;Items count='1'&gt;&lt;Item uuid='...' name='...'/&gt;&lt;/Items&gt;
+ * </pre>
+ * All Properties are kept in an inverted index built on the first query. The field index of a Viewpoint/XPath
+ * pair is built when it is first used in a query. The storage reports each change by calling
+ * {@link #itemChanged(ItemPath, ClusterType)}, and the changed items are reindexed before the next query.
+ * <p>
+ * A '!=' condition matches every known Item not having the value, including the Items without Properties
+ * or without the field. The known Items are listed on the first query and followed by the changes.
+ */
+public class IndexedQueryEngine {
+
+    public static final String LANGUAGE = "cristalise:filter";
+
+    private static final Pattern AND       = Pattern.compile("\\s+and\\s+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PARAM     = Pattern.compile("\\$\\{(\\w+)\\}");
+    private static final Pattern CONDITION = Pattern.compile(
+            "^\\s*(Property|ViewPoint)/(.+?)\\s*(!=|=)\\s*(?:'([^']*)'|\"([^\"]*)\"|([^'\"\\s]+))\\s*$");
+
+    private final ClusterStorage                 storage;
+    private final Supplier<Collection<ItemPath>> itemLister;
+
+    private boolean initialised = false;
+
+    /** All Items of the storage, the candidates of the negated conditions and of the new field indexes */
+    private final Set<ItemPath> knownItems = new HashSet<>();
+
+    /** Name -> Value -> Items */
+    private final Map<String, Map<String, Set<ItemPath>>> propertyIndex  = new HashMap<>();
+    /** Item -> Name -> Value, used to remove the old entries on reindexing */
+    private final Map<ItemPath, Map<String, String>>      itemProperties = new HashMap<>();
+    /** 'Schema/View:xpath' -> index */
+    private final Map<String, FieldIndex>                 fieldIndexes   = new HashMap<>();
+
+    private final Set<ItemPath> dirtyProperties = new HashSet<>();
+    private final Set<ItemPath> dirtyFields     = new HashSet<>();
+    private final Set<ItemPath> dirtyItems      = new HashSet<>();
+
+    /**
+     * @param storage the storage to read the Properties, Viewpoints and Outcomes from
+     * @param itemLister lists all the Items of the storage, used only once to build the Property index
+     */
+    public IndexedQueryEngine(ClusterStorage storage, Supplier<Collection<ItemPath>> itemLister) {
+        this.storage    = storage;
+        this.itemLister = itemLister;
+    }
+
+    public static boolean isSupported(String language) {
+        return LANGUAGE.equals(language);
+    }
+
+    /**
+     * Marks the Item to be reindexed before the next query. Changes of cluster types other than
+     * Property, ViewPoint and Outcome only update the known Items.
+     */
+    public synchronized void itemChanged(ItemPath item, ClusterType type) {
+        if (!initialised || item == null) return;
+
+        dirtyItems.add(item);
+
+        if      (type == PROPERTY)                      dirtyProperties.add(item);
+        else if (type == VIEWPOINT || type == OUTCOME)  dirtyFields.add(item);
+    }
+
+    /**
+     * Drops all indexes, they are rebuilt by the next query
+     */
+    public synchronized void clear() {
+        initialised = false;
+        knownItems.clear();
+        propertyIndex.clear();
+        itemProperties.clear();
+        fieldIndexes.clear();
+        dirtyProperties.clear();
+        dirtyFields.clear();
+        dirtyItems.clear();
+    }
+
+    public synchronized String executeQuery(Query query) throws PersistencyException {
+        return toXML(findItems(query));
+    }
+
+    /**
+     * Executes the query like {@link #executeQuery(Query)}, but returns the matching Items instead of the XML
+     */
+    public synchronized Set<ItemPath> findItems(Query query) throws PersistencyException {
+        if (!isSupported(query.getLanguage()))
+            throw new PersistencyException("IndexedQueryEngine.executeQuery() - Unsupported query language:" + query.getLanguage());
+
+        List<Condition> conditions = parse(substituteParameters(query));
+
+        refresh();
+
+        Set<ItemPath> result = null;
+
+        for (Condition cond : conditions) {
+            Set<ItemPath> matches = evaluate(cond);
+
+            if (result == null) {
+                result = new HashSet<>(matches);
+            }
+            else {
+                result.retainAll(matches);
+            }
+
+            if (result.isEmpty()) break;
+        }
+
+        return result == null ? Collections.<ItemPath>emptySet() : result;
+    }
+
+    private String substituteParameters(Query query) throws PersistencyException {
+        String text = query.getQuery();
+
+        if (text == null || text.trim().length() == 0)
+            throw new PersistencyException("IndexedQueryEngine.executeQuery() - Empty query:" + query.getName());
+
+        Matcher m = PARAM.matcher(text);
+        StringBuffer sb = new StringBuffer();
+
+        while (m.find()) {
+            Parameter p = query.getParameter(m.group(1));
+
+            if (p == null || p.getValue() == null)
+                throw new PersistencyException("IndexedQueryEngine.executeQuery() - No value for parameter:" + m.group(1));
+
+            m.appendReplacement(sb, Matcher.quoteReplacement(p.getValue().toString()));
+        }
+        m.appendTail(sb);
+
+        return sb.toString();
+    }
+
+    private List<Condition> parse(String text) throws PersistencyException {
+        List<Condition> result = new ArrayList<>();
+
+        for (String part : AND.split(text.trim())) {
+            Matcher m = CONDITION.matcher(part);
+
+            if (!m.matches()) throw new PersistencyException("IndexedQueryEngine.parse() - Invalid condition:'" + part + "'");
+
+            String value = m.group(4) != null ? m.group(4) : m.group(5) != null ? m.group(5) : m.group(6);
+            boolean negate = "!=".equals(m.group(3));
+
+            if ("Property".equals(m.group(1))) {
+                result.add(new Condition(m.group(2), null, value, negate));
+            }
+            else {
+                String[] viewAndXPath = m.group(2).split(":", 2);
+
+                if (viewAndXPath.length != 2 || viewAndXPath[0].split("/").length != 2)
+                    throw new PersistencyException("IndexedQueryEngine.parse() - Use 'ViewPoint/Schema/View:xpath' in condition:'" + part + "'");
+
+                result.add(new Condition(viewAndXPath[0], viewAndXPath[1], value, negate));
+            }
+        }
+        return result;
+    }
+
+    private Set<ItemPath> evaluate(Condition cond) {
+        Map<String, Set<ItemPath>> byValue;
+
+        if (cond.xpath == null) byValue = propertyIndex.get(cond.selector);
+        else                    byValue = getFieldIndex(cond.selector, cond.xpath).byValue;
+
+        Set<ItemPath> matches = byValue == null ? null : byValue.get(cond.value);
+
+        if (matches == null) matches = Collections.emptySet();
+
+        if (!cond.negate) return matches;
+
+        Set<ItemPath> result = new HashSet<>(knownItems);
+        result.removeAll(matches);
+        return result;
+    }
+
+    /**
+     * Builds the Property index on the first call, and reindexes the changed Items
+     */
+    private void refresh() {
+        if (!initialised) {
+            long start = System.currentTimeMillis();
+
+            knownItems.addAll(itemLister.get());
+
+            for (ItemPath item : knownItems) indexProperties(item);
+
+            initialised = true;
+            Logger.msg(5, "IndexedQueryEngine.refresh() - Indexed properties of " + itemProperties.size() + " of "
+                    + knownItems.size() + " items in " + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        // a new Item is indexed by all field indexes, not only by the ones of its changed Viewpoints
+        for (ItemPath item : dirtyItems) {
+            if (knownItems.add(item)) dirtyFields.add(item);
+        }
+
+        if (!dirtyProperties.isEmpty()) {
+            for (ItemPath item : dirtyProperties) indexProperties(item);
+            dirtyProperties.clear();
+        }
+
+        if (!dirtyFields.isEmpty()) {
+            for (ItemPath item : dirtyFields) {
+                for (FieldIndex index : fieldIndexes.values()) index.reindex(item);
+            }
+            dirtyFields.clear();
+        }
+
+        if (!dirtyItems.isEmpty()) {
+            for (ItemPath item : dirtyItems) {
+                if (!itemProperties.containsKey(item) && !exists(item)) knownItems.remove(item);
+            }
+            dirtyItems.clear();
+        }
+    }
+
+    /**
+     * Checks if the Item still has any data, called only for the changed Items without Properties
+     */
+    private boolean exists(ItemPath item) {
+        try {
+            for (ClusterType type : ClusterType.values()) {
+                if (type == ROOT || type == PATH) continue;
+
+                String[] contents = storage.getClusterContents(item, type);
+
+                if (contents != null && contents.length > 0) return true;
+            }
+            return false;
+        }
+        catch (PersistencyException e) {
+            Logger.error("IndexedQueryEngine.exists() - Could not read contents of item:" + item + " : " + e.getMessage());
+            return true;
+        }
+    }
+
+    private void indexProperties(ItemPath item) {
+        Map<String, String> old = itemProperties.remove(item);
+
+        if (old != null) {
+            for (Map.Entry<String, String> e : old.entrySet()) removeFrom(propertyIndex.get(e.getKey()), e.getValue(), item);
+        }
+
+        try {
+            String[] names = storage.getClusterContents(item, PROPERTY);
+
+            if (names == null || names.length == 0) return;
+
+            Map<String, String> props = new HashMap<>();
+
+            for (String name : names) {
+                C2KLocalObject obj = storage.get(item, PROPERTY + "/" + name);
+
+                if (obj instanceof Property) {
+                    String value = ((Property) obj).getValue();
+
+                    if (value == null) continue;
+
+                    props.put(name, value);
+                    addTo(propertyIndex.computeIfAbsent(name, k -> new HashMap<>()), value, item);
+                }
+            }
+            itemProperties.put(item, props);
+        }
+        catch (PersistencyException e) {
+            Logger.error("IndexedQueryEngine.indexProperties() - Could not read properties of item:" + item + " : " + e.getMessage());
+        }
+    }
+
+    private FieldIndex getFieldIndex(String view, String xpath) {
+        String key = view + ":" + xpath;
+        FieldIndex index = fieldIndexes.get(key);
+
+        if (index == null) {
+            index = new FieldIndex(view, xpath);
+
+            for (ItemPath item : knownItems) index.reindex(item);
+
+            fieldIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    private String toXML(Set<ItemPath> items) {
+        TreeMap<String, ItemPath> sorted = new TreeMap<>();
+        for (ItemPath item : items) sorted.put(item.getUUID().toString(), item);
+
+        StringBuilder xml = new StringBuilder("<Items count='").append(sorted.size()).append("'>");
+
+        for (Map.Entry<String, ItemPath> e : sorted.entrySet()) {
+            xml.append("<Item uuid='").append(e.getKey()).append("'");
+
+            Map<String, String> props = itemProperties.get(e.getValue());
+            String name = props == null ? null : props.get("Name");
+
+            if (name != null) xml.append(" name='").append(escape(name)).append("'");
+
+            xml.append("/>");
+        }
+        return xml.append("</Items>").toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&apos;").replace("\"", "&quot;");
+    }
+
+    private static void addTo(Map<String, Set<ItemPath>> byValue, String value, ItemPath item) {
+        byValue.computeIfAbsent(value, k -> new HashSet<>()).add(item);
+    }
+
+    private static void removeFrom(Map<String, Set<ItemPath>> byValue, String value, ItemPath item) {
+        if (byValue == null) return;
+
+        Set<ItemPath> items = byValue.get(value);
+
+        if (items != null) {
+            items.remove(item);
+            if (items.isEmpty()) byValue.remove(value);
+        }
+    }
+
+    private static class Condition {
+        final String  selector;
+        final String  xpath;
+        final String  value;
+        final boolean negate;
+
+        Condition(String selector, String xpath, String value, boolean negate) {
+            this.selector = selector;
+            this.xpath    = xpath;
+            this.value    = value;
+            this.negate   = negate;
+        }
+    }
+
+    /**
+     * Index of the values selected by an XPath from the Outcome of a Viewpoint
+     */
+    private class FieldIndex {
+        final String schemaName;
+        final String viewName;
+        final String xpath;
+
+        final Map<String, Set<ItemPath>> byValue = new HashMap<>();
+        final Map<ItemPath, String>      byItem  = new HashMap<>();
+
+        FieldIndex(String view, String xpath) {
+            String[] names = view.split("/");
+            this.schemaName = names[0];
+            this.viewName   = names[1];
+            this.xpath      = xpath;
+        }
+
+        void reindex(ItemPath item) {
+            String old = byItem.remove(item);
+            if (old != null) removeFrom(byValue, old, item);
+
+            String value = readValue(item);
+
+            if (value != null) {
+                byItem.put(item, value);
+                addTo(byValue, value, item);
+            }
+        }
+
+        private String readValue(ItemPath item) {
+            try {
+                String[] views = storage.getClusterContents(item, VIEWPOINT + "/" + schemaName);
+
+                if (views == null || !Arrays.asList(views).contains(viewName)) return null;
+
+                Viewpoint view = (Viewpoint) storage.get(item, VIEWPOINT + "/" + schemaName + "/" + viewName);
+
+                if (view == null || view.getEventId() == Viewpoint.NONE) return null;
+
+                Outcome outcome = (Outcome) storage.get(item,
+                        OUTCOME + "/" + schemaName + "/" + view.getSchemaVersion() + "/" + view.getEventId());
+
+                if (outcome == null) return null;
+
+                String value = outcome.getFieldByXPath(xpath);
+
+                return value == null ? null : value.trim();
+            }
+            catch (Exception e) {
+                Logger.error("IndexedQueryEngine.FieldIndex.readValue() - Could not read '" + schemaName + "/" + viewName + ":"
+                        + xpath + "' of item:" + item + " : " + e.getMessage());
+                return null;
+            }
+        }
+    }
+}
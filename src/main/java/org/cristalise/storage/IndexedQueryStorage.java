@@ -0,0 +1,41 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.storage;
+
+import java.util.Set;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.querying.Query;
+
+/**
+ * ClusterStorage answering the queries of {@link IndexedQueryEngine}, which can also return the matching Items
+ * directly instead of the XML result of {@link org.cristalise.kernel.persistency.ClusterStorage#executeQuery(Query)}
+ */
+public interface IndexedQueryStorage {
+
+    /**
+     * @param query the Query in the language {@value IndexedQueryEngine#LANGUAGE}
+     * @return the matching Items
+     * @throws PersistencyException the Query was invalid
+     */
+    public Set<ItemPath> findItems(Query query) throws PersistencyException;
+}
@@ -20,38 +20,80 @@
  */
 package org.cristalise.storage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
 
 import org.cristalise.kernel.common.PersistencyException;
 import org.cristalise.kernel.entity.C2KLocalObject;
 import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.persistency.ClusterStorage;
 import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.codec.ClusterCodec;
+import org.cristalise.kernel.persistency.codec.ClusterCodecs;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.OutcomeAttachment;
+import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.process.auth.Authenticator;
 import org.cristalise.kernel.querying.Query;
 import org.cristalise.kernel.utils.Logger;
 
 
-public class MemoryOnlyClusterStorage extends ClusterStorage {
+/**
+ * ClusterStorage keeping the objects in memory. By default the objects themselves are stored. If a 
+ * {@link ClusterCodec} is given in the constructor or configured by the {@value #CODEC_PROPERTY} property, 
+ * the encoded objects are stored instead (except Outcomes), so each get returns a new copy and the stored 
+ * data takes less memory.
+ * <p>
+ * The binary data of OutcomeAttachments is stored in chunks of {@value OutcomeAttachment#CHUNK_SIZE} bytes 
+ * separately from their metadata, so no large arrays are allocated and get only returns the metadata.
+ */
+public class MemoryOnlyClusterStorage extends ClusterStorage implements IndexedQueryStorage {
+
+    public static final String CODEC_PROPERTY = "MemoryOnlyStorage.codec";
+
+    /** Values are the stored C2KLocalObjects, their encoded bytes or StoredAttachments */
+    HashMap<ItemPath, Map<String, Object>> memoryCache = new HashMap<ItemPath, Map<String, Object>>();
+
+    private ClusterCodec codec = null;
 
-    HashMap<ItemPath, Map<String, C2KLocalObject>> memoryCache = new HashMap<ItemPath, Map<String, C2KLocalObject>>();
+    private final IndexedQueryEngine queryEngine = new IndexedQueryEngine(this, this::listItems);
 
     public void clear() {
         memoryCache.clear();
+        queryEngine.clear();
     }
     /**
      * 
      */
     public MemoryOnlyClusterStorage() {
-        memoryCache = new HashMap<ItemPath, Map<String,C2KLocalObject>>();
+        memoryCache = new HashMap<ItemPath, Map<String,Object>>();
+    }
+
+    /**
+     * @param codec encodes the stored objects, if it is null the objects themselves are stored
+     */
+    public MemoryOnlyClusterStorage(ClusterCodec codec) {
+        this();
+        this.codec = codec;
     }
 
     @Override
     public void open(Authenticator auth) throws PersistencyException {
-
+        if (codec == null && Gateway.getProperties() != null && Gateway.getProperties().containsKey(CODEC_PROPERTY))
+            codec = ClusterCodecs.getConfiguredCodec(CODEC_PROPERTY);
     }
 
     @Override
@@ -60,7 +102,9 @@ public class MemoryOnlyClusterStorage extends ClusterStorage {
 
     @Override
     public boolean checkQuerySupport(String language) {
-        Logger.warning("MemoryOnlyClusterStorage DOES NOT Support any query");
+        if (IndexedQueryEngine.isSupported(language)) return true;
+
+        Logger.warning("MemoryOnlyClusterStorage DOES NOT Support query language:" + language);
         return false;
     }
 
@@ -81,44 +125,136 @@ public class MemoryOnlyClusterStorage extends ClusterStorage {
 
     @Override
     public String executeQuery(Query query) throws PersistencyException {
-        throw new PersistencyException("UNIMPLEMENTED funnction");
+        return queryEngine.executeQuery(query);
+    }
+
+    @Override
+    public Set<ItemPath> findItems(Query query) throws PersistencyException {
+        return queryEngine.findItems(query);
+    }
+
+    private Collection<ItemPath> listItems() {
+        synchronized (memoryCache) {
+            return new ArrayList<ItemPath>(memoryCache.keySet());
+        }
     }
 
     @Override
     public C2KLocalObject get(ItemPath thisItem, String path)
             throws PersistencyException
     {
-        Map<String, C2KLocalObject> sysKeyMemCache = memoryCache.get(thisItem);
+        Map<String, Object> sysKeyMemCache = memoryCache.get(thisItem);
     
-        if (sysKeyMemCache != null) return sysKeyMemCache.get(path);
+        if (sysKeyMemCache == null) return null;
 
-        return null;
+        Object value;
+        synchronized (sysKeyMemCache) {
+            value = sysKeyMemCache.get(path);
+        }
+
+        if (value instanceof StoredAttachment) {
+            StoredAttachment stored = (StoredAttachment) value;
+            OutcomeAttachment attachment = (OutcomeAttachment) decode(stored.metadata);
+
+            attachment.setPayload(stored.size, stored::openStream);
+            return attachment;
+        }
+
+        return decode(value);
+    }
+
+    private C2KLocalObject decode(Object value) throws PersistencyException {
+        if (value instanceof byte[]) return ClusterCodecs.decode(new ByteArrayInputStream((byte[]) value), codec);
+        else                         return (C2KLocalObject) value;
+    }
+
+    @Override
+    public InputStream getAttachmentStream(ItemPath thisItem, String path) throws PersistencyException {
+        Map<String, Object> sysKeyMemCache = memoryCache.get(thisItem);
+
+        if (sysKeyMemCache == null) return null;
+
+        Object value;
+        synchronized (sysKeyMemCache) {
+            value = sysKeyMemCache.get(path);
+        }
+
+        if (value instanceof StoredAttachment) return ((StoredAttachment) value).openStream();
+        else                                   return super.getAttachmentStream(thisItem, path);
     }
 
     @Override
     public void put(ItemPath thisItem, C2KLocalObject obj) throws PersistencyException {
         // create item cache if not present
-        Map<String, C2KLocalObject> sysKeyMemCache;
+        Map<String, Object> sysKeyMemCache;
         synchronized (memoryCache) {
             if (memoryCache.containsKey(thisItem))
                 sysKeyMemCache = memoryCache.get(thisItem);
             else {
-                sysKeyMemCache = new HashMap<String, C2KLocalObject>();
+                sysKeyMemCache = new HashMap<String, Object>();
                 memoryCache.put(thisItem, sysKeyMemCache);
             }
         }
 
+        Object value;
+
+        if (obj instanceof OutcomeAttachment) {
+            OutcomeAttachment attachment = (OutcomeAttachment) obj;
+            value = new StoredAttachment(encode(attachment.copyMetadata()), readChunks(attachment));
+        }
+        else {
+            value = encode(obj);
+        }
+
         // store object in the cache
         String path = ClusterStorage.getPath(obj);
         synchronized(sysKeyMemCache) {
-            sysKeyMemCache.put(path, obj);
+            sysKeyMemCache.put(path, value);
         }
+        queryEngine.itemChanged(thisItem, obj.getClusterType());
 
     }
 
+    private Object encode(C2KLocalObject obj) throws PersistencyException {
+        if (codec == null || obj instanceof Outcome) return obj;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.encode(obj, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the binary data of the OutcomeAttachment into chunks, the last one is trimmed to the remaining size
+     */
+    private static List<byte[]> readChunks(OutcomeAttachment attachment) throws PersistencyException {
+        List<byte[]> chunks = new ArrayList<>();
+
+        try (InputStream in = attachment.openStream()) {
+            byte[] chunk = new byte[OutcomeAttachment.CHUNK_SIZE];
+            int length = 0;
+
+            for (int n = in.read(chunk); n != -1; n = in.read(chunk, length, chunk.length - length)) {
+                length += n;
+
+                if (length == chunk.length) {
+                    chunks.add(chunk);
+                    chunk = new byte[OutcomeAttachment.CHUNK_SIZE];
+                    length = 0;
+                }
+            }
+
+            if (length != 0) chunks.add(Arrays.copyOf(chunk, length));
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            throw new PersistencyException("MemoryOnlyClusterStorage.put() - Could not read the data of " + ClusterStorage.getPath(attachment) + ": " + e.getMessage());
+        }
+        return chunks;
+    }
+
     @Override
     public void delete(ItemPath thisItem, String path) throws PersistencyException {
-        Map<String, C2KLocalObject> sysKeyMemCache = memoryCache.get(thisItem);
+        Map<String, Object> sysKeyMemCache = memoryCache.get(thisItem);
         if (sysKeyMemCache != null) {
             synchronized (sysKeyMemCache) {
                 if (sysKeyMemCache.containsKey(path)) {
@@ -131,12 +267,13 @@ public class MemoryOnlyClusterStorage extends ClusterStorage {
                 }
             }
         }
+        queryEngine.itemChanged(thisItem, ClusterStorage.getClusterType(path));
     }
 
     @Override
     public String[] getClusterContents(ItemPath thisItem, String path) throws PersistencyException {
-        Map<String, C2KLocalObject> sysKeyMemCache = memoryCache.get(thisItem);
-        ArrayList<String> result = new ArrayList<String>();
+        Map<String, Object> sysKeyMemCache = memoryCache.get(thisItem);
+        Set<String> result = new LinkedHashSet<String>();
         if (sysKeyMemCache != null) {
             while (path.endsWith("/")) 
                 path = path.substring(0,path.length()-1);
@@ -146,13 +283,37 @@ public class MemoryOnlyClusterStorage extends ClusterStorage {
                     String end = thisPath.substring(path.length());
                     int slash = end.indexOf('/');
                     String suffix = slash>-1?end.substring(0, slash):end;
-                    if (!result.contains(suffix)) result.add(suffix);
+                    result.add(suffix);
                 }
             }
         }
         return result.toArray(new String[result.size()]);
     }
 
+    /**
+     * Scans the stored paths without decoding any object. The result is cached by the ClusterStorageManager.
+     */
+    @Override
+    public int getLastIntegerId(ItemPath thisItem, String path) throws PersistencyException {
+        Map<String, Object> sysKeyMemCache = memoryCache.get(thisItem);
+        if (sysKeyMemCache == null) return -1;
+
+        while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+
+        synchronized (sysKeyMemCache) {
+            int last = -1;
+            int from = path.length() + 1;
+
+            for (String thisPath : sysKeyMemCache.keySet()) {
+                if (thisPath.length() > from && thisPath.charAt(from - 1) == '/' && thisPath.startsWith(path)) {
+                    int slash = thisPath.indexOf('/', from);
+                    last = Math.max(last, parseIntegerId(thisPath, from, slash == -1 ? thisPath.length() : slash));
+                }
+            }
+            return last;
+        }
+    }
+
     @Override
     public String[] getClusterContents(ItemPath itemPath, ClusterType type) throws PersistencyException {
         return getClusterContents(itemPath, type.getName());
@@ -161,7 +322,7 @@ public class MemoryOnlyClusterStorage extends ClusterStorage {
     public void dumpContents(ItemPath thisItem) {
         synchronized(memoryCache) {
             Logger.msg(0, "Cached Objects of Entity "+thisItem);
-            Map<String, C2KLocalObject> sysKeyMemCache = memoryCache.get(thisItem);
+            Map<String, Object> sysKeyMemCache = memoryCache.get(thisItem);
             if (sysKeyMemCache == null) {
                 Logger.msg(0, "No cache found");
                 return;
@@ -183,4 +344,29 @@ public class MemoryOnlyClusterStorage extends ClusterStorage {
         }
         Logger.msg(0, "Total number of cached entities: "+memoryCache.size());
     }
+
+    /**
+     * The metadata of an OutcomeAttachment (object or encoded bytes) and the chunks of its binary data
+     */
+    private static class StoredAttachment {
+        final Object       metadata;
+        final List<byte[]> chunks;
+        final long         size;
+
+        StoredAttachment(Object metadata, List<byte[]> chunks) {
+            this.metadata = metadata;
+            this.chunks   = chunks;
+
+            long total = 0;
+            for (byte[] chunk : chunks) total += chunk.length;
+            this.size = total;
+        }
+
+        InputStream openStream() {
+            Vector<InputStream> streams = new Vector<>(chunks.size());
+            for (byte[] chunk : chunks) streams.add(new ByteArrayInputStream(chunk));
+
+            return new SequenceInputStream(streams.elements());
+        }
+    }
 }
@@ -0,0 +1,766 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+import org.cristalise.kernel.common.ObjectAlreadyExistsException;
+import org.cristalise.kernel.common.ObjectCannotBeUpdated;
+import org.cristalise.kernel.common.ObjectNotFoundException;
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.lookup.AgentPath;
+import org.cristalise.kernel.lookup.DomainPath;
+import org.cristalise.kernel.lookup.InvalidItemPathException;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.lookup.LookupManager;
+import org.cristalise.kernel.lookup.Path;
+import org.cristalise.kernel.lookup.RolePath;
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.process.auth.Authenticator;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.property.PropertyDescription;
+import org.cristalise.kernel.property.PropertyDescriptionList;
+import org.cristalise.kernel.querying.Query;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * LookupManager keeping the whole directory in memory, so a server can run in-process without any external
+ * directory service (e.g. embedded deployments and tests together with {@link MemoryOnlyClusterStorage}).
+ * Nothing is persisted, the directory is empty after each start.
+ * <p>
+ * The Items, Agents and Paths are kept in hash maps keyed by their string path, and the children of each
+ * DomainPath and RolePath, the aliases of each Item and the paths with a given name are kept in separate indexes,
+ * so none of the methods scans the whole directory. The Properties of the Items are stored by the ClusterStorage,
+ * so {@link #search(Path, Property...)} takes the matching Items from the inverted Property index of an
+ * {@link IndexedQueryStorage}, and only reads the Properties of the Items one by one if no storage has the index.
+ * The passwords of the Agents are stored as salted PBKDF2 hashes.
+ * <p>
+ * The paged methods return the rows ordered by their path. A limit of 0 or less returns all the rows after the offset.
+ */
+public class MemoryOnlyLookup implements LookupManager {
+
+    /** Iterations of PBKDF2 used to hash the passwords */
+    private static final int PASSWORD_ITERATIONS = 10000;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    /** Item -> IOR, the Agents are also listed here */
+    private final Map<ItemPath, String> items = new ConcurrentHashMap<>();
+    /** Agent -> its data */
+    private final Map<ItemPath, AgentEntry> agents = new ConcurrentHashMap<>();
+    /** Agent name -> Agent */
+    private final Map<String, AgentPath> agentsByName = new ConcurrentHashMap<>();
+
+    /** '/domain/...' -> DomainPath, with the target of the aliases */
+    private final Map<String, DomainPath> domainPaths = new ConcurrentHashMap<>();
+    /** '/role/...' -> RolePath */
+    private final Map<String, RolePath> roles = new ConcurrentHashMap<>();
+    /** Role name -> '/role/...' */
+    private final Map<String, String> rolesByName = new ConcurrentHashMap<>();
+
+    // the indexes below are guarded by 'this'
+    /** '/domain/...' or '/role/...' -> paths of the children */
+    private final Map<String, Set<String>> children = new HashMap<>();
+    /** Item -> paths of its DomainPath aliases, sorted */
+    private final Map<ItemPath, Set<String>> aliases = new HashMap<>();
+    /** last component -> paths with that name */
+    private final Map<String, Set<String>> names = new HashMap<>();
+    /** '/role/...' -> Agents holding the role */
+    private final Map<String, Set<ItemPath>> roleMembers = new HashMap<>();
+
+    private static class AgentEntry {
+        final String        name;
+        final Set<String>   roles = new TreeSet<>();
+        /** 'iterations:salt:hash', the salt and the hash are Base64 encoded */
+        String              passwordHash = null;
+        boolean             passwordTemporary = false;
+
+        AgentEntry(String name) {
+            this.name = name;
+        }
+    }
+
+    @Override
+    public void open(Authenticator user) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Removes all the entries of the directory
+     */
+    public synchronized void clear() {
+        items.clear();
+        agents.clear();
+        agentsByName.clear();
+        domainPaths.clear();
+        roles.clear();
+        rolesByName.clear();
+        children.clear();
+        aliases.clear();
+        names.clear();
+        roleMembers.clear();
+    }
+
+    @Override
+    public void initializeDirectory() throws ObjectNotFoundException {
+        // the root contexts /domain, /entity and /role always exist
+    }
+
+    //**************************************************************************
+    // Lookup
+    //**************************************************************************/
+
+    @Override
+    public ItemPath getItemPath(String sysKey) throws InvalidItemPathException, ObjectNotFoundException {
+        ItemPath key = new ItemPath(sysKey);
+
+        if (!items.containsKey(key)) throw new ObjectNotFoundException("Item " + sysKey + " does not exist");
+
+        return toItemPath(key);
+    }
+
+    @Override
+    public ItemPath resolvePath(DomainPath domainPath) throws InvalidItemPathException, ObjectNotFoundException {
+        DomainPath stored = domainPaths.get(domainPath.getStringPath());
+
+        if (stored == null)      throw new ObjectNotFoundException("Path " + domainPath + " does not exist");
+        if (stored.isContext())  throw new ObjectNotFoundException("Path " + domainPath + " is a context");
+
+        return toItemPath(stored.getTarget());
+    }
+
+    @Override
+    public String getIOR(Path path) throws ObjectNotFoundException {
+        ItemPath item = path instanceof ItemPath ? (ItemPath) path : path.getItemPath();
+
+        if (item == null) throw new ObjectNotFoundException("Path " + path + " does not reference an Item");
+
+        String ior = items.get(item);
+
+        if (StringUtils.isEmpty(ior)) throw new ObjectNotFoundException("Item " + item + " has no IOR");
+
+        return ior;
+    }
+
+    @Override
+    public boolean exists(Path path) {
+        if (path == null) return false;
+
+        if      (path instanceof ItemPath)   return items.containsKey(path);
+        else if (path instanceof DomainPath) return path.getPath().length == 0 || domainPaths.containsKey(path.getStringPath());
+        else if (path instanceof RolePath)   return path.getPath().length == 0 || roles.containsKey(path.getStringPath());
+        else                                 return false;
+    }
+
+    @Override
+    public Iterator<Path> getChildren(Path path) {
+        return getChildren(path, 0, 0).rows.iterator();
+    }
+
+    @Override
+    public synchronized PagedResult getChildren(Path path, int offset, int limit) {
+        Set<String> keys = children.get(path.getStringPath());
+
+        if (keys == null) return new PagedResult();
+
+        return page(keys, offset, limit);
+    }
+
+    @Override
+    public Iterator<Path> search(Path start, String name) {
+        List<Path> result = new ArrayList<>();
+
+        synchronized (this) {
+            Set<String> keys = names.get(name);
+
+            if (keys != null) {
+                String root = start.getStringPath();
+
+                for (String key : keys) {
+                    if (isUnder(key, root)) result.add(toPath(key));
+                }
+            }
+        }
+        return result.iterator();
+    }
+
+    @Override
+    public Iterator<Path> search(Path start, Property... props) {
+        return search(start, Arrays.asList(props), 0, 0).rows.iterator();
+    }
+
+    /**
+     * Returns the DomainPaths under the given root which are aliases of Items holding all the given Properties
+     */
+    @Override
+    public PagedResult search(Path start, List<Property> props, int offset, int limit) {
+        Set<ItemPath> matches = findItems(props);
+        String root = start.getStringPath();
+        TreeSet<String> result = new TreeSet<>();
+
+        if (matches == null) {
+            // the Properties are read without holding the lock, only the aliases under the root are copied
+            Map<ItemPath, List<String>> candidates = new HashMap<>();
+
+            synchronized (this) {
+                for (Map.Entry<ItemPath, Set<String>> entry : aliases.entrySet()) {
+                    for (String key : entry.getValue()) {
+                        if (isUnder(key, root)) candidates.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(key);
+                    }
+                }
+            }
+
+            for (Map.Entry<ItemPath, List<String>> entry : candidates.entrySet()) {
+                if (hasProperties(entry.getKey(), props)) result.addAll(entry.getValue());
+            }
+
+            synchronized (this) {
+                // aliases removed while the Properties were read
+                result.removeIf(key -> !domainPaths.containsKey(key));
+                return page(result, offset, limit);
+            }
+        }
+
+        synchronized (this) {
+            for (ItemPath item : matches) {
+                Set<String> keys = aliases.get(item);
+
+                if (keys == null) continue;
+
+                for (String key : keys) {
+                    if (isUnder(key, root)) result.add(key);
+                }
+            }
+            return page(result, offset, limit);
+        }
+    }
+
+    @Override
+    public Iterator<Path> search(Path start, PropertyDescriptionList props) {
+        return search(start, props, 0, 0).rows.iterator();
+    }
+
+    /**
+     * Searches with the class identifier Properties of the description using their default values
+     */
+    @Override
+    public PagedResult search(Path start, PropertyDescriptionList props, int offset, int limit) {
+        List<Property> classProps = new ArrayList<>();
+
+        for (PropertyDescription pd : props.list) {
+            if (pd.getIsClassIdentifier()) classProps.add(pd.getProperty());
+        }
+        return search(start, classProps, offset, limit);
+    }
+
+    @Override
+    public Iterator<Path> searchAliases(ItemPath itemPath) {
+        return searchAliases(itemPath, 0, 0).rows.iterator();
+    }
+
+    @Override
+    public synchronized PagedResult searchAliases(ItemPath itemPath, int offset, int limit) {
+        Set<String> keys = aliases.get(itemPath);
+
+        if (keys == null) return new PagedResult();
+
+        return page(keys, offset, limit);
+    }
+
+    @Override
+    public AgentPath getAgentPath(String agentName) throws ObjectNotFoundException {
+        AgentPath agent = agentsByName.get(agentName);
+
+        if (agent == null) throw new ObjectNotFoundException("Agent '" + agentName + "' does not exist");
+
+        return (AgentPath) toItemPath(agent);
+    }
+
+    @Override
+    public RolePath getRolePath(String roleName) throws ObjectNotFoundException {
+        String key = rolesByName.get(roleName);
+
+        if (key == null) throw new ObjectNotFoundException("Role '" + roleName + "' does not exist");
+
+        return copy(roles.get(key));
+    }
+
+    /**
+     * Returns the Agents holding the given Role directly, the Agents of its sub-roles are not included
+     */
+    @Override
+    public AgentPath[] getAgents(RolePath rolePath) throws ObjectNotFoundException {
+        List<Path> rows = getAgents(rolePath, 0, 0).rows;
+        return rows.toArray(new AgentPath[rows.size()]);
+    }
+
+    @Override
+    public synchronized PagedResult getAgents(RolePath rolePath, int offset, int limit) throws ObjectNotFoundException {
+        String key = rolePath.getStringPath();
+
+        if (!roles.containsKey(key)) throw new ObjectNotFoundException("Role " + rolePath + " does not exist");
+
+        Set<ItemPath> members = roleMembers.get(key);
+
+        if (members == null) return new PagedResult();
+
+        TreeSet<String> agentNames = new TreeSet<>();
+        for (ItemPath agent : members) agentNames.add(agents.get(agent).name);
+
+        List<Path> rows = new ArrayList<>();
+        for (String name : slice(agentNames, offset, limit)) rows.add(toItemPath(agentsByName.get(name)));
+
+        return new PagedResult(agentNames.size(), rows);
+    }
+
+    @Override
+    public RolePath[] getRoles(AgentPath agentPath) {
+        List<Path> rows = getRoles(agentPath, 0, 0).rows;
+        return rows.toArray(new RolePath[rows.size()]);
+    }
+
+    @Override
+    public synchronized PagedResult getRoles(AgentPath agentPath, int offset, int limit) {
+        AgentEntry entry = agents.get(agentPath);
+
+        if (entry == null) return new PagedResult();
+
+        return page(entry.roles, offset, limit);
+    }
+
+    @Override
+    public synchronized boolean hasRole(AgentPath agentPath, RolePath role) {
+        AgentEntry entry = agents.get(agentPath);
+        return entry != null && entry.roles.contains(role.getStringPath());
+    }
+
+    @Override
+    public String getAgentName(AgentPath agentPath) throws ObjectNotFoundException {
+        AgentEntry entry = agents.get(agentPath);
+
+        if (entry == null) throw new ObjectNotFoundException("Agent " + agentPath + " does not exist");
+
+        return entry.name;
+    }
+
+    //**************************************************************************
+    // LookupManager
+    //**************************************************************************/
+
+    /**
+     * Adds an Item, an Agent, a DomainPath or a Role. The missing parent contexts of a DomainPath are created.
+     * An Agent must have a name which is not used by other Agents.
+     */
+    @Override
+    public synchronized void add(Path newPath) throws ObjectCannotBeUpdated, ObjectAlreadyExistsException {
+        if (exists(newPath)) throw new ObjectAlreadyExistsException("Path " + newPath + " already exists");
+
+        if (newPath instanceof AgentPath) {
+            AgentPath agent = (AgentPath) newPath;
+            String name = agent.getAgentName();
+
+            if (StringUtils.isBlank(name))        throw new ObjectCannotBeUpdated("Agent " + agent + " has no name");
+            if (agentsByName.containsKey(name))   throw new ObjectAlreadyExistsException("Agent '" + name + "' already exists");
+
+            ItemPath key = new AgentPath(agent.getUUID(), name);
+            agents.put(key, new AgentEntry(name));
+            agentsByName.put(name, (AgentPath) key);
+            items.put(key, StringUtils.defaultString(agent.getIORString()));
+        }
+        else if (newPath instanceof ItemPath) {
+            ItemPath item = (ItemPath) newPath;
+            items.put(new ItemPath(item.getUUID()), StringUtils.defaultString(item.getIORString()));
+        }
+        else if (newPath instanceof DomainPath) {
+            addDomainPath((DomainPath) newPath);
+        }
+        else if (newPath instanceof RolePath) {
+            createRole((RolePath) newPath);
+            return;
+        }
+        else
+            throw new ObjectCannotBeUpdated("Unsupported Path type " + newPath.getClass().getName());
+
+        Logger.msg(7, "MemoryOnlyLookup.add() - path:" + newPath);
+    }
+
+    private void addDomainPath(DomainPath path) {
+        DomainPath parent = path.getParent();
+
+        if (parent.getPath().length > 0 && !domainPaths.containsKey(parent.getStringPath())) addDomainPath(parent);
+
+        String key = path.getStringPath();
+        DomainPath stored = new DomainPath(path.getPath());
+
+        if (path.getTarget() != null) {
+            stored.setItemPath(new ItemPath(path.getTarget().getUUID()));
+            aliases.computeIfAbsent(stored.getTarget(), k -> new TreeSet<>()).add(key);
+        }
+
+        domainPaths.put(key, stored);
+        addIndexes(parent.getStringPath(), key, path.getName());
+    }
+
+    /**
+     * Removes an Item, an Agent, a DomainPath or a Role. DomainPaths and Roles with children cannot be removed.
+     * Removing an Item does not remove its aliases.
+     */
+    @Override
+    public synchronized void delete(Path path) throws ObjectCannotBeUpdated {
+        if (!exists(path) || path.getPath().length == 0) throw new ObjectCannotBeUpdated("Path " + path + " does not exist");
+
+        String key = path.getStringPath();
+
+        if (path instanceof ItemPath) {
+            ItemPath item = (ItemPath) path;
+            AgentEntry entry = agents.remove(item);
+
+            if (entry != null) {
+                agentsByName.remove(entry.name);
+                for (String role : entry.roles) removeFrom(roleMembers, role, item);
+            }
+            items.remove(item);
+        }
+        else {
+            Set<String> childKeys = children.get(key);
+
+            if (childKeys != null && !childKeys.isEmpty()) throw new ObjectCannotBeUpdated("Path " + path + " has children");
+
+            if (path instanceof DomainPath) {
+                DomainPath stored = domainPaths.remove(key);
+
+                if (!stored.isContext()) removeFrom(aliases, stored.getTarget(), key);
+            }
+            else {
+                RolePath stored = roles.remove(key);
+                rolesByName.remove(stored.getName());
+
+                Set<ItemPath> members = roleMembers.remove(key);
+
+                if (members != null) {
+                    for (ItemPath agent : members) agents.get(agent).roles.remove(key);
+                }
+            }
+
+            String[] parentPath = Arrays.copyOf(path.getPath(), path.getPath().length - 1);
+            String parentKey = path instanceof DomainPath ? new DomainPath(parentPath).getStringPath() : new RolePath(parentPath, false).getStringPath();
+
+            removeFrom(children, parentKey, key);
+            removeFrom(names, path.getPath()[path.getPath().length - 1], key);
+        }
+        Logger.msg(7, "MemoryOnlyLookup.delete() - path:" + path);
+    }
+
+    @Override
+    public synchronized RolePath createRole(RolePath role) throws ObjectAlreadyExistsException, ObjectCannotBeUpdated {
+        String key = role.getStringPath();
+
+        if (role.getPath().length == 0)          throw new ObjectCannotBeUpdated("Cannot create the root Role");
+        if (roles.containsKey(key))              throw new ObjectAlreadyExistsException("Role " + role + " already exists");
+        if (rolesByName.containsKey(role.getName())) throw new ObjectAlreadyExistsException("Role '" + role.getName() + "' already exists");
+
+        String[] parentPath = Arrays.copyOf(role.getPath(), role.getPath().length - 1);
+        RolePath parent = new RolePath(parentPath, false);
+
+        if (parentPath.length > 0 && !roles.containsKey(parent.getStringPath()))
+            throw new ObjectCannotBeUpdated("Parent role " + parent + " does not exist");
+
+        roles.put(key, copy(role));
+        rolesByName.put(role.getName(), key);
+        addIndexes(parent.getStringPath(), key, role.getName());
+
+        Logger.msg(7, "MemoryOnlyLookup.createRole() - role:" + role);
+        return copy(role);
+    }
+
+    @Override
+    public synchronized void addRole(AgentPath agent, RolePath rolePath) throws ObjectCannotBeUpdated, ObjectNotFoundException {
+        AgentEntry entry = getAgentEntry(agent);
+        String key = getRoleKey(rolePath);
+
+        entry.roles.add(key);
+        roleMembers.computeIfAbsent(key, k -> new HashSet<>()).add(agentsByName.get(entry.name));
+    }
+
+    @Override
+    public synchronized void removeRole(AgentPath agent, RolePath role) throws ObjectCannotBeUpdated, ObjectNotFoundException {
+        AgentEntry entry = getAgentEntry(agent);
+        String key = getRoleKey(role);
+
+        if (!entry.roles.remove(key)) throw new ObjectCannotBeUpdated("Agent '" + entry.name + "' does not hold role " + role);
+
+        removeFrom(roleMembers, key, agent);
+    }
+
+    @Override
+    public void setAgentPassword(AgentPath agent, String newPassword) throws ObjectNotFoundException, ObjectCannotBeUpdated, NoSuchAlgorithmException {
+        setAgentPassword(agent, newPassword, false);
+    }
+
+    /**
+     * Stores the salted PBKDF2 hash of the password
+     */
+    @Override
+    public void setAgentPassword(AgentPath agent, String newPassword, boolean temporary)
+            throws ObjectNotFoundException, ObjectCannotBeUpdated, NoSuchAlgorithmException
+    {
+        getAgentEntry(agent);
+
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+
+        // hashing is slow by design, so it is not done while holding the lock
+        String hash = PASSWORD_ITERATIONS + ":" + Base64.getEncoder().encodeToString(salt) + ":"
+                + Base64.getEncoder().encodeToString(hashPassword(newPassword, salt, PASSWORD_ITERATIONS));
+
+        synchronized (this) {
+            AgentEntry entry = getAgentEntry(agent);
+
+            entry.passwordHash      = hash;
+            entry.passwordTemporary = temporary;
+        }
+    }
+
+    /**
+     * Checks the password against the hash stored by {@link #setAgentPassword(AgentPath, String, boolean)}
+     *
+     * @return true if the Agent exists and the password is correct
+     */
+    public boolean checkAgentPassword(AgentPath agent, String password) throws NoSuchAlgorithmException {
+        String stored;
+
+        synchronized (this) {
+            AgentEntry entry = agents.get(agent);
+            stored = entry == null ? null : entry.passwordHash;
+        }
+
+        if (stored == null || password == null) return false;
+
+        String[] parts = stored.split(":");
+        byte[] hash = hashPassword(password, Base64.getDecoder().decode(parts[1]), Integer.parseInt(parts[0]));
+
+        return MessageDigest.isEqual(hash, Base64.getDecoder().decode(parts[2]));
+    }
+
+    private static byte[] hashPassword(String password, byte[] salt, int iterations) throws NoSuchAlgorithmException {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        }
+        catch (InvalidKeySpecException e) {
+            throw new NoSuchAlgorithmException(e);
+        }
+    }
+
+    @Override
+    public synchronized void setHasJobList(RolePath role, boolean hasJobList) throws ObjectNotFoundException, ObjectCannotBeUpdated {
+        roles.get(getRoleKey(role)).setHasJobList(hasJobList);
+    }
+
+    @Override
+    public void setIOR(ItemPath item, String ior) throws ObjectNotFoundException, ObjectCannotBeUpdated {
+        if (items.replace(item, StringUtils.defaultString(ior)) == null) throw new ObjectNotFoundException("Item " + item + " does not exist");
+    }
+
+    @Override
+    public void setPermission(RolePath role, String permission) throws ObjectNotFoundException, ObjectCannotBeUpdated {
+        List<String> permissions = new ArrayList<>();
+
+        if (StringUtils.isNotBlank(permission)) permissions.add(permission);
+
+        setPermissions(role, permissions);
+    }
+
+    @Override
+    public synchronized void setPermissions(RolePath role, List<String> permissions) throws ObjectNotFoundException, ObjectCannotBeUpdated {
+        roles.get(getRoleKey(role)).setPermissions(new ArrayList<>(permissions));
+    }
+
+    //**************************************************************************
+    // Helpers
+    //**************************************************************************/
+
+    /**
+     * Finds the Items having all the given Properties using the Property index of the ClusterStorage
+     *
+     * @return the matching Items or null if no storage has the index or it could not be queried
+     */
+    private Set<ItemPath> findItems(List<Property> props) {
+        if (props.isEmpty()) return null;
+
+        StringBuilder filter = new StringBuilder();
+
+        for (Property prop : props) {
+            String name = prop.getName(), value = StringUtils.defaultString(prop.getValue());
+
+            // the filter syntax cannot express these, so the Properties are read one by one
+            if (StringUtils.containsAny(name, "=!'\" ") || (value.contains("'") && value.contains("\""))) return null;
+
+            if (filter.length() > 0) filter.append(" and ");
+
+            String quote = value.contains("'") ? "\"" : "'";
+            filter.append(ClusterType.PROPERTY).append("/").append(name).append(" = ").append(quote).append(value).append(quote);
+        }
+
+        if (Gateway.getStorage() == null) return null;
+
+        ClusterStorage store = Gateway.getStorage().getDb().findStorageForQuery(IndexedQueryEngine.LANGUAGE);
+
+        if (!(store instanceof IndexedQueryStorage)) return null;
+
+        try {
+            Query query = new Query();
+            query.setName("MemoryOnlyLookup");
+            query.setLanguage(IndexedQueryEngine.LANGUAGE);
+            query.setQuery(filter.toString());
+
+            return ((IndexedQueryStorage) store).findItems(query);
+        }
+        catch (PersistencyException e) {
+            Logger.msg(8, "MemoryOnlyLookup.findItems() - storage cannot be queried, reading Properties one by one: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean hasProperties(ItemPath item, List<Property> props) {
+        for (Property prop : props) {
+            try {
+                Property stored = (Property) Gateway.getStorage().get(item, ClusterType.PROPERTY + "/" + prop.getName(), null);
+
+                if (stored == null || !StringUtils.equals(stored.getValue(), prop.getValue())) return false;
+            }
+            catch (Exception e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addIndexes(String parentKey, String key, String name) {
+        children.computeIfAbsent(parentKey, k -> new TreeSet<>()).add(key);
+        names.computeIfAbsent(name, k -> new HashSet<>()).add(key);
+    }
+
+    private static <K, V> void removeFrom(Map<K, Set<V>> index, K key, V value) {
+        Set<V> values = index.get(key);
+
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) index.remove(key);
+        }
+    }
+
+    private static boolean isUnder(String key, String root) {
+        return key.equals(root) || key.startsWith(root + Path.delim);
+    }
+
+    private AgentEntry getAgentEntry(AgentPath agent) throws ObjectNotFoundException {
+        AgentEntry entry = agents.get(agent);
+
+        if (entry == null) throw new ObjectNotFoundException("Agent " + agent + " does not exist");
+
+        return entry;
+    }
+
+    private String getRoleKey(RolePath role) throws ObjectNotFoundException {
+        String key = role.getStringPath();
+
+        if (!roles.containsKey(key)) throw new ObjectNotFoundException("Role " + role + " does not exist");
+
+        return key;
+    }
+
+    /**
+     * Creates a new ItemPath or AgentPath object with the IOR of the Item, so callers cannot change the stored one
+     */
+    private ItemPath toItemPath(ItemPath key) {
+        String ior = StringUtils.defaultIfEmpty(items.get(key), null);
+        AgentEntry entry = agents.get(key);
+
+        if (entry == null) return new ItemPath(key.getUUID(), ior);
+        else               return new AgentPath(key.getUUID(), ior, entry.name, entry.passwordTemporary);
+    }
+
+    private Path toPath(String key) {
+        if (domainPaths.containsKey(key)) {
+            DomainPath stored = domainPaths.get(key);
+            DomainPath result = new DomainPath(stored.getPath());
+
+            if (!stored.isContext()) result.setItemPath(toItemPath(stored.getTarget()));
+
+            return result;
+        }
+        else
+            return copy(roles.get(key));
+    }
+
+    private static RolePath copy(RolePath role) {
+        return new RolePath(role.getPath(), role.hasJobList(), new ArrayList<>(role.getPermissions()));
+    }
+
+    private PagedResult page(Set<String> keys, int offset, int limit) {
+        List<Path> rows = new ArrayList<>();
+
+        for (String key : slice(keys, offset, limit)) rows.add(toPath(key));
+
+        return new PagedResult(keys.size(), rows);
+    }
+
+    /**
+     * Returns the keys of the page, the keys before the offset are skipped without copying the set
+     */
+    private static List<String> slice(Set<String> keys, int offset, int limit) {
+        if (offset >= keys.size()) return Collections.emptyList();
+
+        List<String> rows = new ArrayList<>(limit > 0 ? Math.min(limit, keys.size()) : keys.size() - Math.max(0, offset));
+        int index = 0;
+
+        for (String key : keys) {
+            if (limit > 0 && rows.size() == limit) break;
+            if (index++ >= offset) rows.add(key);
+        }
+        return rows;
+    }
+}
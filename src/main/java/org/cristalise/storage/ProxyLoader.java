@@ -19,7 +19,9 @@
  * http://www.fsf.org/licensing/licenses/lgpl.html
  */
 package org.cristalise.storage;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.cristalise.kernel.common.ObjectNotFoundException;
@@ -111,6 +113,34 @@ public class ProxyLoader extends ClusterStorage {
         return null;
     }
 
+    /**
+     * retrieve several objects with one remote call
+     */
+    @Override
+    public List<C2KLocalObject> getAll(ItemPath thisItem, List<String> paths) throws PersistencyException {
+        try {
+            Item thisEntity = getIOR(thisItem);
+            String[] queryData = thisEntity.queryDataList(paths.toArray(new String[paths.size()]));
+
+            List<C2KLocalObject> result = new ArrayList<C2KLocalObject>(paths.size());
+
+            for (int i = 0; i < queryData.length; i++) {
+                String path = paths.get(i);
+
+                if (Logger.doLog(8)) Logger.msg("ProxyLoader.getAll() - "+thisItem+" : "+path+" = "+queryData[i]);
+
+                if (queryData[i] == null || queryData[i].length() == 0) result.add(null);
+                else if (getClusterType(path) == ClusterType.OUTCOME)   result.add(new Outcome(path, queryData[i]));
+                else                                                    result.add((C2KLocalObject)Gateway.getMarshaller().unmarshall(queryData[i]));
+            }
+            return result;
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            throw new PersistencyException(e.getMessage());
+        }
+    }
+
     /**
      * store object not supported
      */
@@ -0,0 +1,409 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.utils.Logger;
+
+/**
+ * Write-ahead journal of the {@link XMLClusterStorage}, kept in the {@value #DIR} directory under its root.
+ * <p>
+ * The puts and deletes of each locker are staged here until the commit. On commit they are written into a single
+ * journal file which is synced to disk and renamed to make it durable. The journals applied to the files of the
+ * storage are kept until the next {@link #checkpoint(FileSync)}, and the journals left over by a crash are listed
+ * in the order of their numeric ids to be replayed.
+ */
+public class XMLClusterJournal {
+    public static final String DIR = ".journal";
+
+    private static final int MAGIC = 0xC2C0DE01;
+    /** Length recorded in the journal for the entries of spooled files */
+    private static final int SPOOLED = -1;
+
+    private final Path dir;
+    private final int  checkpointInterval;
+
+    /** Staged entries of the lockers, only accessed while holding its monitor */
+    private final HashMap<Object, List<Entry>> staged = new HashMap<>();
+
+    private final AtomicLong spoolCounter = new AtomicLong();
+    /** Sequence of the journal ids, seeded with the time so ids are not reused after a restart */
+    private final AtomicLong txSequence   = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    /** Journals applied since the last checkpoint, its monitor guards unsyncedFiles as well */
+    private final List<Path>  applied       = new ArrayList<>();
+    /** Files (without extension) written by the applied journals, not yet synced */
+    private final Set<String> unsyncedFiles = new HashSet<>();
+
+    /**
+     * Syncs the files written by the applied journals
+     */
+    interface FileSync {
+        void sync(Set<String> files) throws PersistencyException;
+    }
+
+    /**
+     * @param dir the directory of the journal files
+     * @param checkpointInterval the number of applied journals kept before the checkpoint is due
+     */
+    public XMLClusterJournal(Path dir, int checkpointInterval) {
+        this.dir = dir;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Starts the transaction of the locker, if it was not started yet
+     */
+    void begin(Object locker) {
+        synchronized (staged) {
+            staged.computeIfAbsent(locker, k -> new ArrayList<>());
+        }
+    }
+
+    /**
+     * Adds the entries to the transaction of the locker
+     */
+    void stage(Object locker, List<Entry> entries) {
+        synchronized (staged) {
+            staged.computeIfAbsent(locker, k -> new ArrayList<>()).addAll(entries);
+        }
+    }
+
+    /**
+     * Removes the transaction of the locker, so it is owned by the caller committing or aborting it
+     * 
+     * @return the staged entries or null if the locker had no transaction
+     */
+    List<Entry> take(Object locker) {
+        synchronized (staged) {
+            return staged.remove(locker);
+        }
+    }
+
+    /**
+     * Discards all staged transactions and deletes their spool files
+     * 
+     * @return the number of discarded transactions
+     */
+    int discardAll() {
+        List<List<Entry>> discarded;
+
+        synchronized (staged) {
+            discarded = new ArrayList<>(staged.values());
+            staged.clear();
+        }
+
+        for (List<Entry> entries : discarded) deleteSpoolFiles(entries);
+        return discarded.size();
+    }
+
+    /**
+     * Returns the id of the next journal. The ids are zero padded numbers, so their order is the same as
+     * the order of the names of the journal files.
+     */
+    String nextTxId() {
+        return String.format("%019d", txSequence.incrementAndGet());
+    }
+
+    /**
+     * Returns the path of a new spool file with the given extension
+     */
+    Path newSpoolFile(String extension) {
+        return dir.resolve("spool-" + System.currentTimeMillis() + "-" + spoolCounter.incrementAndGet() + extension);
+    }
+
+    /**
+     * Writes the entries to a new journal file, syncs it and atomically renames it, which is the commit point.
+     * 
+     * @return the path of the completed journal
+     */
+    Path write(String txId, List<Entry> entries) throws PersistencyException {
+        Path tmp     = dir.resolve(txId + ".tmp");
+        Path journal = dir.resolve(txId + ".journal");
+
+        try {
+            Files.createDirectories(dir);
+
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(entries.size());
+
+                for (Entry entry : entries) {
+                    out.writeUTF(entry.file);
+                    out.writeBoolean(!entry.isDelete());
+
+                    if (entry.source != null) {
+                        // the spool file was synced already, only its name is recorded
+                        out.writeInt(SPOOLED);
+                        out.writeUTF(entry.source.getFileName().toString());
+                    }
+                    else if (entry.data != null) {
+                        out.writeInt(entry.data.length);
+                        out.write(entry.data);
+                    }
+                }
+                out.flush();
+                fos.getFD().sync();
+            }
+
+            moveAtomic(tmp, journal);
+            syncDir(dir);
+
+            return journal;
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            deleteQuietly(tmp);
+            throw new PersistencyException("XMLClusterJournal.write() - Could not write journal for tx:" + txId + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the entries of a completed journal
+     */
+    List<Entry> read(Path journal) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journal))) {
+            if (in.readInt() != MAGIC) throw new IOException("Invalid journal file:" + journal);
+
+            int size = in.readInt();
+            List<Entry> entries = new ArrayList<>(size);
+
+            for (int i = 0; i < size; i++) {
+                String file = in.readUTF();
+
+                if (!in.readBoolean()) {
+                    entries.add(new Entry(file, (byte[])null));
+                    continue;
+                }
+
+                int length = in.readInt();
+
+                if (length == SPOOLED) {
+                    entries.add(new Entry(file, journal.resolveSibling(in.readUTF())));
+                }
+                else {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    entries.add(new Entry(file, data));
+                }
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Lists the files left in the journal directory: the completed journals first in the order of their ids,
+     * followed by the remaining files (e.g. their spool files) which can be discarded after the replay.
+     */
+    List<Path> listForReplay() throws PersistencyException {
+        List<Path> files = new ArrayList<>();
+
+        if (!Files.isDirectory(dir)) return files;
+
+        try (Stream<Path> list = Files.list(dir)) {
+            list.forEach(files::add);
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            throw new PersistencyException("XMLClusterJournal.listForReplay() - Could not list " + dir + ": " + e.getMessage());
+        }
+
+        files.sort((a, b) -> {
+            boolean aJournal = isJournal(a);
+            boolean bJournal = isJournal(b);
+
+            if (aJournal != bJournal) return aJournal ? -1 : 1;
+            else                      return compareTxIds(getTxId(a), getTxId(b));
+        });
+        return files;
+    }
+
+    static boolean isJournal(Path file) {
+        return file.getFileName().toString().endsWith(".journal");
+    }
+
+    static String getTxId(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * Compares the ids of the journals numerically. The ids written by earlier versions consist of the time and
+     * a counter separated by '-'.
+     */
+    static int compareTxIds(String a, String b) {
+        String[] aParts = a.split("-");
+        String[] bParts = b.split("-");
+
+        for (int i = 0; i < Math.min(aParts.length, bParts.length); i++) {
+            int result;
+            try {
+                result = Long.compare(Long.parseLong(aParts[i]), Long.parseLong(bParts[i]));
+            }
+            catch (NumberFormatException e) {
+                result = aParts[i].compareTo(bParts[i]);
+            }
+            if (result != 0) return result;
+        }
+        return Integer.compare(aParts.length, bParts.length);
+    }
+
+    /**
+     * Records the applied journal, which is kept until the files it has written are synced by the checkpoint
+     * 
+     * @param files the written files without extension
+     * @return true if the checkpoint is due
+     */
+    boolean applied(Path journal, Collection<String> files) {
+        synchronized (applied) {
+            applied.add(journal);
+            unsyncedFiles.addAll(files);
+
+            return applied.size() >= checkpointInterval;
+        }
+    }
+
+    /**
+     * @param file the file without extension
+     * @return true if the file was written by a journal which was not checkpointed yet
+     */
+    boolean isUnsynced(String file) {
+        synchronized (applied) {
+            return unsyncedFiles.contains(file);
+        }
+    }
+
+    /**
+     * Syncs the files written by the journals applied since the last checkpoint, then removes those journals.
+     * Until then the journals are kept, so they are replayed if the system crashes before the files reach the disk.
+     * 
+     * @param sync syncs the files of the storage
+     * @throws PersistencyException the files could not be synced
+     */
+    void checkpoint(FileSync sync) throws PersistencyException {
+        synchronized (applied) {
+            if (applied.isEmpty()) return;
+
+            Logger.msg(7, "XMLClusterJournal.checkpoint() - syncing " + unsyncedFiles.size() + " files of " + applied.size() + " journals");
+
+            sync.sync(unsyncedFiles);
+
+            // oldest first, so a crash in the middle leaves only newer journals to be replayed
+            for (Path journal : applied) deleteQuietly(journal);
+
+            applied.clear();
+            unsyncedFiles.clear();
+        }
+    }
+
+    static void deleteSpoolFiles(List<Entry> entries) {
+        for (Entry entry : entries) {
+            if (entry.source != null) deleteQuietly(entry.source);
+        }
+    }
+
+    static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+            Logger.error(e);
+        }
+    }
+
+    static void moveAtomic(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static void syncDir(Path dir) {
+        // not supported on every platform, the journal itself was already synced
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            Logger.msg(8, "XMLClusterJournal.syncDir() - " + e.getMessage());
+        }
+    }
+
+    /**
+     * A staged put (data or source is not null) or delete of a file relative to the root directory of the storage
+     */
+    public static class Entry {
+        final String file;
+        final byte[] data;
+        /** spool file in the journal directory which is moved to the file */
+        final Path   source;
+
+        Entry(String file, String data) {
+            this(file, data == null ? null : data.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Entry(String file, byte[] data) {
+            this.file   = file;
+            this.data   = data;
+            this.source = null;
+        }
+
+        Entry(String file, Path source) {
+            this.file   = file;
+            this.data   = null;
+            this.source = source;
+        }
+
+        boolean isDelete() {
+            return data == null && source == null;
+        }
+    }
+}
@@ -20,34 +20,103 @@
  */
 package org.cristalise.storage;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cristalise.kernel.common.PersistencyException;
 import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.lookup.InvalidItemPathException;
 import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.persistency.ClusterStorage;
 import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.TransactionalClusterStorage;
+import org.cristalise.kernel.persistency.codec.BinaryClusterCodec;
+import org.cristalise.kernel.persistency.codec.ClusterCodec;
+import org.cristalise.kernel.persistency.codec.ClusterCodecs;
+import org.cristalise.kernel.persistency.codec.XMLClusterCodec;
 import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.OutcomeAttachment;
 import org.cristalise.kernel.process.Gateway;
 import org.cristalise.kernel.process.auth.Authenticator;
 import org.cristalise.kernel.querying.Query;
 import org.cristalise.kernel.utils.FileStringUtility;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.storage.XMLClusterJournal.Entry;
+
+/**
+ * File based ClusterStorage writing each C2KLocalObject into its own file.
+ * <p>
+ * The objects are encoded by the {@link ClusterCodec} given in the constructor or configured by the
+ * {@value #CODEC_PROPERTY} property, which is XML by default. Outcomes and the files of the XML codec have the
+ * extension given in the constructor ('.xml' by default), the files of other codecs have the extension of the codec,
+ * e.g. '.c2k' for the binary one. The codec of each file is detected when it is read, so the files written before
+ * the codec was changed remain readable, and they are replaced by the file of the current codec when they are
+ * written again. Outcomes are always written as XML.
+ * <p>
+ * Transactions are supported by the write-ahead {@link XMLClusterJournal} kept in the {@value #JOURNAL_DIR} directory
+ * under the root. Puts and deletes done with a locker are only staged in memory. On commit they are written into a
+ * single journal file which is synced to disk and renamed to make it durable, this is the only sync of the commit. Only then the
+ * files of the items are updated, each with an atomic move of a fully written temporary file. If updating the files
+ * fails, the previous files are restored and the journal is removed. The applied journals are kept until the next
+ * {@link #checkpoint()}, which syncs the written files once for many transactions. Journals left over by a crash
+ * are replayed in the order of their numeric ids by {@link #open(Authenticator)}, and half written journals are
+ * discarded, so an item never ends up with only a part of a committed transaction (e.g. an Event without its Outcome).
+ * <p>
+ * Commits and puts lock only the Items they write, so writers of different Items do not wait for each other.
+ * Puts and deletes without a locker are written directly without journal and sync.
+ * <p>
+ * The binary data of OutcomeAttachments is written into a separate file with the {@value #PAYLOAD_EXTENSION}
+ * extension next to the file of the metadata. The data is streamed into a spool file of the journal directory 
+ * when it is put, which is moved to its place when the transaction is applied, so it is never held in memory.
+ */
+public class XMLClusterStorage extends TransactionalClusterStorage implements IndexedQueryStorage {
+    public static final String JOURNAL_DIR    = XMLClusterJournal.DIR;
+    public static final String CODEC_PROPERTY = "XMLStorage.codec";
+    public static final String PAYLOAD_EXTENSION = ".bin";
+    /** Number of applied journals kept before {@link #checkpoint()} is executed, default is 100 */
+    public static final String CHECKPOINT_PROPERTY = "XMLStorage.checkpointInterval";
+
+    private static final int LOCK_STRIPES = 64;
 
-public class XMLClusterStorage extends ClusterStorage {
     String  rootDir        = null;
     String  fileExtension  = ".xml";
     boolean useDirectories = true;
 
-    public XMLClusterStorage() {}
+    private ClusterCodec codec = null;
+
+    /** Created when the root directory is known */
+    private XMLClusterJournal journal = null;
+
+    /** Lock stripes of the Items, see {@link #lockItems(List)} */
+    private final ReentrantLock[] itemLocks = new ReentrantLock[LOCK_STRIPES];
+
+    private final IndexedQueryEngine queryEngine = new IndexedQueryEngine(this, this::listItems);
+
+    public XMLClusterStorage() {
+        for (int i = 0; i < LOCK_STRIPES; i++) itemLocks[i] = new ReentrantLock();
+    }
 
     /**
      * Create new XMLClusterStorage with specific setup, Used in predefined step 
@@ -64,16 +133,35 @@ public class XMLClusterStorage extends ClusterStorage {
      * {@link org.cristalise.kernel.lifecycle.instance.predefined.server.BulkImport}
      * 
      * @param root specify the root directory
-     * @param ext the extension of the files with dot, e.g. '.xml', used to save the cluster content.
+     * @param ext the extension of the XML files with dot, e.g. '.xml', used to save the cluster content.
      *        If it is null the default '.xml' extension is used.
      * @param useDir specify if the files should be stored in directories or in single files, e.g. Property.Type,xml
      *        If it is null the default is true.
      */
     public XMLClusterStorage(String root, String ext, Boolean useDir) {
+        this(root, ext, useDir, null);
+    }
+
+    /**
+     * Create new XMLClusterStorage with specific setup
+     * 
+     * @param root specify the root directory
+     * @param ext the extension of the XML files with dot, e.g. '.xml', used to save the cluster content.
+     *        The files of other codecs have the extension of the codec. If it is null the default '.xml' extension is used.
+     * @param useDir specify if the files should be stored in directories or in single files, e.g. Property.Type,xml
+     *        If it is null the default is true.
+     * @param codec encodes the objects written to the files. If it is null the codec is configured by the
+     *        {@value #CODEC_PROPERTY} property.
+     */
+    public XMLClusterStorage(String root, String ext, Boolean useDir, ClusterCodec codec) {
+        this();
         rootDir = new File(root).getAbsolutePath();
 
         if (ext    != null) fileExtension  = ext;
         if (useDir != null) useDirectories = useDir;
+
+        this.codec = codec;
+        this.journal = new XMLClusterJournal(Paths.get(rootDir, JOURNAL_DIR), getCheckpointInterval());
     }
 
     @Override
@@ -94,12 +182,29 @@ public class XMLClusterStorage extends ClusterStorage {
             if (!success)
                 throw new PersistencyException("XMLClusterStorage.open() - Could not create dir " + rootDir + ". Cannot continue.");
         }
-        
-        Logger.debug(5, "XMLClusterStorage.open() - DONE rootDir:'" + rootDir + "' ext:'" + fileExtension + "' userDir:" + useDirectories);
+
+        if (journal == null) journal = new XMLClusterJournal(Paths.get(rootDir, JOURNAL_DIR), getCheckpointInterval());
+
+        replayJournals();
+
+        Logger.debug(5, "XMLClusterStorage.open() - DONE rootDir:'" + rootDir + "' ext:'" + fileExtension + "' userDir:" + useDirectories + " codec:" + getCodec().getName());
     }
 
     @Override
     public void close() {
+        try {
+            checkpoint();
+        }
+        catch (PersistencyException e) {
+            Logger.error(e);
+        }
+
+        if (journal != null) {
+            int discarded = journal.discardAll();
+            if (discarded != 0) Logger.warning("XMLClusterStorage.close() - Discarding " + discarded + " uncommitted transaction(s)");
+        }
+        queryEngine.clear();
+        journal = null;
         rootDir = null;
     }
 
@@ -121,28 +226,101 @@ public class XMLClusterStorage extends ClusterStorage {
 
     @Override
     public boolean checkQuerySupport(String language) {
-        Logger.warning("XMLClusterStorage DOES NOT Support any query");
+        if (IndexedQueryEngine.isSupported(language)) return true;
+
+        Logger.warning("XMLClusterStorage DOES NOT Support query language:" + language);
         return false;
     }
 
     @Override
     public String executeQuery(Query query) throws PersistencyException {
-        throw new PersistencyException("UNIMPLEMENTED funnction");
+        return queryEngine.executeQuery(query);
+    }
+
+    @Override
+    public Set<ItemPath> findItems(Query query) throws PersistencyException {
+        return queryEngine.findItems(query);
+    }
+
+    /**
+     * Lists the Items having a directory under the root, used to build the indexes of the queries
+     */
+    private Collection<ItemPath> listItems() {
+        List<ItemPath> items = new ArrayList<>();
+
+        try (Stream<Path> dirs = Files.list(Paths.get(rootDir))) {
+            dirs.filter(Files::isDirectory).forEach(dir -> {
+                String name = dir.getFileName().toString();
+
+                if (JOURNAL_DIR.equals(name)) return;
+
+                try {
+                    items.add(new ItemPath(name));
+                }
+                catch (InvalidItemPathException e) {
+                    Logger.msg(8, "XMLClusterStorage.listItems() - Skipping directory:" + name);
+                }
+            });
+        }
+        catch (IOException e) {
+            Logger.error("XMLClusterStorage.listItems() - Could not list " + rootDir + ": " + e.getMessage());
+        }
+        return items;
+    }
+
+    /**
+     * Reports the change of a file to the query engine. The path of the file starts with the UUID of the Item
+     * followed by the name of the cluster.
+     */
+    private void fileChanged(String relativePath) {
+        int slash = relativePath.indexOf('/');
+        if (slash == -1) return;
+
+        String rest = relativePath.substring(slash + 1);
+        int end = 0;
+        while (end < rest.length() && rest.charAt(end) != '/' && rest.charAt(end) != '.') end++;
+
+        try {
+            queryEngine.itemChanged(new ItemPath(relativePath.substring(0, slash)), ClusterType.getValue(rest.substring(0, end)));
+        }
+        catch (Exception e) {
+            Logger.msg(8, "XMLClusterStorage.fileChanged() - Not an item file:" + relativePath);
+        }
     }
 
     @Override
     public C2KLocalObject get(ItemPath itemPath, String path) throws PersistencyException {
         try {
-            ClusterType type      = ClusterStorage.getClusterType(path);
-            String      filePath  = getFilePath(itemPath, path) + fileExtension;
-            String      objString = FileStringUtility.file2String(filePath);
+            ClusterType type     = ClusterStorage.getClusterType(path);
+            File        file     = getDataFile(itemPath, path, type);
+
+            if (type == ClusterType.OUTCOME) {
+                String objString = FileStringUtility.file2String(file);
 
-            if (objString.length() == 0) return null;
+                if (objString.length() == 0) return null;
 
-            Logger.debug(9, "XMLClusterStorage.get() - objString:" + objString);
+                Logger.debug(9, "XMLClusterStorage.get() - objString:" + objString);
+
+                return new Outcome(path, objString);
+            }
 
-            if (type == ClusterType.OUTCOME) return new Outcome(path, objString);
-            else                             return (C2KLocalObject) Gateway.getMarshaller().unmarshall(objString);
+            C2KLocalObject obj;
+
+            // stream the file to the codec which wrote it
+            try (InputStream in = new FileInputStream(file)) {
+                if (file.length() == 0) return null;
+
+                obj = ClusterCodecs.decode(in, getCodec());
+            }
+
+            // attachments written before the data was stored separately keep it inline
+            if (obj instanceof OutcomeAttachment) {
+                File payload = getPayloadFile(itemPath, path);
+
+                if (payload.exists()) ((OutcomeAttachment) obj).setPayload(payload.length(), () -> openPayload(payload));
+            }
+
+            return obj;
         }
         catch (Exception e) {
             Logger.msg(3, "XMLClusterStorage.get() - The path " + path + " from " + itemPath + " does not exist: " + e.getMessage());
@@ -151,45 +329,608 @@ public class XMLClusterStorage extends ClusterStorage {
         }
     }
 
+    @Override
+    public InputStream getAttachmentStream(ItemPath itemPath, String path) throws PersistencyException {
+        File payload = getPayloadFile(itemPath, path);
+
+        if (payload.exists()) return openPayload(payload);
+        else                  return super.getAttachmentStream(itemPath, path);
+    }
+
+    /**
+     * Returns the file of the current codec, or if it does not exist the file written by another codec
+     */
+    private File getDataFile(ItemPath itemPath, String path, ClusterType type) throws PersistencyException {
+        String filePath = getFilePath(itemPath, path);
+        File   file     = new File(filePath + getExtension(type));
+
+        if (type == ClusterType.OUTCOME || file.isFile()) return file;
+
+        for (String ext : getDataExtensions()) {
+            File other = new File(filePath + ext);
+            if (other.isFile()) return other;
+        }
+        return file;
+    }
+
+    private File getPayloadFile(ItemPath itemPath, String path) {
+        return new File(getFilePath(itemPath, path) + PAYLOAD_EXTENSION);
+    }
+
+    private InputStream openPayload(File payload) throws PersistencyException {
+        try {
+            return new FileInputStream(payload);
+        }
+        catch (IOException e) {
+            throw new PersistencyException("XMLClusterStorage.openPayload() - Could not open " + payload + ": " + e.getMessage());
+        }
+    }
+
     @Override
     public void put(ItemPath itemPath, C2KLocalObject obj) throws PersistencyException {
+        writeDirect(createPutEntries(itemPath, obj, false));
+    }
+
+    @Override
+    public void put(ItemPath itemPath, C2KLocalObject obj, Object locker) throws PersistencyException {
+        if (locker == null) {
+            put(itemPath, obj);
+            return;
+        }
+
+        // marshall now, so that a broken object fails the caller instead of the commit
+        List<Entry> entries = createPutEntries(itemPath, obj, true);
+        journal.stage(locker, entries);
+    }
+
+    @Override
+    public void delete(ItemPath itemPath, String path) throws PersistencyException {
+        String relativePath = getRelativeFilePath(itemPath, path);
+        List<ReentrantLock> locks = lockItems(Collections.singletonList(relativePath));
+
         try {
-            String filePath = getFilePath(itemPath, getPath(obj) + fileExtension);
-            Logger.msg(7, "XMLClusterStorage.put() - Writing " + filePath);
-            String data = Gateway.getMarshaller().marshall(obj);
+            checkpointIfUnsynced(Collections.singletonList(relativePath));
+            deleteFile(relativePath, itemPath.toString(), path);
+            fileChanged(relativePath);
+        }
+        finally {
+            unlock(locks);
+        }
+    }
+
+    @Override
+    public void delete(ItemPath itemPath, String path, Object locker) throws PersistencyException {
+        if (locker == null) {
+            delete(itemPath, path);
+            return;
+        }
+
+        journal.stage(locker, Collections.singletonList(new Entry(getRelativeFilePath(itemPath, path), (byte[])null)));
+    }
+
+    @Override
+    public void begin(Object locker) {
+        if (locker != null) journal.begin(locker);
+    }
+
+    /**
+     * Makes the staged changes of the locker durable in a journal file, then applies them to the item files.
+     */
+    @Override
+    public void commit(Object locker) throws PersistencyException {
+        List<Entry> entries = journal.take(locker);
 
-            String dir = filePath.substring(0, filePath.lastIndexOf('/'));
+        if (entries == null || entries.isEmpty()) return;
 
-            if (!FileStringUtility.checkDir(dir)) {
-                boolean success = FileStringUtility.createNewDir(dir);
-                if (!success)
-                    throw new PersistencyException("XMLClusterStorage.put() - Could not create dir " + dir + ". Cannot continue.");
+        List<ReentrantLock> locks = lockItems(getFiles(entries));
+
+        try {
+            String txId = nextTxId();
+
+            Logger.msg(7, "XMLClusterStorage.commit() - tx:" + txId + " writing " + entries.size() + " entries");
+
+            Path journalFile = journal.write(txId, entries);
+            List<Undo> undo = null;
+
+            try {
+                undo = createUndo(entries, txId);
+                applyEntries(entries, txId);
             }
-            FileStringUtility.string2File(filePath, data);
+            catch (PersistencyException e) {
+                if (undo != null && rollback(undo)) {
+                    XMLClusterJournal.deleteSpoolFiles(entries);
+                    XMLClusterJournal.deleteQuietly(journalFile);
+                    throw new PersistencyException("XMLClusterStorage.commit() - tx:" + txId + " was rolled back: " + e.getMessage());
+                }
+                // the journal is left behind, it is replayed when the storage is opened again
+                throw new PersistencyException("XMLClusterStorage.commit() - tx:" + txId + " could not be rolled back: " + e.getMessage());
+            }
+            finally {
+                if (undo != null) for (Undo u : undo) if (u.copy != null) XMLClusterJournal.deleteQuietly(u.copy);
+            }
+
+            journalApplied(journalFile, entries);
         }
-        catch (Exception e) {
+        finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Syncs the files written by the journals applied since the last checkpoint, then removes those journals.
+     * Until then the journals are kept, so they are replayed if the system crashes before the files reach the disk.
+     * It is executed after every {@value #CHECKPOINT_PROPERTY} commits and when the storage is closed.
+     * 
+     * @throws PersistencyException the files could not be synced
+     */
+    public void checkpoint() throws PersistencyException {
+        if (journal != null) journal.checkpoint(this::syncFiles);
+    }
+
+    /**
+     * Syncs the files and their directories, the files are given without extension
+     */
+    private void syncFiles(Set<String> files) throws PersistencyException {
+        Set<Path> dirs = new HashSet<>();
+
+        try {
+            for (String file : files) {
+                for (String name : getFileNames(file)) {
+                    Path target = Paths.get(rootDir, name);
+
+                    if (Files.isRegularFile(target)) {
+                        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                            channel.force(true);
+                        }
+                    }
+                    dirs.add(target.getParent());
+                }
+            }
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            throw new PersistencyException("XMLClusterStorage.checkpoint() - Could not sync files: " + e.getMessage());
+        }
+
+        for (Path dir : dirs) XMLClusterJournal.syncDir(dir);
+    }
+
+    /**
+     * Records the applied journal, and executes the checkpoint if enough journals were collected
+     */
+    private void journalApplied(Path journalFile, List<Entry> entries) throws PersistencyException {
+        List<String> files = new ArrayList<>(entries.size());
+        for (Entry entry : entries) files.add(stripExtension(entry.file));
+
+        if (journal.applied(journalFile, files)) checkpoint();
+    }
+
+    /**
+     * A file written without journal would be overwritten by the replay of an older journal still kept,
+     * so these journals are checkpointed first. The caller holds the locks of the Items of the files.
+     */
+    private void checkpointIfUnsynced(List<String> files) throws PersistencyException {
+        for (String file : files) {
+            if (journal.isUnsynced(stripExtension(file))) {
+                checkpoint();
+                return;
+            }
+        }
+    }
+
+    private static int getCheckpointInterval() {
+        return Gateway.getProperties() != null ? Gateway.getProperties().getInt(CHECKPOINT_PROPERTY, 100) : 100;
+    }
+
+    private String stripExtension(String file) {
+        if (file.endsWith(PAYLOAD_EXTENSION)) return file.substring(0, file.length() - PAYLOAD_EXTENSION.length());
+
+        for (String ext : getDataExtensions()) {
+            if (ext.length() != 0 && file.endsWith(ext)) return file.substring(0, file.length() - ext.length());
+        }
+        return file;
+    }
+
+    /**
+     * Returns the extension of the files written for the cluster type, Outcomes are always XML
+     */
+    private String getExtension(ClusterType type) throws PersistencyException {
+        String codecExtension = getCodec().getFileExtension();
+
+        if (type == ClusterType.OUTCOME || XMLClusterCodec.FILE_EXTENSION.equals(codecExtension)) return fileExtension;
+        else                                                                                       return codecExtension;
+    }
+
+    /**
+     * Returns the extensions of the files the codecs may have written, the extension of the XML files first
+     */
+    private List<String> getDataExtensions() {
+        List<String> extensions = new ArrayList<>(3);
+        extensions.add(fileExtension);
+
+        for (String ext : new String[] {codec == null ? null : codec.getFileExtension(), BinaryClusterCodec.FILE_EXTENSION}) {
+            if (ext != null && !XMLClusterCodec.FILE_EXTENSION.equals(ext) && !extensions.contains(ext)) extensions.add(ext);
+        }
+        return extensions;
+    }
+
+    /**
+     * Returns the names of all files which may be stored for the file without extension
+     */
+    private List<String> getFileNames(String file) {
+        List<String> names = new ArrayList<>();
+        names.add(file);
+
+        for (String ext : getDataExtensions()) if (ext.length() != 0) names.add(file + ext);
+
+        names.add(file + PAYLOAD_EXTENSION);
+        return names;
+    }
+
+    /**
+     * Returns the existing files of the same object written with the extension of another codec
+     */
+    private List<Path> getStaleFiles(String file) {
+        List<Path> stale = new ArrayList<>();
+        if (file.endsWith(PAYLOAD_EXTENSION)) return stale;
+
+        String base = stripExtension(file);
+
+        for (String ext : getDataExtensions()) {
+            Path other = Paths.get(rootDir, base + ext);
+            if (!(base + ext).equals(file) && Files.isRegularFile(other)) stale.add(other);
+        }
+        return stale;
+    }
+
+    /**
+     * Returns the id of the next journal, see {@link XMLClusterJournal#nextTxId()}
+     */
+    protected String nextTxId() {
+        return journal.nextTxId();
+    }
+
+    /**
+     * Locks the Items of the given files in a fixed order, so concurrent commits of different Items do not wait
+     * for each other and commits of the same Items cannot deadlock. The Items are mapped to a fixed number of locks.
+     * 
+     * @param files paths relative to the root, starting with the UUID of the Item
+     * @return the locks to be released with {@link #unlock(List)}
+     */
+    private List<ReentrantLock> lockItems(List<String> files) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+
+        for (String file : files) {
+            int slash = file.indexOf('/');
+            String item = slash == -1 ? file : file.substring(0, slash);
+            stripes.add(Math.floorMod(item.hashCode(), LOCK_STRIPES));
+        }
+
+        List<ReentrantLock> locks = new ArrayList<>(stripes.size());
+        for (Integer stripe : stripes) {
+            itemLocks[stripe].lock();
+            locks.add(itemLocks[stripe]);
+        }
+        return locks;
+    }
+
+    private static void unlock(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) locks.get(i).unlock();
+    }
+
+    private static List<String> getFiles(List<Entry> entries) {
+        List<String> files = new ArrayList<>(entries.size());
+        for (Entry entry : entries) files.add(entry.file);
+        return files;
+    }
+
+    /**
+     * Keeps the current version of the files overwritten or deleted by the entries, so they can be restored
+     * if the transaction could not be applied completely. Hard links are used where supported to avoid copying.
+     * 
+     * @return the list of files to be restored, or null if a deleted directory makes the rollback impossible
+     */
+    private List<Undo> createUndo(List<Entry> entries, String txId) throws PersistencyException {
+        List<Undo> undo = new ArrayList<>();
+        Path journalDir = journal.getDir();
+
+        try {
+            for (Entry entry : entries) {
+                List<Path> targets = new ArrayList<>();
+
+                if (entry.isDelete()) {
+                    for (String name : getFileNames(entry.file)) targets.add(Paths.get(rootDir, name));
+                }
+                else {
+                    targets.add(Paths.get(rootDir, entry.file));
+                    targets.addAll(getStaleFiles(entry.file));
+                }
+
+                for (Path target : targets) {
+
+                    if (Files.isDirectory(target)) {
+                        if (entry.isDelete()) return null;
+                        continue;
+                    }
+
+                    Path copy = null;
+
+                    if (Files.exists(target)) {
+                        copy = journalDir.resolve(txId + "." + undo.size() + ".undo");
+                        try {
+                            Files.createLink(copy, target);
+                        }
+                        catch (UnsupportedOperationException | IOException e) {
+                            Files.copy(target, copy, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    }
+                    undo.add(new Undo(target, copy));
+                }
+            }
+            return undo;
+        }
+        catch (IOException e) {
             Logger.error(e);
-            throw new PersistencyException("XMLClusterStorage.put() - Could not write " + getPath(obj) + " to " + itemPath);
+            for (Undo u : undo) if (u.copy != null) XMLClusterJournal.deleteQuietly(u.copy);
+            throw new PersistencyException("XMLClusterStorage.createUndo() - tx:" + txId + " : " + e.getMessage());
         }
     }
 
+    /**
+     * Restores the files kept by {@link #createUndo(List, String)}
+     * 
+     * @return true if all files were restored
+     */
+    private boolean rollback(List<Undo> undo) {
+        boolean success = true;
+
+        for (int i = undo.size() - 1; i >= 0; i--) {
+            Undo u = undo.get(i);
+
+            try {
+                if (u.copy != null) XMLClusterJournal.moveAtomic(u.copy, u.target);
+                else                Files.deleteIfExists(u.target);
+
+                fileChanged(Paths.get(rootDir).relativize(u.target).toString().replace(File.separatorChar, '/'));
+            }
+            catch (IOException e) {
+                Logger.error("XMLClusterStorage.rollback() - Could not restore " + u.target + ": " + e.getMessage());
+                success = false;
+            }
+        }
+        return success;
+    }
+
     @Override
-    public void delete(ItemPath itemPath, String path) throws PersistencyException {
+    public void abort(Object locker) {
+        List<Entry> entries = journal.take(locker);
+
+        if (entries != null) XMLClusterJournal.deleteSpoolFiles(entries);
+    }
+
+    /**
+     * Returns the codec given in the constructor or configured by the {@value #CODEC_PROPERTY} property
+     */
+    public ClusterCodec getCodec() throws PersistencyException {
+        if (codec == null) codec = ClusterCodecs.getConfiguredCodec(CODEC_PROPERTY);
+
+        return codec;
+    }
+
+    /**
+     * Creates the entry writing the object. The data of an OutcomeAttachment is spooled into its own entry,
+     * which precedes the entry of the metadata.
+     * 
+     * @param sync the spooled data is synced only if it is referenced by a journal
+     */
+    private List<Entry> createPutEntries(ItemPath itemPath, C2KLocalObject obj, boolean sync) throws PersistencyException {
+        List<Entry> entries = new ArrayList<>(2);
+        String relativePath = getRelativeFilePath(itemPath, getPath(obj));
+
+        if (obj instanceof OutcomeAttachment) {
+            entries.add(new Entry(relativePath + PAYLOAD_EXTENSION, spoolPayload((OutcomeAttachment) obj, sync)));
+            obj = ((OutcomeAttachment) obj).copyMetadata();
+        }
+
         try {
-            String filePath = getFilePath(itemPath, path + fileExtension);
-            boolean success = FileStringUtility.deleteDir(filePath, true, true);
-            if (success) return;
+            // encode directly into the bytes of the entry instead of creating a String and copying it
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            getCodec().encode(obj, bytes);
 
-            filePath = getFilePath(itemPath, path);
-            success = FileStringUtility.deleteDir(filePath, true, true);
-            if (success) return;
+            entries.add(new Entry(relativePath + getExtension(obj.getClusterType()), bytes.toByteArray()));
+            return entries;
+        }
+        catch (Exception e) {
+            Logger.error(e);
+            XMLClusterJournal.deleteSpoolFiles(entries);
+            throw new PersistencyException("XMLClusterStorage.put() - Could not marshall " + getPath(obj) + " of " + itemPath);
+        }
+    }
+
+    /**
+     * Streams the data of the OutcomeAttachment into a new file of the journal directory
+     * 
+     * @param sync whether the file is synced to disk
+     * @return the path of the spool file
+     */
+    private Path spoolPayload(OutcomeAttachment attachment, boolean sync) throws PersistencyException {
+        Path spool = journal.newSpoolFile(PAYLOAD_EXTENSION);
+
+        try {
+            Files.createDirectories(spool.getParent());
+
+            try (InputStream in = attachment.openStream(); FileOutputStream out = new FileOutputStream(spool.toFile())) {
+                OutcomeAttachment.copy(in, out);
+                if (sync) out.getFD().sync();
+            }
+            return spool;
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            try { Files.deleteIfExists(spool); } catch (IOException e1) { Logger.error(e1); }
+            throw new PersistencyException("XMLClusterStorage.put() - Could not write the data of " + getPath(attachment) + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the entries to the item files. Every new content is written to a temporary file first, then all
+     * of them are moved to their final place, so readers never see partially written files.
+     */
+    protected void applyEntries(List<Entry> entries, String txId) throws PersistencyException {
+        Path journalDir = journal.getDir();
+        List<Path> tmpFiles = new ArrayList<>();
+
+        try {
+            Files.createDirectories(journalDir);
+
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                Path tmp = null;
+
+                if (entry.source != null) {
+                    // spooled files are not deleted on failure, the journal may need to be replayed
+                    tmp = entry.source;
+                }
+                else if (entry.data != null) {
+                    // not synced, the data is in the journal until the next checkpoint
+                    tmp = journalDir.resolve(txId + "." + i + ".data");
+                    Files.write(tmp, entry.data);
+                }
+                tmpFiles.add(tmp);
+            }
+
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+
+                if (entry.isDelete()) {
+                    deleteFile(entry.file, null, null);
+                }
+                else if (entry.source != null && !Files.exists(entry.source)) {
+                    Logger.msg(5, "XMLClusterStorage.applyEntries() - Spool file was already moved to " + entry.file);
+                }
+                else {
+                    Path target = Paths.get(rootDir, entry.file);
+                    Logger.msg(7, "XMLClusterStorage.applyEntries() - Writing " + target);
+
+                    Files.createDirectories(target.getParent());
+                    XMLClusterJournal.moveAtomic(tmpFiles.get(i), target);
+                    deleteStaleFiles(entry.file);
+                }
+                fileChanged(entry.file);
+            }
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            throw new PersistencyException("XMLClusterStorage.applyEntries() - Could not write tx:" + txId + " : " + e.getMessage());
+        }
+        finally {
+            for (int i = 0; i < tmpFiles.size(); i++) {
+                Path tmp = tmpFiles.get(i);
+                if (tmp == null || entries.get(i).source != null) continue;
+
+                try { Files.deleteIfExists(tmp); } catch (IOException e) { Logger.error(e); }
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of a put without locker directly to the item files, without journal and sync
+     */
+    private void writeDirect(List<Entry> entries) throws PersistencyException {
+        List<String> files = getFiles(entries);
+        List<ReentrantLock> locks = lockItems(files);
+
+        try {
+            checkpointIfUnsynced(files);
+
+            for (Entry entry : entries) {
+                Path target = Paths.get(rootDir, entry.file);
+                Logger.msg(7, "XMLClusterStorage.writeDirect() - Writing " + target);
+
+                Files.createDirectories(target.getParent());
+
+                if (entry.source != null) XMLClusterJournal.moveAtomic(entry.source, target);
+                else                      Files.write(target, entry.data);
+
+                deleteStaleFiles(entry.file);
+
+                fileChanged(entry.file);
+            }
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            XMLClusterJournal.deleteSpoolFiles(entries);
+            throw new PersistencyException("XMLClusterStorage.put() - Could not write " + files + " : " + e.getMessage());
+        }
+        finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Replays all completed journals left behind by an interrupted commit, and removes the incomplete ones
+     */
+    protected void replayJournals() throws PersistencyException {
+        for (Path file : journal.listForReplay()) {
+            String name = file.getFileName().toString();
+
+            try {
+                if (XMLClusterJournal.isJournal(file)) {
+                    String txId = XMLClusterJournal.getTxId(file);
+                    Logger.msg("XMLClusterStorage.replayJournals() - Replaying tx:" + txId);
+
+                    List<Entry> entries = journal.read(file);
+                    applyEntries(entries, txId);
+                    // removed by the checkpoint after the replayed files are synced
+                    journalApplied(file, entries);
+                }
+                else {
+                    Logger.warning("XMLClusterStorage.replayJournals() - Discarding incomplete transaction file:" + name);
+                    Files.deleteIfExists(file);
+                }
+            }
+            catch (IOException e) {
+                Logger.error(e);
+                throw new PersistencyException("XMLClusterStorage.replayJournals() - Could not replay " + file + ": " + e.getMessage());
+            }
+        }
+
+        checkpoint();
+    }
+
+    /**
+     * Deletes the files of the object written by another codec, which were replaced by the file of the current one
+     */
+    private void deleteStaleFiles(String file) throws IOException {
+        for (Path stale : getStaleFiles(file)) {
+            Logger.msg(7, "XMLClusterStorage.deleteStaleFiles() - Deleting " + stale);
+            Files.deleteIfExists(stale);
+        }
+    }
+
+    private void deleteFile(String relativePath, String itemPath, String path) throws PersistencyException {
+        try {
+            String filePath = rootDir + "/" + relativePath;
+            boolean deleted = false;
+
+            Files.deleteIfExists(Paths.get(filePath + PAYLOAD_EXTENSION));
+
+            for (String ext : getDataExtensions()) {
+                if (ext.length() != 0 && new File(filePath + ext).exists()) deleted |= FileStringUtility.deleteDir(filePath + ext, true, true);
+            }
+
+            if (deleted) return;
+            if (new File(filePath).exists() && FileStringUtility.deleteDir(filePath, true, true)) return;
         }
         catch (Exception e) {
             Logger.error(e);
             throw new PersistencyException(
                     "XMLClusterStorage.delete() - Failure deleting path " + path + " in " + itemPath + " Error: " + e.getMessage());
         }
-        throw new PersistencyException("XMLClusterStorage.delete() - Failure deleting path " + path + " in " + itemPath);
+
+        // replaying a journal may delete the same file twice
+        if (itemPath != null)
+            throw new PersistencyException("XMLClusterStorage.delete() - Failure deleting path " + path + " in " + itemPath);
     }
 
     @Override
@@ -205,6 +946,49 @@ public class XMLClusterStorage extends ClusterStorage {
         }
     }
 
+    /**
+     * Lists the directory of the path (or the files of the Item if the storage does not use directories) without
+     * reading the files. The result is cached by the ClusterStorageManager.
+     */
+    @Override
+    public int getLastIntegerId(ItemPath itemPath, String path) throws PersistencyException {
+        if (path.startsWith("/")) path = path.substring(1);
+        while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+
+        String item = itemPath.getUUID().toString();
+        String relativePath = getRelativeFilePath(itemPath, path);
+        List<ReentrantLock> locks = lockItems(Collections.singletonList(relativePath));
+
+        try {
+            int last = -1;
+            Path dir;
+            String prefix;
+
+            if (useDirectories) { dir = Paths.get(rootDir, relativePath); prefix = ""; }
+            else                { dir = Paths.get(rootDir, item);         prefix = getResourceName(path) + "."; }
+
+            if (Files.isDirectory(dir)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        if (!name.startsWith(prefix)) continue;
+
+                        int end = name.indexOf('.', prefix.length());
+                        last = Math.max(last, parseIntegerId(name, prefix.length(), end == -1 ? name.length() : end));
+                    }
+                }
+            }
+            return last;
+        }
+        catch (IOException e) {
+            Logger.error(e);
+            throw new PersistencyException("XMLClusterStorage.getLastIntegerId() - Could not list " + path + " of " + itemPath + ": " + e.getMessage());
+        }
+        finally {
+            unlock(locks);
+        }
+    }
+
     private String[] getContentsFromFileNames(ItemPath itemPath, String path) throws IOException {
         TreeSet<String> result = new TreeSet<>();
 
@@ -236,17 +1020,16 @@ public class XMLClusterStorage extends ClusterStorage {
         ArrayList<String> paths = FileStringUtility.listDir(filePath, true, false);
         if (paths == null) return result; // dir doesn't exist yet
 
-        ArrayList<String> contents = new ArrayList<String>();
-        String previous = null;
+        // avoid duplicates (xml and dir)
+        LinkedHashSet<String> contents = new LinkedHashSet<String>();
         for (int i = 0; i < paths.size(); i++) {
             String next = paths.get(i);
 
-            // trim off the extension (e.g '.xml') from the end if it's there
-            if (next.endsWith(fileExtension)) next = next.substring(0, next.length() - fileExtension.length());
+            // the data of attachments is not a content on its own
+            if (next.endsWith(PAYLOAD_EXTENSION)) continue;
 
-            // avoid duplicates (xml and dir)
-            if (next.equals(previous)) continue;
-            previous = next;
+            // trim off the extension (e.g '.xml') from the end if it's there
+            next = stripExtension(next);
 
             // only keep the last bit of the path
             if (next.indexOf('/') > -1) next = next.substring(next.lastIndexOf('/') + 1);
@@ -259,14 +1042,16 @@ public class XMLClusterStorage extends ClusterStorage {
     }
 
     protected String getFilePath(ItemPath itemPath, String path)  {
-        path = getResourceName(path);
-
-        String filePath = rootDir + "/" + itemPath.getUUID() + "/" + path;
+        String filePath = rootDir + "/" + getRelativeFilePath(itemPath, path);
         Logger.msg(8, "XMLClusterStorage.getFilePath() - " + filePath);
 
         return filePath;
     }
 
+    protected String getRelativeFilePath(ItemPath itemPath, String path)  {
+        return itemPath.getUUID() + "/" + getResourceName(path);
+    }
+
     protected String getResourceName(String path) {
         //remove leading '/' if exists
         if (path.length() != 0 && path.charAt(0) == '/') path = path.substring(1);
@@ -275,4 +1060,17 @@ public class XMLClusterStorage extends ClusterStorage {
 
         return path;
     }
+
+    /**
+     * The copy of a file to be restored by the rollback, or null copy if the file did not exist
+     */
+    private static class Undo {
+        final Path target;
+        final Path copy;
+
+        Undo(Path target, Path copy) {
+            this.target = target;
+            this.copy   = copy;
+        }
+    }
 }
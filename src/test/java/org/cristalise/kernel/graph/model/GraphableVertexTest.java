@@ -0,0 +1,163 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.graph.model;
+
+import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.NAME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.cristalise.kernel.lifecycle.instance.Activity;
+import org.cristalise.kernel.lifecycle.instance.CompositeActivity;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the child index used by {@link GraphableVertex#search(String)} follows the changes of the children
+ */
+public class GraphableVertexTest {
+
+    CompositeActivity root;
+    CompositeActivity comp;
+    Activity          act;
+
+    @Before
+    public void setup() {
+        root = new CompositeActivity();
+        root.setName("root");
+        comp = root.newCompChild("comp", true, null);
+        act  = comp.newAtomChild("act", true, null);
+    }
+
+    private static boolean indexValid(GraphableVertex v) {
+        return v.isChildIndexValid();
+    }
+
+    @Test
+    public void searchByNameAndId() {
+        assertSame(comp, root.search("root/comp"));
+        assertSame(act,  root.search("root/comp/act"));
+        assertSame(act,  root.search("root/" + comp.getID() + "/" + act.getID()));
+        assertNull(root.search("root/comp/missing"));
+    }
+
+    @Test
+    public void missKeepsTheIndex() {
+        assertSame(act, comp.search("comp/act"));
+        assertTrue(indexValid(comp));
+
+        assertNull(comp.search("comp/missing"));
+        assertTrue(indexValid(comp));
+    }
+
+    @Test
+    public void addChildUpdatesTheIndex() {
+        assertNull(root.search("root/comp/act2"));
+        assertTrue(indexValid(comp));
+
+        Activity act2 = comp.newAtomChild("act2", false, null);
+
+        assertFalse(indexValid(comp));
+        assertSame(act2, root.search("root/comp/act2"));
+        assertSame(act,  root.search("root/comp/act"));
+    }
+
+    @Test
+    public void removeChildUpdatesTheIndex() {
+        assertSame(act, root.search("root/comp/act"));
+
+        comp.getChildrenGraphModel().removeVertex(act);
+
+        assertFalse(indexValid(comp));
+        assertNull(root.search("root/comp/act"));
+        assertNull(root.search("root/comp/" + act.getID()));
+    }
+
+    @Test
+    public void renameUpdatesTheIndex() {
+        assertSame(act, root.search("root/comp/act"));
+
+        act.setName("renamed");
+
+        assertFalse(indexValid(comp));
+        assertNull(root.search("root/comp/act"));
+        assertSame(act, root.search("root/comp/renamed"));
+
+        act.setBuiltInProperty(NAME, "nameProp");
+
+        assertFalse(indexValid(comp));
+        assertSame(act, root.search("root/comp/nameProp"));
+        assertSame(act, root.search("root/comp/renamed"));
+    }
+
+    @Test
+    public void childrenListIsAnUnmodifiableSnapshot() {
+        List<GraphableVertex> children = comp.getChildrenList();
+
+        assertArrayEquals(comp.getChildren(), children.toArray());
+        assertArrayEquals(comp.getChildrenGraphModel().getEdges(), comp.getChildrenGraphModel().getEdgeList().toArray());
+        assertTrue(act.getChildrenList().isEmpty());
+
+        try {
+            children.remove(act);
+            fail("children list must be unmodifiable");
+        }
+        catch (UnsupportedOperationException e) {}
+
+        comp.newAtomChild("act2", false, null);
+
+        assertEquals(1, children.size());
+        assertEquals(2, comp.getChildrenList().size());
+    }
+
+    @Test
+    public void duplicateNamesReturnTheFirstChild() {
+        Activity act2 = comp.newAtomChild("act", false, null);
+
+        assertSame(act,  root.search("root/comp/act"));
+        assertSame(act2, root.search("root/comp/" + act2.getID()));
+
+        act2.setBuiltInProperty(NAME, "act");
+
+        assertSame(act, root.search("root/comp/act"));
+    }
+
+    @Test
+    public void propertyWritesUpdateTheIndex() {
+        act.setProperty(NAME.getName(), "nameProp", false);
+
+        assertFalse(indexValid(comp));
+        assertSame(act, root.search("root/comp/nameProp"));
+
+        // writing the map directly bypasses the invalidation, but a stale entry is not returned
+        act.getProperties().put(NAME.getName(), "other");
+
+        assertTrue(indexValid(comp));
+        assertNull(root.search("root/comp/nameProp"));
+        assertSame(act, root.search("root/comp/other"));
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.graph.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * IntKeyMap is package private, so this test is in the package of the class
+ */
+public class IntKeyMapTest {
+
+    /** capacity of a map created for few entries */
+    private static final int CAPACITY = 16;
+
+    /**
+     * Finds keys which are placed into the given slot when there is no collision
+     */
+    private static int[] keysOfSlot(int slot, int count, int from) {
+        int[] result = new int[count];
+        int n = 0;
+
+        for (int key = from; n < count; key++) {
+            if ((IntKeyMap.hash(key) & (CAPACITY - 1)) == slot) result[n++] = key;
+        }
+        return result;
+    }
+
+    @Test
+    public void removeShiftsCollidingKeysBack() {
+        int[] keys = keysOfSlot(3, 3, 0);
+        IntKeyMap<String> map = new IntKeyMap<>(1);
+
+        for (int key : keys) map.put(key, "v" + key);
+
+        assertEquals("v" + keys[0], map.remove(keys[0]));
+        assertNull(map.get(keys[0]));
+        assertEquals("v" + keys[1], map.get(keys[1]));
+        assertEquals("v" + keys[2], map.get(keys[2]));
+
+        assertEquals("v" + keys[2], map.remove(keys[2]));
+        assertEquals("v" + keys[1], map.get(keys[1]));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void removeShiftsKeysWrappedAroundTheEnd() {
+        // slots 15, 0, 1, 2: two keys of the last slot wrap around, mixed with a key of slot 0
+        int[] last  = keysOfSlot(CAPACITY - 1, 3, 0);
+        int[] first = keysOfSlot(0, 1, 0);
+        IntKeyMap<String> map = new IntKeyMap<>(1);
+
+        map.put(last[0],  "a");
+        map.put(last[1],  "b");
+        map.put(first[0], "c");
+        map.put(last[2],  "d");
+
+        // the key of slot 0 must not be moved before its home slot into slot 15
+        assertEquals("b", map.remove(last[1]));
+        assertEquals("a", map.get(last[0]));
+        assertEquals("c", map.get(first[0]));
+        assertEquals("d", map.get(last[2]));
+
+        // the wrapped key moves back over the end of the table into slot 15
+        assertEquals("a", map.remove(last[0]));
+        assertEquals("c", map.get(first[0]));
+        assertEquals("d", map.get(last[2]));
+        assertNull(map.get(last[0]));
+        assertNull(map.get(last[1]));
+        assertEquals(2, map.size());
+
+        assertArrayEquals(first[0] < last[2] ? new String[] {"c", "d"} : new String[] {"d", "c"}, map.values(String[]::new));
+    }
+
+    @Test
+    public void randomChangesMatchHashMap() {
+        Random random = new Random(42);
+        IntKeyMap<Integer> map = new IntKeyMap<>(1);
+        Map<Integer, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 20000; i++) {
+            // few keys in a small range, so many of them collide and the table grows and shrinks around them
+            int key = random.nextInt(64) - 32;
+
+            if (random.nextBoolean()) assertEquals(expected.put(key, i), map.put(key, i));
+            else                      assertEquals(expected.remove(key), map.remove(key));
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (int key = -32; key < 32; key++) assertEquals(expected.get(key), map.get(key));
+
+        assertArrayEquals(new TreeMap<>(expected).values().toArray(), map.values(Integer[]::new));
+    }
+
+    @Test
+    public void valuesAreReusedUntilModified() {
+        IntKeyMap<String> map = new IntKeyMap<>();
+        map.put(2, "b");
+        map.put(1, "a");
+
+        String[] values = map.values(String[]::new);
+        assertArrayEquals(new String[] {"a", "b"}, values);
+        assertSame(values, map.values(String[]::new));
+
+        map.put(3, "c");
+        assertArrayEquals(new String[] {"a", "b", "c"}, map.values(String[]::new));
+    }
+
+    @Test
+    public void graphModelReturnsCopies() {
+        GraphModel model = new GraphModel();
+        Vertex origin   = new Vertex();
+        Vertex terminus = new Vertex();
+
+        model.addVertexAndCreateId(origin, null);
+        model.addVertexAndCreateId(terminus, null);
+        model.addEdgeAndCreateId(new DirectedEdge() {}, origin, terminus);
+
+        Vertex[] vertices = model.getVertices();
+        vertices[0] = null;
+        DirectedEdge[] edges = model.getEdges();
+        edges[0] = null;
+
+        assertSame(origin, model.getVertices()[0]);
+        assertEquals(1, model.getEdges().length);
+        assertNotNull(model.getEdges()[0]);
+    }
+
+    @Test
+    public void valuesCanBeReadConcurrently() throws Exception {
+        IntKeyMap<Integer> map = new IntKeyMap<>();
+        for (int i = 0; i < 1000; i++) map.put(i, i);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        try {
+            for (int round = 0; round < 50; round++) {
+                map.remove(round);
+                map.put(round, round);
+
+                List<Callable<Integer[]>> readers = new ArrayList<>();
+                for (int i = 0; i < 8; i++) readers.add(() -> map.values(Integer[]::new));
+
+                for (Future<Integer[]> result : pool.invokeAll(readers)) {
+                    Integer[] values = result.get();
+
+                    assertEquals(1000, values.length);
+                    for (int i = 0; i < values.length; i++) assertEquals(Integer.valueOf(i), values[i]);
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.graph.traversal;
+
+import static org.cristalise.kernel.graph.traversal.GraphTraversal.kDown;
+import static org.cristalise.kernel.graph.traversal.GraphTraversal.kUp;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.cristalise.kernel.graph.model.DirectedEdge;
+import org.cristalise.kernel.graph.model.GraphModel;
+import org.cristalise.kernel.graph.model.Vertex;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the memoised traversals are reused until a vertex or an edge of the GraphModel is changed
+ */
+public class GraphTraversalTest {
+
+    GraphModel model;
+    Vertex a, b, c;
+    DirectedEdge ab, bc;
+
+    @Before
+    public void setup() {
+        model = new GraphModel();
+        a = addVertex();
+        b = addVertex();
+        c = addVertex();
+        ab = addEdge(a, b);
+        bc = addEdge(b, c);
+    }
+
+    private Vertex addVertex() {
+        Vertex v = new Vertex();
+        model.addVertexAndCreateId(v, null);
+        return v;
+    }
+
+    private DirectedEdge addEdge(Vertex origin, Vertex terminus) {
+        DirectedEdge e = new DirectedEdge() {};
+        model.addEdgeAndCreateId(e, origin, terminus);
+        return e;
+    }
+
+    @Test
+    public void unchangedModelReusesTheResult() {
+        Vertex[] down = GraphTraversal.getTraversal(model, a, kDown, false);
+
+        assertArrayEquals(new Vertex[] {a, b, c}, down);
+        assertSame(down, GraphTraversal.getTraversal(model, a, kDown, false));
+        assertArrayEquals(new Vertex[] {c, b, a}, GraphTraversal.getTraversal(model, c, kUp, false));
+    }
+
+    @Test
+    public void addingAnEdgeInvalidatesTheResult() {
+        Vertex[] before = GraphTraversal.getTraversal(model, b, kDown, false);
+        assertArrayEquals(new Vertex[] {b, c}, before);
+
+        Vertex d = addVertex();
+        assertArrayEquals(new Vertex[] {b, c}, GraphTraversal.getTraversal(model, b, kDown, false));
+
+        addEdge(c, d);
+        Vertex[] after = GraphTraversal.getTraversal(model, b, kDown, false);
+
+        assertNotSame(before, after);
+        assertArrayEquals(new Vertex[] {b, c, d}, after);
+        assertArrayEquals(new Vertex[] {d, c, b, a}, GraphTraversal.getTraversal(model, d, kUp, false));
+    }
+
+    @Test
+    public void removingAnEdgeInvalidatesTheResult() {
+        assertArrayEquals(new Vertex[] {a, b, c}, GraphTraversal.getTraversal(model, a, kDown, false));
+
+        model.removeEdge(bc);
+
+        assertArrayEquals(new Vertex[] {a, b}, GraphTraversal.getTraversal(model, a, kDown, false));
+        assertArrayEquals(new Vertex[] {c},    GraphTraversal.getTraversal(model, c, kUp,   false));
+    }
+
+    @Test
+    public void addingAVertexInvalidatesTheResult() {
+        Vertex[] before = GraphTraversal.getTraversal(model, a, kDown, false);
+
+        addVertex();
+        Vertex[] after = GraphTraversal.getTraversal(model, a, kDown, false);
+
+        assertNotSame(before, after);
+        assertArrayEquals(before, after);
+    }
+
+    @Test
+    public void removingAVertexInvalidatesTheResult() {
+        assertArrayEquals(new Vertex[] {a, b, c}, GraphTraversal.getTraversal(model, a, kDown, false));
+
+        model.removeVertex(b);
+
+        assertArrayEquals(new Vertex[] {a}, GraphTraversal.getTraversal(model, a, kDown, false));
+        assertArrayEquals(new Vertex[] {c}, GraphTraversal.getTraversal(model, c, kUp,   false));
+    }
+
+    @Test
+    public void replacedVertexWithTheSameIdIsTraversedAgain() {
+        assertArrayEquals(new Vertex[] {a, b, c}, GraphTraversal.getTraversal(model, a, kDown, false));
+
+        Vertex newA = new Vertex();
+        newA.setID(a.getID());
+        newA.addOutEdgeId(ab.getID());
+        model.setVertices(new Vertex[] {newA, b, c});
+
+        assertArrayEquals(new Vertex[] {newA, b, c}, GraphTraversal.getTraversal(model, newA, kDown, false));
+        assertArrayEquals(new Vertex[] {c, b, newA}, GraphTraversal.getTraversal(model, c, kUp, false));
+    }
+}
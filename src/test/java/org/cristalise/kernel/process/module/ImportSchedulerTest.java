@@ -0,0 +1,215 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.process.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.entity.imports.ImportAgent;
+import org.cristalise.kernel.entity.imports.ImportDependency;
+import org.cristalise.kernel.entity.imports.ImportDependencyMember;
+import org.cristalise.kernel.entity.imports.ImportItem;
+import org.cristalise.kernel.entity.imports.ImportRole;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * ImportScheduler is package private, so this test is in the package of the class
+ */
+public class ImportSchedulerTest {
+
+    /** Node names mapped to the names of the nodes they depend on */
+    Map<String, List<String>> graph  = new HashMap<>();
+    List<String>              events = new CopyOnWriteArrayList<>();
+
+    private void init(int threads) throws Exception {
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("Module.importThreads", String.valueOf(threads));
+        Gateway.init(props);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    private void node(String name, String... dependencies) {
+        graph.put(name, Arrays.asList(dependencies));
+    }
+
+    private void execute(List<String> nodes, ImportScheduler.ImportTask<String> task) throws Exception {
+        ImportScheduler.execute(nodes, Collections::singletonList, name -> (Collection<String>) graph.get(name), name -> {
+            events.add("start:" + name);
+            try {
+                task.run(name);
+            }
+            finally {
+                events.add("end:" + name);
+            }
+        });
+    }
+
+    private void assertBefore(String first, String second) {
+        assertTrue(first + " shall be before " + second + " in " + events, events.indexOf(first) < events.indexOf(second));
+    }
+
+    @Test
+    public void nodesWaitForTheirDependencies() throws Exception {
+        init(4);
+
+        node("c", "b");
+        node("b", "a", "external");
+        node("a");
+        node("d");
+
+        execute(Arrays.asList("c", "b", "a", "d"), name -> Thread.sleep(20));
+
+        assertEquals(8, events.size());
+        assertBefore("end:a", "start:b");
+        assertBefore("end:b", "start:c");
+    }
+
+    @Test
+    public void singleThreadKeepsTheOrderOfTheList() throws Exception {
+        init(1);
+
+        node("a");
+        node("b");
+        node("c", "a");
+
+        execute(Arrays.asList("c", "b", "a"), name -> {});
+
+        // c must wait for a, the others are started in the order of the list
+        assertEquals(Arrays.asList("start:b", "end:b", "start:a", "end:a", "start:c", "end:c"), events);
+    }
+
+    @Test
+    public void circularDependenciesAreReported() throws Exception {
+        init(2);
+
+        node("a", "c");
+        node("b", "a");
+        node("c", "b");
+        node("d");
+
+        try {
+            execute(Arrays.asList("a", "b", "c", "d"), name -> {});
+            fail("cycle shall be detected");
+        }
+        catch (ModuleException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("[a]"));
+        }
+
+        // the nodes outside of the cycle are imported
+        assertEquals(Arrays.asList("start:d", "end:d"), events);
+    }
+
+    @Test
+    public void failureWaitsForRunningNodesAndStartsNoNewOnes() throws Exception {
+        init(2);
+
+        node("fail");
+        node("slow");
+        node("dependant", "fail");
+        node("other", "slow");
+
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        Exception failure = new Exception("failed");
+
+        try {
+            execute(Arrays.asList("slow", "fail", "dependant", "other"), name -> {
+                if (name.equals("slow")) {
+                    slowStarted.countDown();
+                    Thread.sleep(200);
+                }
+                else if (name.equals("fail")) {
+                    // fail while the other node is running
+                    assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+                    throw failure;
+                }
+            });
+            fail("exception of the task shall be thrown");
+        }
+        catch (Exception e) {
+            assertEquals(failure, e);
+        }
+
+        // the running node has finished before the exception was thrown
+        assertTrue(events.toString(), events.contains("end:slow"));
+        assertFalse(events.contains("start:dependant"));
+        assertFalse(events.contains("start:other"));
+    }
+
+    private static ImportRole role(String name) {
+        ImportRole role = new ImportRole();
+        role.setName(name);
+        return role;
+    }
+
+    @Test
+    public void rolesAgentsAndItemsFollowTheirDependencies() throws Exception {
+        init(4);
+
+        ImportRole parent = role("Parent");
+        ImportRole child  = role("Parent/Child");
+
+        ImportAgent agent = new ImportAgent("agent", "pwd");
+        agent.getRoles().add(role("Parent/Child"));
+
+        ImportItem member = new ImportItem("test", "Member", "/desc/test", null, "NoWorkflow", 0);
+        ImportItem owner  = new ImportItem("test", "Owner",  "/desc/test", null, "NoWorkflow", 0);
+        ImportDependency dep = new ImportDependency("Members");
+        dep.dependencyMemberList.add(new ImportDependencyMember("/desc/test/Member"));
+        owner.getDependencyList().add(dep);
+
+        assertEquals(Arrays.asList("Role/Parent"), child.getImportDependencies());
+        assertEquals(Arrays.asList("/desc/test/Member"), member.getImportKeys());
+
+        List<ModuleImport> imports = Arrays.asList(agent, owner, child, member, parent);
+
+        ImportScheduler.execute(imports, ModuleImport::getImportKeys, ModuleImport::getImportDependencies, thisImport -> {
+            events.add("start:" + thisImport.getName());
+            Thread.sleep(20);
+            events.add("end:" + thisImport.getName());
+        });
+
+        assertEquals(10, events.size());
+        assertBefore("end:Parent",       "start:Parent/Child");
+        assertBefore("end:Parent/Child", "start:agent");
+        assertBefore("end:Member",       "start:Owner");
+    }
+}
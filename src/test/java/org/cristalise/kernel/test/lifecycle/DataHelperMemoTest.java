@@ -0,0 +1,105 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.cristalise.kernel.lifecycle.routingHelpers.DataHelperUtility;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.persistency.CountingStorage;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataHelperMemoTest {
+
+    CountingStorage    backend = new CountingStorage();
+    TransactionManager storage;
+    ItemPath           item    = new ItemPath(UUID.randomUUID(), "ior");
+
+    @Before
+    public void setup() throws Exception {
+        ArrayList<Object> stores = new ArrayList<>();
+        stores.add(backend);
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+        props.put("Storage.disableCache", "true");
+        Gateway.init(props);
+        Gateway.connect();
+
+        storage = Gateway.getStorage();
+        storage.put(item, new Property("Name", "First", false), null);
+        backend.reads = 0;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    private Object evaluate(Object locker) throws Exception {
+        return DataHelperUtility.evaluateValue(item, "property//Name", "workflow/domain", locker);
+    }
+
+    @Test
+    public void valueIsMemoisedUntilCommit() throws Exception {
+        Object locker = new Object();
+
+        assertEquals("First", evaluate(locker));
+        assertEquals("First", evaluate(locker));
+        assertEquals(1, backend.reads);
+
+        // the transaction modifies the Item, so the value is resolved again from its pending data
+        storage.put(item, new Property("Name", "Second", false), locker);
+        assertEquals("Second", evaluate(locker));
+        assertEquals("Second", evaluate(locker));
+        assertEquals(1, backend.reads);
+
+        storage.commit(locker);
+
+        Object next = new Object();
+        assertEquals("Second", evaluate(next));
+        assertEquals(2, backend.reads);
+
+        storage.abort(next);
+        assertEquals("Second", evaluate(next));
+        assertEquals(3, backend.reads);
+    }
+
+    @Test
+    public void valueIsNotMemoisedWithoutTransaction() throws Exception {
+        assertEquals("First", evaluate(null));
+        assertEquals("First", evaluate(null));
+        assertEquals(2, backend.reads);
+    }
+}
@@ -20,16 +20,25 @@
  */
 package org.cristalise.kernel.test.lifecycle;
 
+import static org.junit.Assert.assertEquals;
+
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.time.OffsetDateTime;
 import java.util.Properties;
 
 import javax.imageio.ImageIO;
 
+import org.cristalise.kernel.common.GTimeStamp;
+import org.cristalise.kernel.graph.layout.DefaultGraphLayoutGenerator;
+import org.cristalise.kernel.graph.model.GraphModel;
+import org.cristalise.kernel.graph.model.Vertex;
 import org.cristalise.kernel.lifecycle.CompositeActivityDef;
+import org.cristalise.kernel.lifecycle.instance.Activity;
 import org.cristalise.kernel.lifecycle.instance.Workflow;
 import org.cristalise.kernel.lifecycle.renderer.LifecycleRenderer;
 import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.utils.DateUtility;
 import org.cristalise.kernel.utils.FileStringUtility;
 import org.cristalise.kernel.utils.Logger;
 import org.jfree.graphics2d.svg.SVGGraphics2D;
@@ -88,4 +97,89 @@ public class LifecycleRendererTest {
 
         SVGUtils.writeToSVG(new File("target/workflow.svg"), svgG2D.getSVGElement());
     }
+
+    @Test
+    public void cachedLayoutAndRendering() throws Exception {
+        String wfXML = FileStringUtility.url2String(LifecycleRendererTest.class.getResource("/LifeCycle.workflow"));
+        int rounds = 20;
+
+        // each round lays out and renders a freshly unmarshalled Workflow like a reloaded Item would
+        long uncached = 0, cached = 0;
+        for (int i = 0; i < rounds; i++) {
+            DefaultGraphLayoutGenerator.clearCache();
+            LifecycleRenderer.clearCache();
+            uncached += render(loadDomainGraph(wfXML, null), null);
+        }
+        for (int i = 0; i < rounds; i++) {
+            cached += render(loadDomainGraph(wfXML, null), null);
+        }
+        Logger.msg("LifecycleRendererTest.cachedLayoutAndRendering() - uncached:%dus cached:%dus per render", uncached/rounds/1000, cached/rounds/1000);
+
+        // the cached layout and structure image give the same result as laying out and drawing from scratch
+        DefaultGraphLayoutGenerator.clearCache();
+        LifecycleRenderer.clearCache();
+
+        // the wait times drawn for the Activities are rounded to hours, so they are the same in both images
+        GTimeStamp stateDate = DateUtility.fromOffsetDateTime(OffsetDateTime.now().minusDays(10).minusMinutes(30));
+        long layoutHits = DefaultGraphLayoutGenerator.getCacheHits();
+        long imageHits  = LifecycleRenderer.getCacheHits();
+
+        GraphModel expected = loadDomainGraph(wfXML, stateDate);
+        BufferedImage[] expectedImg = new BufferedImage[1];
+        render(expected, expectedImg);
+
+        assertEquals(layoutHits, DefaultGraphLayoutGenerator.getCacheHits());
+        assertEquals(imageHits,  LifecycleRenderer.getCacheHits());
+
+        GraphModel actual = loadDomainGraph(wfXML, stateDate);
+        BufferedImage[] actualImg = new BufferedImage[1];
+        render(actual, actualImg);
+
+        assertEquals(layoutHits + 1, DefaultGraphLayoutGenerator.getCacheHits());
+        assertEquals(imageHits + 1,  LifecycleRenderer.getCacheHits());
+
+        for (Vertex v : expected.getVertices()) {
+            assertEquals(v.getCentrePoint(), actual.resolveVertex(v.getID()).getCentrePoint());
+        }
+
+        assertEquals(expectedImg[0].getWidth(),  actualImg[0].getWidth());
+        assertEquals(expectedImg[0].getHeight(), actualImg[0].getHeight());
+
+        int differentPixels = 0;
+        for (int x = 0; x < expectedImg[0].getWidth(); x++) {
+            for (int y = 0; y < expectedImg[0].getHeight(); y++) {
+                if (expectedImg[0].getRGB(x, y) != actualImg[0].getRGB(x, y)) differentPixels++;
+            }
+        }
+        assertEquals(0, differentPixels);
+    }
+
+    /**
+     * @param stateDate the state date to set on all Activities, or null to keep the ones of the Workflow
+     */
+    private static GraphModel loadDomainGraph(String wfXML, GTimeStamp stateDate) throws Exception {
+        Workflow wf = (Workflow) Gateway.getMarshaller().unmarshall(wfXML);
+        GraphModel graph = wf.search("workflow/domain").getChildrenGraphModel();
+
+        if (stateDate != null) {
+            for (Vertex v : graph.getVertexList()) {
+                if (v instanceof Activity) ((Activity) v).setStateDate(stateDate);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @return the nanoseconds spent laying out and rendering the graph
+     */
+    private static long render(GraphModel graph, BufferedImage[] result) throws Exception {
+        long start = System.nanoTime();
+
+        DefaultGraphLayoutGenerator.layoutGraph(graph);
+        BufferedImage img = new LifecycleRenderer(graph, false).getWorkFlowModelImage(500, 500);
+
+        long elapsed = System.nanoTime() - start;
+        if (result != null) result[0] = img;
+        return elapsed;
+    }
 }
@@ -0,0 +1,149 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.entity.ItemImplementation;
+import org.cristalise.kernel.entity.proxy.ItemProxy;
+import org.cristalise.kernel.events.Event;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkGetTest {
+
+    CountingStorage    backend = new CountingStorage();
+    TransactionManager storage;
+    ItemPath           item    = new ItemPath(UUID.randomUUID(), "ior");
+
+    @Before
+    public void setup() throws Exception {
+        ArrayList<Object> stores = new ArrayList<>();
+        stores.add(backend);
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+        Gateway.init(props);
+        Gateway.connect();
+
+        storage = Gateway.getStorage();
+        storage.put(item, new Property("Name", "Bulk", false), null);
+        storage.put(item, new Property("Type", "Test", false), null);
+        storage.clearCache(item, null);
+        backend.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    @Test
+    public void getAllReadsMissingObjectsTogether() throws Exception {
+        List<C2KLocalObject> result = storage.getAll(item, Arrays.asList("Property/Name", "Property/Missing", "Property/Type"), null);
+
+        assertEquals(3, result.size());
+        assertEquals("Bulk", ((Property) result.get(0)).getValue());
+        assertNull(result.get(1));
+        assertEquals("Test", ((Property) result.get(2)).getValue());
+        assertEquals(1, backend.bulkReads);
+
+        // all of them are cached now
+        storage.getAll(item, Arrays.asList("Property/Name", "Property/Type"), null);
+        assertEquals(1, backend.bulkReads);
+    }
+
+    @Test
+    public void getAllReturnsUncommittedObjectsOfTheLocker() throws Exception {
+        Object locker = new Object();
+        storage.put(item, new Property("Name", "Changed", false), locker);
+
+        assertEquals("Changed", ((Property) storage.getAll(item, Arrays.asList("Property/Name"), locker).get(0)).getValue());
+        assertEquals("Bulk",    ((Property) storage.getAll(item, Arrays.asList("Property/Name"), null).get(0)).getValue());
+
+        storage.remove(item, "Property/Type", locker);
+
+        try {
+            storage.getAll(item, Arrays.asList("Property/Type"), locker);
+            throw new AssertionError("removed object shall not be returned");
+        }
+        catch (PersistencyException e) {
+            // expected
+        }
+        finally {
+            storage.abort(locker);
+        }
+    }
+
+    @Test
+    public void queryDataListMarshallsEachPath() throws Exception {
+        ItemImplementation impl = new ItemImplementation(item) {};
+
+        String[] result = impl.queryDataList(new String[] {"Property/Name", "Property/Missing"});
+
+        assertEquals(2, result.length);
+        assertTrue(result[0].contains("Bulk"));
+        assertEquals("", result[1]);
+        assertEquals(1, backend.bulkReads);
+    }
+
+    @Test
+    public void getEventsIsPaged() throws Exception {
+        int count = ItemProxy.EVENT_PAGE_SIZE * 2 + 10;
+
+        for (int i = 0; i < count; i++) {
+            Event event = new Event();
+            event.setID(i);
+            event.setItemPath(item);
+            event.setStepName("Step" + i);
+            storage.put(item, event, null);
+        }
+        storage.clearCache(item, null);
+        backend.reset();
+
+        ItemProxy proxy = new ItemProxy(null, item) {};
+        List<Event> events = proxy.getEvents(0, count + 5);
+
+        assertEquals(count, events.size());
+        assertEquals("Step0", events.get(0).getStepName());
+        assertEquals("Step" + (count - 1), events.get(count - 1).getStepName());
+        assertEquals(3, backend.bulkReads);
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.lifecycle.instance.predefined.server.BulkImport;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.persistency.outcome.Viewpoint;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.kernel.utils.Logger;
+import org.cristalise.storage.XMLClusterStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkImportTest {
+    static final int ITEMS = 150;
+
+    String             exportDir;
+    XMLClusterStorage  exportStorage;
+    XMLClusterStorage  targetStorage;
+    TransactionManager storage;
+
+    List<ItemPath> items = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        targetStorage = new XMLClusterStorage(Files.createTempDirectory("bulktarget").toString());
+
+        ArrayList<ClusterStorage> stores = new ArrayList<>();
+        stores.add(targetStorage);
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put(BulkImport.BULK_IMPORT_THREADS,    "4");
+        props.put(BulkImport.BULK_IMPORT_CHUNK_SIZE, "10");
+        Gateway.init(props);
+
+        storage = new TransactionManager(null);
+
+        exportDir     = Files.createTempDirectory("bulkexport").toString();
+        exportStorage = new XMLClusterStorage(exportDir, "", false);
+        exportStorage.open(null);
+
+        for (int i = 0; i < ITEMS; i++) {
+            ItemPath item = new ItemPath();
+            items.add(item);
+
+            exportStorage.put(item, new Property("Name", "Item" + i, false));
+            exportStorage.put(item, new Property("Type", "Bulk",     false));
+            exportStorage.put(item, new Viewpoint(item, "Data", "last", 0, i));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storage.close();
+        exportStorage.close();
+        Gateway.close();
+    }
+
+    private void checkAbsent(ItemPath item) throws Exception {
+        assertEquals(0, targetStorage.getClusterContents(item, "").length);
+    }
+
+    private void checkItem(ItemPath item, int i) throws Exception {
+        assertEquals("Item" + i, ((Property) targetStorage.get(item, "Property/Name")).getValue());
+        assertEquals("Bulk",     ((Property) targetStorage.get(item, "Property/Type")).getValue());
+        assertEquals(i,          ((Viewpoint) targetStorage.get(item, "ViewPoint/Data/last")).getEventId());
+    }
+
+    @Test
+    public void importAndResume() throws Exception {
+        ItemPath broken = items.get(ITEMS / 2);
+        Path brokenFile = Paths.get(exportDir, broken.getUUID().toString(), "Property.Name");
+        Path progressFile = Paths.get(exportDir, "bulkimport.progress");
+
+        Files.write(brokenFile, "<Property><broken".getBytes());
+
+        try {
+            new BulkImport(exportDir, "", false, storage).importAllClusters();
+            fail("Import of broken item shall fail");
+        }
+        catch (PersistencyException e) {}
+
+        assertTrue(Files.exists(progressFile));
+
+        // the items committed before the failure are complete
+        Set<String> done = new HashSet<>(Files.readAllLines(progressFile));
+        assertFalse(done.contains(broken.getUUID().toString()));
+
+        // the items of the uncommitted chunks are not stored, and their transactions were aborted
+        for (int i = 0; i < ITEMS; i++) {
+            if (done.contains(items.get(i).getUUID().toString())) checkItem(items.get(i), i);
+            else                                                  checkAbsent(items.get(i));
+        }
+        assertFalse(storage.hasPendingTransactions());
+
+        // fix the export and resume
+        exportStorage.put(broken, new Property("Name", "Item" + (ITEMS / 2), false));
+
+        long start = System.currentTimeMillis();
+        long count = new BulkImport(exportDir, "", false, storage).importAllClusters();
+
+        Logger.msg("BulkImportTest - resumed import of " + count + " items in " + (System.currentTimeMillis() - start) + "ms");
+
+        assertEquals(ITEMS - done.size(), count);
+        assertFalse(Files.exists(progressFile));
+
+        for (int i = 0; i < ITEMS; i++) checkItem(items.get(i), i);
+
+        assertEquals(2, targetStorage.getClusterContents(broken, "Property").length);
+    }
+
+    @Test
+    public void interruptedImportAbortsUncommittedChunks() throws Exception {
+        Gateway.getProperties().put(BulkImport.BULK_IMPORT_THREADS, "1");
+
+        Path progressFile = Paths.get(exportDir, "bulkimport.progress");
+        Thread importer = Thread.currentThread();
+        AtomicInteger count = new AtomicInteger();
+
+        // interrupts the importing thread in the middle of the second chunk, then waits for the interrupt of the worker
+        BulkImport bulkImport = new BulkImport(exportDir, "", false, storage) {
+            @Override
+            public void importItem(ItemPath item, Object locker) throws PersistencyException {
+                super.importItem(item, locker);
+
+                if (count.incrementAndGet() == 15) {
+                    importer.interrupt();
+                    try {
+                        new CountDownLatch(1).await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+
+        try {
+            bulkImport.importAllClusters();
+            fail("Interrupted import shall fail");
+        }
+        catch (PersistencyException e) {}
+
+        assertTrue("interrupt status shall be kept", Thread.interrupted());
+        assertFalse(storage.hasPendingTransactions());
+
+        Set<String> done = new HashSet<>(Files.readAllLines(progressFile));
+        assertEquals(10, done.size());
+
+        for (int i = 0; i < ITEMS; i++) {
+            if (done.contains(items.get(i).getUUID().toString())) checkItem(items.get(i), i);
+            else                                                  checkAbsent(items.get(i));
+        }
+
+        // resume
+        assertEquals(ITEMS - 10, new BulkImport(exportDir, "", false, storage).importAllClusters());
+        assertFalse(storage.hasPendingTransactions());
+
+        for (int i = 0; i < ITEMS; i++) checkItem(items.get(i), i);
+    }
+}
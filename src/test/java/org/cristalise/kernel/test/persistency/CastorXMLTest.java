@@ -24,11 +24,16 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.STATE_MACHINE_NAME;
 import static org.cristalise.kernel.graph.model.BuiltInVertexProperties.STATE_MACHINE_VERSION;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
 import static org.unitils.reflectionassert.ReflectionComparatorMode.LENIENT_ORDER;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Properties;
 import java.util.UUID;
@@ -253,4 +258,27 @@ public class CastorXMLTest {
 
         assertReflectionEquals(pdl, pdlPrime, LENIENT_ORDER);
     }
+
+    @Test
+    public void testStreamMarshalling() throws Exception {
+        CastorXMLUtility marshaller = Gateway.getMarshaller();
+
+        PropertyDescriptionList pdl = new PropertyDescriptionList();
+        pdl.list.add(new PropertyDescription("Name", "Ünïcödé", false, true, false));
+        pdl.list.add(new PropertyDescription("Type", "Item", true, false, true));
+
+        StringWriter writer = new StringWriter();
+        marshaller.marshall(pdl, writer);
+        assertEquals(marshaller.marshall(pdl), writer.toString());
+        assertReflectionEquals(pdl, marshaller.unmarshall(new StringReader(writer.toString())), LENIENT_ORDER);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshaller.marshall(pdl, out);
+        assertReflectionEquals(pdl, marshaller.unmarshall(new ByteArrayInputStream(out.toByteArray())), LENIENT_ORDER);
+
+        out.reset();
+        marshaller.marshall(null, out);
+        assertNull(marshaller.unmarshall(new ByteArrayInputStream(out.toByteArray())));
+        assertNull(marshaller.unmarshall(new StringReader(marshaller.marshall(null))));
+    }
 }
@@ -0,0 +1,162 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.cristalise.kernel.persistency.ClusterType.PROPERTY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.cristalise.kernel.collection.Dependency;
+import org.cristalise.kernel.common.GTimeStamp;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.events.Event;
+import org.cristalise.kernel.lookup.AgentPath;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.codec.BinaryClusterCodec;
+import org.cristalise.kernel.persistency.codec.ClusterCodec;
+import org.cristalise.kernel.persistency.codec.ClusterCodecs;
+import org.cristalise.kernel.persistency.codec.XMLClusterCodec;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.CastorXMLUtility;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.XMLClusterStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterCodecTest {
+
+    ItemPath itemPath = new ItemPath();
+
+    @Before
+    public void setup() throws Exception {
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        Gateway.init(props);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    private List<C2KLocalObject> createObjects() throws Exception {
+        Dependency dependency = new Dependency("Codec");
+        for (int i = 0; i < 10; i++) dependency.addMember(new ItemPath());
+
+        Event event = new Event(1, itemPath, new AgentPath(new ItemPath(), "codec"), null, "Admin", "Step", "workflow/domain/Step", 
+                "Type", "Default", 0, 2, 0, 1, "Schema", 0, "last", new GTimeStamp());
+
+        C2KLocalObject workflow = (C2KLocalObject) Gateway.getMarshaller().unmarshall(
+                FileStringUtility.url2String(ClusterCodecTest.class.getResource("/LifeCycle.workflow")));
+
+        return Arrays.asList(new Property("Name", "<Codec> & \"test\"", false), dependency, event, workflow);
+    }
+
+    @Test
+    public void binaryCodecRoundTrip() throws Exception {
+        CastorXMLUtility marshaller = Gateway.getMarshaller();
+        ClusterCodec binary = new BinaryClusterCodec();
+
+        for (C2KLocalObject obj : createObjects()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            binary.encode(obj, out);
+
+            String xml = marshaller.marshall(obj);
+            assertTrue(obj.getClusterType() + " is not smaller", out.size() < xml.length());
+
+            C2KLocalObject decoded = ClusterCodecs.decode(new ByteArrayInputStream(out.toByteArray()), new XMLClusterCodec());
+            assertEquals(xml, marshaller.marshall(decoded));
+        }
+    }
+
+    @Test
+    public void xmlStorageReadsMixedCodecs() throws Exception {
+        String root = Files.createTempDirectory("codecstorage").toString();
+
+        XMLClusterStorage binaryStorage = new XMLClusterStorage(root, null, null, new BinaryClusterCodec());
+        binaryStorage.open(null);
+        binaryStorage.put(itemPath, new Property("Name", "binary", false));
+
+        Path propDir = Paths.get(root, itemPath.getUUID().toString(), PROPERTY.getName());
+        byte[] data = Files.readAllBytes(propDir.resolve("Name" + BinaryClusterCodec.FILE_EXTENSION));
+        assertEquals(0, data[0]);
+        assertFalse(Files.exists(propDir.resolve("Name.xml")));
+
+        XMLClusterStorage xmlStorage = new XMLClusterStorage(root);
+        xmlStorage.open(null);
+        xmlStorage.put(itemPath, new Property("Type", "xml", false));
+
+        assertEquals(ClusterCodecs.XML,    xmlStorage.getCodec().getName());
+        assertEquals("binary", ((Property) xmlStorage.get(itemPath, PROPERTY+"/Name")).getValue());
+        assertEquals("xml",    ((Property) binaryStorage.get(itemPath, PROPERTY+"/Type")).getValue());
+        assertTrue(Files.exists(propDir.resolve("Type.xml")));
+
+        // writing the object again replaces the file of the other codec
+        xmlStorage.put(itemPath, new Property("Name", "xml", false));
+
+        assertTrue(Files.exists(propDir.resolve("Name.xml")));
+        assertFalse(Files.exists(propDir.resolve("Name" + BinaryClusterCodec.FILE_EXTENSION)));
+        assertEquals(2, binaryStorage.getClusterContents(itemPath, PROPERTY).length);
+        assertEquals("xml", ((Property) binaryStorage.get(itemPath, PROPERTY+"/Name")).getValue());
+
+        binaryStorage.delete(itemPath, PROPERTY+"/Name");
+        assertArrayEquals(new String[] {"Type"}, xmlStorage.getClusterContents(itemPath, PROPERTY));
+
+        binaryStorage.close();
+        xmlStorage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void memoryStorageWithCodecStoresCopies() throws Exception {
+        Property prop = new Property("Name", "memory", false);
+
+        MemoryOnlyClusterStorage plain = new MemoryOnlyClusterStorage();
+        plain.open(null);
+        plain.put(itemPath, prop);
+        assertSame(prop, plain.get(itemPath, PROPERTY+"/Name"));
+
+        MemoryOnlyClusterStorage encoded = new MemoryOnlyClusterStorage(new BinaryClusterCodec());
+        encoded.open(null);
+        encoded.put(itemPath, prop);
+
+        Property decoded = (Property) encoded.get(itemPath, PROPERTY+"/Name");
+        assertNotSame(prop, decoded);
+        assertEquals("memory", decoded.getValue());
+        assertEquals(1, encoded.getClusterContents(itemPath, PROPERTY).length);
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.cristalise.kernel.common.SystemKey;
+import org.cristalise.kernel.entity.ItemImplementation;
+import org.cristalise.kernel.lifecycle.instance.Activity;
+import org.cristalise.kernel.lifecycle.instance.CompositeActivity;
+import org.cristalise.kernel.lifecycle.instance.Workflow;
+import org.cristalise.kernel.lifecycle.instance.predefined.item.ItemPredefinedStepContainer;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.persistency.ClusterStorageManager;
+import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.After;
+import org.junit.Test;
+
+public class ClusterContentsCacheTest {
+
+    CountingStorage    backend = new CountingStorage();
+    TransactionManager storage;
+    ItemPath           item    = new ItemPath();
+
+    private void init(boolean disableCache) throws Exception {
+        init(disableCache, 1000);
+    }
+
+    private void init(boolean disableCache, int cacheSize) throws Exception {
+        ArrayList<ClusterStorage> stores = new ArrayList<>();
+        stores.add(backend);
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Storage.disableCache", Boolean.toString(disableCache));
+        props.put(ClusterStorageManager.CONTENTS_CACHE_SIZE_PROPERTY, cacheSize);
+        props.put("Lookup", new MemoryOnlyLookup());
+        Gateway.init(props);
+        Gateway.connect();
+
+        storage = Gateway.getStorage();
+
+        storage.put(item, new Property("Name", "Test", false), null);
+        storage.put(item, new Property("Type", "Cache", false), null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    /**
+     * Domain workflow counting the walks collecting the activities providing jobs
+     */
+    static class CountingDomain extends CompositeActivity {
+        int walks = 0;
+
+        @Override
+        public void collectJobActivities(List<Activity> activities, boolean includeInactive) {
+            walks++;
+            super.collectJobActivities(activities, includeInactive);
+        }
+    }
+
+    @Test
+    public void jobActivitiesAreReusedUntilLifeCycleChanges() throws Exception {
+        init(false);
+
+        CountingDomain domain = new CountingDomain();
+        Workflow wf = new Workflow(domain, new ItemPredefinedStepContainer());
+        storage.put(item, wf, null);
+
+        ItemImplementation impl = new ItemImplementation(item) {};
+        SystemKey agent = new SystemKey(0, 1);
+
+        impl.queryLifeCycle(agent, true);
+        impl.queryLifeCycle(agent, true);
+        assertEquals(1, domain.walks);
+
+        // the unfiltered activities are cached separately
+        impl.queryLifeCycle(agent, false);
+        impl.queryLifeCycle(agent, false);
+        assertEquals(2, domain.walks);
+
+        // changes outside of the LifeCycle keep the cached activities
+        storage.put(item, new Property("State", "New", false), null);
+        storage.clearCache(item, "Property/State");
+        impl.queryLifeCycle(agent, true);
+        assertEquals(2, domain.walks);
+
+        // storing the Workflow changes the LifeCycle version
+        storage.put(item, wf, null);
+        impl.queryLifeCycle(agent, true);
+        impl.queryLifeCycle(agent, true);
+        assertEquals(3, domain.walks);
+
+        // a change reported by the proxy notification, e.g. made by another process
+        storage.clearCache(item, ClusterType.LIFECYCLE + "/workflow");
+        impl.queryLifeCycle(agent, true);
+        assertEquals(4, domain.walks);
+
+        // a transaction changing the Workflow
+        Object locker = new Object();
+        storage.put(item, wf, locker);
+        storage.commit(locker);
+        impl.queryLifeCycle(agent, false);
+        assertEquals(5, domain.walks);
+    }
+
+    @Test
+    public void listingIsCachedUntilChanged() throws Exception {
+        init(false);
+
+        assertArrayEquals(new String[] {"Name", "Type"}, sorted(storage.getClusterContents(item, "Property")));
+        assertArrayEquals(new String[] {"Name", "Type"}, sorted(storage.getClusterContents(item, "/Property")));
+        assertEquals(1, backend.listings);
+
+        storage.put(item, new Property("State", "New", false), null);
+        assertArrayEquals(new String[] {"Name", "State", "Type"}, sorted(storage.getClusterContents(item, "Property")));
+        assertEquals(2, backend.listings);
+
+        storage.remove(item, "Property/Type", null);
+        assertArrayEquals(new String[] {"Name", "State"}, sorted(storage.getClusterContents(item, "Property")));
+        assertEquals(3, backend.listings);
+
+        // a change made by another process is reported by the proxy notification
+        backend.put(item, new Property("Other", "Process", false));
+        assertEquals(2, storage.getClusterContents(item, "Property").length);
+        storage.clearCache(item, "Property/Other");
+        assertArrayEquals(new String[] {"Name", "Other", "State"}, sorted(storage.getClusterContents(item, "Property")));
+        assertEquals(4, backend.listings);
+    }
+
+    @Test
+    public void listingIsNotCachedWhenDisabled() throws Exception {
+        init(true);
+
+        storage.getClusterContents(item, "Property");
+        storage.getClusterContents(item, "Property");
+        assertEquals(2, backend.listings);
+    }
+
+    @Test
+    public void leastRecentlyUsedListingsAreEvicted() throws Exception {
+        init(false, 2);
+
+        ItemPath second = new ItemPath();
+        ItemPath third  = new ItemPath();
+        storage.put(second, new Property("Name", "Second", false), null);
+        storage.put(third,  new Property("Name", "Third",  false), null);
+
+        storage.getClusterContents(item,   "Property");
+        storage.getClusterContents(second, "Property");
+        storage.getClusterContents(item,   "Property");
+        assertEquals(2, backend.listings);
+
+        // the listing of 'second' is the least recently used, it is evicted
+        storage.getClusterContents(third, "Property");
+        assertEquals(3, backend.listings);
+
+        storage.getClusterContents(item, "Property");
+        assertEquals(3, backend.listings);
+
+        storage.getClusterContents(second, "Property");
+        assertEquals(4, backend.listings);
+    }
+
+    @Test
+    public void lifeCycleVersionOnlyChangesWithLifeCycle() throws Exception {
+        init(false);
+
+        long version = storage.getLifeCycleVersion(item);
+
+        storage.put(item, new Property("State", "New", false), null);
+        storage.clearCache(item, "Property/State");
+        assertEquals(version, storage.getLifeCycleVersion(item));
+
+        storage.clearCache(item, "LifeCycle/workflow");
+        long changed = storage.getLifeCycleVersion(item);
+        assertNotEquals(version, changed);
+
+        storage.remove(item, "LifeCycle/workflow", null);
+        assertNotEquals(changed, storage.getLifeCycleVersion(item));
+
+        changed = storage.getLifeCycleVersion(item);
+        storage.clearCache(null, null);
+        assertNotEquals(changed, storage.getLifeCycleVersion(item));
+    }
+
+    private static String[] sorted(String[] contents) {
+        Arrays.sort(contents);
+        return contents;
+    }
+}
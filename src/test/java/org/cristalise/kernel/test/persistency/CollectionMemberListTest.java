@@ -0,0 +1,205 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.cristalise.kernel.collection.CollectionMember;
+import org.cristalise.kernel.collection.CollectionMemberList;
+import org.cristalise.kernel.collection.Dependency;
+import org.cristalise.kernel.collection.DependencyMember;
+import org.cristalise.kernel.common.ObjectNotFoundException;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CollectionMemberListTest {
+
+    ItemPath[] items = new ItemPath[4];
+
+    @Before
+    public void setup() throws Exception {
+        Gateway.init(FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath()));
+
+        for (int i = 0; i < items.length; i++) items[i] = new ItemPath(UUID.randomUUID(), null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    private static DependencyMember member(int id, ItemPath item) throws Exception {
+        DependencyMember member = new DependencyMember();
+        member.setID(id);
+        if (item != null) member.setChildUUID(item.getUUID().toString());
+        return member;
+    }
+
+    @Test
+    public void addRemoveSetAndClearMaintainTheIndexes() throws Exception {
+        CollectionMemberList<DependencyMember> list = new CollectionMemberList<>();
+        // builds the indexes of the empty list, the changes below are applied to them in place
+        assertEquals(-1, list.getHighestId());
+
+        DependencyMember m0 = member(0, items[0]);
+        DependencyMember m1 = member(1, items[1]);
+        DependencyMember m2 = member(2, items[2]);
+
+        list.list.add(m0);
+        list.list.add(m2);
+        list.list.add(1, m1);
+
+        assertSame(m1, list.getMember(1));
+        assertTrue(list.contains(items[1]));
+        assertEquals(2, list.getHighestId());
+
+        assertTrue(list.list.remove(m1));
+        assertNull(list.getMember(1));
+        assertFalse(list.contains(items[1]));
+
+        DependencyMember m3 = member(5, items[3]);
+        assertSame(m0, list.list.set(0, m3));
+        assertNull(list.getMember(0));
+        assertFalse(list.contains(items[0]));
+        assertSame(m3, list.getMember(5));
+        assertEquals(Collections.singletonList(m3), list.getMembers(items[3]));
+        assertEquals(5, list.getHighestId());
+
+        list.list.clear();
+        assertNull(list.getMember(5));
+        assertFalse(list.contains(items[3]));
+        assertTrue(list.getMembers(items[2]).isEmpty());
+
+        // other modifications are detected and the indexes are rebuilt
+        list.list.addAll(Arrays.asList(m0, m1));
+        assertSame(m1, list.getMember(1));
+        assertTrue(list.contains(items[0]));
+    }
+
+    @Test
+    public void firstMemberWinsWithDuplicatedIds() throws Exception {
+        CollectionMemberList<DependencyMember> list = new CollectionMemberList<>();
+        DependencyMember first  = member(1, items[0]);
+        DependencyMember second = member(1, items[1]);
+
+        list.list.add(first);
+        list.list.add(second);
+
+        assertSame(first, list.getMember(1));
+
+        // the other member with the same ID becomes visible
+        list.list.remove(first);
+        assertSame(second, list.getMember(1));
+        assertFalse(list.contains(items[0]));
+        assertTrue(list.contains(items[1]));
+    }
+
+    @Test
+    public void membersReindexThemselvesWhenChanged() throws Exception {
+        CollectionMemberList<DependencyMember> list = new CollectionMemberList<>();
+        DependencyMember member = member(1, items[0]);
+        list.list.add(member);
+
+        assertTrue(list.contains(items[0]));
+
+        member.setChildUUID(items[1].getUUID().toString());
+        assertFalse(list.contains(items[0]));
+        assertEquals(Collections.singletonList(member), list.getMembers(items[1]));
+
+        member.setID(7);
+        assertNull(list.getMember(1));
+        assertSame(member, list.getMember(7));
+
+        member.clearItem();
+        assertFalse(list.contains(items[1]));
+        assertTrue(list.contains(null));
+
+        // a member removed from the list does not change its indexes anymore
+        list.list.remove(member);
+        member.setID(9);
+        member.setChildUUID(items[2].getUUID().toString());
+        assertNull(list.getMember(9));
+        assertFalse(list.contains(items[2]));
+    }
+
+    @Test
+    public void unmarshalledMembersAreIndexed() throws Exception {
+        Dependency dep = new Dependency("Test");
+        dep.addMember(member(0, items[0]));
+        dep.addMember(member(1, items[1]));
+
+        Dependency copy = (Dependency) Gateway.getMarshaller().unmarshall(Gateway.getMarshaller().marshall(dep));
+
+        assertEquals(2, copy.size());
+        assertEquals(items[1], copy.getMember(1).getItemPath());
+        assertTrue(copy.contains(items[0]));
+        assertFalse(copy.contains(items[2]));
+        assertEquals(1, copy.getMembers().getHighestId());
+
+        // the members of the unmarshalled list update the indexes as well
+        copy.getMember(0).setChildUUID(items[2].getUUID().toString());
+        assertTrue(copy.contains(items[2]));
+        assertFalse(copy.contains(items[0]));
+
+        copy.addMember(member(2, items[3]));
+        assertTrue(copy.contains(items[3]));
+    }
+
+    @Test
+    public void resolveMembersFindsTheMembersOfTheItem() throws Exception {
+        Dependency dep = new Dependency("Test");
+        DependencyMember m0 = member(0, items[0]);
+        dep.addMember(m0);
+        dep.addMember(member(1, items[1]));
+
+        List<CollectionMember> members = dep.resolveMembers(-1, items[0]);
+        assertEquals(Collections.singletonList(m0), members);
+
+        assertEquals(Collections.singletonList(m0), dep.resolveMembers(0, items[0]));
+
+        try {
+            dep.resolveMembers(-1, items[2]);
+            fail("Item is not member of the Dependency");
+        }
+        catch (ObjectNotFoundException e) {}
+
+        try {
+            dep.resolveMembers(1, items[0]);
+            fail("Item is not in the given slot");
+        }
+        catch (ObjectNotFoundException e) {}
+    }
+}
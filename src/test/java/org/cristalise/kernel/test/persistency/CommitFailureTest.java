@@ -0,0 +1,153 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.cristalise.storage.XMLClusterStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitFailureTest {
+
+    String             root;
+    TransactionManager storage;
+    ItemPath           item = new ItemPath(UUID.randomUUID(), "ior");
+
+    /** when it is set, each commit of the storage waits until all of them are running */
+    volatile CountDownLatch committing = null;
+
+    @Before
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("xmlstorage").toString();
+
+        ArrayList<Object> stores = new ArrayList<>();
+        stores.add(new XMLClusterStorage(root) {
+            @Override
+            public void commit(Object locker) throws PersistencyException {
+                CountDownLatch latch = committing;
+
+                if (latch != null) {
+                    latch.countDown();
+                    try {
+                        if (!latch.await(5, TimeUnit.SECONDS)) throw new PersistencyException("Commits are not concurrent");
+                    }
+                    catch (InterruptedException e) {
+                        throw new PersistencyException(e.getMessage());
+                    }
+                }
+                super.commit(locker);
+            }
+        });
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+        Gateway.init(props);
+        Gateway.connect();
+
+        storage = Gateway.getStorage();
+        storage.put(item, new Property("Name", "committed", false), null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void failedCommitThrowsAndReleasesTheLocks() throws Exception {
+        // a non empty directory cannot be replaced by the file of the Property
+        assertTrue(new File(root, item.getUUID()+"/Property/Type.xml/blocker").mkdirs());
+
+        Object locker = new Object();
+        storage.put(item, new Property("Name", "rolledback", false), locker);
+        storage.put(item, new Property("Type", "rolledback", false), locker);
+
+        try {
+            storage.commit(locker);
+            fail("commit should have failed");
+        }
+        catch (PersistencyException e) {}
+
+        assertFalse(storage.hasPendingTransactions());
+        assertEquals("committed", ((Property)storage.get(item, "Property/Name", null)).getValue());
+
+        // the Item is not locked by the failed transaction anymore
+        Object other = new Object();
+        storage.put(item, new Property("Name", "again", false), other);
+        storage.commit(other);
+
+        assertEquals("again", ((Property)storage.get(item, "Property/Name", null)).getValue());
+    }
+
+    @Test
+    public void commitsOfDifferentItemsRunConcurrently() throws Exception {
+        ItemPath other = new ItemPath(UUID.randomUUID(), "ior");
+        Object locker1 = new Object();
+        Object locker2 = new Object();
+
+        storage.put(item,  new Property("Name", "first",  false), locker1);
+        storage.put(other, new Property("Name", "second", false), locker2);
+
+        committing = new CountDownLatch(2);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<?> commit1 = pool.submit(() -> { storage.commit(locker1); return null; });
+            Future<?> commit2 = pool.submit(() -> { storage.commit(locker2); return null; });
+
+            commit1.get(10, TimeUnit.SECONDS);
+            commit2.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        assertFalse(storage.hasPendingTransactions());
+        assertEquals("first",  ((Property)storage.get(item,  "Property/Name", null)).getValue());
+        assertEquals("second", ((Property)storage.get(other, "Property/Name", null)).getValue());
+    }
+}
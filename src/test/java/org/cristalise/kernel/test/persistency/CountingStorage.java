@@ -0,0 +1,70 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import java.util.List;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+
+/**
+ * MemoryOnlyClusterStorage counting the calls reaching the backend, used by the tests of the caches
+ */
+public class CountingStorage extends MemoryOnlyClusterStorage {
+    /** number of get() calls */
+    public int reads     = 0;
+    /** number of getAll() calls */
+    public int bulkReads = 0;
+    /** number of getClusterContents() calls */
+    public int listings  = 0;
+    /** number of getLastIntegerId() calls */
+    public int lastIdQueries = 0;
+
+    public void reset() {
+        reads = bulkReads = listings = lastIdQueries = 0;
+    }
+
+    @Override
+    public C2KLocalObject get(ItemPath thisItem, String path) throws PersistencyException {
+        reads++;
+        return super.get(thisItem, path);
+    }
+
+    @Override
+    public List<C2KLocalObject> getAll(ItemPath thisItem, List<String> paths) throws PersistencyException {
+        bulkReads++;
+        return super.getAll(thisItem, paths);
+    }
+
+    @Override
+    public String[] getClusterContents(ItemPath thisItem, String path) throws PersistencyException {
+        listings++;
+        return super.getClusterContents(thisItem, path);
+    }
+
+    @Override
+    public int getLastIntegerId(ItemPath thisItem, String path) throws PersistencyException {
+        lastIdQueries++;
+        return super.getLastIntegerId(thisItem, path);
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.cristalise.kernel.persistency.ClusterType.HISTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.cristalise.kernel.events.Event;
+import org.cristalise.kernel.events.History;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.IntKeyRemoteMap;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntKeyRemoteMapTest {
+
+    static final int EVENTS = 250;
+
+    CountingStorage    backend = new CountingStorage();
+    TransactionManager storage;
+    ItemPath           item    = new ItemPath(UUID.randomUUID(), "ior");
+
+    @Before
+    public void setup() throws Exception {
+        ArrayList<Object> stores = new ArrayList<>();
+        stores.add(backend);
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+        Gateway.init(props);
+        Gateway.connect();
+
+        storage = Gateway.getStorage();
+
+        for (int i = 0; i < EVENTS; i++) storage.put(item, createEvent(i), null);
+
+        storage.clearCache(item, null);
+        backend.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    private Event createEvent(int id) {
+        Event event = new Event();
+        event.setID(id);
+        event.setItemPath(item);
+        event.setStepName("Step" + id);
+        return event;
+    }
+
+    private IntKeyRemoteMap<Event> createMap() {
+        return new IntKeyRemoteMap<Event>(item, HISTORY.getName(), null, 10, 30);
+    }
+
+    @Test
+    public void keysAreInNumericOrder() {
+        List<String> keys = new ArrayList<>(new History(item, null).keySet());
+
+        assertEquals(EVENTS, keys.size());
+        for (int i = 0; i < EVENTS; i++) assertEquals(String.valueOf(i), keys.get(i));
+    }
+
+    @Test
+    public void valuesAreReadInPagesAndResidencyIsBounded() {
+        IntKeyRemoteMap<Event> map = createMap();
+        int i = 0;
+
+        for (Event event : map.values()) {
+            assertEquals("Step" + i++, event.getStepName());
+            assertTrue(map.getResidentCount() <= 30);
+        }
+
+        assertEquals(EVENTS, i);
+        assertEquals(1,  backend.listings);
+        assertEquals(EVENTS / 10, backend.bulkReads);
+
+        // the first events were dropped from the map, they are read again
+        storage.clearCache(item, null);
+        backend.reset();
+
+        assertEquals("Step0", map.get("0").getStepName());
+        assertEquals("Step5", map.get(5).getStepName());
+        assertEquals(1, backend.bulkReads);
+    }
+
+    @Test
+    public void rangeQueries() {
+        IntKeyRemoteMap<Event> map = createMap();
+
+        List<Event> range = map.getRange(5, 35);
+        assertEquals(30, range.size());
+        assertEquals("Step5",  range.get(0).getStepName());
+        assertEquals("Step34", range.get(29).getStepName());
+        assertEquals(3, backend.bulkReads);
+
+        List<Event> tail = map.tail(3);
+        assertEquals(3, tail.size());
+        assertEquals("Step" + (EVENTS - 3), tail.get(0).getStepName());
+        assertEquals("Step" + (EVENTS - 1), tail.get(2).getStepName());
+
+        assertEquals(EVENTS, map.tail(EVENTS + 10).size());
+        assertTrue(map.getRange(EVENTS, EVENTS + 10).isEmpty());
+        assertTrue(map.getRange(10, 10).isEmpty());
+        assertTrue(map.tail(0).isEmpty());
+    }
+
+    @Test
+    public void putAndRemoveMaintainTheKeys() {
+        IntKeyRemoteMap<Event> map = createMap();
+        assertEquals(EVENTS, map.size());
+
+        map.put(String.valueOf(EVENTS), createEvent(EVENTS));
+
+        assertEquals("Step" + EVENTS, map.tail(1).get(0).getStepName());
+        assertEquals(EVENTS, map.getLastId());
+
+        map.remove("7");
+
+        assertFalse(map.containsKey("7"));
+        assertNull(map.get("7"));
+        assertEquals(9, map.getRange(0, 10).size());
+        assertEquals(EVENTS, map.size());
+    }
+
+    @Test
+    public void historyAddsEventsAfterTheLastId() {
+        History history = new History(item, null);
+
+        history.put(String.valueOf(EVENTS), createEvent(EVENTS));
+
+        assertEquals(EVENTS + 1, history.size());
+        assertEquals("Step" + EVENTS, history.getEvent(EVENTS).getStepName());
+        assertEquals(2, history.getRange(EVENTS - 1, EVENTS + 1).size());
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.cristalise.kernel.events.Event;
+import org.cristalise.kernel.events.History;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.persistency.ClusterStorageManager;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.cristalise.storage.XMLClusterStorage;
+import org.junit.After;
+import org.junit.Test;
+
+public class LastIntegerIdTest {
+
+    CountingStorage backend = new CountingStorage();
+    ItemPath        item    = new ItemPath(UUID.randomUUID(), "ior");
+    String          root    = null;
+
+    private void init(boolean connect) throws Exception {
+        init(connect, null);
+    }
+
+    private void init(boolean connect, String lastIdCacheSize) throws Exception {
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+
+        if (lastIdCacheSize != null) props.put(ClusterStorageManager.LAST_ID_CACHE_SIZE_PROPERTY, lastIdCacheSize);
+
+        if (connect) {
+            ArrayList<Object> stores = new ArrayList<>();
+            stores.add(backend);
+            props.put("ClusterStorage", stores);
+            props.put("Lookup", new MemoryOnlyLookup());
+        }
+        Gateway.init(props);
+        if (connect) Gateway.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+        if (root != null) FileStringUtility.deleteDir(root, true, true);
+    }
+
+    private Event event(int id) {
+        return event(item, id);
+    }
+
+    private Event event(ItemPath item, int id) {
+        Event event = new Event();
+        event.setID(id);
+        event.setItemPath(item);
+        event.setStepName("Step" + id);
+        return event;
+    }
+
+    private void checkLastIds(ClusterStorage store) throws Exception {
+        assertEquals(-1, store.getLastIntegerId(item, "AuditTrail"));
+
+        for (int i = 0; i < 5; i++) store.put(item, event(i));
+        store.put(item, new Property("Name", "LastId", false));
+
+        assertEquals(4,  store.getLastIntegerId(item, "AuditTrail"));
+        assertEquals(-1, store.getLastIntegerId(item, "Property"));
+
+        // changes after the first call
+        store.put(item, event(7));
+        assertEquals(7, store.getLastIntegerId(item, "AuditTrail"));
+
+        store.delete(item, "AuditTrail/7");
+        assertEquals(4, store.getLastIntegerId(item, "AuditTrail"));
+
+        store.delete(item, "AuditTrail/2");
+        assertEquals(4, store.getLastIntegerId(item, "AuditTrail"));
+
+        store.delete(item, "AuditTrail/4");
+        assertEquals(3, store.getLastIntegerId(item, "AuditTrail"));
+    }
+
+    @Test
+    public void memoryStorageDoesNotListTheCluster() throws Exception {
+        init(false);
+        checkLastIds(backend);
+        assertEquals(0, backend.listings);
+    }
+
+    @Test
+    public void xmlStorageWithDirectories() throws Exception {
+        init(false);
+        root = Files.createTempDirectory("xmlstorage").toString();
+
+        XMLClusterStorage store = new XMLClusterStorage(root);
+        store.open(null);
+        checkLastIds(store);
+        store.close();
+    }
+
+    @Test
+    public void xmlStorageWithFileNames() throws Exception {
+        init(false);
+        root = Files.createTempDirectory("xmlstorage").toString();
+
+        XMLClusterStorage store = new XMLClusterStorage(root, "", false);
+        store.open(null);
+        checkLastIds(store);
+        store.close();
+    }
+
+    @Test
+    public void uncommittedEventsOfTheLockerAreIncluded() throws Exception {
+        init(true);
+        TransactionManager storage = Gateway.getStorage();
+
+        for (int i = 0; i < 3; i++) storage.put(item, event(i), null);
+
+        Object locker = new Object();
+        storage.put(item, event(3), locker);
+
+        assertEquals(3, storage.getLastIntegerId(item, "AuditTrail", locker));
+        assertEquals(2, storage.getLastIntegerId(item, "AuditTrail", null));
+        assertEquals(3, new History(item, locker).getLastId());
+        assertEquals(2, new History(item, null).getLastId());
+
+        storage.abort(locker);
+        assertEquals(2, new History(item, locker).getLastId());
+
+        Object other = new Object();
+        storage.put(item, event(3), other);
+        storage.put(item, event(4), other);
+        storage.commit(other);
+
+        assertEquals(4, new History(item, null).getLastId());
+        assertEquals(0, backend.listings);
+    }
+
+    @Test
+    public void managerCachesTheLastIdsOfTheRecentlyUsedItems() throws Exception {
+        init(true, "2");
+        TransactionManager storage = Gateway.getStorage();
+
+        ItemPath[] items = { new ItemPath(UUID.randomUUID(), "ior"), new ItemPath(UUID.randomUUID(), "ior"), new ItemPath(UUID.randomUUID(), "ior") };
+
+        for (ItemPath thisItem : items) {
+            for (int i = 0; i < 3; i++) storage.put(thisItem, event(thisItem, i), null);
+        }
+        backend.reset();
+
+        for (ItemPath thisItem : items) assertEquals(2, storage.getLastIntegerId(thisItem, "AuditTrail", null));
+        assertEquals(3, backend.lastIdQueries);
+
+        // the last two Items are cached, the first one was evicted
+        assertEquals(2, storage.getLastIntegerId(items[2], "AuditTrail", null));
+        assertEquals(3, backend.lastIdQueries);
+        assertEquals(2, storage.getLastIntegerId(items[0], "AuditTrail", null));
+        assertEquals(4, backend.lastIdQueries);
+
+        // puts are counted without asking the storage
+        storage.put(items[0], event(items[0], 3), null);
+        assertEquals(3, storage.getLastIntegerId(items[0], "AuditTrail", null));
+
+        // the id of the deleted last object is reused, the same as after the eviction or a restart
+        storage.remove(items[0], "AuditTrail/3", null);
+        assertEquals(2, storage.getLastIntegerId(items[0], "AuditTrail", null));
+        assertEquals(5, backend.lastIdQueries);
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.cristalise.kernel.common.ObjectCannotBeUpdated;
+import org.cristalise.kernel.lookup.AgentPath;
+import org.cristalise.kernel.lookup.DomainPath;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.lookup.Lookup.PagedResult;
+import org.cristalise.kernel.lookup.Path;
+import org.cristalise.kernel.lookup.RolePath;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryOnlyLookupTest {
+
+    MemoryOnlyLookup lookup = new MemoryOnlyLookup();
+
+    @Before
+    public void setup() throws Exception {
+        ArrayList<Object> stores = new ArrayList<>();
+        stores.add(new MemoryOnlyClusterStorage());
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", lookup);
+        Gateway.init(props);
+        Gateway.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    private ItemPath createItem(String domainPath, String type) throws Exception {
+        ItemPath item = new ItemPath(UUID.randomUUID(), "ior");
+        lookup.add(item);
+        lookup.add(new DomainPath(domainPath, item));
+
+        String name = domainPath.substring(domainPath.lastIndexOf('/') + 1);
+        Gateway.getStorage().put(item, new Property("Name", name, false), null);
+        Gateway.getStorage().put(item, new Property("Type", type, false), null);
+        Gateway.getStorage().commit(null);
+        return item;
+    }
+
+    private static List<String> toStrings(Iterator<Path> paths) {
+        List<String> result = new ArrayList<>();
+        while (paths.hasNext()) result.add(paths.next().getStringPath());
+        return result;
+    }
+
+    @Test
+    public void resolveAndBrowseDomainPaths() throws Exception {
+        ItemPath patient = createItem("/hospital/patients/John", "Patient");
+        createItem("/hospital/patients/Jane", "Patient");
+        createItem("/hospital/doctors/John",  "Doctor");
+
+        assertEquals(patient, Gateway.getLookup().resolvePath(new DomainPath("/hospital/patients/John")));
+        assertEquals("ior",   Gateway.getLookup().getIOR(new DomainPath("/hospital/patients/John")));
+        assertTrue(Gateway.getLookup().exists(new DomainPath("/hospital/patients")));
+        assertTrue(((DomainPath) Gateway.getLookup().getChildren(new DomainPath("/hospital")).next()).isContext());
+
+        assertEquals(Arrays.asList("/domain/hospital/patients/Jane", "/domain/hospital/patients/John"),
+                toStrings(Gateway.getLookup().getChildren(new DomainPath("/hospital/patients"))));
+
+        PagedResult page = Gateway.getLookup().getChildren(new DomainPath("/hospital/patients"), 1, 10);
+        assertEquals(2, page.maxRows);
+        assertEquals(1, page.rows.size());
+        assertEquals("/domain/hospital/patients/John", page.rows.get(0).getStringPath());
+
+        assertEquals(Arrays.asList("/domain/hospital/patients/John"),
+                toStrings(Gateway.getLookup().search(new DomainPath("/hospital/patients"), "John")));
+        assertEquals(2, toStrings(Gateway.getLookup().search(new DomainPath(""), "John")).size());
+
+        assertEquals(Arrays.asList("/domain/hospital/patients/John"), toStrings(Gateway.getLookup().searchAliases(patient)));
+
+        try {
+            lookup.delete(new DomainPath("/hospital/patients"));
+            fail("Path with children was deleted");
+        }
+        catch (ObjectCannotBeUpdated e) {}
+
+        lookup.delete(new DomainPath("/hospital/patients/John"));
+        assertFalse(Gateway.getLookup().searchAliases(patient).hasNext());
+    }
+
+    @Test
+    public void searchByProperties() throws Exception {
+        createItem("/hospital/patients/John", "Patient");
+        createItem("/hospital/patients/Jane", "Patient");
+        createItem("/hospital/doctors/John",  "Doctor");
+
+        assertEquals(Arrays.asList("/domain/hospital/patients/Jane", "/domain/hospital/patients/John"),
+                toStrings(Gateway.getLookup().search(new DomainPath(""), new Property("Type", "Patient"))));
+
+        assertEquals(Arrays.asList("/domain/hospital/doctors/John"),
+                toStrings(Gateway.getLookup().search(new DomainPath("/hospital"), new Property("Name", "John"), new Property("Type", "Doctor"))));
+
+        assertFalse(Gateway.getLookup().search(new DomainPath("/hospital/doctors"), new Property("Type", "Patient")).hasNext());
+
+        PagedResult page = Gateway.getLookup().search(new DomainPath(""), Arrays.asList(new Property("Type", "Patient")), 0, 1);
+        assertEquals(2, page.maxRows);
+        assertEquals("/domain/hospital/patients/Jane", page.rows.get(0).getStringPath());
+
+        page = Gateway.getLookup().search(new DomainPath(""), Arrays.asList(new Property("Type", "Patient")), 1, 5);
+        assertEquals(2, page.maxRows);
+        assertEquals(1, page.rows.size());
+        assertEquals("/domain/hospital/patients/John", page.rows.get(0).getStringPath());
+
+        page = Gateway.getLookup().search(new DomainPath(""), Arrays.asList(new Property("Type", "Patient")), 2, 5);
+        assertEquals(2, page.maxRows);
+        assertTrue(page.rows.isEmpty());
+    }
+
+    @Test
+    public void searchByPropertiesNotInTheIndexQuery() throws Exception {
+        ItemPath john = createItem("/hospital/patients/John", "Patient");
+        ItemPath jane = createItem("/hospital/patients/Jane", "Patient");
+        lookup.add(new DomainPath("/hospital/wards/A/John", john));
+
+        // a name with space cannot be expressed in the filter, so the Properties are read one by one
+        Gateway.getStorage().put(john, new Property("Ward Name", "A", false), null);
+        Gateway.getStorage().put(jane, new Property("Ward Name", "B", false), null);
+        Gateway.getStorage().commit(null);
+
+        assertEquals(Arrays.asList("/domain/hospital/patients/John", "/domain/hospital/wards/A/John"),
+                toStrings(Gateway.getLookup().search(new DomainPath(""), new Property("Ward Name", "A"))));
+
+        assertEquals(Arrays.asList("/domain/hospital/wards/A/John"),
+                toStrings(Gateway.getLookup().search(new DomainPath("/hospital/wards"), new Property("Ward Name", "A"), new Property("Type", "Patient"))));
+
+        PagedResult page = Gateway.getLookup().search(new DomainPath(""), Arrays.asList(new Property("Ward Name", "A")), 1, 1);
+        assertEquals(2, page.maxRows);
+        assertEquals("/domain/hospital/wards/A/John", page.rows.get(0).getStringPath());
+    }
+
+    @Test
+    public void passwordsAreHashedWithSalt() throws Exception {
+        AgentPath first  = new AgentPath(UUID.randomUUID(), "ior", "first");
+        AgentPath second = new AgentPath(UUID.randomUUID(), "ior", "second");
+        lookup.add(first);
+        lookup.add(second);
+
+        lookup.setAgentPassword(first,  "secret");
+        lookup.setAgentPassword(second, "secret", true);
+
+        assertTrue(lookup.checkAgentPassword(first,  "secret"));
+        assertTrue(lookup.checkAgentPassword(second, "secret"));
+        assertFalse(lookup.checkAgentPassword(first, "Secret"));
+        assertFalse(lookup.checkAgentPassword(new AgentPath(UUID.randomUUID(), "ior", "unknown"), "secret"));
+        assertTrue(((AgentPath) Gateway.getLookup().getAgentPath("second")).isPasswordTemporary());
+
+        lookup.setAgentPassword(first, "changed");
+        assertFalse(lookup.checkAgentPassword(first, "secret"));
+        assertTrue(lookup.checkAgentPassword(first, "changed"));
+    }
+
+    @Test
+    public void agentsAndRoles() throws Exception {
+        RolePath doctor = lookup.createRole(new RolePath(new RolePath(), "Doctor", true));
+        RolePath surgeon = lookup.createRole(new RolePath(doctor, "Surgeon", false));
+
+        AgentPath[] agents = new AgentPath[3];
+        for (int i = 0; i < agents.length; i++) {
+            agents[i] = new AgentPath(UUID.randomUUID(), "ior", "agent" + i);
+            lookup.add(agents[i]);
+            lookup.addRole(agents[i], doctor);
+        }
+        lookup.addRole(agents[0], surgeon);
+
+        assertEquals(agents[1], Gateway.getLookup().getAgentPath("agent1"));
+        assertEquals("agent1", Gateway.getLookup().getAgentName(new AgentPath(agents[1].getUUID())));
+        assertEquals(surgeon, Gateway.getLookup().getRolePath("Surgeon"));
+        assertTrue(Gateway.getLookup().getRolePath("Doctor").hasJobList());
+        assertEquals(Arrays.asList(surgeon.getStringPath()), toStrings(Gateway.getLookup().getChildren(doctor)));
+
+        assertTrue(Gateway.getLookup().hasRole(agents[0], surgeon));
+        assertFalse(Gateway.getLookup().hasRole(agents[1], surgeon));
+        assertArrayEquals(new RolePath[] {doctor, surgeon}, Gateway.getLookup().getRoles(agents[0]));
+
+        PagedResult page = Gateway.getLookup().getAgents(doctor, 1, 1);
+        assertEquals(3, page.maxRows);
+        assertEquals("agent1", ((AgentPath) page.rows.get(0)).getAgentName());
+
+        lookup.removeRole(agents[0], surgeon);
+        assertEquals(0, Gateway.getLookup().getAgents(surgeon).length);
+
+        lookup.delete(surgeon);
+        assertFalse(Gateway.getLookup().exists(surgeon));
+    }
+}
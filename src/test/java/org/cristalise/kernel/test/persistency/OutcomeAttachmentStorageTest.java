@@ -0,0 +1,156 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.cristalise.kernel.persistency.ClusterType.ATTACHMENT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.Random;
+
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.persistency.outcome.OutcomeAttachment;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.XMLClusterStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutcomeAttachmentStorageTest {
+
+    static final String PATH = ATTACHMENT + "/Schema/0/1";
+
+    ItemPath itemPath = new ItemPath();
+    byte[]   data     = new byte[3 * OutcomeAttachment.CHUNK_SIZE + 123];
+    String   root;
+
+    @Before
+    public void setup() throws Exception {
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        Gateway.init(props);
+
+        new Random(42).nextBytes(data);
+        root = Files.createTempDirectory("attachments").toString();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    private OutcomeAttachment createAttachment() {
+        return new OutcomeAttachment(itemPath, "Schema", 0, 1, "application/octet-stream", data);
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            OutcomeAttachment.copy(stream, out);
+            return out.toByteArray();
+        }
+    }
+
+    private String getFilePath(boolean useDir, String ext) {
+        return root + "/" + useDir + "/" + itemPath.getUUID() + "/" + (useDir ? PATH : PATH.replace('/', '.')) + ext;
+    }
+
+    private void checkStorage(ClusterStorage storage) throws Exception {
+        OutcomeAttachment metadata = (OutcomeAttachment) storage.get(itemPath, PATH);
+
+        assertEquals("application/octet-stream", metadata.getType());
+        assertEquals(data.length, metadata.getSize());
+        assertArrayEquals(data, read(metadata.openStream()));
+        assertArrayEquals(data, read(storage.getAttachmentStream(itemPath, PATH)));
+        assertArrayEquals(data, metadata.getBinaryData());
+        assertArrayEquals(new String[] {"1"}, storage.getClusterContents(itemPath, ATTACHMENT + "/Schema/0"));
+    }
+
+    @Test
+    public void memoryStorageKeepsChunks() throws Exception {
+        MemoryOnlyClusterStorage storage = new MemoryOnlyClusterStorage();
+        storage.open(null);
+        storage.put(itemPath, createAttachment());
+
+        checkStorage(storage);
+
+        storage.delete(itemPath, PATH);
+        assertNull(storage.getAttachmentStream(itemPath, PATH));
+    }
+
+    @Test
+    public void xmlStorageWritesPayloadFile() throws Exception {
+        for (boolean useDir : new boolean[] {true, false}) {
+            XMLClusterStorage storage = new XMLClusterStorage(root + "/" + useDir, null, useDir);
+            storage.open(null);
+
+            Object locker = new Object();
+            storage.put(itemPath, createAttachment(), locker);
+            File payload = new File(getFilePath(useDir, XMLClusterStorage.PAYLOAD_EXTENSION));
+            assertFalse(payload.exists());
+
+            storage.commit(locker);
+            checkStorage(storage);
+            assertEquals(data.length, payload.length());
+
+            String metadata = new String(Files.readAllBytes(Paths.get(getFilePath(useDir, ".xml"))));
+            assertFalse(metadata.contains("BinaryData"));
+
+            storage.delete(itemPath, PATH);
+            assertFalse(payload.exists());
+
+            // aborted transactions leave no spool files behind
+            storage.put(itemPath, createAttachment(), locker);
+            storage.abort(locker);
+            assertEquals(0, new File(root + "/" + useDir + "/" + XMLClusterStorage.JOURNAL_DIR).list().length);
+
+            storage.close();
+        }
+    }
+
+    @Test
+    public void xmlStorageReadsInlineData() throws Exception {
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        File file = new File(root + "/" + itemPath.getUUID() + "/" + PATH + ".xml");
+        file.getParentFile().mkdirs();
+        FileStringUtility.string2File(file, Gateway.getMarshaller().marshall(createAttachment()));
+
+        checkStorage(storage);
+        assertTrue(storage.getAttachmentStream(itemPath, PATH) != null);
+
+        storage.close();
+    }
+}
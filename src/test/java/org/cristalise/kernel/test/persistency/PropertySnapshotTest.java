@@ -0,0 +1,109 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.persistency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.cristalise.kernel.entity.proxy.ItemProxy;
+import org.cristalise.kernel.entity.proxy.ProxyMessage;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PropertySnapshotTest {
+
+    TransactionManager storage;
+    ItemPath           item;
+    ItemProxy          proxy;
+
+    @Before
+    public void setup() throws Exception {
+        ArrayList<Object> stores = new ArrayList<>();
+        stores.add(new MemoryOnlyClusterStorage());
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+        props.put(ItemProxy.PROPERTY_SNAPSHOT, true);
+        Gateway.init(props);
+        Gateway.connect();
+
+        storage = Gateway.getStorage();
+        item    = new ItemPath(UUID.randomUUID(), "ior");
+        proxy   = new ItemProxy(null, item) {};
+
+        storage.put(item, new Property("Name", "Snapshot", false), null);
+        storage.put(item, new Property("Type", "Test",     false), null);
+        storage.put(item, new Property("State", "Open",    true),  null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    @Test
+    public void propertiesAreReadFromTheSnapshot() throws Exception {
+        assertEquals(3, proxy.loadProperties().list.size());
+
+        // changed without notification, the snapshot is not reloaded
+        storage.put(item, new Property("State", "Closed", true), null);
+
+        assertEquals("Snapshot", proxy.getName());
+        assertEquals("Test",     proxy.getType());
+        assertEquals("Open",     proxy.getProperty("State"));
+        assertEquals("none",     proxy.getProperty("Missing", "none"));
+        assertTrue(proxy.propertyExists("State"));
+        assertFalse(proxy.propertyExists("Missing"));
+
+        proxy.notify(new ProxyMessage(item, "Property/State", ProxyMessage.ADDED));
+
+        assertEquals("Closed", proxy.getProperty("State"));
+    }
+
+    @Test
+    public void transactionDoesNotUseTheSnapshot() throws Exception {
+        proxy.loadProperties();
+
+        Object locker = new Object();
+        storage.put(item, new Property("Owner", "Someone", true), locker);
+
+        assertFalse(proxy.propertyExists("Owner"));
+        assertTrue(proxy.propertyExists("Owner", locker));
+        assertEquals("Someone", proxy.getProperty("Owner", locker));
+
+        storage.abort(locker);
+    }
+}
@@ -28,19 +28,38 @@ import static org.cristalise.kernel.persistency.ClusterType.PROPERTY;
 import static org.cristalise.kernel.persistency.ClusterType.VIEWPOINT;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.cristalise.kernel.common.PersistencyException;
 import org.cristalise.kernel.lookup.ItemPath;
 import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.outcome.Viewpoint;
 import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.querying.Query;
 import org.cristalise.kernel.test.process.MainTest;
 import org.cristalise.kernel.utils.FileStringUtility;
 import org.cristalise.kernel.utils.Logger;
+import org.cristalise.storage.IndexedQueryEngine;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.XMLClusterJournal.Entry;
 import org.cristalise.storage.XMLClusterStorage;
 import org.hamcrest.collection.IsIterableContainingInAnyOrder;
 import org.junit.AfterClass;
@@ -122,4 +141,289 @@ public class XMLClusterStorageTest {
     public void checkDirectoryBasedStorage() throws Exception {
         checkXMLClusterStorage(new XMLClusterStorage("src/test/data/xmlstorage/directorybased"));
     }
+
+    @Test
+    public void commitAndAbortTransaction() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        Object locker = new Object();
+        storage.begin(locker);
+        storage.put(itemPath, new Property("Name", "committed"), locker);
+        storage.put(itemPath, new Property("Type", "committed"), locker);
+
+        assertEquals(0, storage.getClusterContents(itemPath, PROPERTY).length);
+
+        storage.commit(locker);
+
+        assertEquals(2, storage.getClusterContents(itemPath, PROPERTY).length);
+        assertEquals("committed", ((Property)storage.get(itemPath, PROPERTY+"/Name")).getValue());
+
+        storage.begin(locker);
+        storage.put(itemPath, new Property("Name", "aborted"), locker);
+        storage.delete(itemPath, PROPERTY+"/Type", locker);
+        storage.abort(locker);
+
+        assertEquals(2, storage.getClusterContents(itemPath, PROPERTY).length);
+        assertEquals("committed", ((Property)storage.get(itemPath, PROPERTY+"/Name")).getValue());
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void concurrentPutsOfTheSameTransaction() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        Object locker = new Object();
+        storage.begin(locker);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> puts = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            puts.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) storage.put(itemPath, new Property("Prop" + thread + "_" + i, "v"), locker);
+                return null;
+            }));
+        }
+        for (Future<?> put : puts) put.get();
+        executor.shutdown();
+
+        storage.commit(locker);
+
+        assertEquals(400, storage.getClusterContents(itemPath, PROPERTY).length);
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void replayJournalAfterCrash() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+
+        // simulates a crash between writing the journal and updating the files
+        XMLClusterStorage crashing = new XMLClusterStorage(root) {
+            @Override
+            protected void applyEntries(List<Entry> entries, String txId) throws PersistencyException {
+                throw new IllegalStateException("crash");
+            }
+        };
+        crashing.open(null);
+
+        Object locker = new Object();
+        crashing.begin(locker);
+        crashing.put(itemPath, new Property("Name", "replayed"), locker);
+        crashing.put(itemPath, new Property("Type", "replayed"), locker);
+
+        try {
+            crashing.commit(locker);
+            fail("commit should have failed");
+        }
+        catch (IllegalStateException e) {}
+
+        assertFalse(new File(root, itemPath.getUUID()+"/"+PROPERTY+"/Name.xml").exists());
+        assertEquals(1, new File(root, XMLClusterStorage.JOURNAL_DIR).list().length);
+
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        assertEquals(0, new File(root, XMLClusterStorage.JOURNAL_DIR).list().length);
+        assertEquals("replayed", ((Property)storage.get(itemPath, PROPERTY+"/Name")).getValue());
+        assertEquals("replayed", ((Property)storage.get(itemPath, PROPERTY+"/Type")).getValue());
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void replayJournalsInNumericOrder() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+        Iterator<String> txIds = Arrays.asList("9", "10").iterator();
+
+        XMLClusterStorage crashing = new XMLClusterStorage(root) {
+            @Override
+            protected String nextTxId() {
+                return txIds.next();
+            }
+
+            @Override
+            protected void applyEntries(List<Entry> entries, String txId) throws PersistencyException {
+                throw new IllegalStateException("crash");
+            }
+        };
+        crashing.open(null);
+
+        for (String value : new String[] {"first", "second"}) {
+            Object locker = new Object();
+            crashing.begin(locker);
+            crashing.put(itemPath, new Property("Name", value), locker);
+
+            try {
+                crashing.commit(locker);
+                fail("commit should have failed");
+            }
+            catch (IllegalStateException e) {}
+        }
+
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        assertEquals("second", ((Property)storage.get(itemPath, PROPERTY+"/Name")).getValue());
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void failedCommitIsRolledBack() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        Object locker = new Object();
+        storage.begin(locker);
+        storage.put(itemPath, new Property("Name", "committed"), locker);
+        storage.commit(locker);
+        storage.checkpoint();
+
+        assertEquals(0, new File(root, XMLClusterStorage.JOURNAL_DIR).list().length);
+
+        // a non empty directory cannot be replaced by the file of the Property
+        assertTrue(new File(root, itemPath.getUUID()+"/"+PROPERTY+"/Type.xml/blocker").mkdirs());
+
+        storage.begin(locker);
+        storage.put(itemPath, new Property("Name", "rolledback"), locker);
+        storage.put(itemPath, new Property("Type", "rolledback"), locker);
+
+        try {
+            storage.commit(locker);
+            fail("commit should have failed");
+        }
+        catch (PersistencyException e) {}
+
+        assertEquals("committed", ((Property)storage.get(itemPath, PROPERTY+"/Name")).getValue());
+        assertEquals(0, new File(root, XMLClusterStorage.JOURNAL_DIR).list().length);
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void putWithoutLockerKeepsNewerValueOverJournal() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        Object locker = new Object();
+        storage.begin(locker);
+        storage.put(itemPath, new Property("Name", "committed"), locker);
+        storage.commit(locker);
+
+        // the journal of the commit is kept until the checkpoint
+        assertEquals(1, new File(root, XMLClusterStorage.JOURNAL_DIR).list().length);
+
+        storage.put(itemPath, new Property("Name", "direct"));
+
+        // the journal would overwrite the direct write if it was replayed
+        assertEquals(0, new File(root, XMLClusterStorage.JOURNAL_DIR).list().length);
+        assertEquals("direct", ((Property)storage.get(itemPath, PROPERTY+"/Name")).getValue());
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void executeIndexedQuery() throws Exception {
+        XMLClusterStorage storage = new XMLClusterStorage("src/test/data/xmlstorage/directorybased");
+
+        Query query = new Query();
+        query.setLanguage(IndexedQueryEngine.LANGUAGE);
+        query.setQuery("Property/Type = 'Batch' and Property/Name = '${name}'");
+        query.setStringParameter("name", "FG160707C-08");
+
+        assertTrue(storage.checkQuerySupport(IndexedQueryEngine.LANGUAGE));
+        assertEquals("<Items count='1'><Item uuid='" + itemPath.getUUID() + "' name='FG160707C-08'/></Items>", storage.executeQuery(query));
+
+        query.setStringParameter("name", "FG160707C-09");
+        assertEquals("<Items count='0'></Items>", storage.executeQuery(query));
+
+        query.setQuery("Property/Type != 'Batch'");
+        assertEquals("<Items count='0'></Items>", storage.executeQuery(query));
+    }
+
+    @Test
+    public void indexedQueryFollowsChanges() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        storage.put(itemPath, new Property("Type", "Batch"));
+
+        Query query = new Query();
+        query.setLanguage(IndexedQueryEngine.LANGUAGE);
+        query.setQuery("Property/Type = \"Batch\"");
+
+        assertEquals("<Items count='1'><Item uuid='" + itemPath.getUUID() + "'/></Items>", storage.executeQuery(query));
+
+        Object locker = new Object();
+        storage.begin(locker);
+        storage.put(itemPath, new Property("Type", "Sample"), locker);
+        storage.commit(locker);
+
+        assertEquals("<Items count='0'></Items>", storage.executeQuery(query));
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void negatedQueryMatchesItemsWithoutTheValue() throws Exception {
+        String root = Files.createTempDirectory("xmlstorage").toString();
+        XMLClusterStorage storage = new XMLClusterStorage(root);
+        storage.open(null);
+
+        ItemPath noProps = new ItemPath();
+        ItemPath newItem = new ItemPath();
+
+        storage.put(itemPath, new Property("Type", "Batch"));
+        storage.put(noProps, new Viewpoint(noProps, "Sample", "last", 0, 0));
+
+        Query query = new Query();
+        query.setLanguage(IndexedQueryEngine.LANGUAGE);
+        query.setQuery("Property/Type != 'Batch'");
+
+        assertEquals(Collections.singleton(noProps), storage.findItems(query));
+
+        query.setQuery("ViewPoint/Sample/last:/Sample/Gender != 'F'");
+        assertEquals(new HashSet<>(Arrays.asList(itemPath, noProps)), storage.findItems(query));
+
+        storage.put(newItem, new Viewpoint(newItem, "Sample", "last", 0, 0));
+        assertEquals(new HashSet<>(Arrays.asList(itemPath, noProps, newItem)), storage.findItems(query));
+
+        storage.close();
+        FileStringUtility.deleteDir(root, true, true);
+    }
+
+    @Test
+    public void negatedQueryDropsRemovedItems() throws Exception {
+        MemoryOnlyClusterStorage storage = new MemoryOnlyClusterStorage();
+        ItemPath noProps = new ItemPath();
+
+        storage.put(itemPath, new Property("Type", "Batch"));
+        storage.put(noProps, new Viewpoint(noProps, "Sample", "last", 0, 0));
+
+        Query query = new Query();
+        query.setLanguage(IndexedQueryEngine.LANGUAGE);
+        query.setQuery("Property/Type != 'Batch'");
+
+        assertEquals(Collections.singleton(noProps), storage.findItems(query));
+
+        storage.delete(noProps, VIEWPOINT + "/Sample/last");
+        assertEquals(Collections.emptySet(), storage.findItems(query));
+    }
 }
@@ -0,0 +1,274 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.process;
+
+import static org.cristalise.kernel.property.BuiltInItemProperties.RESOURCE_DIGEST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cristalise.kernel.common.ObjectNotFoundException;
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.ClusterStorage;
+import org.cristalise.kernel.persistency.ClusterType;
+import org.cristalise.kernel.persistency.outcome.Outcome;
+import org.cristalise.kernel.persistency.outcome.Viewpoint;
+import org.cristalise.kernel.process.Bootstrap;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.process.resource.BuiltInResources;
+import org.cristalise.kernel.process.resource.Resource;
+import org.cristalise.kernel.process.resource.ResourceImportHandler;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.kernel.utils.Logger;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the Bootstrap of the kernel boot items against a MemoryOnlyClusterStorage and MemoryOnlyLookup, and checks
+ * that the resource digests let the next runs skip the unchanged resources
+ */
+public class BootstrapTest {
+
+    static final String CHANGED_RESOURCE = "boot/SC/RemoveViewpoint.xml";
+
+    /** When set, the script of {@link #CHANGED_RESOURCE} is modified by the ResourceLoader */
+    static volatile boolean changeResource = false;
+
+    /** Counts the reads of the stored Outcomes, which are not needed to verify an unchanged resource */
+    static class OutcomeCountingStorage extends MemoryOnlyClusterStorage {
+        final AtomicInteger outcomeReads = new AtomicInteger();
+
+        @Override
+        public C2KLocalObject get(ItemPath thisItem, String path) throws PersistencyException {
+            if (path.startsWith(ClusterType.OUTCOME + "/")) outcomeReads.incrementAndGet();
+            return super.get(thisItem, path);
+        }
+    }
+
+    static OutcomeCountingStorage storage = new OutcomeCountingStorage();
+
+    static List<ItemPath> itemPaths = new ArrayList<>();
+    static List<String>   itemNames = new ArrayList<>();
+    static List<String>   itemTypes = new ArrayList<>();
+
+    /** Time of the first verification, which creates all boot items */
+    static long coldStartMillis;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+
+        ArrayList<ClusterStorage> stores = new ArrayList<>();
+        stores.add(storage);
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+
+        try (ServerSocket iiop = new ServerSocket(0); ServerSocket proxy = new ServerSocket(0)) {
+            props.put("ItemServer.iiop",       String.valueOf(iiop.getLocalPort()));
+            props.put("ItemServer.Proxy.port", String.valueOf(proxy.getLocalPort()));
+        }
+        props.put("ItemServer.name", "localhost");
+        props.put("Bootstrap.verifyThreads", "8");
+
+        Resource resource = new Resource() {
+            @Override
+            public String getTextResource(String ns, String resName) throws ObjectNotFoundException {
+                String data = super.getTextResource(ns, resName);
+
+                if (changeResource && CHANGED_RESOURCE.equals(resName)) data = data.replace("var outcome", "var changed = true;\nvar outcome");
+
+                return data;
+            }
+        };
+
+        Gateway.init(props, resource);
+        Gateway.connect();
+        Gateway.startServer();
+        Bootstrap.checkAdminAgents();
+
+        String bootItems = FileStringUtility.url2String(Gateway.getResource().getKernelResourceURL("boot/allbootitems.txt"));
+        StringTokenizer str = new StringTokenizer(bootItems, "\n\r");
+
+        while (str.hasMoreTokens()) {
+            String[] idFilename = str.nextToken().split(",");
+
+            itemPaths.add(new ItemPath(idFilename[0]));
+            itemTypes.add(idFilename[1].split("/")[0]);
+            itemNames.add(idFilename[1].split("/")[1]);
+        }
+
+        long start = System.nanoTime();
+        Bootstrap.verifyBootDataItems();
+        coldStartMillis = (System.nanoTime() - start) / 1000000;
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        Gateway.close();
+    }
+
+    private static Map<ItemPath, Integer> countEvents() throws Exception {
+        Map<ItemPath, Integer> events = new HashMap<>();
+
+        for (ItemPath item : itemPaths) events.put(item, Gateway.getStorage().getClusterContents(item, ClusterType.HISTORY).length);
+
+        return events;
+    }
+
+    @Test
+    public void unchangedResourcesAreSkippedAndChangedOnesReimported() throws Exception {
+        for (ItemPath item : itemPaths) {
+            Property digest = (Property) Gateway.getStorage().get(item, ClusterType.PROPERTY + "/" + RESOURCE_DIGEST, null);
+            assertNotNull(digest.getValue());
+        }
+
+        Map<ItemPath, Integer> before = countEvents();
+
+        Gateway.getStorage().clearCache(null, null);
+        storage.outcomeReads.set(0);
+
+        Bootstrap.verifyBootDataItems();
+
+        assertEquals("unchanged resources were imported again", before, countEvents());
+        assertEquals("stored Outcomes of unchanged resources were loaded", 0, storage.outcomeReads.get());
+
+        changeResource = true;
+        try {
+            Bootstrap.verifyBootDataItems();
+        }
+        finally {
+            changeResource = false;
+        }
+
+        Map<ItemPath, Integer> after = countEvents();
+        ItemPath changed = itemPaths.get(itemNames.indexOf("RemoveViewpoint"));
+
+        for (ItemPath item : itemPaths) {
+            int expected = before.get(item) + (item.equals(changed) ? 1 : 0);
+            assertEquals("events of " + itemNames.get(itemPaths.indexOf(item)), expected, (int) after.get(item));
+        }
+
+        Viewpoint view = (Viewpoint) Gateway.getStorage().get(changed, ClusterType.VIEWPOINT + "/Script/0", null);
+        assertTrue(view.getOutcome().getData().contains("var changed = true;"));
+    }
+
+    @Test
+    public void coldAndWarmStartTimes() throws Exception {
+        // the cold start has created every boot item
+        for (ItemPath item : itemPaths) assertTrue(itemNames.get(itemPaths.indexOf(item)), item.exists());
+
+        Gateway.getStorage().clearCache(null, null);
+
+        long start = System.nanoTime();
+        Bootstrap.verifyBootDataItems();
+        long warmStartMillis = (System.nanoTime() - start) / 1000000;
+
+        Logger.msg(0, "BootstrapTest - verification of " + itemPaths.size() + " boot items, cold start:" + coldStartMillis
+                + "ms warm start:" + warmStartMillis + "ms");
+    }
+
+    @Test
+    public void onlyTheLastDigestOfASchemaIsKept() throws Exception {
+        ItemPath item = itemPaths.get(itemNames.indexOf("RemoveViewpoint"));
+        Viewpoint view = (Viewpoint) Gateway.getStorage().get(item, ClusterType.VIEWPOINT + "/Script/0", null);
+        Property before = (Property) Gateway.getStorage().get(item, ClusterType.PROPERTY + "/" + RESOURCE_DIGEST, null);
+
+        try {
+            for (int version = 1; version <= 3; version++) {
+                Bootstrap.recordResourceDigest(Gateway.getStorage(), item, view.getOutcome(), version, view.getEventId(), null);
+            }
+
+            String digests = ((Property) Gateway.getStorage().get(item, ClusterType.PROPERTY + "/" + RESOURCE_DIGEST, null)).getValue();
+
+            assertEquals(digests, 1, digests.split(",").length);
+            assertTrue(digests, digests.startsWith("Script:3:"));
+        }
+        finally {
+            Gateway.getStorage().put(item, before, null);
+        }
+    }
+
+    @Test
+    public void parallelVerificationIsThreadSafe() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        try {
+            for (int round = 0; round < 5; round++) {
+                List<Future<Boolean>> results = new ArrayList<>();
+
+                // the same steps as Bootstrap, the handler, the Outcome and the digest are resolved in each thread
+                for (int i = 0; i < itemPaths.size(); i++) {
+                    final int j = i;
+                    results.add(pool.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            ResourceImportHandler handler = Gateway.getResourceImportHandler(BuiltInResources.getValue(itemTypes.get(j)));
+                            String location = "boot/" + itemTypes.get(j) + "/" + itemNames.get(j) + (itemTypes.get(j).equals("OD") ? ".xsd" : ".xml");
+
+                            for (Outcome outcome : handler.getResourceOutcomes(itemNames.get(j), null, location, 0)) {
+                                if (!Bootstrap.isResourceUnchanged(Gateway.getStorage(), itemPaths.get(j), outcome, 0, null)) return false;
+                            }
+                            return true;
+                        }
+                    }));
+                }
+
+                for (int i = 0; i < results.size(); i++) assertTrue(itemNames.get(i), results.get(i).get());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        // data stored without recording the digest is a change
+        ItemPath item = itemPaths.get(0);
+        Viewpoint view = (Viewpoint) Gateway.getStorage().get(item, ClusterType.VIEWPOINT + "/Schema/0", null);
+        Outcome outcome = view.getOutcome();
+
+        Gateway.getStorage().put(item, new Viewpoint(item, outcome.getSchema(), "0", view.getEventId() + 100), null);
+        try {
+            assertFalse(Bootstrap.isResourceUnchanged(Gateway.getStorage(), item, outcome, 0, null));
+        }
+        finally {
+            Gateway.getStorage().put(item, view, null);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.cristalise.kernel.common.PersistencyException;
+import org.cristalise.kernel.common.SystemKey;
+import org.cristalise.kernel.entity.ItemImplementation;
+import org.cristalise.kernel.entity.proxy.ProxyMessage;
+import org.cristalise.kernel.entity.proxy.ProxyServer;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.process.WorkTracker;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.Test;
+import org.omg.CORBA.TRANSIENT;
+
+public class GracefulShutdownTest {
+
+    @Test
+    public void closedTrackerRejectsNewWork() throws Exception {
+        WorkTracker tracker = new WorkTracker("test");
+
+        assertTrue(tracker.enter());
+        tracker.close();
+        assertFalse(tracker.enter());
+        assertEquals(1, tracker.getActiveCount());
+
+        // the running work is not finished, so the deadline is reached
+        assertFalse(tracker.awaitIdle(System.currentTimeMillis() + 50));
+
+        new Thread(() -> {
+            try { Thread.sleep(100); } catch (InterruptedException e) {}
+            tracker.exit();
+        }).start();
+
+        assertTrue(tracker.awaitIdle(System.currentTimeMillis() + 5000));
+        assertEquals(0, tracker.getActiveCount());
+
+        tracker.open();
+        assertTrue(tracker.enter());
+    }
+
+    @Test
+    public void closeWaitsForPendingTransactions() throws Exception {
+        ArrayList<Object> stores = new ArrayList<>();
+        MemoryOnlyClusterStorage store = new MemoryOnlyClusterStorage();
+        stores.add(store);
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+        props.put(Gateway.DRAIN_TIMEOUT_PROPERTY, 5000);
+        Gateway.init(props);
+        Gateway.connect();
+
+        assertTrue(Gateway.getRequestTracker().enter());
+        Gateway.getRequestTracker().exit();
+
+        TransactionManager storage = Gateway.getStorage();
+        ItemPath item = new ItemPath(UUID.randomUUID(), "ior");
+        Object locker = new Object();
+
+        storage.put(item, new Property("Name", "Shutdown", false), locker);
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(200);
+                storage.commit(locker);
+            }
+            catch (InterruptedException | PersistencyException e) {}
+        }).start();
+
+        Gateway.close();
+
+        // the commit has written the data before the pending transaction was removed
+        assertFalse(storage.hasPendingTransactions());
+        assertNotNull(store.get(item, "Property/Name"));
+        assertFalse(Gateway.getRequestTracker().enter());
+        assertFalse(Gateway.getBackgroundTaskTracker().enter());
+    }
+
+    @Test
+    public void closedRequestTrackerRejectsRequests() throws Exception {
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", new ArrayList<>(Arrays.asList(new MemoryOnlyClusterStorage())));
+        props.put("Lookup", new MemoryOnlyLookup());
+        Gateway.init(props);
+        Gateway.connect();
+
+        ItemImplementation impl = new ItemImplementation(new ItemPath(UUID.randomUUID(), "ior")) {};
+        Gateway.getRequestTracker().close();
+
+        try {
+            impl.delegatedAction(new SystemKey(0, 0), null, "workflow/domain/Step", 0, "", "", new byte[0]);
+            fail("request shall be rejected");
+        }
+        catch (TRANSIENT e) {
+            assertEquals(0, Gateway.getRequestTracker().getActiveCount());
+        }
+        finally {
+            Gateway.close();
+        }
+    }
+
+    @Test
+    public void proxyServerFlushesQueuedMessages() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ItemServer.Proxy.port", String.valueOf(port));
+        Gateway.init(props);
+
+        ProxyServer server = new ProxyServer("test");
+        ItemPath item = new ItemPath(UUID.randomUUID(), "ior");
+
+        try {
+            for (int i = 0; i < 1000; i++) server.sendProxyEvent(new ProxyMessage(item, "Property/Name", ProxyMessage.ADDED));
+
+            assertTrue(server.flush(System.currentTimeMillis() + 5000));
+            assertEquals(0, server.getQueueSize());
+        }
+        finally {
+            server.shutdownServer();
+        }
+
+        // messages are not delivered anymore, so flush returns without waiting for the deadline
+        server.sendProxyEvent(new ProxyMessage(item, "Property/Name", ProxyMessage.ADDED));
+
+        long start = System.currentTimeMillis();
+        assertFalse(server.flush(start + 5000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, server.getQueueSize());
+
+        Gateway.close();
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cristalise.kernel.common.ObjectNotFoundException;
+import org.cristalise.kernel.entity.C2KLocalObject;
+import org.cristalise.kernel.entity.proxy.ItemProxy;
+import org.cristalise.kernel.entity.proxy.MemberSubscription;
+import org.cristalise.kernel.entity.proxy.ProxyObserver;
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.junit.Test;
+
+public class MemberSubscriptionTest {
+
+    /**
+     * Proxy returning properties without a server, the first listing blocks until it is released
+     */
+    static class TestProxy extends ItemProxy {
+        final CountDownLatch listing  = new CountDownLatch(1);
+        final CountDownLatch release  = new CountDownLatch(1);
+        final AtomicInteger  listings = new AtomicInteger();
+
+        TestProxy() {
+            super(null, new ItemPath());
+        }
+
+        @Override
+        public String queryData(String path) throws ObjectNotFoundException {
+            try {
+                listing.countDown();
+                if (listings.incrementAndGet() == 1) release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Name,Type";
+        }
+
+        @Override
+        public C2KLocalObject getObject(String path) throws ObjectNotFoundException {
+            return new Property(path.substring(path.lastIndexOf('/') + 1), "value");
+        }
+    }
+
+    static class TestObserver implements ProxyObserver<Property> {
+        final List<String>   added = new CopyOnWriteArrayList<>();
+        final CountDownLatch ended;
+
+        TestObserver(int expectedEnds) {
+            ended = new CountDownLatch(expectedEnds);
+        }
+
+        @Override
+        public void add(Property contents) {
+            added.add(contents.getName());
+        }
+
+        @Override
+        public void remove(String id) {}
+
+        @Override
+        public void control(String control, String msg) {
+            if (MemberSubscription.END.equals(control)) ended.countDown();
+        }
+    }
+
+    @Test
+    public void slowObserverDoesNotBlockOthersAndReloadsAreCoalesced() throws Exception {
+        TestProxy slowProxy = new TestProxy();
+        TestObserver slowObserver = new TestObserver(2);
+        MemberSubscription<Property> slowSub = new MemberSubscription<>(slowObserver, "Property", true);
+        slowProxy.subscribe(slowSub);
+
+        // the first listing of slowProxy is blocked, other subscriptions are still served
+        TestProxy fastProxy = new TestProxy();
+        fastProxy.release.countDown();
+        TestObserver fastObserver = new TestObserver(1);
+        fastProxy.subscribe(new MemberSubscription<>(fastObserver, "Property", true));
+
+        assertTrue(fastObserver.ended.await(5, TimeUnit.SECONDS));
+        assertTrue(slowProxy.listing.await(5, TimeUnit.SECONDS));
+
+        // queued while the preload is running: all of these must result in a single reload
+        for (int i = 0; i < 100; i++) {
+            slowSub.queueUpdate("Property/Name", false);
+            slowSub.queueUpdate("Property", false);
+        }
+        slowProxy.release.countDown();
+
+        assertTrue(slowObserver.ended.await(5, TimeUnit.SECONDS));
+
+        // waits until every queued notification was delivered, so a superfluous reload would be counted
+        assertTrue(MemberSubscription.shutdown(System.currentTimeMillis() + 5000));
+
+        assertEquals(2, slowProxy.listings.get());
+        assertEquals(4, slowObserver.added.size());
+    }
+
+    @Test
+    public void subscriptionDiscardedByShutdownIsScheduledAgain() throws Exception {
+        int threads = Gateway.getProperties() == null ? 4 : Gateway.getProperties().getInt("MemberSubscription.threads", 4);
+
+        // blocks every thread of the executor, so the next subscription stays in the queue
+        List<TestProxy> blocked = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            TestProxy proxy = new TestProxy();
+            proxy.subscribe(new MemberSubscription<>(new TestObserver(1), "Property", true));
+            assertTrue(proxy.listing.await(5, TimeUnit.SECONDS));
+            blocked.add(proxy);
+        }
+
+        TestProxy queuedProxy = new TestProxy();
+        queuedProxy.release.countDown();
+        TestObserver queuedObserver = new TestObserver(1);
+        MemberSubscription<Property> queuedSub = new MemberSubscription<>(queuedObserver, "Property", true);
+        queuedProxy.subscribe(queuedSub);
+
+        // the deadline has passed, so the queued preload is discarded
+        assertFalse(MemberSubscription.shutdown(System.currentTimeMillis()));
+        assertEquals(0, queuedProxy.listings.get());
+
+        queuedSub.queueUpdate("Property", false);
+
+        assertTrue(queuedObserver.ended.await(5, TimeUnit.SECONDS));
+        assertEquals(1, queuedProxy.listings.get());
+
+        for (TestProxy proxy : blocked) proxy.release.countDown();
+        assertTrue(MemberSubscription.shutdown(System.currentTimeMillis() + 5000));
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of the CRISTAL-iSE kernel.
+ * Copyright (c) 2001-2015 The CRISTAL Consortium. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ *
+ * http://www.fsf.org/licensing/licenses/lgpl.html
+ */
+package org.cristalise.kernel.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+
+import org.cristalise.kernel.lookup.ItemPath;
+import org.cristalise.kernel.persistency.ClusterStorageManager;
+import org.cristalise.kernel.persistency.TransactionManager;
+import org.cristalise.kernel.process.Gateway;
+import org.cristalise.kernel.property.Property;
+import org.cristalise.kernel.test.process.MainTest;
+import org.cristalise.kernel.utils.FileStringUtility;
+import org.cristalise.kernel.utils.metrics.Counter;
+import org.cristalise.kernel.utils.metrics.Metrics;
+import org.cristalise.kernel.utils.metrics.Timer;
+import org.cristalise.storage.MemoryOnlyClusterStorage;
+import org.cristalise.storage.MemoryOnlyLookup;
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @After
+    public void tearDown() throws Exception {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void disabledMetricsAreNotRecorded() throws Exception {
+        Metrics.setEnabled(false);
+
+        Counter counter = Metrics.getCounter("Test", "Disabled");
+        Timer   timer   = Metrics.getTimer("Test", "Disabled");
+
+        counter.inc();
+        timer.stop(Metrics.start());
+
+        assertEquals(0, counter.getCount());
+        assertEquals(0, timer.getCount());
+        assertFalse(server.isRegistered(Metrics.getObjectName("Test")));
+    }
+
+    @Test
+    public void enabledMetricsAreExposedThroughJMX() throws Exception {
+        Metrics.setEnabled(true);
+
+        Metrics.getCounter("Test", "Calls").add(3);
+        Metrics.getTimer("Test", "Work").record(2000000);
+        Metrics.getTimer("Test", "Work").record(4000000);
+        Metrics.registerGauge("Test", "Answer", () -> 42);
+
+        assertTrue(server.isRegistered(Metrics.getObjectName("Test")));
+        assertEquals(3L,   server.getAttribute(Metrics.getObjectName("Test"), "Calls"));
+        assertEquals(2L,   server.getAttribute(Metrics.getObjectName("Test"), "Work.Count"));
+        assertEquals(3.0,  (double) server.getAttribute(Metrics.getObjectName("Test"), "Work.MeanMillis"), 0.001);
+        assertEquals(4.0,  (double) server.getAttribute(Metrics.getObjectName("Test"), "Work.MaxMillis"),  0.001);
+        assertEquals(42,   server.getAttribute(Metrics.getObjectName("Test"), "Answer"));
+
+        server.invoke(Metrics.getObjectName("Test"), "reset", null, null);
+        assertEquals(0L, server.getAttribute(Metrics.getObjectName("Test"), "Calls"));
+
+        Metrics.setEnabled(false);
+        assertFalse(server.isRegistered(Metrics.getObjectName("Test")));
+    }
+
+    @Test
+    public void storageMetrics() throws Exception {
+        ArrayList<Object> stores = new ArrayList<>();
+        stores.add(new MemoryOnlyClusterStorage());
+
+        Properties props = FileStringUtility.loadConfigFile(MainTest.class.getResource("/server.conf").getPath());
+        props.put("ClusterStorage", stores);
+        props.put("Lookup", new MemoryOnlyLookup());
+        props.put(Metrics.ENABLED_PROPERTY, "true");
+        Gateway.init(props);
+        Gateway.connect();
+
+        try {
+            TransactionManager storage = Gateway.getStorage();
+            ItemPath item = new ItemPath(UUID.randomUUID(), "ior");
+
+            Object locker = new Object();
+            storage.put(item, new Property("Name", "Metrics", false), locker);
+            storage.commit(locker);
+
+            storage.getDb().clearCache(item);
+            storage.get(item, "Property/Name", null);
+            storage.get(item, "Property/Name", null);
+
+            assertTrue(Metrics.isEnabled());
+            assertEquals(1L,  server.getAttribute(Metrics.getObjectName(ClusterStorageManager.METRICS), "CacheHits"));
+            assertEquals(1L,  server.getAttribute(Metrics.getObjectName(ClusterStorageManager.METRICS), "CacheMisses"));
+            assertEquals(0.5, server.getAttribute(Metrics.getObjectName(ClusterStorageManager.METRICS), "CacheHitRatio"));
+            assertEquals(1,   server.getAttribute(Metrics.getObjectName(ClusterStorageManager.METRICS), "CachedObjects"));
+            assertEquals(1L,  server.getAttribute(Metrics.getObjectName(TransactionManager.METRICS), "Commit.Count"));
+            assertEquals(1L,  server.getAttribute(Metrics.getObjectName(TransactionManager.METRICS), "CommittedEntries"));
+        }
+        finally {
+            Gateway.close();
+        }
+        assertFalse(Metrics.isEnabled());
+    }
+}